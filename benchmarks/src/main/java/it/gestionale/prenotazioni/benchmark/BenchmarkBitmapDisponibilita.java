@@ -0,0 +1,127 @@
+package it.gestionale.prenotazioni.benchmark;
+
+import it.gestionale.prenotazioni.domain.Cliente;
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import it.gestionale.prenotazioni.repository.PersistentPrenotazioneRepository;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Confronta la verifica di disponibilità e la ricerca della prima fascia libera con e senza
+ * bitmap a slot, su tavoli prenotati a multipli di 15 minuti.
+ *
+ * Uso: java -cp benchmarks/target/benchmarks.jar it.gestionale.prenotazioni.benchmark.BenchmarkBitmapDisponibilita [risorse] [giorni] [interrogazioni]
+ */
+public class BenchmarkBitmapDisponibilita {
+    private static final int MINUTI_SLOT = 15;
+    private static final LocalDateTime BASE = LocalDateTime.of(2030, 1, 7, 0, 0);
+
+    public static void main(String[] args) {
+        int numeroRisorse = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int giorni = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        int interrogazioni = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+
+        Cliente cliente = new Cliente(1L, "Benchmark", "Bitmap", "bitmap@test.it", "000");
+        List<Risorsa> risorse = new ArrayList<>();
+        for (int i = 0; i < numeroRisorse; i++) {
+            risorse.add(new Risorsa((long) i + 1, "Tavolo " + i, "Benchmark", TipoRisorsa.TAVOLO_RISTORANTE, 4));
+        }
+
+        PersistentPrenotazioneRepository intervalli = new PersistentPrenotazioneRepository();
+        PersistentPrenotazioneRepository bitmap = new PersistentPrenotazioneRepository();
+        bitmap.abilitaBitmap(TipoRisorsa.TAVOLO_RISTORANTE, MINUTI_SLOT);
+        int prenotazioni = popola(cliente, risorse, giorni, intervalli, bitmap);
+        System.out.printf("%d risorse, %d giorni, %d prenotazioni, slot da %d minuti%n",
+                numeroRisorse, giorni, prenotazioni, MINUTI_SLOT);
+
+        for (int giro = 0; giro < 2; giro++) {
+            boolean riscaldamento = giro == 0;
+            misuraDisponibilita("intervalli", intervalli, numeroRisorse, giorni, interrogazioni, riscaldamento);
+            misuraDisponibilita("bitmap    ", bitmap, numeroRisorse, giorni, interrogazioni, riscaldamento);
+            misuraPrimaLibera("intervalli", intervalli, numeroRisorse, giorni, interrogazioni / 10, riscaldamento);
+            misuraPrimaLibera("bitmap    ", bitmap, numeroRisorse, giorni, interrogazioni / 10, riscaldamento);
+        }
+    }
+
+    // Servizi da 30 minuti a 2 ore separati da pause fino a 4 ore, allineati allo slot
+    private static int popola(Cliente cliente, List<Risorsa> risorse, int giorni,
+                              PersistentPrenotazioneRepository... repository) {
+        Random random = new Random(42);
+        int totale = 0;
+        for (Risorsa risorsa : risorse) {
+            LocalDateTime cursore = BASE;
+            LocalDateTime fine = BASE.plusDays(giorni);
+            while (cursore.isBefore(fine)) {
+                cursore = cursore.plusMinutes(MINUTI_SLOT * (long) random.nextInt(17));
+                LocalDateTime termine = cursore.plusMinutes(MINUTI_SLOT * (2L + random.nextInt(7)));
+                for (PersistentPrenotazioneRepository repo : repository) {
+                    repo.save(new Prenotazione(null, cliente, risorsa, cursore, termine, StatoPrenotazione.CONFERMATA, null));
+                }
+                totale++;
+                cursore = termine;
+            }
+        }
+        return totale;
+    }
+
+    private static void misuraDisponibilita(String nome, PersistentPrenotazioneRepository repo, int numeroRisorse,
+                                            int giorni, int interrogazioni, boolean riscaldamento) {
+        // Le richieste sono generate prima di misurare, così il tempo è solo quello del repository
+        Random random = new Random(7);
+        long[] risorse = new long[interrogazioni];
+        LocalDateTime[] da = new LocalDateTime[interrogazioni];
+        LocalDateTime[] a = new LocalDateTime[interrogazioni];
+        for (int i = 0; i < interrogazioni; i++) {
+            risorse[i] = 1 + random.nextInt(numeroRisorse);
+            da[i] = BASE.plusMinutes(MINUTI_SLOT * (long) random.nextInt(giorni * 24 * 60 / MINUTI_SLOT));
+            a[i] = da[i].plusMinutes(MINUTI_SLOT * (1L + random.nextInt(8)));
+        }
+
+        int libere = 0;
+        long inizio = System.nanoTime();
+        for (int i = 0; i < interrogazioni; i++) {
+            if (!repo.existsSovrapposizioneAttiva(risorse[i], da[i], a[i], null)) {
+                libere++;
+            }
+        }
+        long durata = System.nanoTime() - inizio;
+        if (!riscaldamento) {
+            System.out.printf("disponibilità  %s: %6.0f ns/op (%d libere su %d)%n",
+                    nome, (double) durata / interrogazioni, libere, interrogazioni);
+        }
+    }
+
+    private static void misuraPrimaLibera(String nome, PersistentPrenotazioneRepository repo, int numeroRisorse,
+                                          int giorni, int interrogazioni, boolean riscaldamento) {
+        Random random = new Random(11);
+        long[] risorse = new long[interrogazioni];
+        LocalDateTime[] da = new LocalDateTime[interrogazioni];
+        LocalDateTime[] a = new LocalDateTime[interrogazioni];
+        Duration[] durate = new Duration[interrogazioni];
+        for (int i = 0; i < interrogazioni; i++) {
+            risorse[i] = 1 + random.nextInt(numeroRisorse);
+            da[i] = BASE.plusMinutes(MINUTI_SLOT * (long) random.nextInt(giorni * 24 * 60 / MINUTI_SLOT));
+            a[i] = da[i].plusDays(2);
+            durate[i] = Duration.ofMinutes(MINUTI_SLOT * (2L + random.nextInt(8)));
+        }
+
+        int trovate = 0;
+        long inizio = System.nanoTime();
+        for (int i = 0; i < interrogazioni; i++) {
+            if (repo.findPrimoInizioLibero(risorse[i], da[i], a[i], durate[i]).isPresent()) {
+                trovate++;
+            }
+        }
+        long durata = System.nanoTime() - inizio;
+        if (!riscaldamento) {
+            System.out.printf("prima libera   %s: %6.0f ns/op (%d trovate su %d)%n",
+                    nome, (double) durata / interrogazioni, trovate, interrogazioni);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package it.gestionale.prenotazioni.benchmark;
+
+import it.gestionale.prenotazioni.domain.Cliente;
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import it.gestionale.prenotazioni.repository.ClienteRepository;
+import it.gestionale.prenotazioni.repository.ColumnarPrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.PersistentPrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.RisorsaRepository;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Dati di prova deterministici: a parità di parametri e seme si ottengono sempre le stesse prenotazioni,
+ * con gli stessi ID, così i risultati di esecuzioni diverse sono confrontabili.
+ * Le prenotazioni sono distribuite in modo uniforme sulle risorse; su ogni risorsa si susseguono senza
+ * sovrapporsi, a multipli di 30 minuti, quindi la densità per risorsa non dipende dalla dimensione.
+ */
+public class DatasetPrenotazioni {
+    public static final LocalDateTime BASE = LocalDateTime.of(2040, 1, 2, 0, 0);
+    public static final int MINUTI_SLOT = 30;
+
+    private final int numeroPrenotazioni;
+    private final int numeroRisorse;
+    private final int numeroClienti;
+    private final long seme;
+    private LocalDateTime fine = BASE;
+
+    public DatasetPrenotazioni(int numeroPrenotazioni, int numeroRisorse, long seme) {
+        this.numeroPrenotazioni = numeroPrenotazioni;
+        this.numeroRisorse = numeroRisorse;
+        // Circa 20 prenotazioni per cliente, come un archivio con clienti abituali
+        this.numeroClienti = Math.max(10, numeroPrenotazioni / 20);
+        this.seme = seme;
+    }
+
+    public int getNumeroPrenotazioni() { return numeroPrenotazioni; }
+    public int getNumeroRisorse() { return numeroRisorse; }
+    public int getNumeroClienti() { return numeroClienti; }
+
+    // Fine dell'ultima prenotazione generata: da qui in poi tutte le risorse sono libere
+    public LocalDateTime getFine() { return fine; }
+
+    // Repository vuoto del tipo richiesto: "indicizzato" (PersistentPrenotazioneRepository) o "colonnare"
+    public static PrenotazioneRepository nuovoRepository(String storage, ClienteRepository clienti, RisorsaRepository risorse) {
+        switch (storage) {
+            case "indicizzato": return new PersistentPrenotazioneRepository();
+            case "colonnare": return new ColumnarPrenotazioneRepository(clienti, risorse);
+            default: throw new IllegalArgumentException("Storage sconosciuto: " + storage + " (indicizzato|colonnare)");
+        }
+    }
+
+    public void popola(ClienteRepository clienti, RisorsaRepository risorse, PrenotazioneRepository prenotazioni) {
+        Random random = new Random(seme);
+        List<Cliente> elencoClienti = new ArrayList<>(numeroClienti);
+        for (int i = 1; i <= numeroClienti; i++) {
+            elencoClienti.add(clienti.save(new Cliente((long) i, "Nome" + i, "Cognome" + i, "cliente" + i + "@test.it", "000-" + i)));
+        }
+        TipoRisorsa[] tipi = TipoRisorsa.values();
+        List<Risorsa> elencoRisorse = new ArrayList<>(numeroRisorse);
+        for (int i = 1; i <= numeroRisorse; i++) {
+            elencoRisorse.add(risorse.save(new Risorsa((long) i, "Risorsa " + i, "Dataset",
+                    tipi[(i - 1) % tipi.length], 2 + random.nextInt(30))));
+        }
+
+        // Un cursore per risorsa: ogni prenotazione inizia dopo la fine della precedente
+        LocalDateTime[] cursori = new LocalDateTime[numeroRisorse];
+        Arrays.fill(cursori, BASE);
+        for (long id = 1; id <= numeroPrenotazioni; id++) {
+            int r = (int) ((id - 1) % numeroRisorse);
+            LocalDateTime inizio = cursori[r].plusMinutes((long) MINUTI_SLOT * random.nextInt(9));
+            LocalDateTime termine = inizio.plusMinutes((long) MINUTI_SLOT * (1 + random.nextInt(4)));
+            cursori[r] = termine;
+            if (termine.isAfter(fine)) {
+                fine = termine;
+            }
+
+            Prenotazione p = new Prenotazione(id, elencoClienti.get(random.nextInt(numeroClienti)), elencoRisorse.get(r),
+                    inizio, termine, stato(random.nextInt(100)), random.nextInt(5) == 0 ? "Nota " + random.nextInt(100) : null);
+            prenotazioni.save(p);
+        }
+    }
+
+    // 70% confermate, 15% provvisorie, 10% completate, 5% cancellate
+    private static StatoPrenotazione stato(int percentuale) {
+        if (percentuale < 70) return StatoPrenotazione.CONFERMATA;
+        if (percentuale < 85) return StatoPrenotazione.PROVVISORIA;
+        if (percentuale < 95) return StatoPrenotazione.COMPLETATA;
+        return StatoPrenotazione.CANCELLATA;
+    }
+}
@@ -0,0 +1,191 @@
+package it.gestionale.prenotazioni.benchmark;
+
+import it.gestionale.prenotazioni.domain.Cliente;
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import it.gestionale.prenotazioni.repository.ClienteRepository;
+import it.gestionale.prenotazioni.repository.PersistentClienteRepository;
+import it.gestionale.prenotazioni.repository.PersistentPrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.PersistentRisorsaRepository;
+import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.RisorsaRepository;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Carico realistico: clienti, risorse di tutti i tipi e prenotazioni concentrate su poche risorse
+ * molto richieste (distribuzione di Zipf) e nelle ore di punta di ciascun tipo di risorsa.
+ * Lo stesso profilo serve sia a generare lo storico iniziale sia a scegliere le richieste della prova di carico.
+ *
+ * Uso: java -cp benchmarks/target/benchmarks.jar it.gestionale.prenotazioni.benchmark.GeneratoreCarico [clienti] [risorse] [prenotazioni] [cartella]
+ * scrive clienti, risorse e prenotazioni nella cartella negli stessi formati dell'applicazione (CSV e snapshot binari).
+ */
+public class GeneratoreCarico {
+    private static final double ESPONENTE_ZIPF = 1.0;
+    private static final int GIORNI_PASSATI = 30;
+    static final int GIORNI_FUTURI = 60;
+
+    // Peso di ogni ora del giorno per tipo di risorsa: 0 dove la risorsa non si prenota
+    private static final int[][] PESI_ORARI = new int[TipoRisorsa.values().length][];
+    static {
+        PESI_ORARI[TipoRisorsa.SALA_CONFERENZE.ordinal()] =
+                new int[] {0, 0, 0, 0, 0, 0, 0, 0, 2, 6, 8, 6, 2, 2, 6, 8, 6, 3, 1, 0, 0, 0, 0, 0};
+        PESI_ORARI[TipoRisorsa.TAVOLO_RISTORANTE.ordinal()] =
+                new int[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 8, 10, 3, 0, 0, 0, 2, 6, 10, 8, 2, 0};
+        PESI_ORARI[TipoRisorsa.POSTAZIONE_LAVORO.ordinal()] =
+                new int[] {0, 0, 0, 0, 0, 0, 0, 2, 8, 10, 6, 3, 1, 4, 3, 1, 0, 0, 0, 0, 0, 0, 0, 0};
+        PESI_ORARI[TipoRisorsa.CAMPO_SPORTIVO.ordinal()] =
+                new int[] {0, 0, 0, 0, 0, 0, 0, 1, 1, 2, 2, 2, 3, 3, 2, 2, 3, 6, 10, 10, 8, 5, 2, 0};
+        PESI_ORARI[TipoRisorsa.SERVIZIO.ordinal()] =
+                new int[] {0, 0, 0, 0, 0, 0, 0, 0, 4, 6, 6, 5, 3, 2, 4, 5, 6, 5, 3, 1, 0, 0, 0, 0};
+    }
+
+    private final int numeroClienti;
+    private final List<Risorsa> risorse = new ArrayList<>();
+    private double[] popolaritaCumulata;
+    private final LocalDateTime oggi = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS);
+
+    public GeneratoreCarico(int numeroClienti) {
+        this.numeroClienti = numeroClienti;
+    }
+
+    public List<Risorsa> getRisorse() {
+        return risorse;
+    }
+
+    public int getNumeroClienti() {
+        return numeroClienti;
+    }
+
+    /**
+     * Crea clienti e risorse (in ugual numero per ogni tipo) e uno storico di prenotazioni tra un mese fa
+     * e due mesi da oggi: quelle passate sono completate o cancellate, quelle future confermate o provvisorie.
+     * Una prenotazione estratta che si sovrapporrebbe a una già presente viene scartata.
+     * Restituisce il numero di prenotazioni create.
+     */
+    public int popola(ClienteRepository clienteRepo, RisorsaRepository risorsaRepo, PrenotazioneRepository prenotazioneRepo,
+                      int numeroRisorse, int numeroPrenotazioni, Random random) {
+        List<Cliente> clienti = new ArrayList<>(numeroClienti);
+        for (int i = 1; i <= numeroClienti; i++) {
+            clienti.add(clienteRepo.save(new Cliente("Nome" + i, "Cognome" + i, "cliente" + i + "@carico.it",
+                    String.format("3%02d-%07d", i % 100, i))));
+        }
+        TipoRisorsa[] tipi = TipoRisorsa.values();
+        for (int i = 0; i < numeroRisorse; i++) {
+            TipoRisorsa tipo = tipi[i % tipi.length];
+            risorse.add(risorsaRepo.save(new Risorsa(tipo.getDescrizione() + " " + (i / tipi.length + 1),
+                    "Generata", tipo, capacita(tipo, random))));
+        }
+        // La popolarità non segue l'ordine di creazione, altrimenti le risorse più richieste sarebbero tutte dei primi tipi
+        List<Risorsa> ordine = new ArrayList<>(risorse);
+        Collections.shuffle(ordine, random);
+        risorse.clear();
+        risorse.addAll(ordine);
+        popolaritaCumulata = new double[risorse.size()];
+        double somma = 0;
+        for (int i = 0; i < risorse.size(); i++) {
+            somma += 1.0 / Math.pow(i + 1, ESPONENTE_ZIPF);
+            popolaritaCumulata[i] = somma;
+        }
+
+        int create = 0;
+        for (int i = 0; i < numeroPrenotazioni; i++) {
+            Risorsa risorsa = risorsaPopolare(random);
+            LocalDateTime inizio = inizio(risorsa.getTipo(), -GIORNI_PASSATI, GIORNI_FUTURI, random);
+            LocalDateTime fine = inizio.plusMinutes(durataMinuti(risorsa.getTipo(), random));
+            if (prenotazioneRepo.existsSovrapposizioneAttiva(risorsa.getId(), inizio, fine, null)) {
+                continue;
+            }
+            boolean passata = inizio.isBefore(oggi);
+            int dado = random.nextInt(100);
+            StatoPrenotazione stato = passata
+                    ? (dado < 85 ? StatoPrenotazione.COMPLETATA : StatoPrenotazione.CANCELLATA)
+                    : (dado < 75 ? StatoPrenotazione.CONFERMATA : StatoPrenotazione.PROVVISORIA);
+            prenotazioneRepo.save(new Prenotazione(null, clienti.get(random.nextInt(clienti.size())), risorsa,
+                    inizio, fine, stato, random.nextInt(4) == 0 ? "Richiesta " + (i % 50) : null));
+            create++;
+        }
+        return create;
+    }
+
+    // Risorsa estratta con probabilità proporzionale a 1/rango^s
+    public Risorsa risorsaPopolare(Random random) {
+        double x = random.nextDouble() * popolaritaCumulata[popolaritaCumulata.length - 1];
+        int indice = Arrays.binarySearch(popolaritaCumulata, x);
+        return risorse.get(indice >= 0 ? indice : Math.min(-indice - 1, risorse.size() - 1));
+    }
+
+    /** Inizio in un giorno tra oggi+daGiorno e oggi+aGiorno, a un'ora estratta secondo le ore di punta del tipo. */
+    public LocalDateTime inizio(TipoRisorsa tipo, int daGiorno, int aGiorno, Random random) {
+        int[] pesi = PESI_ORARI[tipo.ordinal()];
+        int totale = 0;
+        for (int peso : pesi) {
+            totale += peso;
+        }
+        int x = random.nextInt(totale);
+        int ora = 0;
+        while (x >= pesi[ora]) {
+            x -= pesi[ora];
+            ora++;
+        }
+        int minuto = 15 * random.nextInt(4);
+        return oggi.plusDays(daGiorno + random.nextInt(aGiorno - daGiorno)).plusHours(ora).plusMinutes(minuto);
+    }
+
+    public long durataMinuti(TipoRisorsa tipo, Random random) {
+        switch (tipo) {
+            case SALA_CONFERENZE: return 60L * (1 + random.nextInt(4));
+            case TAVOLO_RISTORANTE: return 60 + 15L * random.nextInt(9);
+            case POSTAZIONE_LAVORO: return 60L * (4 + random.nextInt(6));
+            case CAMPO_SPORTIVO: return 60L * (1 + random.nextInt(2));
+            default: return 30L * (1 + random.nextInt(2));
+        }
+    }
+
+    private static int capacita(TipoRisorsa tipo, Random random) {
+        switch (tipo) {
+            case SALA_CONFERENZE: return 10 + 10 * random.nextInt(10);
+            case TAVOLO_RISTORANTE: return 2 + 2 * random.nextInt(4);
+            case CAMPO_SPORTIVO: return 10 + 2 * random.nextInt(7);
+            default: return 1;
+        }
+    }
+
+    /** Scrive i dati nella cartella con gli stessi nomi e formati usati dall'applicazione. */
+    public static void scrivi(Path cartella, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo,
+                              PrenotazioneRepository prenotazioneRepo) {
+        clienteRepo.saveToFile(cartella.resolve("clienti.txt").toString());
+        risorsaRepo.saveToFile(cartella.resolve("risorse.txt").toString());
+        prenotazioneRepo.saveToFile(cartella.resolve("prenotazioni.txt").toString(), clienteRepo, risorsaRepo);
+        clienteRepo.saveToBinaryFile(cartella.resolve("clienti.bin").toString());
+        risorsaRepo.saveToBinaryFile(cartella.resolve("risorse.bin").toString());
+        prenotazioneRepo.saveToBinaryFile(cartella.resolve("prenotazioni.bin").toString());
+    }
+
+    public static void main(String[] args) throws IOException {
+        int clienti = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int risorse = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int prenotazioni = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        Path cartella = Path.of(args.length > 3 ? args[3] : ".");
+        Files.createDirectories(cartella);
+
+        ClienteRepository clienteRepo = new PersistentClienteRepository();
+        RisorsaRepository risorsaRepo = new PersistentRisorsaRepository();
+        PrenotazioneRepository prenotazioneRepo = new PersistentPrenotazioneRepository();
+        int create = new GeneratoreCarico(clienti).popola(clienteRepo, risorsaRepo, prenotazioneRepo,
+                risorse, prenotazioni, new Random(42));
+        scrivi(cartella, clienteRepo, risorsaRepo, prenotazioneRepo);
+        System.out.printf("Generati %d clienti, %d risorse, %d prenotazioni (%d scartate perché sovrapposte) in %s%n",
+                clienti, risorse, create, prenotazioni - create, cartella.toAbsolutePath());
+    }
+}
@@ -0,0 +1,137 @@
+package it.gestionale.prenotazioni.benchmark;
+
+import it.gestionale.prenotazioni.domain.Cliente;
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import it.gestionale.prenotazioni.repository.ClienteRepository;
+import it.gestionale.prenotazioni.repository.PersistentClienteRepository;
+import it.gestionale.prenotazioni.repository.PersistentPrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.PersistentRisorsaRepository;
+import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.RisorsaRepository;
+import it.gestionale.prenotazioni.server.ServerPrenotazioni;
+import it.gestionale.prenotazioni.service.PrenotazioneService;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generatore di carico per l'API HTTP: avvia il server in questo processo (su una porta libera, dati solo
+ * in memoria) e lo colpisce con molti client concorrenti che alternano prenotazioni e verifiche di disponibilità.
+ * Alla fine controlla che nessuna risorsa abbia prenotazioni attive sovrapposte.
+ *
+ * Uso: java -cp benchmarks/target/benchmarks.jar it.gestionale.prenotazioni.benchmark.GeneratoreCaricoHttp [client] [richiestePerClient] [risorse]
+ */
+public class GeneratoreCaricoHttp {
+    public static void main(String[] args) throws Exception {
+        int client = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int richieste = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int numeroRisorse = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        ClienteRepository clienti = new PersistentClienteRepository();
+        RisorsaRepository risorse = new PersistentRisorsaRepository();
+        PrenotazioneRepository prenotazioni = new PersistentPrenotazioneRepository();
+        PrenotazioneService service = new PrenotazioneService(prenotazioni, clienti, risorse);
+        Long clienteId = clienti.save(new Cliente("Carico", "Http", "carico@test.it", "000")).getId();
+        List<Long> risorseIds = new ArrayList<>();
+        for (int i = 0; i < numeroRisorse; i++) {
+            risorseIds.add(risorse.save(new Risorsa("Risorsa " + i, "Carico", TipoRisorsa.SALA_CONFERENZE, 10)).getId());
+        }
+
+        ServerPrenotazioni server = new ServerPrenotazioni(service, clienti, risorse);
+        server.avvia(0);
+        String base = "http://localhost:" + server.getPorta();
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        LocalDateTime giorno = LocalDateTime.now().plusDays(1).truncatedTo(ChronoUnit.DAYS);
+        Map<Integer, LongAdder> perStato = new ConcurrentHashMap<>();
+        long[][] latenze = new long[client][richieste];
+        AtomicInteger falliti = new AtomicInteger();
+        CountDownLatch partenza = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int c = 0; c < client; c++) {
+            int indice = c;
+            Thread t = new Thread(() -> {
+                try {
+                    partenza.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < richieste; i++) {
+                    Long risorsaId = risorseIds.get(random.nextInt(risorseIds.size()));
+                    LocalDateTime inizio = giorno.plusMinutes(30L * random.nextInt(48 * 30));
+                    LocalDateTime fine = inizio.plusMinutes(30L * (1 + random.nextInt(4)));
+                    HttpRequest richiesta;
+                    if (random.nextInt(3) == 0) {
+                        richiesta = HttpRequest.newBuilder(URI.create(base + "/risorse/" + risorsaId
+                                + "/disponibilita?inizio=" + inizio + "&fine=" + fine)).GET().build();
+                    } else {
+                        String corpo = String.format("{\"clienteId\":%d,\"risorsaId\":%d,\"inizio\":\"%s\",\"fine\":\"%s\"}",
+                                clienteId, risorsaId, inizio, fine);
+                        richiesta = HttpRequest.newBuilder(URI.create(base + "/prenotazioni"))
+                                .header("Content-Type", "application/json")
+                                .POST(HttpRequest.BodyPublishers.ofString(corpo)).build();
+                    }
+                    long t0 = System.nanoTime();
+                    try {
+                        HttpResponse<String> risposta = http.send(richiesta, HttpResponse.BodyHandlers.ofString());
+                        perStato.computeIfAbsent(risposta.statusCode(), k -> new LongAdder()).increment();
+                    } catch (Exception e) {
+                        falliti.incrementAndGet();
+                    }
+                    latenze[indice][i] = System.nanoTime() - t0;
+                }
+            }, "carico-" + c);
+            threads.add(t);
+            t.start();
+        }
+
+        long inizio = System.nanoTime();
+        partenza.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        double secondi = (System.nanoTime() - inizio) / 1e9;
+        server.ferma(1);
+
+        long[] tutte = Arrays.stream(latenze).flatMapToLong(Arrays::stream).sorted().toArray();
+        long totale = (long) client * richieste;
+        System.out.printf("%d client, %d richieste in %.2f s: %.0f richieste/s%n", client, totale, secondi, totale / secondi);
+        System.out.printf("Latenza ms: p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n",
+                percentile(tutte, 0.50), percentile(tutte, 0.90), percentile(tutte, 0.99), tutte[tutte.length - 1] / 1e6);
+        perStato.forEach((stato, conteggio) -> System.out.println("HTTP " + stato + ": " + conteggio.sum()));
+        System.out.println("Errori di connessione: " + falliti.get());
+
+        int sovrapposte = 0;
+        for (Long risorsaId : risorseIds) {
+            sovrapposte += StressTestPrenotazioni.contaSovrapposizioni(prenotazioni.findByRisorsa(risorsaId));
+        }
+        System.out.println("Prenotazioni sovrapposte: " + sovrapposte);
+        if (sovrapposte > 0 || falliti.get() > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static double percentile(long[] ordinate, double quota) {
+        return ordinate[(int) Math.min(ordinate.length - 1, Math.round(quota * (ordinate.length - 1)))] / 1e6;
+    }
+}
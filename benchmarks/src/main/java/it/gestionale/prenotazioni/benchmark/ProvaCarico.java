@@ -0,0 +1,302 @@
+package it.gestionale.prenotazioni.benchmark;
+
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.exceptions.PrenotazioneException;
+import it.gestionale.prenotazioni.exceptions.RisorsaNonDisponibileException;
+import it.gestionale.prenotazioni.repository.ClienteRepository;
+import it.gestionale.prenotazioni.repository.PersistentClienteRepository;
+import it.gestionale.prenotazioni.repository.PersistentRisorsaRepository;
+import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.RisorsaRepository;
+import it.gestionale.prenotazioni.service.AggregatoreStatistiche;
+import it.gestionale.prenotazioni.service.PrenotazioneService;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prova di carico end-to-end: genera un archivio realistico con GeneratoreCarico, lo scrive su disco nei formati
+ * dell'applicazione, lo ricarica dagli snapshot binari e poi fa lavorare PrenotazioneService con più worker
+ * concorrenti, ciascuno con un mix configurabile di operazioni.
+ * Alla fine riporta throughput, latenze (p50/p99/p99.9) per tipo di operazione, quota di richieste rifiutate
+ * per risorsa non disponibile, memoria heap e il controllo che nessuna risorsa abbia prenotazioni sovrapposte
+ * e che le statistiche incrementali coincidano con quelle ricalcolate.
+ *
+ * Uso: java -cp benchmarks/target/benchmarks.jar it.gestionale.prenotazioni.benchmark.ProvaCarico [--worker 8] [--operazioni 20000]
+ *          [--mix crea=40,conferma=15,cancella=10,modifica=10,consulta=25]
+ *          [--clienti 5000] [--risorse 200] [--prenotazioni 100000]
+ *          [--storage indicizzato|colonnare] [--cartella dati-carico] [--seme 42]
+ * --operazioni è il numero di operazioni di ciascun worker.
+ */
+public class ProvaCarico {
+    private enum TipoOperazione { CREA, CONFERMA, CANCELLA, MODIFICA, CONSULTA }
+    private static final TipoOperazione[] TIPI = TipoOperazione.values();
+
+    // Latenze e esiti di un worker per tipo di operazione: nessuna sincronizzazione durante la prova
+    private static final class Misure {
+        final long[][] latenze = new long[TIPI.length][];
+        final int[] conteggi = new int[TIPI.length];
+        final int[] rifiutate = new int[TIPI.length];
+        final int[] nonApplicabili = new int[TIPI.length];
+
+        Misure(int capacita) {
+            for (int t = 0; t < TIPI.length; t++) {
+                latenze[t] = new long[capacita];
+            }
+        }
+
+        void registra(TipoOperazione tipo, long nanos) {
+            int t = tipo.ordinal();
+            if (conteggi[t] == latenze[t].length) {
+                latenze[t] = Arrays.copyOf(latenze[t], latenze[t].length * 2);
+            }
+            latenze[t][conteggi[t]++] = nanos;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> opzioni = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                System.err.println("Argomento non valido: " + args[i]);
+                System.exit(2);
+            }
+            opzioni.put(args[i].substring(2), args[++i]);
+        }
+        int worker = Integer.parseInt(opzioni.getOrDefault("worker", "8"));
+        int operazioni = Integer.parseInt(opzioni.getOrDefault("operazioni", "20000"));
+        int[] mix = leggiMix(opzioni.getOrDefault("mix", "crea=40,conferma=15,cancella=10,modifica=10,consulta=25"));
+        int numeroClienti = Integer.parseInt(opzioni.getOrDefault("clienti", "5000"));
+        int numeroRisorse = Integer.parseInt(opzioni.getOrDefault("risorse", "200"));
+        int numeroPrenotazioni = Integer.parseInt(opzioni.getOrDefault("prenotazioni", "100000"));
+        String storage = opzioni.getOrDefault("storage", "indicizzato");
+        Path cartella = Path.of(opzioni.getOrDefault("cartella", "dati-carico"));
+        long seme = Long.parseLong(opzioni.getOrDefault("seme", "42"));
+
+        // Generazione e scrittura su disco
+        GeneratoreCarico generatore = new GeneratoreCarico(numeroClienti);
+        ClienteRepository clienti = new PersistentClienteRepository();
+        RisorsaRepository risorse = new PersistentRisorsaRepository();
+        PrenotazioneRepository prenotazioni = DatasetPrenotazioni.nuovoRepository(storage, clienti, risorse);
+        long t0 = System.nanoTime();
+        int generate = generatore.popola(clienti, risorse, prenotazioni, numeroRisorse, numeroPrenotazioni, new Random(seme));
+        Files.createDirectories(cartella);
+        GeneratoreCarico.scrivi(cartella, clienti, risorse, prenotazioni);
+        System.out.printf("Archivio: %d clienti, %d risorse, %d prenotazioni generate e scritte in %s (%d ms)%n",
+                numeroClienti, numeroRisorse, generate, cartella.toAbsolutePath(), (System.nanoTime() - t0) / 1_000_000);
+
+        // Si riparte dai file, come farebbe l'applicazione all'avvio
+        t0 = System.nanoTime();
+        clienti = new PersistentClienteRepository();
+        risorse = new PersistentRisorsaRepository();
+        prenotazioni = DatasetPrenotazioni.nuovoRepository(storage, clienti, risorse);
+        clienti.loadFromBinaryFile(cartella.resolve("clienti.bin").toString());
+        risorse.loadFromBinaryFile(cartella.resolve("risorse.bin").toString());
+        prenotazioni.loadFromBinaryFile(cartella.resolve("prenotazioni.bin").toString(), clienti, risorse);
+        System.out.printf("Caricamento dagli snapshot: %d prenotazioni in %d ms (storage %s)%n",
+                prenotazioni.findAll().size(), (System.nanoTime() - t0) / 1_000_000, storage);
+
+        PrenotazioneService service = new PrenotazioneService(prenotazioni, clienti, risorse);
+        // Le statistiche incrementali restano agganciate ai repository per tutta la prova
+        AggregatoreStatistiche statistiche = service.getStatistiche();
+        AtomicLong idMassimo = new AtomicLong(generate);
+        Misure[] misure = new Misure[worker];
+        CountDownLatch partenza = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < worker; w++) {
+            Misure m = new Misure(operazioni / TIPI.length + 16);
+            misure[w] = m;
+            Random random = new Random(seme * 31 + w);
+            Thread t = new Thread(() -> {
+                try {
+                    partenza.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < operazioni; i++) {
+                    TipoOperazione tipo = estrai(mix, random);
+                    long inizio = System.nanoTime();
+                    try {
+                        esegui(tipo, service, generatore, idMassimo, random);
+                    } catch (RisorsaNonDisponibileException e) {
+                        m.rifiutate[tipo.ordinal()]++;
+                    } catch (PrenotazioneException e) {
+                        // Prenotazione già cancellata, completata, inesistente...: esito normale in un carico casuale
+                        m.nonApplicabili[tipo.ordinal()]++;
+                    }
+                    m.registra(tipo, System.nanoTime() - inizio);
+                }
+            }, "carico-" + w);
+            threads.add(t);
+            t.start();
+        }
+
+        long inizio = System.nanoTime();
+        partenza.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        double secondi = (System.nanoTime() - inizio) / 1e9;
+
+        long totale = (long) worker * operazioni;
+        System.out.printf("%n%d worker, %d operazioni in %.2f s: %.0f operazioni/s%n", worker, totale, secondi, totale / secondi);
+        System.out.printf("%-9s %9s %10s %12s %10s %10s %10s%n", "", "eseguite", "rifiutate", "non appl.", "p50 µs", "p99 µs", "p99.9 µs");
+        long[] tutte = new long[0];
+        long rifiutate = 0;
+        long tentativi = 0;
+        for (TipoOperazione tipo : TIPI) {
+            int t = tipo.ordinal();
+            int conteggio = 0;
+            int rifiutateTipo = 0;
+            int nonApplicabili = 0;
+            for (Misure m : misure) {
+                conteggio += m.conteggi[t];
+                rifiutateTipo += m.rifiutate[t];
+                nonApplicabili += m.nonApplicabili[t];
+            }
+            long[] latenze = new long[conteggio];
+            int posizione = 0;
+            for (Misure m : misure) {
+                System.arraycopy(m.latenze[t], 0, latenze, posizione, m.conteggi[t]);
+                posizione += m.conteggi[t];
+            }
+            Arrays.sort(latenze);
+            tutte = unisci(tutte, latenze);
+            if (tipo == TipoOperazione.CREA || tipo == TipoOperazione.MODIFICA) {
+                rifiutate += rifiutateTipo;
+                tentativi += conteggio;
+            }
+            if (conteggio > 0) {
+                System.out.printf("%-9s %9d %10d %12d %10.1f %10.1f %10.1f%n", tipo.name().toLowerCase(), conteggio,
+                        rifiutateTipo, nonApplicabili, percentile(latenze, 0.50), percentile(latenze, 0.99), percentile(latenze, 0.999));
+            }
+        }
+        System.out.printf("%-9s %9d %10s %12s %10.1f %10.1f %10.1f%n", "totale", tutte.length, "", "",
+                percentile(tutte, 0.50), percentile(tutte, 0.99), percentile(tutte, 0.999));
+        System.out.printf("Rifiutate per risorsa non disponibile: %.1f%% di creazioni e modifiche%n",
+                tentativi == 0 ? 0 : 100.0 * rifiutate / tentativi);
+
+        long picco = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                picco += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("Heap: %d MB usati dopo GC, picco %d MB, massimo %d MB%n",
+                (runtime.totalMemory() - runtime.freeMemory()) >> 20, picco >> 20, runtime.maxMemory() >> 20);
+
+        int sovrapposte = 0;
+        for (Risorsa risorsa : generatore.getRisorse()) {
+            sovrapposte += StressTestPrenotazioni.contaSovrapposizioni(prenotazioni.findByRisorsa(risorsa.getId()));
+        }
+        System.out.println("Prenotazioni sovrapposte: " + sovrapposte);
+        List<String> differenze = statistiche.verificaConsistenza();
+        System.out.println("Statistiche incrementali: " + (differenze.isEmpty() ? "coerenti" : differenze));
+        if (sovrapposte > 0 || !differenze.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static void esegui(TipoOperazione tipo, PrenotazioneService service, GeneratoreCarico generatore,
+                               AtomicLong idMassimo, Random random) {
+        switch (tipo) {
+            case CREA: {
+                Risorsa risorsa = generatore.risorsaPopolare(random);
+                LocalDateTime inizio = generatore.inizio(risorsa.getTipo(), 1, GeneratoreCarico.GIORNI_FUTURI, random);
+                LocalDateTime fine = inizio.plusMinutes(generatore.durataMinuti(risorsa.getTipo(), random));
+                Prenotazione p = service.creaPrenotazione(1L + random.nextInt(generatore.getNumeroClienti()),
+                        risorsa.getId(), inizio, fine, null);
+                idMassimo.accumulateAndGet(p.getId(), Math::max);
+                break;
+            }
+            case CONFERMA:
+                service.confermaPrenotazione(idCasuale(idMassimo, random));
+                break;
+            case CANCELLA:
+                service.cancellaPrenotazione(idCasuale(idMassimo, random));
+                break;
+            case MODIFICA: {
+                // Stessa durata, spostata fino a un'ora avanti o indietro
+                Prenotazione p = service.getPrenotazione(idCasuale(idMassimo, random));
+                long spostamento = 15L * (random.nextInt(9) - 4);
+                service.modificaPrenotazione(p.getId(), p.getDataOraInizio().plusMinutes(spostamento),
+                        p.getDataOraFine().plusMinutes(spostamento), null);
+                break;
+            }
+            case CONSULTA: {
+                if (random.nextBoolean()) {
+                    Risorsa risorsa = generatore.risorsaPopolare(random);
+                    LocalDateTime inizio = generatore.inizio(risorsa.getTipo(), 1, GeneratoreCarico.GIORNI_FUTURI, random);
+                    service.isRisorsaDisponibile(risorsa.getId(), inizio,
+                            inizio.plusMinutes(generatore.durataMinuti(risorsa.getTipo(), random)));
+                } else {
+                    service.getPrenotazioniCliente(1L + random.nextInt(generatore.getNumeroClienti()));
+                }
+                break;
+            }
+        }
+    }
+
+    private static Long idCasuale(AtomicLong idMassimo, Random random) {
+        return 1L + (long) (random.nextDouble() * idMassimo.get());
+    }
+
+    private static TipoOperazione estrai(int[] mix, Random random) {
+        int x = random.nextInt(mix[mix.length - 1]);
+        int t = 0;
+        while (x >= mix[t]) {
+            t++;
+        }
+        return TIPI[t];
+    }
+
+    // Percentuali cumulate nell'ordine di TipoOperazione; i tipi non indicati valgono 0
+    private static int[] leggiMix(String testo) {
+        int[] pesi = new int[TIPI.length];
+        for (String voce : testo.split(",")) {
+            String[] parti = voce.split("=");
+            pesi[TipoOperazione.valueOf(parti[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(parti[1].trim());
+        }
+        for (int t = 1; t < pesi.length; t++) {
+            pesi[t] += pesi[t - 1];
+        }
+        if (pesi[pesi.length - 1] <= 0) {
+            throw new IllegalArgumentException("Il mix deve contenere almeno un'operazione");
+        }
+        return pesi;
+    }
+
+    private static long[] unisci(long[] a, long[] b) {
+        long[] unione = new long[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            unione[k++] = a[i] <= b[j] ? a[i++] : b[j++];
+        }
+        while (i < a.length) unione[k++] = a[i++];
+        while (j < b.length) unione[k++] = b[j++];
+        return unione;
+    }
+
+    private static double percentile(long[] ordinate, double quota) {
+        if (ordinate.length == 0) {
+            return 0;
+        }
+        return ordinate[(int) Math.min(ordinate.length - 1, Math.round(quota * (ordinate.length - 1)))] / 1e3;
+    }
+}
@@ -0,0 +1,180 @@
+package it.gestionale.prenotazioni.benchmark;
+
+import it.gestionale.prenotazioni.domain.Cliente;
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import it.gestionale.prenotazioni.exceptions.RisorsaNonDisponibileException;
+import it.gestionale.prenotazioni.repository.*;
+import it.gestionale.prenotazioni.service.PrenotazioneService;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress test multi-thread di PrenotazioneService.
+ * Prima fase: molti thread prenotano finestre casuali e sovrapposte su poche risorse, poi si verifica
+ * che nessuna risorsa abbia due prenotazioni attive sovrapposte.
+ * Seconda fase: ogni thread prenota solo sulla propria risorsa e si misura come cresce il throughput
+ * all'aumentare dei thread.
+ *
+ * Uso: java -cp benchmarks/target/benchmarks.jar it.gestionale.prenotazioni.benchmark.StressTestPrenotazioni [operazioniPerThread] [maxThread]
+ * Con -Dprenotazioni.storage=colonnare usa il repository a colonne, come l'applicazione.
+ */
+public class StressTestPrenotazioni {
+    private static final int RISORSE_CONTESE = 4;
+    private static final int THREAD_CONTESI = 8;
+
+    public static void main(String[] args) throws InterruptedException {
+        int operazioni = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int maxThread = args.length > 1 ? Integer.parseInt(args[1])
+                : Math.max(4, Runtime.getRuntime().availableProcessors());
+
+        System.out.println("Processori disponibili: " + Runtime.getRuntime().availableProcessors());
+        int doppie = provaContesa(operazioni);
+        provaScalabilita(operazioni, maxThread);
+
+        if (doppie > 0) {
+            System.err.println("ERRORE: trovate " + doppie + " prenotazioni sovrapposte");
+            System.exit(1);
+        }
+    }
+
+    private static int provaContesa(int operazioni) throws InterruptedException {
+        Ambiente ambiente = new Ambiente(RISORSE_CONTESE);
+        LocalDateTime base = ambiente.base;
+        AtomicLong riuscite = new AtomicLong();
+        AtomicLong rifiutate = new AtomicLong();
+
+        long durata = esegui(THREAD_CONTESI, t -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < operazioni; i++) {
+                Long risorsaId = ambiente.risorse.get(random.nextInt(RISORSE_CONTESE)).getId();
+                LocalDateTime inizio = base.plusMinutes(15L * random.nextInt(4 * 24 * 7));
+                LocalDateTime fine = inizio.plusMinutes(15L * (1 + random.nextInt(8)));
+                try {
+                    Prenotazione p = ambiente.service.creaPrenotazione(ambiente.clienteId, risorsaId, inizio, fine, null);
+                    riuscite.incrementAndGet();
+                    // Un po' di cancellazioni libera finestre e mescola scritture di tipo diverso
+                    if (random.nextInt(10) == 0) {
+                        ambiente.service.cancellaPrenotazione(p.getId());
+                    }
+                } catch (RisorsaNonDisponibileException e) {
+                    rifiutate.incrementAndGet();
+                }
+            }
+        });
+
+        int doppie = 0;
+        for (Risorsa risorsa : ambiente.risorse) {
+            doppie += contaSovrapposizioni(ambiente.prenotazioni.findByRisorsa(risorsa.getId()));
+        }
+        System.out.printf("Contesa: %d thread su %d risorse, %d riuscite, %d rifiutate in %d ms, sovrapposizioni: %d%n",
+                THREAD_CONTESI, RISORSE_CONTESE, riuscite.get(), rifiutate.get(), durata / 1_000_000, doppie);
+        return doppie;
+    }
+
+    private static void provaScalabilita(int operazioni, int maxThread) throws InterruptedException {
+        // Giro di riscaldamento per il JIT, altrimenti il primo giro penalizza il caso a un thread
+        misura(1, operazioni);
+        double riferimento = misura(1, operazioni);
+        for (int thread = 1; thread <= maxThread; thread *= 2) {
+            double alSecondo = thread == 1 ? riferimento : misura(thread, operazioni);
+            System.out.printf("Risorse distinte: %2d thread, %,12.0f prenotazioni/s, speedup %.2fx%n",
+                    thread, alSecondo, alSecondo / riferimento);
+        }
+    }
+
+    private static double misura(int thread, int operazioni) throws InterruptedException {
+        Ambiente ambiente = new Ambiente(thread);
+        long durata = esegui(thread, t -> {
+            Long risorsaId = ambiente.risorse.get(t).getId();
+            LocalDateTime inizio = ambiente.base;
+            for (int i = 0; i < operazioni; i++) {
+                LocalDateTime fine = inizio.plusMinutes(30);
+                ambiente.service.creaPrenotazione(ambiente.clienteId, risorsaId, inizio, fine, null);
+                inizio = fine;
+            }
+        });
+        return (double) thread * operazioni / (durata / 1e9);
+    }
+
+    // Coppie di prenotazioni attive consecutive (per inizio) che si sovrappongono
+    static int contaSovrapposizioni(List<Prenotazione> prenotazioni) {
+        List<Prenotazione> attive = new ArrayList<>();
+        for (Prenotazione p : prenotazioni) {
+            if (p.getStato() != StatoPrenotazione.CANCELLATA) {
+                attive.add(p);
+            }
+        }
+        attive.sort(Comparator.comparing(Prenotazione::getDataOraInizio));
+        int sovrapposte = 0;
+        LocalDateTime fineMassima = null;
+        for (Prenotazione p : attive) {
+            if (fineMassima != null && p.getDataOraInizio().isBefore(fineMassima)) {
+                sovrapposte++;
+            }
+            if (fineMassima == null || p.getDataOraFine().isAfter(fineMassima)) {
+                fineMassima = p.getDataOraFine();
+            }
+        }
+        return sovrapposte;
+    }
+
+    private static long esegui(int thread, Lavoro lavoro) throws InterruptedException {
+        CountDownLatch partenza = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < thread; t++) {
+            int indice = t;
+            Thread th = new Thread(() -> {
+                try {
+                    partenza.await();
+                    lavoro.esegui(indice);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "stress-" + t);
+            threads.add(th);
+            th.start();
+        }
+        long inizio = System.nanoTime();
+        partenza.countDown();
+        for (Thread th : threads) {
+            th.join();
+        }
+        return System.nanoTime() - inizio;
+    }
+
+    private interface Lavoro {
+        void esegui(int thread);
+    }
+
+    private static class Ambiente {
+        final PrenotazioneRepository prenotazioni;
+        final PrenotazioneService service;
+        final List<Risorsa> risorse = new ArrayList<>();
+        final Long clienteId;
+        final LocalDateTime base = LocalDateTime.now().plusDays(1).truncatedTo(ChronoUnit.DAYS);
+
+        Ambiente(int numeroRisorse) {
+            ClienteRepository clienti = new PersistentClienteRepository();
+            RisorsaRepository risorseRepo = new PersistentRisorsaRepository();
+            if ("colonnare".equals(System.getProperty("prenotazioni.storage"))) {
+                prenotazioni = new ColumnarPrenotazioneRepository(clienti, risorseRepo);
+            } else {
+                prenotazioni = new PersistentPrenotazioneRepository();
+            }
+            service = new PrenotazioneService(prenotazioni, clienti, risorseRepo);
+            clienteId = clienti.save(new Cliente("Stress", "Test", "stress@test.it", "000")).getId();
+            for (int i = 0; i < numeroRisorse; i++) {
+                risorse.add(risorseRepo.save(new Risorsa("Risorsa " + i, "Stress test", TipoRisorsa.values()[i % TipoRisorsa.values().length], 10)));
+            }
+        }
+    }
+}
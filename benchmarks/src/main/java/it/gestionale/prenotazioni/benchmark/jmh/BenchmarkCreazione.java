@@ -0,0 +1,53 @@
+package it.gestionale.prenotazioni.benchmark.jmh;
+
+import it.gestionale.prenotazioni.benchmark.DatasetPrenotazioni;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creazione di una prenotazione attraverso il service, con validazione, lock della risorsa e controllo di
+ * sovrapposizione. Ogni chiamata prenota una fascia libera dopo la fine del dataset, girando su tutte le
+ * risorse e i clienti; il contatore è unico, quindi il benchmark va eseguito con un solo thread.
+ * La prenotazione creata viene eliminata nella stessa chiamata, così il dataset condiviso resta della
+ * dimensione indicata da prenotazioni: il tempo misurato comprende quindi anche la cancellazione dall'indice.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(1)
+@State(Scope.Thread)
+public class BenchmarkCreazione {
+    private long contatore;
+    private LocalDateTime libero;
+
+    @Setup(Level.Trial)
+    public void prepara(StatoDataset d) {
+        libero = d.dataset.getFine().plusDays(1);
+    }
+
+    @Benchmark
+    public Long creaPrenotazione(StatoDataset d) {
+        long i = contatore++;
+        int r = d.risorse;
+        int c = d.dataset.getNumeroClienti();
+        LocalDateTime inizio = libero.plusMinutes(2L * DatasetPrenotazioni.MINUTI_SLOT * (i / r));
+        Long id = d.service.creaPrenotazione(1 + i % c, 1 + i % r, inizio,
+                inizio.plusMinutes(DatasetPrenotazioni.MINUTI_SLOT), null).getId();
+        d.prenotazioneRepo.delete(id);
+        return id;
+    }
+}
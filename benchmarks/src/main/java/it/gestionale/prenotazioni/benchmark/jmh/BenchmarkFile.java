@@ -0,0 +1,79 @@
+package it.gestionale.prenotazioni.benchmark.jmh;
+
+import it.gestionale.prenotazioni.benchmark.DatasetPrenotazioni;
+import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Salvataggio e caricamento dell'intero repository, in CSV e nello snapshot binario. Il caricamento avviene
+ * in un secondo repository dello stesso tipo, così quello del dataset resta intatto per gli altri benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BenchmarkFile {
+    private Path cartella;
+    private String csv;
+    private String bin;
+    private PrenotazioneRepository copia;
+
+    @Setup(Level.Trial)
+    public void prepara(StatoDataset d) throws IOException {
+        cartella = Files.createTempDirectory("benchmark-prenotazioni");
+        csv = cartella.resolve("prenotazioni.csv").toString();
+        bin = cartella.resolve("prenotazioni.bin").toString();
+        d.prenotazioneRepo.saveToFile(csv, d.clienteRepo, d.risorsaRepo);
+        d.prenotazioneRepo.saveToBinaryFile(bin);
+        copia = DatasetPrenotazioni.nuovoRepository(d.storage, d.clienteRepo, d.risorsaRepo);
+    }
+
+    @TearDown(Level.Trial)
+    public void pulisci() throws IOException {
+        Files.deleteIfExists(Path.of(csv));
+        Files.deleteIfExists(Path.of(bin));
+        Files.deleteIfExists(cartella);
+    }
+
+    @Benchmark
+    public long saveToFile(StatoDataset d) {
+        d.prenotazioneRepo.saveToFile(csv, d.clienteRepo, d.risorsaRepo);
+        return new File(csv).length();
+    }
+
+    @Benchmark
+    public long saveToBinaryFile(StatoDataset d) {
+        d.prenotazioneRepo.saveToBinaryFile(bin);
+        return new File(bin).length();
+    }
+
+    @Benchmark
+    public boolean loadFromFile(StatoDataset d) {
+        copia.loadFromFile(csv, d.clienteRepo, d.risorsaRepo);
+        return copia.findById((long) d.prenotazioni).isPresent();
+    }
+
+    @Benchmark
+    public boolean loadFromBinaryFile(StatoDataset d) {
+        copia.loadFromBinaryFile(bin, d.clienteRepo, d.risorsaRepo);
+        return copia.findById((long) d.prenotazioni).isPresent();
+    }
+}
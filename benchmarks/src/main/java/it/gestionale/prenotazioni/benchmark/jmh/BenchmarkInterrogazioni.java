@@ -0,0 +1,48 @@
+package it.gestionale.prenotazioni.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Letture più frequenti di service e repository: controllo di disponibilità, prenotazioni di un giorno e di un
+ * cliente. Ogni chiamata usa l'interrogazione successiva tra quelle preparate da StatoDataset.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class BenchmarkInterrogazioni {
+    private int indice;
+
+    private int prossima() {
+        indice = (indice + 1) & (StatoDataset.INTERROGAZIONI - 1);
+        return indice;
+    }
+
+    @Benchmark
+    public boolean isRisorsaDisponibile(StatoDataset d) {
+        int k = prossima();
+        return d.service.isRisorsaDisponibile(d.risorseId[k], d.da[k], d.a[k]);
+    }
+
+    @Benchmark
+    public int findByPeriodo(StatoDataset d) {
+        int k = prossima();
+        return d.prenotazioneRepo.findByPeriodo(d.giorni[k], d.giorni[k].plusDays(1)).size();
+    }
+
+    @Benchmark
+    public int findByCliente(StatoDataset d) {
+        return d.prenotazioneRepo.findByCliente(d.clientiId[prossima()]).size();
+    }
+}
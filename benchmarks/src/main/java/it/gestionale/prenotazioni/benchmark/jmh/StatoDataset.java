@@ -0,0 +1,73 @@
+package it.gestionale.prenotazioni.benchmark.jmh;
+
+import it.gestionale.prenotazioni.benchmark.DatasetPrenotazioni;
+import it.gestionale.prenotazioni.repository.ClienteRepository;
+import it.gestionale.prenotazioni.repository.PersistentClienteRepository;
+import it.gestionale.prenotazioni.repository.PersistentRisorsaRepository;
+import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.RisorsaRepository;
+import it.gestionale.prenotazioni.service.PrenotazioneService;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Dataset deterministico di DatasetPrenotazioni, caricato una volta per fork nel repository scelto, con le
+ * interrogazioni generate prima di misurare: a parità di parametri ogni esecuzione legge gli stessi dati.
+ * I parametri predefiniti coprono tutte le combinazioni; si restringono da riga di comando, per esempio
+ * -p prenotazioni=100000 -p storage=colonnare. Con un milione di prenotazioni servono alcuni GB di heap.
+ */
+@State(Scope.Benchmark)
+public class StatoDataset {
+    static final int INTERROGAZIONI = 4096;
+    private static final long SEME = 42;
+
+    @Param({"1000", "100000", "1000000"})
+    public int prenotazioni;
+
+    @Param({"10", "1000"})
+    public int risorse;
+
+    @Param({"indicizzato", "colonnare"})
+    public String storage;
+
+    DatasetPrenotazioni dataset;
+    ClienteRepository clienteRepo;
+    RisorsaRepository risorsaRepo;
+    PrenotazioneRepository prenotazioneRepo;
+    PrenotazioneService service;
+
+    final long[] risorseId = new long[INTERROGAZIONI];
+    final long[] clientiId = new long[INTERROGAZIONI];
+    final LocalDateTime[] da = new LocalDateTime[INTERROGAZIONI];
+    final LocalDateTime[] a = new LocalDateTime[INTERROGAZIONI];
+    final LocalDateTime[] giorni = new LocalDateTime[INTERROGAZIONI];
+
+    @Setup(Level.Trial)
+    public void prepara() {
+        dataset = new DatasetPrenotazioni(prenotazioni, risorse, SEME);
+        clienteRepo = new PersistentClienteRepository();
+        risorsaRepo = new PersistentRisorsaRepository();
+        prenotazioneRepo = DatasetPrenotazioni.nuovoRepository(storage, clienteRepo, risorsaRepo);
+        dataset.popola(clienteRepo, risorsaRepo, prenotazioneRepo);
+        service = new PrenotazioneService(prenotazioneRepo, clienteRepo, risorsaRepo);
+
+        // Interrogazioni su fasce a multipli di 30 minuti dentro l'intervallo coperto dal dataset
+        long minutiDataset = Math.max(1, ChronoUnit.MINUTES.between(DatasetPrenotazioni.BASE, dataset.getFine()));
+        Random random = new Random(7);
+        for (int i = 0; i < INTERROGAZIONI; i++) {
+            risorseId[i] = 1 + random.nextInt(risorse);
+            clientiId[i] = 1 + random.nextInt(dataset.getNumeroClienti());
+            long minuto = DatasetPrenotazioni.MINUTI_SLOT * (long) random.nextInt((int) Math.min(Integer.MAX_VALUE,
+                    minutiDataset / DatasetPrenotazioni.MINUTI_SLOT));
+            da[i] = DatasetPrenotazioni.BASE.plusMinutes(minuto);
+            a[i] = da[i].plusMinutes(DatasetPrenotazioni.MINUTI_SLOT * (1L + random.nextInt(4)));
+            giorni[i] = da[i].truncatedTo(ChronoUnit.DAYS);
+        }
+    }
+}
@@ -1,70 +1,232 @@
 package it.gestionale.prenotazioni.application;
 
 import it.gestionale.prenotazioni.domain.Cliente;
+import it.gestionale.prenotazioni.domain.FasciaOraria;
 import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.domain.RegolaRicorrenza;
 import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.FrequenzaRicorrenza;
+import it.gestionale.prenotazioni.enums.PeriodoReport;
 import it.gestionale.prenotazioni.enums.StatoPrenotazione;
 import it.gestionale.prenotazioni.enums.TipoRisorsa;
 import it.gestionale.prenotazioni.exceptions.PrenotazioneException;
+import it.gestionale.prenotazioni.exceptions.SerieNonDisponibileException;
+import it.gestionale.prenotazioni.metriche.Istogramma;
+import it.gestionale.prenotazioni.metriche.RegistroMetriche;
+import it.gestionale.prenotazioni.repository.ArchivioPrenotazioni;
 import it.gestionale.prenotazioni.repository.ClienteRepository;
+import it.gestionale.prenotazioni.repository.ColumnarPrenotazioneRepository;
 import it.gestionale.prenotazioni.repository.PersistentClienteRepository;
 import it.gestionale.prenotazioni.repository.PersistentPrenotazioneRepository;
 import it.gestionale.prenotazioni.repository.PersistentRisorsaRepository;
+import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
 import it.gestionale.prenotazioni.repository.RisorsaRepository;
+import it.gestionale.prenotazioni.server.ServerPrenotazioni;
+import it.gestionale.prenotazioni.service.AggregatoreStatistiche;
+import it.gestionale.prenotazioni.service.ArchiviazioneService;
+import it.gestionale.prenotazioni.service.OccupazioneService;
+import it.gestionale.prenotazioni.service.PianificatoreScadenze;
 import it.gestionale.prenotazioni.service.PrenotazioneService;
+import it.gestionale.prenotazioni.service.ReportOccupazione;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Scanner;
-import java.util.stream.Collectors;
 
 public class Application {
     private PrenotazioneService service;
+    private OccupazioneService occupazioneService;
+    // null se l'archivio non si è potuto aprire
+    private ArchiviazioneService archiviazioneService;
+    // Avviato solo dal menu interattivo e dal server, non nella modalità batch
+    private PianificatoreScadenze scadenze;
     private ClienteRepository clienteRepo;
     private RisorsaRepository risorsaRepo;
-    private PersistentPrenotazioneRepository prenotazioneRepo;
+    private PrenotazioneRepository prenotazioneRepo;
     private Scanner scanner;
 
     private static final String CLIENTI_FILE = "clienti.txt";
     private static final String RISORSE_FILE = "risorse.txt";
     private static final String PRENOTAZIONI_FILE = "prenotazioni.txt";
+    private static final String CLIENTI_SNAPSHOT = "clienti.bin";
+    private static final String RISORSE_SNAPSHOT = "risorse.bin";
+    private static final String PRENOTAZIONI_SNAPSHOT = "prenotazioni.bin";
+    private static final String CLIENTI_JOURNAL = "clienti.journal";
+    private static final String RISORSE_JOURNAL = "risorse.journal";
+    private static final String PRENOTAZIONI_JOURNAL = "prenotazioni.journal";
+    private static final String METRICHE_FILE = "metriche.prom";
+    private static final String OCCUPAZIONE_FILE = "occupazione.csv";
+    private static final String ARCHIVIO_DIR = "archivio";
+    private static final long GIORNI_ARCHIVIAZIONE = 90;
+    private static final long MINUTI_TRA_ARCHIVIAZIONI = 60;
+    private static final long MINUTI_PROVVISORIE = 24 * 60;
+    private static final int SOGLIA_COMPATTAZIONE = 10_000;
+    private static final int RISULTATI_RICERCA = 20;
 
     public Application() {
+        this(true);
+    }
+
+    // Senza dati di esempio per la modalità batch: un archivio vuoto resta vuoto
+    Application(boolean datiEsempio) {
         this.clienteRepo = new PersistentClienteRepository();
+        // -Dprenotazioni.emailUnivoca=true rifiuta un nuovo cliente con l'email di uno già registrato
+        clienteRepo.setEmailUnivoca(Boolean.getBoolean("prenotazioni.emailUnivoca"));
         this.risorsaRepo = new PersistentRisorsaRepository();
-        this.prenotazioneRepo = new PersistentPrenotazioneRepository();
+        // -Dprenotazioni.storage=colonnare usa il repository a colonne (meno memoria per prenotazione)
+        if ("colonnare".equals(System.getProperty("prenotazioni.storage"))) {
+            this.prenotazioneRepo = new ColumnarPrenotazioneRepository(clienteRepo, risorsaRepo);
+        } else {
+            PersistentPrenotazioneRepository repo = new PersistentPrenotazioneRepository();
+            abilitaBitmap(repo, System.getProperty("prenotazioni.bitmap"));
+            this.prenotazioneRepo = repo;
+        }
         this.service = new PrenotazioneService(prenotazioneRepo, clienteRepo, risorsaRepo);
+        this.occupazioneService = new OccupazioneService(prenotazioneRepo, risorsaRepo);
+        // -Dprenotazioni.scadenzaProvvisorieMinuti=N cancella le provvisorie non confermate entro N minuti (0 = mai)
+        this.scadenze = new PianificatoreScadenze(prenotazioneRepo, service.getMetriche(),
+                Duration.ofMinutes(Long.getLong("prenotazioni.scadenzaProvvisorieMinuti", MINUTI_PROVVISORIE)));
         this.scanner = new Scanner(System.in);
 
         // Carica i dati da file
         loadData();
+        apriArchivio();
 
         // Se non ci sono dati, crea dati di esempio
-        if (clienteRepo.findAll().isEmpty()) {
+        if (datiEsempio && clienteRepo.findAll().isEmpty()) {
             initDatiEsempio();
         }
     }
 
+    // -Dprenotazioni.bitmap=TAVOLO_RISTORANTE:15,CAMPO_SPORTIVO:30 attiva la bitmap a slot per quei tipi
+    private void abilitaBitmap(PersistentPrenotazioneRepository repo, String configurazione) {
+        if (configurazione == null || configurazione.isBlank()) {
+            return;
+        }
+        for (String voce : configurazione.split(",")) {
+            String[] parti = voce.trim().split(":");
+            try {
+                repo.abilitaBitmap(TipoRisorsa.valueOf(parti[0].trim()), Integer.parseInt(parti[1].trim()));
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                System.err.println("Configurazione bitmap non valida: " + voce);
+            }
+        }
+    }
+
     private void loadData() {
+        long inizio = System.nanoTime();
+        String esito = RegistroMetriche.ESITO_OK;
         try {
-            clienteRepo.loadFromFile(CLIENTI_FILE);
-            risorsaRepo.loadFromFile(RISORSE_FILE);
-            prenotazioneRepo.loadFromFile(PRENOTAZIONI_FILE, clienteRepo, risorsaRepo);
+            // Per ogni repository lo snapshot binario (o l'import dal CSV se non esiste ancora) seguito dalle
+            // modifiche registrate nel journal dopo l'ultimo snapshot. La scelta è separata perché ogni journal
+            // si compatta per conto suo: prenotazioni.bin può esistere prima di clienti.bin e viceversa
+            if (Files.exists(Paths.get(CLIENTI_SNAPSHOT))) {
+                clienteRepo.loadFromBinaryFile(CLIENTI_SNAPSHOT);
+            } else {
+                clienteRepo.loadFromFile(CLIENTI_FILE);
+            }
+            if (Files.exists(Paths.get(RISORSE_SNAPSHOT))) {
+                risorsaRepo.loadFromBinaryFile(RISORSE_SNAPSHOT);
+            } else {
+                risorsaRepo.loadFromFile(RISORSE_FILE);
+            }
+            if (Files.exists(Paths.get(PRENOTAZIONI_SNAPSHOT))) {
+                prenotazioneRepo.loadFromBinaryFile(PRENOTAZIONI_SNAPSHOT, clienteRepo, risorsaRepo);
+            } else {
+                prenotazioneRepo.loadFromFile(PRENOTAZIONI_FILE, clienteRepo, risorsaRepo);
+            }
+            // -Dprenotazioni.journalSincrono=false rinuncia all'fsync di ogni modifica: più veloce, ma le ultime
+            // modifiche sopravvivono solo a un crash della JVM, non a uno del sistema
+            boolean sincrono = !"false".equalsIgnoreCase(System.getProperty("prenotazioni.journalSincrono"));
+            clienteRepo.abilitaJournal(CLIENTI_SNAPSHOT, CLIENTI_JOURNAL, SOGLIA_COMPATTAZIONE, sincrono);
+            risorsaRepo.abilitaJournal(RISORSE_SNAPSHOT, RISORSE_JOURNAL, SOGLIA_COMPATTAZIONE, sincrono);
+            prenotazioneRepo.abilitaJournal(PRENOTAZIONI_SNAPSHOT, PRENOTAZIONI_JOURNAL, SOGLIA_COMPATTAZIONE, sincrono,
+                    clienteRepo, risorsaRepo);
         } catch (Exception e) {
+            esito = e.getClass().getSimpleName();
             System.err.println("Errore nel caricamento dei dati: " + e.getMessage());
+        } finally {
+            service.getMetriche().registra("repository.carica", System.nanoTime() - inizio, esito);
+        }
+    }
+
+    // -Dprenotazioni.archiviaDopoGiorni=N sposta all'avvio nell'archivio le prenotazioni concluse da più di N giorni
+    private void apriArchivio() {
+        try {
+            ArchivioPrenotazioni archivio = new ArchivioPrenotazioni(ARCHIVIO_DIR, clienteRepo, risorsaRepo);
+            prenotazioneRepo.riservaId(archivio.getUltimoId(), archivio.getUltimaSerie());
+            String giorni = System.getProperty("prenotazioni.archiviaDopoGiorni");
+            archiviazioneService = new ArchiviazioneService(prenotazioneRepo, archivio,
+                    Duration.ofDays(giorni != null ? Long.parseLong(giorni.trim()) : GIORNI_ARCHIVIAZIONE));
+            if (giorni != null) {
+                int archiviate = archiviazioneService.archiviaConcluse();
+                if (archiviate > 0) {
+                    System.out.println("Prenotazioni concluse spostate nell'archivio: " + archiviate);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Errore nell'apertura dell'archivio " + ARCHIVIO_DIR + ": " + e.getMessage());
+        }
+    }
+
+    // -Dprenotazioni.archiviaOgniMinuti=N ripete l'archiviazione ogni N minuti in background (0 = mai)
+    private void avviaArchiviazione() {
+        long minuti = Long.getLong("prenotazioni.archiviaOgniMinuti", MINUTI_TRA_ARCHIVIAZIONI);
+        if (archiviazioneService != null && minuti > 0) {
+            archiviazioneService.avvia(Duration.ofMinutes(minuti));
+        }
+    }
+
+    private void fermaArchiviazione() {
+        if (archiviazioneService != null) {
+            archiviazioneService.ferma();
         }
     }
 
     private void saveData() {
+        long inizio = System.nanoTime();
+        String esito = RegistroMetriche.ESITO_OK;
+        try {
+            // Ogni modifica è già nel journal: salvare significa scrivere lo snapshot e svuotare il log
+            clienteRepo.compatta();
+            risorsaRepo.compatta();
+            prenotazioneRepo.compatta();
+        } catch (Exception e) {
+            esito = e.getClass().getSimpleName();
+            System.err.println("Errore nel salvataggio dei dati: " + e.getMessage());
+        } finally {
+            service.getMetriche().registra("repository.salva", System.nanoTime() - inizio, esito);
+        }
+    }
+
+    private void esportaCsv() {
+        long inizio = System.nanoTime();
+        String esito = RegistroMetriche.ESITO_OK;
         try {
             clienteRepo.saveToFile(CLIENTI_FILE);
             risorsaRepo.saveToFile(RISORSE_FILE);
             prenotazioneRepo.saveToFile(PRENOTAZIONI_FILE, clienteRepo, risorsaRepo);
         } catch (Exception e) {
-            System.err.println("Errore nel salvataggio dei dati: " + e.getMessage());
+            esito = e.getClass().getSimpleName();
+            System.err.println("Errore nell'esportazione CSV: " + e.getMessage());
+        } finally {
+            service.getMetriche().registra("repository.esportaCsv", System.nanoTime() - inizio, esito);
         }
     }
 
@@ -97,13 +259,15 @@ public class Application {
 
     public void start() {
         boolean running = true;
+        scadenze.avvia();
+        avviaArchiviazione();
 
         while (running) {
             clearScreen();
             mostraIntestazione();
 
             try {
-                int scelta = leggiIntero("\nScegli un'opzione: ", 0, 20);
+                int scelta = leggiIntero("\nScegli un'opzione: ", 0, 27);
 
                 switch (scelta) {
                     case 1 -> creaCliente();
@@ -126,7 +290,16 @@ public class Application {
                     case 18 -> visualizzaDettaglioPrenotazione();
                     case 19 -> mostraStatistiche();
                     case 20 -> salvaDati();
+                    case 21 -> trovaFasceLibere();
+                    case 22 -> cercaRisorsaDisponibile();
+                    case 23 -> creaPrenotazioneRicorrente();
+                    case 24 -> gestisciSerie();
+                    case 25 -> reportOccupazione();
+                    case 26 -> cercaClienti();
+                    case 27 -> gestisciArchivio();
                     case 0 -> {
+                        scadenze.ferma();
+                        fermaArchiviazione();
                         saveData();
                         running = false;
                     }
@@ -144,6 +317,49 @@ public class Application {
         scanner.close();
     }
 
+    /**
+     * Esegue i comandi letti da input (vedi EsecutoreBatch) scrivendo le risposte su output, senza menu né pause.
+     * Con salvaSoloAllaFine le modifiche non passano dal journal e i dati vengono scritti una volta sola al termine:
+     * più veloce, ma un'interruzione a metà perde tutto il batch. Restituisce il numero di comandi falliti.
+     */
+    public long eseguiBatch(InputStream input, OutputStream output, boolean salvaSoloAllaFine) throws IOException {
+        if (salvaSoloAllaFine) {
+            clienteRepo.sospendiJournal();
+            risorsaRepo.sospendiJournal();
+            prenotazioneRepo.sospendiJournal();
+        }
+
+        EsecutoreBatch esecutore = new EsecutoreBatch(service, this::saveData);
+        long inizio = System.nanoTime();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16);
+        try {
+            esecutore.esegui(input, writer);
+        } finally {
+            writer.flush();
+            saveData();
+        }
+
+        long millisecondi = (System.nanoTime() - inizio) / 1_000_000;
+        System.err.printf("Batch completato: %d comandi, %d errori in %d ms%n",
+                esecutore.getEseguiti(), esecutore.getErrori(), millisecondi);
+        return esecutore.getErrori();
+    }
+
+    // Avvia l'API HTTP; i dati vengono salvati alla chiusura della JVM (Ctrl+C o SIGTERM)
+    public ServerPrenotazioni avviaServer(int porta) throws IOException {
+        ServerPrenotazioni server = new ServerPrenotazioni(service, clienteRepo, risorsaRepo);
+        server.avvia(porta);
+        scadenze.avvia();
+        avviaArchiviazione();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.ferma(2);
+            scadenze.ferma();
+            fermaArchiviazione();
+            saveData();
+        }, "chiusura-server"));
+        return server;
+    }
+
     private void mostraIntestazione() {
         System.out.println("╔════════════════════════════════════════════════════════════════╗");
         System.out.println("║              GESTIONALE PRENOTAZIONI - MENU PRINCIPALE         ║");
@@ -152,6 +368,7 @@ public class Application {
         System.out.println("║   1. Crea nuovo cliente                                        ║");
         System.out.println("║   2. Visualizza tutti i clienti                                ║");
         System.out.println("║   3. Elimina cliente                                           ║");
+        System.out.println("║   26. Cerca cliente                                            ║");
         System.out.println("║                                                                ║");
         System.out.println("║ GESTIONE RISORSE:                                              ║");
         System.out.println("║   4. Crea nuova risorsa                                        ║");
@@ -171,12 +388,18 @@ public class Application {
         System.out.println("║   16. Verifica disponibilità risorsa                           ║");
         System.out.println("║   17. Ricerca prenotazioni per periodo                         ║");
         System.out.println("║   18. Visualizza dettaglio prenotazione                        ║");
+        System.out.println("║   21. Trova fasce orarie libere                                ║");
+        System.out.println("║   22. Cerca risorsa libera per tipo e capacità                 ║");
+        System.out.println("║   23. Crea prenotazione ricorrente                             ║");
+        System.out.println("║   24. Gestisci serie ricorrente                                ║");
         System.out.println("║                                                                ║");
         System.out.println("║ REPORT E STATISTICHE:                                          ║");
         System.out.println("║   19. Statistiche sistema                                      ║");
+        System.out.println("║   25. Report occupazione risorse                               ║");
         System.out.println("║                                                                ║");
         System.out.println("║ PERSISTENZA DATI:                                              ║");
         System.out.println("║   20. Salva dati manualmente                                   ║");
+        System.out.println("║   27. Archivio prenotazioni concluse                           ║");
         System.out.println("║                                                                ║");
         System.out.println("║   0. Esci (salva automaticamente)                              ║");
         System.out.println("╚════════════════════════════════════════════════════════════════╝");
@@ -384,6 +607,36 @@ public class Application {
         attesa();
     }
 
+    private void cercaClienti() {
+        clearScreen();
+        System.out.println("╔══════════════════════════════════════════╗");
+        System.out.println("║             RICERCA CLIENTI              ║");
+        System.out.println("╚══════════════════════════════════════════╝\n");
+
+        System.out.println("Parti di nome, cognome, email o telefono; lasciare vuoto per tornare al menu.");
+        while (true) {
+            System.out.print("\nRicerca: ");
+            String ricerca = scanner.nextLine().trim();
+            if (ricerca.isEmpty()) {
+                return;
+            }
+            long inizio = System.nanoTime();
+            List<Cliente> clienti = clienteRepo.cerca(ricerca, RISULTATI_RICERCA);
+            double millisecondi = (System.nanoTime() - inizio) / 1_000_000.0;
+
+            if (clienti.isEmpty()) {
+                System.out.println("Nessun cliente trovato.");
+            } else {
+                System.out.printf("%d clienti trovati in %.2f ms%n", clienti.size(), millisecondi);
+                System.out.println("=".repeat(100));
+                for (Cliente c : clienti) {
+                    System.out.println(c);
+                }
+                System.out.println("=".repeat(100));
+            }
+        }
+    }
+
     private void visualizzaRisorse() {
         clearScreen();
         System.out.println("╔══════════════════════════════════════════╗");
@@ -677,10 +930,7 @@ public class Application {
             } else {
                 System.out.println("\n❌ La risorsa NON è disponibile nel periodo specificato!");
                 System.out.println("\nPrenotazioni esistenti nel periodo:");
-                List<Prenotazione> conflitti = service.getPrenotazioniRisorsa(risorsaId).stream()
-                        .filter(p -> p.getStato() != StatoPrenotazione.CANCELLATA)
-                        .filter(p -> p.getDataOraInizio().isBefore(fine) && p.getDataOraFine().isAfter(inizio))
-                        .collect(Collectors.toList());
+                List<Prenotazione> conflitti = service.getPrenotazioniAttivePerRisorsa(risorsaId, inizio, fine);
 
                 if (!conflitti.isEmpty()) {
                     for (Prenotazione p : conflitti) {
@@ -698,6 +948,257 @@ public class Application {
         attesa();
     }
 
+    private void cercaRisorsaDisponibile() {
+        clearScreen();
+        System.out.println("╔══════════════════════════════════════════╗");
+        System.out.println("║   RICERCA RISORSA PER TIPO E CAPACITÀ    ║");
+        System.out.println("╚══════════════════════════════════════════╝\n");
+
+        System.out.println("Tipi disponibili:");
+        for (int i = 0; i < TipoRisorsa.values().length; i++) {
+            System.out.printf("%d. %s%n", i + 1, TipoRisorsa.values()[i].getDescrizione());
+        }
+
+        int sceltaTipo = leggiIntero("\nScelta tipo (1-" + TipoRisorsa.values().length + "): ", 1, TipoRisorsa.values().length);
+        TipoRisorsa tipo = TipoRisorsa.values()[sceltaTipo - 1];
+
+        int capacita = leggiIntero("Numero di persone: ", 1, 1000);
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+
+        try {
+            System.out.print("\nData e ora inizio (dd/MM/yyyy HH:mm): ");
+            LocalDateTime inizio = LocalDateTime.parse(scanner.nextLine(), formatter);
+
+            System.out.print("Data e ora fine (dd/MM/yyyy HH:mm): ");
+            LocalDateTime fine = LocalDateTime.parse(scanner.nextLine(), formatter);
+
+            List<Risorsa> disponibili = service.trovaRisorseDisponibili(tipo, capacita, inizio, fine);
+
+            if (disponibili.isEmpty()) {
+                System.out.println("\n❌ Nessuna risorsa disponibile con le caratteristiche richieste.");
+                attesa();
+                return;
+            }
+
+            System.out.println("\n✅ Risorse disponibili (dalla più adatta): " + disponibili.size() + "\n");
+            for (Risorsa r : disponibili) {
+                System.out.println("  - " + r);
+            }
+
+            System.out.print("\nPrenotare la risorsa più adatta? (s/n): ");
+            if (scanner.nextLine().equalsIgnoreCase("s")) {
+                Long clienteId = leggiLong("ID Cliente: ");
+                if (clienteId == -1) {
+                    System.out.println("Operazione annullata.");
+                    attesa();
+                    return;
+                }
+
+                System.out.print("Note (opzionale): ");
+                String note = scanner.nextLine();
+
+                Prenotazione prenotazione = service.prenotaRisorsaMigliore(clienteId, tipo, capacita, inizio, fine, note);
+                System.out.println("\n✅ Prenotazione creata con successo! ID: " + prenotazione.getId());
+                System.out.println("\nDettagli prenotazione:");
+                System.out.println(prenotazione.toStringDettagliato());
+            }
+
+        } catch (DateTimeParseException e) {
+            System.out.println("\n❌ Formato data non valido! Usa dd/MM/yyyy HH:mm");
+        } catch (Exception e) {
+            System.out.println("\n❌ Errore: " + e.getMessage());
+        }
+
+        attesa();
+    }
+
+    private void creaPrenotazioneRicorrente() {
+        clearScreen();
+        System.out.println("╔══════════════════════════════════════════╗");
+        System.out.println("║      CREAZIONE PRENOTAZIONE RICORRENTE   ║");
+        System.out.println("╚══════════════════════════════════════════╝\n");
+
+        Long clienteId = leggiLong("ID Cliente: ");
+        if (clienteId == -1) {
+            System.out.println("Operazione annullata.");
+            attesa();
+            return;
+        }
+
+        Long risorsaId = leggiLong("ID Risorsa: ");
+        if (risorsaId == -1) {
+            System.out.println("Operazione annullata.");
+            attesa();
+            return;
+        }
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+
+        try {
+            System.out.print("\nData e ora della prima occorrenza (dd/MM/yyyy HH:mm): ");
+            LocalDateTime inizio = LocalDateTime.parse(scanner.nextLine(), formatter);
+
+            int minuti = leggiIntero("Durata in minuti (1-1440): ", 1, 1440);
+
+            System.out.println("\nFrequenza:");
+            for (int i = 0; i < FrequenzaRicorrenza.values().length; i++) {
+                System.out.printf("%d. %s%n", i + 1, FrequenzaRicorrenza.values()[i].getDescrizione());
+            }
+            int sceltaFrequenza = leggiIntero("Scelta frequenza (1-" + FrequenzaRicorrenza.values().length + "): ",
+                    1, FrequenzaRicorrenza.values().length);
+            FrequenzaRicorrenza frequenza = FrequenzaRicorrenza.values()[sceltaFrequenza - 1];
+            int intervallo = leggiIntero("Ripeti ogni quante unità (1 = ogni volta): ", 1, 52);
+
+            RegolaRicorrenza regola;
+            System.out.print("Data di fine (dd/MM/yyyy, vuoto per indicare il numero di occorrenze): ");
+            String fineStr = scanner.nextLine();
+            if (fineStr.isEmpty()) {
+                int volte = leggiIntero("Numero di occorrenze (1-500): ", 1, 500);
+                regola = RegolaRicorrenza.perVolte(inizio, Duration.ofMinutes(minuti), frequenza, intervallo, volte);
+            } else {
+                LocalDate dataFine = LocalDate.parse(fineStr, DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+                regola = RegolaRicorrenza.finoAl(inizio, Duration.ofMinutes(minuti), frequenza, intervallo, dataFine);
+            }
+
+            System.out.print("Note (opzionale): ");
+            String note = scanner.nextLine();
+
+            // Anteprima: si generano solo le prime occorrenze della regola
+            System.out.println("\nSerie: " + regola);
+            System.out.println("Prime occorrenze:");
+            regola.occorrenze().limit(5).forEach(fascia -> System.out.println("  - " + fascia));
+
+            System.out.print("\nConfermi la creazione? (s/n): ");
+            if (!scanner.nextLine().equalsIgnoreCase("s")) {
+                System.out.println("Operazione annullata.");
+                attesa();
+                return;
+            }
+
+            List<Prenotazione> create = service.creaSerie(clienteId, risorsaId, regola, note);
+            System.out.println("\n✅ Serie creata con successo! ID serie: " + create.get(0).getSerieId() +
+                    " (" + create.size() + " prenotazioni)");
+
+        } catch (DateTimeParseException e) {
+            System.out.println("\n❌ Formato data non valido! Usa dd/MM/yyyy HH:mm per l'inizio e dd/MM/yyyy per la fine");
+        } catch (SerieNonDisponibileException e) {
+            System.out.println("\n❌ Errore: " + e.getMessage());
+            System.out.println("Occorrenze in conflitto:");
+            e.getConflitti().stream().limit(10).forEach(fascia -> System.out.println("  - " + fascia));
+        } catch (Exception e) {
+            System.out.println("\n❌ Errore: " + e.getMessage());
+        }
+
+        attesa();
+    }
+
+    private void gestisciSerie() {
+        clearScreen();
+        System.out.println("╔══════════════════════════════════════════╗");
+        System.out.println("║        GESTIONE SERIE RICORRENTE         ║");
+        System.out.println("╚══════════════════════════════════════════╝\n");
+
+        Long serieId = leggiLong("ID Serie: ");
+        if (serieId == -1) {
+            System.out.println("Operazione annullata.");
+            attesa();
+            return;
+        }
+
+        try {
+            List<Prenotazione> occorrenze = service.getPrenotazioniSerie(serieId);
+            System.out.println("\nOccorrenze della serie: " + occorrenze.size() + "\n");
+            for (Prenotazione p : occorrenze) {
+                System.out.println(p);
+            }
+
+            System.out.println("\n1. Modifica orario, durata o note delle occorrenze future");
+            System.out.println("2. Cancella le occorrenze future");
+            System.out.println("0. Torna al menu");
+            int scelta = leggiIntero("Scelta: ", 0, 2);
+
+            if (scelta == 1) {
+                System.out.print("Nuovo orario di inizio (HH:mm, vuoto per lasciarlo invariato): ");
+                String orarioStr = scanner.nextLine();
+                LocalTime orario = orarioStr.isEmpty() ? null : LocalTime.parse(orarioStr, DateTimeFormatter.ofPattern("HH:mm"));
+
+                int minuti = leggiIntero("Nuova durata in minuti (0 per lasciarla invariata): ", 0, 1440);
+                Duration durata = minuti == 0 ? null : Duration.ofMinutes(minuti);
+
+                System.out.print("Nuove note (vuoto per lasciarle invariate): ");
+                String note = scanner.nextLine();
+
+                List<Prenotazione> modificate = service.modificaSerie(serieId, orario, durata, note.isEmpty() ? null : note);
+                System.out.println("\n✅ Occorrenze modificate: " + modificate.size());
+            } else if (scelta == 2) {
+                System.out.print("Confermi la cancellazione delle occorrenze future? (s/n): ");
+                if (scanner.nextLine().equalsIgnoreCase("s")) {
+                    int cancellate = service.cancellaSerie(serieId);
+                    System.out.println("\n✅ Occorrenze cancellate: " + cancellate);
+                } else {
+                    System.out.println("Operazione annullata.");
+                }
+            }
+
+        } catch (DateTimeParseException e) {
+            System.out.println("\n❌ Formato orario non valido! Usa HH:mm");
+        } catch (SerieNonDisponibileException e) {
+            System.out.println("\n❌ Errore: " + e.getMessage());
+            System.out.println("Occorrenze in conflitto:");
+            e.getConflitti().stream().limit(10).forEach(fascia -> System.out.println("  - " + fascia));
+        } catch (Exception e) {
+            System.out.println("\n❌ Errore: " + e.getMessage());
+        }
+
+        attesa();
+    }
+
+    private void trovaFasceLibere() {
+        clearScreen();
+        System.out.println("╔══════════════════════════════════════════╗");
+        System.out.println("║      RICERCA FASCE ORARIE LIBERE         ║");
+        System.out.println("╚══════════════════════════════════════════╝\n");
+
+        Long risorsaId = leggiLong("ID Risorsa: ");
+        if (risorsaId == -1) {
+            System.out.println("Operazione annullata.");
+            attesa();
+            return;
+        }
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+
+        try {
+            System.out.print("\nInizio finestra di ricerca (dd/MM/yyyy HH:mm): ");
+            LocalDateTime inizio = LocalDateTime.parse(scanner.nextLine(), formatter);
+
+            System.out.print("Fine finestra di ricerca (dd/MM/yyyy HH:mm): ");
+            LocalDateTime fine = LocalDateTime.parse(scanner.nextLine(), formatter);
+
+            int minuti = leggiIntero("Durata richiesta in minuti (1-1440): ", 1, 1440);
+            int massimo = leggiIntero("Numero massimo di fasce da mostrare (1-50): ", 1, 50);
+
+            List<FasciaOraria> libere = service.trovaSlotLiberi(risorsaId, inizio, fine, Duration.ofMinutes(minuti), massimo);
+
+            if (libere.isEmpty()) {
+                System.out.println("\n❌ Nessuna fascia libera di almeno " + minuti + " minuti nella finestra indicata.");
+            } else {
+                System.out.println("\n✅ Fasce libere trovate: " + libere.size() + "\n");
+                for (FasciaOraria fascia : libere) {
+                    System.out.println("  - " + fascia);
+                }
+            }
+
+        } catch (DateTimeParseException e) {
+            System.out.println("\n❌ Formato data non valido! Usa dd/MM/yyyy HH:mm");
+        } catch (Exception e) {
+            System.out.println("\n❌ Errore: " + e.getMessage());
+        }
+
+        attesa();
+    }
+
     private void ricercaPrenotazioniPeriodo() {
         clearScreen();
         System.out.println("╔══════════════════════════════════════════╗");
@@ -871,7 +1372,9 @@ public class Application {
         System.out.println("╚══════════════════════════════════════════╝\n");
 
         saveData();
+        esportaCsv();
         System.out.println("\n✅ Dati salvati con successo!");
+        System.out.println("   Copia CSV esportata in " + CLIENTI_FILE + ", " + RISORSE_FILE + ", " + PRENOTAZIONI_FILE);
         attesa();
     }
 
@@ -881,47 +1384,212 @@ public class Application {
         System.out.println("║          STATISTICHE SISTEMA             ║");
         System.out.println("╚══════════════════════════════════════════╝\n");
 
-        List<Cliente> clienti = clienteRepo.findAll();
-        List<Risorsa> risorse = risorsaRepo.findAll();
-        List<Prenotazione> prenotazioni = service.getTuttePrenotazioni();
+        AggregatoreStatistiche statistiche = service.getStatistiche();
+        long totalePrenotazioni = statistiche.getPrenotazioni();
 
         System.out.println("📊 STATISTICHE GENERALI:");
-        System.out.println("├─ Clienti registrati: " + clienti.size());
-        System.out.println("├─ Risorse disponibili: " + risorse.size());
-        System.out.println("└─ Prenotazioni totali: " + prenotazioni.size());
+        System.out.println("├─ Clienti registrati: " + statistiche.getClienti());
+        System.out.println("├─ Risorse disponibili: " + statistiche.getRisorse());
+        System.out.println("└─ Prenotazioni totali: " + totalePrenotazioni);
 
         System.out.println("\n📈 DISTRIBUZIONE PRENOTAZIONI PER STATO:");
-        Map<StatoPrenotazione, Long> prenotazioniPerStato = prenotazioni.stream()
-                .collect(Collectors.groupingBy(Prenotazione::getStato, Collectors.counting()));
-
-        prenotazioniPerStato.forEach((stato, count) ->
+        statistiche.getPrenotazioniPerStato().forEach((stato, count) ->
                 System.out.printf("├─ %-12s: %-3d (%.1f%%)\n",
                         stato.getDescrizione(), count,
-                        prenotazioni.isEmpty() ? 0 : (count * 100.0 / prenotazioni.size())));
+                        totalePrenotazioni == 0 ? 0 : (count * 100.0 / totalePrenotazioni)));
 
         System.out.println("\n🏢 RISORSE PER TIPO:");
-        Map<TipoRisorsa, Long> risorsePerTipo = risorse.stream()
-                .collect(Collectors.groupingBy(Risorsa::getTipo, Collectors.counting()));
-
-        risorsePerTipo.forEach((tipo, count) ->
+        statistiche.getRisorsePerTipo().forEach((tipo, count) ->
                 System.out.println("├─ " + tipo.getDescrizione() + ": " + count));
 
         System.out.println("\n📅 PRENOTAZIONI PROSSIME (prossimi 7 giorni):");
-        LocalDateTime ora = LocalDateTime.now();
-        LocalDateTime tra7Giorni = ora.plusDays(7);
-
-        long prenotazioniFuture = prenotazioni.stream()
-                .filter(p -> p.getStato() != StatoPrenotazione.CANCELLATA)
-                .filter(p -> p.getDataOraInizio().isAfter(ora) && p.getDataOraInizio().isBefore(tra7Giorni))
-                .count();
+        long prenotazioniFuture = statistiche.getPrenotazioniProssime(LocalDateTime.now());
 
         System.out.println("└─ " + prenotazioniFuture + " prenotazioni nei prossimi 7 giorni");
 
+        System.out.println("\n⏱ CAMBI DI STATO AUTOMATICI (da questo avvio):");
+        System.out.println("├─ Provvisorie cancellate per scadenza: " + scadenze.getProvvisorieCancellate());
+        System.out.println("└─ Confermate completate alla fine: " + scadenze.getPrenotazioniCompletate());
+
         System.out.println("\n💾 FILE DI DATI:");
-        System.out.println("├─ " + CLIENTI_FILE + " (clienti)");
-        System.out.println("├─ " + RISORSE_FILE + " (risorse)");
-        System.out.println("└─ " + PRENOTAZIONI_FILE + " (prenotazioni)");
+        System.out.println("├─ " + CLIENTI_SNAPSHOT + ", " + RISORSE_SNAPSHOT + ", " + PRENOTAZIONI_SNAPSHOT + " (snapshot)");
+        System.out.println("├─ " + CLIENTI_FILE + ", " + RISORSE_FILE + ", " + PRENOTAZIONI_FILE + " (esportazione CSV)");
+        System.out.println("└─ " + CLIENTI_JOURNAL + ", " + RISORSE_JOURNAL + ", " + PRENOTAZIONI_JOURNAL + " (journal)");
+
+        mostraMetriche();
+        attesa();
+    }
+
+    private void gestisciArchivio() {
+        clearScreen();
+        System.out.println("╔══════════════════════════════════════════╗");
+        System.out.println("║      ARCHIVIO PRENOTAZIONI CONCLUSE      ║");
+        System.out.println("╚══════════════════════════════════════════╝\n");
+
+        if (archiviazioneService == null) {
+            System.out.println("Archivio non disponibile: vedere l'errore all'avvio.");
+            attesa();
+            return;
+        }
+
+        long giorni = archiviazioneService.getEta().toDays();
+        System.out.println("1. Archivia ora le prenotazioni completate o cancellate finite da più di " + giorni + " giorni");
+        System.out.println("2. Cerca nell'archivio per periodo");
+        System.out.println("3. Cerca nell'archivio per cliente");
+        System.out.println("0. Torna al menu");
+        int scelta = leggiIntero("Scelta: ", 0, 3);
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+        try {
+            List<Prenotazione> trovate = null;
+            long inizio = System.nanoTime();
+            if (scelta == 1) {
+                int archiviate = archiviazioneService.archiviaConcluse();
+                System.out.println("\n✅ Prenotazioni spostate nell'archivio: " + archiviate + " in " + formattaDurata(System.nanoTime() - inizio));
+            } else if (scelta == 2) {
+                System.out.print("Data inizio (dd/MM/yyyy HH:mm): ");
+                LocalDateTime da = LocalDateTime.parse(scanner.nextLine(), formatter);
+                System.out.print("Data fine (dd/MM/yyyy HH:mm): ");
+                LocalDateTime a = LocalDateTime.parse(scanner.nextLine(), formatter);
+                inizio = System.nanoTime();
+                trovate = archiviazioneService.cercaPerPeriodo(da, a);
+            } else if (scelta == 3) {
+                Long clienteId = leggiLong("ID Cliente: ");
+                if (clienteId != -1) {
+                    inizio = System.nanoTime();
+                    trovate = archiviazioneService.cercaPerCliente(clienteId);
+                }
+            }
+
+            if (trovate != null) {
+                if (trovate.isEmpty()) {
+                    System.out.println("\nNessuna prenotazione archiviata trovata.");
+                } else {
+                    System.out.println("\nPrenotazioni archiviate trovate: " + trovate.size() + " in " + formattaDurata(System.nanoTime() - inizio) + "\n");
+                    System.out.println("=".repeat(130));
+                    for (Prenotazione p : trovate) {
+                        System.out.println(p);
+                    }
+                    System.out.println("=".repeat(130));
+                }
+            }
+        } catch (DateTimeParseException e) {
+            System.out.println("\n❌ Formato data non valido! Usa dd/MM/yyyy HH:mm");
+        } catch (IOException e) {
+            System.out.println("\n❌ Errore nell'accesso all'archivio: " + e.getMessage());
+        }
 
         attesa();
     }
+
+    private void reportOccupazione() {
+        clearScreen();
+        System.out.println("╔══════════════════════════════════════════╗");
+        System.out.println("║      REPORT OCCUPAZIONE RISORSE          ║");
+        System.out.println("╚══════════════════════════════════════════╝\n");
+
+        DateTimeFormatter formatoData = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+        DateTimeFormatter formatoOra = DateTimeFormatter.ofPattern("HH:mm");
+
+        try {
+            System.out.print("Dal giorno (dd/MM/yyyy): ");
+            LocalDate da = LocalDate.parse(scanner.nextLine(), formatoData);
+            System.out.print("Al giorno compreso (dd/MM/yyyy): ");
+            LocalDate a = LocalDate.parse(scanner.nextLine(), formatoData);
+
+            System.out.println("\nSuddivisione:");
+            PeriodoReport[] periodi = PeriodoReport.values();
+            for (int i = 0; i < periodi.length; i++) {
+                System.out.printf("%d. %s%n", i + 1, periodi[i].getDescrizione());
+            }
+            PeriodoReport periodo = periodi[leggiIntero("Scelta: ", 1, periodi.length) - 1];
+
+            System.out.print("Orario di apertura (HH:mm, INVIO per 00:00): ");
+            String aperturaStr = scanner.nextLine();
+            LocalTime apertura = aperturaStr.isEmpty() ? LocalTime.MIDNIGHT : LocalTime.parse(aperturaStr, formatoOra);
+            System.out.print("Orario di chiusura (HH:mm, INVIO per 24:00): ");
+            String chiusuraStr = scanner.nextLine();
+            LocalTime chiusura = chiusuraStr.isEmpty() ? LocalTime.MIDNIGHT : LocalTime.parse(chiusuraStr, formatoOra);
+
+            long inizio = System.nanoTime();
+            ReportOccupazione report = occupazioneService.calcola(da, a, periodo, apertura, chiusura);
+            long durata = System.nanoTime() - inizio;
+
+            System.out.println("\n🏢 OCCUPAZIONE PER TIPO:");
+            System.out.printf("   %-12s %-20s %10s %10s %8s %6s%n", "Periodo", "Tipo", "Ore occ.", "Ore aper.", "Utilizzo", "Picco");
+            for (ReportOccupazione.Riga riga : report.getPerTipo()) {
+                System.out.printf("├─ %-12s %-20s %10.1f %10.1f %7.1f%% %6d%n", riga.getPeriodo().format(formatoData),
+                        riga.getTipo().getDescrizione(), riga.getMinutiOccupati() / 60.0, riga.getMinutiApertura() / 60.0,
+                        riga.getUtilizzo() * 100, riga.getPicco());
+            }
+            System.out.println("\n📊 TOTALI DELL'INTERVALLO PER TIPO:");
+            for (ReportOccupazione.Riga riga : report.getTotaliPerTipo()) {
+                System.out.printf("├─ %-20s %7.1f%% delle ore di apertura, fino a %d risorse occupate insieme%n",
+                        riga.getTipo().getDescrizione(), riga.getUtilizzo() * 100, riga.getPicco());
+            }
+
+            List<ReportOccupazione.Riga> classifica = new ArrayList<>(report.getTotaliPerRisorsa());
+            classifica.sort((x, y) -> Double.compare(y.getUtilizzo(), x.getUtilizzo()));
+            System.out.println("\n🔝 RISORSE PIÙ OCCUPATE:");
+            for (ReportOccupazione.Riga riga : classifica.subList(0, Math.min(10, classifica.size()))) {
+                System.out.printf("├─ [%d] %-30s %7.1f%% (%.1f ore)%n", riga.getRisorsa().getId(),
+                        riga.getRisorsa().getNome(), riga.getUtilizzo() * 100, riga.getMinutiOccupati() / 60.0);
+            }
+            System.out.printf("%nCalcolato su %d risorse in %s%n", report.getTotaliPerRisorsa().size(), formattaDurata(durata));
+
+            System.out.print("\nEsportare il report completo (anche per risorsa) su " + OCCUPAZIONE_FILE + "? (s/n): ");
+            if (scanner.nextLine().equalsIgnoreCase("s")) {
+                report.scriviCsv(OCCUPAZIONE_FILE);
+                System.out.println("✅ Report esportato in " + OCCUPAZIONE_FILE);
+            }
+        } catch (DateTimeParseException e) {
+            System.out.println("\n❌ Formato non valido! Usa dd/MM/yyyy per le date e HH:mm per gli orari");
+        } catch (IOException e) {
+            System.out.println("\n❌ Errore nell'esportazione del report: " + e.getMessage());
+        } catch (Exception e) {
+            System.out.println("\n❌ Errore: " + e.getMessage());
+        }
+
+        attesa();
+    }
+
+    private void mostraMetriche() {
+        RegistroMetriche metriche = service.getMetriche();
+        Map<String, RegistroMetriche.Operazione> operazioni = metriche.getOperazioni();
+        System.out.println("\n⏱ TEMPI DELLE OPERAZIONI (dall'avvio):");
+        if (operazioni.isEmpty()) {
+            System.out.println("└─ Nessuna operazione registrata");
+            return;
+        }
+        System.out.printf("   %-32s %9s %7s %10s %10s %10s%n", "Operazione", "Chiamate", "Errori", "Media", "p50 ≤", "p99 ≤");
+        for (RegistroMetriche.Operazione operazione : operazioni.values()) {
+            Istogramma durate = operazione.getDurate();
+            long chiamate = durate.getConteggio();
+            System.out.printf("├─ %-32s %9d %7d %10s %10s %10s%n", operazione.getNome(), chiamate, operazione.getErrori(),
+                    formattaDurata(durate.getSommaNanos() / Math.max(1, chiamate)),
+                    formattaDurata(durate.percentileNanos(0.50)), formattaDurata(durate.percentileNanos(0.99)));
+            operazione.getEsiti().forEach((esito, conteggio) -> {
+                if (!RegistroMetriche.ESITO_OK.equals(esito)) {
+                    System.out.printf("│     %-30s %9d%n", esito, conteggio);
+                }
+            });
+        }
+
+        System.out.print("\nEsportare le metriche in formato Prometheus su " + METRICHE_FILE + "? (s/n): ");
+        if (scanner.nextLine().equalsIgnoreCase("s")) {
+            try {
+                metriche.esportaPrometheus(METRICHE_FILE);
+                System.out.println("✅ Metriche esportate in " + METRICHE_FILE);
+            } catch (IOException e) {
+                System.out.println("❌ Errore nell'esportazione delle metriche: " + e.getMessage());
+            }
+        }
+    }
+
+    private static String formattaDurata(long nanos) {
+        if (nanos < 1_000) return nanos + " ns";
+        if (nanos < 1_000_000) return String.format("%.1f µs", nanos / 1e3);
+        if (nanos < 1_000_000_000) return String.format("%.1f ms", nanos / 1e6);
+        return String.format("%.2f s", nanos / 1e9);
+    }
 }
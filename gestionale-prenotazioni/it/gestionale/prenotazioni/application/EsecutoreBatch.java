@@ -0,0 +1,130 @@
+package it.gestionale.prenotazioni.application;
+
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.repository.CsvReader;
+import it.gestionale.prenotazioni.service.PrenotazioneService;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Esegue comandi senza interazione, uno per riga in formato CSV (come i file di dati, date dd/MM/yyyy HH:mm):
+ *
+ *   CREA,clienteId,risorsaId,inizio,fine[,note]     -> OK,riga,CREA,id
+ *   CONFERMA,id / COMPLETA,id / CANCELLA,id         -> OK,riga,COMANDO,id
+ *   MODIFICA,id,inizio,fine[,note]                  -> OK,riga,MODIFICA,id,versione
+ *   DISPONIBILE,risorsaId,inizio,fine               -> OK,riga,DISPONIBILE,true|false
+ *   PRENOTAZIONE,id                                 -> OK,riga,PRENOTAZIONE,id,clienteId,risorsaId,inizio,fine,stato,note
+ *   SALVA                                           -> OK,riga,SALVA
+ *
+ * Ogni comando produce una riga di risposta; un comando fallito produce
+ * ERR,riga,nomeEccezione,messaggio e l'esecuzione prosegue. Righe vuote e righe che iniziano con # sono ignorate.
+ */
+class EsecutoreBatch {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+
+    private enum Comando { CREA, CONFERMA, COMPLETA, CANCELLA, MODIFICA, DISPONIBILE, PRENOTAZIONE, SALVA }
+    private static final Comando[] COMANDI = Comando.values();
+
+    private final PrenotazioneService service;
+    private final Runnable salva;
+    private final StringBuilder risposta = new StringBuilder(128);
+    private long eseguiti;
+    private long errori;
+
+    EsecutoreBatch(PrenotazioneService service, Runnable salva) {
+        this.service = service;
+        this.salva = salva;
+    }
+
+    long getEseguiti() {
+        return eseguiti;
+    }
+
+    long getErrori() {
+        return errori;
+    }
+
+    // L'output va in un Writer bufferizzato dal chiamante: una riga per comando, nessun flush intermedio
+    void esegui(InputStream input, Writer output) throws IOException {
+        try (CsvReader comandi = new CsvReader(input)) {
+            while (comandi.nextRecord()) {
+                if (comandi.isVuoto(0) && comandi.getNumeroCampi() == 1 || comandi.campo(0).startsWith("#")) {
+                    continue;
+                }
+                risposta.setLength(0);
+                try {
+                    esegui(comandi);
+                } catch (RuntimeException e) {
+                    // Anche gli errori di formato (numeri, date, comandi sconosciuti) non interrompono il batch
+                    errori++;
+                    risposta.setLength(0);
+                    risposta.append("ERR,").append(comandi.getNumeroRiga()).append(',')
+                            .append(e.getClass().getSimpleName()).append(',').append(escapeCsv(e.getMessage()));
+                }
+                eseguiti++;
+                output.append(risposta).append('\n');
+            }
+        }
+    }
+
+    private void esegui(CsvReader riga) {
+        Comando comando = riga.campoEnum(0, COMANDI);
+        risposta.append("OK,").append(riga.getNumeroRiga()).append(',').append(comando.name());
+        switch (comando) {
+            case CREA -> {
+                Prenotazione p = service.creaPrenotazione(riga.campoLong(1), riga.campoLong(2),
+                        riga.campoDataOra(3), riga.campoDataOra(4), note(riga, 5));
+                risposta.append(',').append(p.getId());
+            }
+            case CONFERMA -> {
+                service.confermaPrenotazione(riga.campoLong(1));
+                risposta.append(',').append(riga.campoLong(1));
+            }
+            case COMPLETA -> {
+                service.completaPrenotazione(riga.campoLong(1));
+                risposta.append(',').append(riga.campoLong(1));
+            }
+            case CANCELLA -> {
+                service.cancellaPrenotazione(riga.campoLong(1));
+                risposta.append(',').append(riga.campoLong(1));
+            }
+            case MODIFICA -> {
+                Prenotazione p = service.modificaPrenotazione(riga.campoLong(1),
+                        riga.campoDataOra(2), riga.campoDataOra(3), note(riga, 4));
+                risposta.append(',').append(p.getId()).append(',').append(p.getVersione());
+            }
+            case DISPONIBILE -> {
+                LocalDateTime inizio = riga.campoDataOra(2);
+                LocalDateTime fine = riga.campoDataOra(3);
+                risposta.append(',').append(service.isRisorsaDisponibile(riga.campoLong(1), inizio, fine));
+            }
+            case PRENOTAZIONE -> {
+                Prenotazione p = service.getPrenotazione(riga.campoLong(1));
+                risposta.append(',').append(p.getId())
+                        .append(',').append(p.getCliente() != null ? p.getCliente().getId().toString() : "")
+                        .append(',').append(p.getRisorsa() != null ? p.getRisorsa().getId().toString() : "")
+                        .append(',').append(p.getDataOraInizio().format(FORMATTER))
+                        .append(',').append(p.getDataOraFine().format(FORMATTER))
+                        .append(',').append(p.getStato().name())
+                        .append(',').append(escapeCsv(p.getNote()));
+            }
+            case SALVA -> salva.run();
+        }
+    }
+
+    // Campo facoltativo: assente o vuoto vale null, come una nota non inserita
+    private static String note(CsvReader riga, int indice) {
+        return riga.isVuoto(indice) ? null : riga.campo(indice);
+    }
+
+    private static String escapeCsv(String value) {
+        if (value == null) return "";
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
@@ -1,7 +1,31 @@
 package it.gestionale.prenotazioni.application;
 
+import it.gestionale.prenotazioni.repository.DuplicatiEmail;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Senza argomenti avvia il menu interattivo.
+ * Modalità batch: --batch [file] [--salva-alla-fine]; senza file (o con "-") i comandi arrivano da stdin.
+ * Modalità server: --server [porta], API HTTP/JSON (porta predefinita 8080).
+ * Controllo dati: --duplicati-email [file] elenca i clienti con la stessa email (predefinito clienti.bin o clienti.txt).
+ */
 public class GestionalePrenotazioni {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(eseguiBatch(args));
+        }
+        if (args.length > 0 && args[0].equals("--duplicati-email")) {
+            System.exit(duplicatiEmail(args));
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            avviaServer(args);
+            return;
+        }
         try {
             Application app = new Application();
             app.start();
@@ -10,4 +34,54 @@ public class GestionalePrenotazioni {
             e.printStackTrace();
         }
     }
+
+    private static void avviaServer(String[] args) {
+        try {
+            int porta = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+            new Application(true).avviaServer(porta);
+            System.out.println("Server in ascolto sulla porta " + porta);
+        } catch (Exception e) {
+            System.err.println("Errore critico nell'avvio del server: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    // Codice d'uscita: 0 se non ci sono duplicati, 1 se ce ne sono, 2 se il file non si legge
+    private static int duplicatiEmail(String[] args) {
+        String file = args.length > 1 ? args[1] : Files.exists(Paths.get("clienti.bin")) ? "clienti.bin" : "clienti.txt";
+        try {
+            Map<String, List<Long>> duplicati = DuplicatiEmail.trova(file);
+            duplicati.forEach((email, ids) -> System.out.println(email + ": clienti " + ids));
+            System.out.println(duplicati.isEmpty() ? "Nessuna email duplicata in " + file
+                    : duplicati.size() + " email usate da più clienti in " + file);
+            return duplicati.isEmpty() ? 0 : 1;
+        } catch (Exception e) {
+            System.err.println("Errore nella lettura di " + file + ": " + e.getMessage());
+            return 2;
+        }
+    }
+
+    // Codice d'uscita: 0 se tutti i comandi sono riusciti, 1 se qualcuno è fallito, 2 per errori di avvio
+    private static int eseguiBatch(String[] args) {
+        String file = null;
+        boolean salvaSoloAllaFine = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--salva-alla-fine")) {
+                salvaSoloAllaFine = true;
+            } else if (file == null) {
+                file = args[i];
+            } else {
+                System.err.println("Argomento non riconosciuto: " + args[i]);
+                return 2;
+            }
+        }
+
+        try (InputStream input = file == null || file.equals("-") ? System.in : new FileInputStream(file)) {
+            Application app = new Application(false);
+            return app.eseguiBatch(input, System.out, salvaSoloAllaFine) == 0 ? 0 : 1;
+        } catch (Exception e) {
+            System.err.println("Errore critico nella modalità batch: " + e.getMessage());
+            return 2;
+        }
+    }
 }
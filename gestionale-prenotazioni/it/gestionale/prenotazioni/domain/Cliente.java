@@ -32,6 +32,18 @@ public class Cliente {
     public String getTelefono() { return telefono; }
     public void setTelefono(String telefono) { this.telefono = telefono; }
 
+    public Cliente copia() {
+        return new Cliente(id, nome, cognome, email, telefono);
+    }
+
+    // Aggiorna sul posto i dati, così chi tiene un riferimento a questa istanza vede quelli nuovi
+    public void aggiornaDa(Cliente altro) {
+        nome = altro.nome;
+        cognome = altro.cognome;
+        email = altro.email;
+        telefono = altro.telefono;
+    }
+
     @Override
     public String toString() {
         return String.format("ID: %-3d | Nome: %-15s | Cognome: %-15s | Email: %-20s | Tel: %-12s",
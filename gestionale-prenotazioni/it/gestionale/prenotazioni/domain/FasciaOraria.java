@@ -0,0 +1,33 @@
+package it.gestionale.prenotazioni.domain;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+public class FasciaOraria {
+    private final LocalDateTime inizio;
+    private final LocalDateTime fine;
+
+    public FasciaOraria(LocalDateTime inizio, LocalDateTime fine) {
+        this.inizio = inizio;
+        this.fine = fine;
+    }
+
+    public LocalDateTime getInizio() { return inizio; }
+    public LocalDateTime getFine() { return fine; }
+
+    public Duration getDurata() {
+        return Duration.between(inizio, fine);
+    }
+
+    @Override
+    public String toString() {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+        Duration durata = getDurata();
+        return String.format("%s - %s (%dh %02dm)",
+                inizio.format(formatter),
+                fine.format(formatter),
+                durata.toHours(),
+                durata.toMinutesPart());
+    }
+}
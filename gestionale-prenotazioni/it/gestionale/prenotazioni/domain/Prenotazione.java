@@ -12,6 +12,12 @@ public class Prenotazione {
     private LocalDateTime dataOraFine;
     private StatoPrenotazione stato;
     private String note;
+    // Incrementata dal repository a ogni scrittura, serve a riconoscere le modifiche concorrenti
+    private long versione;
+    // Valorizzato solo per le occorrenze di una serie ricorrente
+    private Long serieId;
+    // Assegnata dal repository al primo salvataggio e conservata nei file: da qui conta la durata di una provvisoria
+    private LocalDateTime dataOraCreazione;
 
     public Prenotazione() {}
 
@@ -44,6 +50,21 @@ public class Prenotazione {
     public void setStato(StatoPrenotazione stato) { this.stato = stato; }
     public String getNote() { return note; }
     public void setNote(String note) { this.note = note; }
+    public long getVersione() { return versione; }
+    public void setVersione(long versione) { this.versione = versione; }
+    public Long getSerieId() { return serieId; }
+    public void setSerieId(Long serieId) { this.serieId = serieId; }
+    public LocalDateTime getDataOraCreazione() { return dataOraCreazione; }
+    public void setDataOraCreazione(LocalDateTime dataOraCreazione) { this.dataOraCreazione = dataOraCreazione; }
+
+    // Copia da modificare senza toccare l'istanza condivisa; cliente e risorsa restano gli stessi oggetti
+    public Prenotazione copia() {
+        Prenotazione copia = new Prenotazione(id, cliente, risorsa, dataOraInizio, dataOraFine, stato, note);
+        copia.versione = versione;
+        copia.serieId = serieId;
+        copia.dataOraCreazione = dataOraCreazione;
+        return copia;
+    }
 
     @Override
     public String toString() {
@@ -66,6 +87,7 @@ public class Prenotazione {
                 "Risorsa: " + (risorsa != null ? risorsa.toStringBreve() : "null") + "\n" +
                 "Periodo: " + dataOraInizio.format(formatter) + " - " + dataOraFine.format(formatter) + "\n" +
                 "Stato: " + stato.getDescrizione() + "\n" +
+                (serieId != null ? "Serie: " + serieId + "\n" : "") +
                 "Note: " + (note != null ? note : "Nessuna") + "\n";
     }
 }
@@ -0,0 +1,90 @@
+package it.gestionale.prenotazioni.domain;
+
+import it.gestionale.prenotazioni.enums.FrequenzaRicorrenza;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.stream.Stream;
+
+/**
+ * Regola di una serie ricorrente: la k-esima occorrenza inizia a primoInizio + k * intervallo unità
+ * della frequenza (ogni 2 settimane, ogni 3 giorni...). La serie termina all'ultima occorrenza che
+ * inizia entro dataFine, oppure dopo numeroOccorrenze occorrenze; se sono indicati entrambi vale il
+ * limite raggiunto per primo. Le occorrenze sono calcolate dalla prima e non dalla precedente,
+ * così le serie mensili non slittano dopo un mese corto.
+ */
+public class RegolaRicorrenza {
+    private final LocalDateTime primoInizio;
+    private final Duration durata;
+    private final FrequenzaRicorrenza frequenza;
+    private final int intervallo;
+    private final LocalDate dataFine;
+    private final int numeroOccorrenze;
+
+    public RegolaRicorrenza(LocalDateTime primoInizio, Duration durata, FrequenzaRicorrenza frequenza,
+                            int intervallo, LocalDate dataFine, int numeroOccorrenze) {
+        this.primoInizio = primoInizio;
+        this.durata = durata;
+        this.frequenza = frequenza;
+        this.intervallo = intervallo;
+        this.dataFine = dataFine;
+        this.numeroOccorrenze = numeroOccorrenze;
+    }
+
+    public static RegolaRicorrenza finoAl(LocalDateTime primoInizio, Duration durata, FrequenzaRicorrenza frequenza,
+                                          int intervallo, LocalDate dataFine) {
+        return new RegolaRicorrenza(primoInizio, durata, frequenza, intervallo, dataFine, 0);
+    }
+
+    public static RegolaRicorrenza perVolte(LocalDateTime primoInizio, Duration durata, FrequenzaRicorrenza frequenza,
+                                            int intervallo, int numeroOccorrenze) {
+        return new RegolaRicorrenza(primoInizio, durata, frequenza, intervallo, null, numeroOccorrenze);
+    }
+
+    public LocalDateTime getPrimoInizio() { return primoInizio; }
+    public Duration getDurata() { return durata; }
+    public FrequenzaRicorrenza getFrequenza() { return frequenza; }
+    public int getIntervallo() { return intervallo; }
+    public LocalDate getDataFine() { return dataFine; }
+    public int getNumeroOccorrenze() { return numeroOccorrenze; }
+
+    public boolean isLimitata() {
+        return dataFine != null || numeroOccorrenze > 0;
+    }
+
+    // Inizio della k-esima occorrenza (da 0)
+    public LocalDateTime inizioOccorrenza(long k) {
+        return primoInizio.plus(k * intervallo, frequenza.getUnita());
+    }
+
+    /**
+     * Occorrenze in ordine cronologico, generate una alla volta: chi si ferma prima (limit, findFirst)
+     * non paga per quelle successive. Senza limiti la sequenza è infinita.
+     */
+    public Stream<FasciaOraria> occorrenze() {
+        Stream<LocalDateTime> inizi = Stream.iterate(0L, k -> k + 1).map(this::inizioOccorrenza);
+        if (numeroOccorrenze > 0) {
+            inizi = inizi.limit(numeroOccorrenze);
+        }
+        if (dataFine != null) {
+            inizi = inizi.takeWhile(inizio -> !inizio.toLocalDate().isAfter(dataFine));
+        }
+        return inizi.map(inizio -> new FasciaOraria(inizio, inizio.plus(durata)));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(frequenza.getDescrizione());
+        if (intervallo > 1) {
+            sb.append(" (ogni ").append(intervallo).append(")");
+        }
+        sb.append(" dal ").append(new FasciaOraria(primoInizio, primoInizio.plus(durata)));
+        if (numeroOccorrenze > 0) {
+            sb.append(", ").append(numeroOccorrenze).append(" volte");
+        }
+        if (dataFine != null) {
+            sb.append(", fino al ").append(dataFine);
+        }
+        return sb.toString();
+    }
+}
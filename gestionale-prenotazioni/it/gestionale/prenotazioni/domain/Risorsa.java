@@ -34,6 +34,18 @@ public class Risorsa {
     public int getCapacita() { return capacita; }
     public void setCapacita(int capacita) { this.capacita = capacita; }
 
+    public Risorsa copia() {
+        return new Risorsa(id, nome, descrizione, tipo, capacita);
+    }
+
+    // Aggiorna sul posto i dati, così chi tiene un riferimento a questa istanza vede quelli nuovi
+    public void aggiornaDa(Risorsa altra) {
+        nome = altra.nome;
+        descrizione = altra.descrizione;
+        tipo = altra.tipo;
+        capacita = altra.capacita;
+    }
+
     @Override
     public String toString() {
         return String.format("ID: %-3d | Nome: %-20s | Tipo: %-20s | Cap: %-3d | Desc: %-30s",
@@ -0,0 +1,25 @@
+package it.gestionale.prenotazioni.enums;
+
+import java.time.temporal.ChronoUnit;
+
+public enum FrequenzaRicorrenza {
+    GIORNALIERA("Giornaliera", ChronoUnit.DAYS),
+    SETTIMANALE("Settimanale", ChronoUnit.WEEKS),
+    MENSILE("Mensile", ChronoUnit.MONTHS);
+
+    private final String descrizione;
+    private final ChronoUnit unita;
+
+    FrequenzaRicorrenza(String descrizione, ChronoUnit unita) {
+        this.descrizione = descrizione;
+        this.unita = unita;
+    }
+
+    public String getDescrizione() {
+        return descrizione;
+    }
+
+    public ChronoUnit getUnita() {
+        return unita;
+    }
+}
@@ -0,0 +1,30 @@
+package it.gestionale.prenotazioni.enums;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+public enum PeriodoReport {
+    GIORNO("Giornaliero"),
+    SETTIMANA("Settimanale"),
+    MESE("Mensile");
+
+    private final String descrizione;
+
+    PeriodoReport(String descrizione) {
+        this.descrizione = descrizione;
+    }
+
+    public String getDescrizione() {
+        return descrizione;
+    }
+
+    // Primo giorno del periodo che contiene la data: le settimane iniziano di lunedì
+    public LocalDate inizioPeriodo(LocalDate giorno) {
+        switch (this) {
+            case SETTIMANA: return giorno.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MESE: return giorno.withDayOfMonth(1);
+            default: return giorno;
+        }
+    }
+}
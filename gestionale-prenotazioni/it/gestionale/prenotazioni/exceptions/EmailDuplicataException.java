@@ -0,0 +1,7 @@
+package it.gestionale.prenotazioni.exceptions;
+
+public class EmailDuplicataException extends PrenotazioneException {
+    public EmailDuplicataException(String email, Long clienteId) {
+        super("L'email " + email + " è già usata dal cliente con ID " + clienteId);
+    }
+}
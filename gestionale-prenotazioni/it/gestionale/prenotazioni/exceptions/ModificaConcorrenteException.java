@@ -0,0 +1,8 @@
+package it.gestionale.prenotazioni.exceptions;
+
+public class ModificaConcorrenteException extends PrenotazioneException {
+    public ModificaConcorrenteException(Long prenotazioneId, long versioneAttesa, long versioneAttuale) {
+        super(String.format("Prenotazione ID %d modificata da un'altra operazione (versione %d, attesa %d)",
+                prenotazioneId, versioneAttuale, versioneAttesa));
+    }
+}
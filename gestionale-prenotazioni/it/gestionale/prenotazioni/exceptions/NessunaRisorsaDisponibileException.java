@@ -0,0 +1,14 @@
+package it.gestionale.prenotazioni.exceptions;
+
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+public class NessunaRisorsaDisponibileException extends PrenotazioneException {
+    public NessunaRisorsaDisponibileException(TipoRisorsa tipo, int capacitaMinima, LocalDateTime inizio, LocalDateTime fine) {
+        super(String.format("Nessuna risorsa di tipo %s con almeno %d posti disponibile tra %s e %s",
+                tipo.getDescrizione(), capacitaMinima,
+                inizio.format(DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm")),
+                fine.format(DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm"))));
+    }
+}
@@ -0,0 +1,18 @@
+package it.gestionale.prenotazioni.exceptions;
+
+import it.gestionale.prenotazioni.domain.FasciaOraria;
+import java.util.List;
+
+public class SerieNonDisponibileException extends PrenotazioneException {
+    private final List<FasciaOraria> conflitti;
+
+    public SerieNonDisponibileException(Long risorsaId, List<FasciaOraria> conflitti) {
+        super(String.format("Risorsa ID %d non disponibile per %d occorrenze della serie, la prima: %s",
+                risorsaId, conflitti.size(), conflitti.get(0)));
+        this.conflitti = conflitti;
+    }
+
+    public List<FasciaOraria> getConflitti() {
+        return conflitti;
+    }
+}
@@ -0,0 +1,7 @@
+package it.gestionale.prenotazioni.exceptions;
+
+public class SerieNonTrovataException extends PrenotazioneException {
+    public SerieNonTrovataException(Long serieId) {
+        super("Serie ricorrente con ID " + serieId + " non trovata");
+    }
+}
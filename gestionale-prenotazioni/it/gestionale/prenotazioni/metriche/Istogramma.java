@@ -0,0 +1,70 @@
+package it.gestionale.prenotazioni.metriche;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Istogramma delle latenze a intervalli logaritmici: l'intervallo i contiene le durate tra 2^(i-1) e 2^i - 1
+ * nanosecondi, quindi l'errore relativo sui percentili è al più un fattore 2. Ogni intervallo è un LongAdder:
+ * la registrazione non prende lock e scala con i thread che scrivono insieme.
+ */
+public class Istogramma {
+    static final int INTERVALLI = 64;
+
+    private final LongAdder[] conteggi = new LongAdder[INTERVALLI];
+    private final LongAdder sommaNanos = new LongAdder();
+
+    public Istogramma() {
+        for (int i = 0; i < INTERVALLI; i++) {
+            conteggi[i] = new LongAdder();
+        }
+    }
+
+    public void registra(long nanos) {
+        long valore = Math.max(0, nanos);
+        conteggi[64 - Long.numberOfLeadingZeros(valore)].increment();
+        sommaNanos.add(valore);
+    }
+
+    // Limite superiore (escluso) dell'intervallo, in nanosecondi
+    static long limiteSuperiore(int intervallo) {
+        return intervallo >= 63 ? Long.MAX_VALUE : 1L << intervallo;
+    }
+
+    public long getConteggio(int intervallo) {
+        return conteggi[intervallo].sum();
+    }
+
+    public long getConteggio() {
+        long totale = 0;
+        for (LongAdder conteggio : conteggi) {
+            totale += conteggio.sum();
+        }
+        return totale;
+    }
+
+    public long getSommaNanos() {
+        return sommaNanos.sum();
+    }
+
+    // Stima per eccesso: il limite superiore dell'intervallo in cui cade il percentile
+    public long percentileNanos(double quota) {
+        long[] istantanea = new long[INTERVALLI];
+        long totale = 0;
+        for (int i = 0; i < INTERVALLI; i++) {
+            istantanea[i] = conteggi[i].sum();
+            totale += istantanea[i];
+        }
+        if (totale == 0) {
+            return 0;
+        }
+        long soglia = (long) Math.ceil(quota * totale);
+        long cumulato = 0;
+        for (int i = 0; i < INTERVALLI; i++) {
+            cumulato += istantanea[i];
+            if (cumulato >= soglia) {
+                return limiteSuperiore(i);
+            }
+        }
+        return limiteSuperiore(INTERVALLI - 1);
+    }
+}
@@ -0,0 +1,148 @@
+package it.gestionale.prenotazioni.metriche;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Contatori e istogrammi delle latenze per operazione, senza lock sul percorso di registrazione.
+ * Ogni operazione ha un istogramma delle durate e un contatore per esito: "ok" oppure il nome semplice
+ * dell'eccezione che l'ha interrotta (RisorsaNonDisponibileException, PrenotazioneNonTrovataException...).
+ * Le metriche si possono esportare nel formato testuale di Prometheus.
+ */
+public class RegistroMetriche {
+    public static final String ESITO_OK = "ok";
+
+    // Intervalli esportati verso Prometheus: da circa 1 µs (2^10 ns) a circa 69 s (2^36 ns)
+    private static final int PRIMO_INTERVALLO_ESPORTATO = 10;
+    private static final int ULTIMO_INTERVALLO_ESPORTATO = 36;
+
+    public static class Operazione {
+        private final String nome;
+        private final Istogramma durate = new Istogramma();
+        private final Map<String, LongAdder> esiti = new ConcurrentHashMap<>();
+
+        Operazione(String nome) {
+            this.nome = nome;
+        }
+
+        void registra(long nanos, String esito) {
+            durate.registra(nanos);
+            LongAdder contatore = esiti.get(esito);
+            if (contatore == null) {
+                contatore = esiti.computeIfAbsent(esito, k -> new LongAdder());
+            }
+            contatore.increment();
+        }
+
+        public String getNome() {
+            return nome;
+        }
+
+        public Istogramma getDurate() {
+            return durate;
+        }
+
+        // Conteggi per esito in ordine alfabetico
+        public Map<String, Long> getEsiti() {
+            Map<String, Long> conteggi = new TreeMap<>();
+            esiti.forEach((esito, contatore) -> conteggi.put(esito, contatore.sum()));
+            return conteggi;
+        }
+
+        public long getErrori() {
+            long errori = 0;
+            for (Map.Entry<String, LongAdder> e : esiti.entrySet()) {
+                if (!ESITO_OK.equals(e.getKey())) {
+                    errori += e.getValue().sum();
+                }
+            }
+            return errori;
+        }
+    }
+
+    private final Map<String, Operazione> operazioni = new ConcurrentHashMap<>();
+
+    public Operazione operazione(String nome) {
+        Operazione operazione = operazioni.get(nome);
+        return operazione != null ? operazione : operazioni.computeIfAbsent(nome, Operazione::new);
+    }
+
+    // Esegue l'operazione registrandone durata ed esito; l'eccezione arriva comunque al chiamante
+    public <T> T misura(String nome, Supplier<T> corpo) {
+        long inizio = System.nanoTime();
+        String esito = ESITO_OK;
+        try {
+            return corpo.get();
+        } catch (RuntimeException e) {
+            esito = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            operazione(nome).registra(System.nanoTime() - inizio, esito);
+        }
+    }
+
+    public void registra(String nome, long nanos, String esito) {
+        operazione(nome).registra(nanos, esito);
+    }
+
+    // Operazioni già eseguite almeno una volta, in ordine di nome
+    public Map<String, Operazione> getOperazioni() {
+        return new TreeMap<>(operazioni);
+    }
+
+    public void scriviPrometheus(PrintWriter out) {
+        Map<String, Operazione> ordinate = getOperazioni();
+        out.println("# HELP prenotazioni_operazioni_total Operazioni eseguite per esito.");
+        out.println("# TYPE prenotazioni_operazioni_total counter");
+        for (Operazione operazione : ordinate.values()) {
+            operazione.getEsiti().forEach((esito, conteggio) ->
+                    out.printf("prenotazioni_operazioni_total{operazione=\"%s\",esito=\"%s\"} %d%n",
+                            operazione.getNome(), esito, conteggio));
+        }
+
+        out.println("# HELP prenotazioni_operazione_durata_seconds Durata delle operazioni.");
+        out.println("# TYPE prenotazioni_operazione_durata_seconds histogram");
+        for (Operazione operazione : ordinate.values()) {
+            Istogramma durate = operazione.getDurate();
+            long cumulato = 0;
+            for (int i = 0; i < PRIMO_INTERVALLO_ESPORTATO; i++) {
+                cumulato += durate.getConteggio(i);
+            }
+            for (int i = PRIMO_INTERVALLO_ESPORTATO; i <= ULTIMO_INTERVALLO_ESPORTATO; i++) {
+                cumulato += durate.getConteggio(i);
+                out.printf("prenotazioni_operazione_durata_seconds_bucket{operazione=\"%s\",le=\"%s\"} %d%n",
+                        operazione.getNome(), Istogramma.limiteSuperiore(i) / 1e9, cumulato);
+            }
+            for (int i = ULTIMO_INTERVALLO_ESPORTATO + 1; i < Istogramma.INTERVALLI; i++) {
+                cumulato += durate.getConteggio(i);
+            }
+            out.printf("prenotazioni_operazione_durata_seconds_bucket{operazione=\"%s\",le=\"+Inf\"} %d%n",
+                    operazione.getNome(), cumulato);
+            out.printf(Locale.ROOT, "prenotazioni_operazione_durata_seconds_sum{operazione=\"%s\"} %.9f%n",
+                    operazione.getNome(), durate.getSommaNanos() / 1e9);
+            out.printf("prenotazioni_operazione_durata_seconds_count{operazione=\"%s\"} %d%n",
+                    operazione.getNome(), cumulato);
+        }
+        out.flush();
+    }
+
+    public String toPrometheus() {
+        StringWriter testo = new StringWriter();
+        scriviPrometheus(new PrintWriter(testo));
+        return testo.toString();
+    }
+
+    public void esportaPrometheus(String filename) throws IOException {
+        Files.writeString(Path.of(filename), toPrometheus(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,373 @@
+package it.gestionale.prenotazioni.repository;
+
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archivio delle prenotazioni concluse, fuori dal repository in memoria: un file gzip per mese di inizio
+ * (prenotazioni-2024-03.gz) nella cartella dell'archivio. Ogni archiviazione accoda ai file dei mesi
+ * coinvolti un nuovo blocco gzip senza riscrivere i precedenti; GZIPInputStream legge i blocchi concatenati
+ * come un unico flusso.
+ *
+ * In un blocco le prenotazioni sono ordinate per inizio e ogni campo è un intero a lunghezza variabile:
+ * l'inizio come differenza dal precedente e la fine come durata, in minuti come negli snapshot binari,
+ * l'id come differenza dal precedente, cliente e risorsa solo per id.
+ *
+ * Il file archivio.indice tiene per ogni mese la lunghezza valida del file e la fine più tarda, più gli ultimi
+ * id archiviati. Le letture si fermano alla lunghezza valida, quindi un blocco scritto a metà da un'interruzione
+ * è ignorato e sovrascritto dall'archiviazione successiva; sono senza lock perché la parte valida non cambia più.
+ */
+public class ArchivioPrenotazioni {
+    private static final String INDICE = "archivio.indice";
+    private static final String ULTIMO_ID = "ultimoId";
+    private static final String ULTIMA_SERIE = "ultimaSerie";
+    private static final int MAGIC_BLOCCO = 0xA1;
+    private static final int VERSIONE = 1;
+    private static final StatoPrenotazione[] STATI = StatoPrenotazione.values();
+
+    private final Path cartella;
+    private final ClienteRepository clienteRepo;
+    private final RisorsaRepository risorsaRepo;
+    // Sostituite per intero a ogni archiviazione, mai modificate
+    private final NavigableMap<YearMonth, Partizione> partizioni = new ConcurrentSkipListMap<>();
+    private volatile long ultimoId;
+    private volatile long ultimaSerie;
+
+    public ArchivioPrenotazioni(String cartella, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo)
+            throws IOException {
+        this.cartella = Paths.get(cartella);
+        this.clienteRepo = clienteRepo;
+        this.risorsaRepo = risorsaRepo;
+        Files.createDirectories(this.cartella);
+        leggiIndice();
+    }
+
+    // Id più alti mai archiviati: il repository non deve riassegnarli
+    public long getUltimoId() {
+        return ultimoId;
+    }
+
+    public long getUltimaSerie() {
+        return ultimaSerie;
+    }
+
+    /**
+     * Accoda le prenotazioni all'archivio e le rende persistenti su disco prima di restituire. Se lancia
+     * eccezione l'archivio resta com'era, quindi le prenotazioni non vanno tolte dal repository.
+     */
+    public synchronized void archivia(Collection<Prenotazione> prenotazioni) throws IOException {
+        Map<YearMonth, List<Prenotazione>> perMese = new TreeMap<>();
+        long nuovoUltimoId = ultimoId;
+        long nuovaUltimaSerie = ultimaSerie;
+        for (Prenotazione prenotazione : prenotazioni) {
+            perMese.computeIfAbsent(YearMonth.from(prenotazione.getDataOraInizio()), k -> new ArrayList<>()).add(prenotazione);
+            nuovoUltimoId = Math.max(nuovoUltimoId, prenotazione.getId());
+            if (prenotazione.getSerieId() != null) {
+                nuovaUltimaSerie = Math.max(nuovaUltimaSerie, prenotazione.getSerieId());
+            }
+        }
+        if (perMese.isEmpty()) {
+            return;
+        }
+
+        Map<YearMonth, Partizione> scritte = new HashMap<>();
+        for (Map.Entry<YearMonth, List<Prenotazione>> entry : perMese.entrySet()) {
+            YearMonth mese = entry.getKey();
+            List<Prenotazione> blocco = entry.getValue();
+            blocco.sort(Comparator.comparing(Prenotazione::getDataOraInizio));
+            Partizione partizione = partizioni.getOrDefault(mese, new Partizione(0, Integer.MIN_VALUE));
+            scritte.put(mese, accoda(file(mese), partizione, blocco));
+        }
+
+        // I blocchi diventano visibili solo con l'indice, sostituito in modo atomico
+        Map<YearMonth, Partizione> nuove = new TreeMap<>(partizioni);
+        nuove.putAll(scritte);
+        scriviIndice(nuove, nuovoUltimoId, nuovaUltimaSerie);
+        partizioni.putAll(scritte);
+        ultimoId = nuovoUltimoId;
+        ultimaSerie = nuovaUltimaSerie;
+    }
+
+    /** Prenotazioni archiviate che si sovrappongono a [inizio, fine), ordinate per inizio. */
+    public List<Prenotazione> findByPeriodo(LocalDateTime inizio, LocalDateTime fine) throws IOException {
+        long da = inizio.toEpochSecond(ZoneOffset.UTC);
+        long a = fine.toEpochSecond(ZoneOffset.UTC);
+        Map<Long, Prenotazione> trovate = new HashMap<>();
+        // Un mese successivo a quello della fine non può contenere inizi precedenti alla fine
+        for (Map.Entry<YearMonth, Partizione> entry : partizioni.headMap(YearMonth.from(fine), true).entrySet()) {
+            if (entry.getValue().fineMassima * 60L > da) {
+                leggi(entry.getKey(), entry.getValue(),
+                        (clienteId, inizioMinuti, fineMinuti) -> inizioMinuti * 60L < a && fineMinuti * 60L > da, trovate);
+            }
+        }
+        return ordinate(trovate);
+    }
+
+    /** Prenotazioni archiviate di un cliente, ordinate per inizio. Legge tutto l'archivio. */
+    public List<Prenotazione> findByCliente(Long clienteId) throws IOException {
+        long cercato = clienteId;
+        Map<Long, Prenotazione> trovate = new HashMap<>();
+        for (Map.Entry<YearMonth, Partizione> entry : partizioni.entrySet()) {
+            leggi(entry.getKey(), entry.getValue(), (cliente, inizio, fine) -> cliente == cercato, trovate);
+        }
+        return ordinate(trovate);
+    }
+
+    private Partizione accoda(Path file, Partizione partizione, List<Prenotazione> blocco) throws IOException {
+        int fineMassima = partizione.fineMassima;
+        try (FileChannel canale = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Via quello che un'archiviazione interrotta ha lasciato oltre la parte valida
+            canale.truncate(partizione.lunghezza);
+            canale.position(partizione.lunghezza);
+            OutputStream verso = Channels.newOutputStream(canale);
+            GZIPOutputStream gzip = new GZIPOutputStream(verso, 1 << 16);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip, 1 << 16));
+            out.writeByte(MAGIC_BLOCCO);
+            out.writeByte(VERSIONE);
+            scriviVarLong(out, blocco.size());
+            int inizioPrecedente = 0;
+            long idPrecedente = 0;
+            for (Prenotazione p : blocco) {
+                int inizio = SnapshotBinario.toEpochMinuti(p.getDataOraInizio());
+                int fine = SnapshotBinario.toEpochMinuti(p.getDataOraFine());
+                scriviVarLong(out, inizio - inizioPrecedente);
+                scriviVarLong(out, fine - inizio);
+                scriviVarLong(out, p.getId() - idPrecedente);
+                scriviVarLong(out, p.getCliente() != null ? p.getCliente().getId() + 1 : 0);
+                scriviVarLong(out, p.getRisorsa() != null ? p.getRisorsa().getId() + 1 : 0);
+                out.writeByte(p.getStato().ordinal());
+                scriviVarLong(out, p.getSerieId() != null ? p.getSerieId() + 1 : 0);
+                if (p.getNote() == null) {
+                    scriviVarLong(out, 0);
+                } else {
+                    byte[] note = p.getNote().getBytes(StandardCharsets.UTF_8);
+                    scriviVarLong(out, note.length + 1);
+                    out.write(note);
+                }
+                inizioPrecedente = inizio;
+                idPrecedente = p.getId();
+                fineMassima = Math.max(fineMassima, fine);
+            }
+            out.flush();
+            gzip.finish();
+            canale.force(true);
+            Partizione scritta = new Partizione(canale.position(), fineMassima);
+            // Libera il Deflater; chiude anche il canale
+            out.close();
+            return scritta;
+        }
+    }
+
+    private void leggi(YearMonth mese, Partizione partizione, Filtro filtro, Map<Long, Prenotazione> trovate)
+            throws IOException {
+        try (InputStream valido = new Limitato(Files.newInputStream(file(mese)), partizione.lunghezza);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(valido, 1 << 16), 1 << 16))) {
+            int magic;
+            while ((magic = in.read()) >= 0) {
+                if (magic != MAGIC_BLOCCO || in.readUnsignedByte() != VERSIONE) {
+                    throw new IOException("Blocco dell'archivio non riconosciuto: " + file(mese));
+                }
+                long numero = leggiVarLong(in);
+                int inizio = 0;
+                long id = 0;
+                for (long i = 0; i < numero; i++) {
+                    inizio += (int) leggiVarLong(in);
+                    int fine = inizio + (int) leggiVarLong(in);
+                    id += leggiVarLong(in);
+                    long clienteId = leggiVarLong(in) - 1;
+                    long risorsaId = leggiVarLong(in) - 1;
+                    StatoPrenotazione stato = STATI[in.readUnsignedByte()];
+                    long serieId = leggiVarLong(in) - 1;
+                    int lunghezzaNote = (int) leggiVarLong(in);
+                    if (!filtro.accetta(clienteId, inizio, fine)) {
+                        in.skipNBytes(Math.max(0, lunghezzaNote - 1));
+                        continue;
+                    }
+                    String note = null;
+                    if (lunghezzaNote > 0) {
+                        note = new String(in.readNBytes(lunghezzaNote - 1), StandardCharsets.UTF_8);
+                    }
+                    Prenotazione prenotazione = new Prenotazione(id,
+                            clienteId >= 0 ? clienteRepo.findById(clienteId).orElse(null) : null,
+                            risorsaId >= 0 ? risorsaRepo.findById(risorsaId).orElse(null) : null,
+                            SnapshotBinario.fromEpochMinuti(inizio), SnapshotBinario.fromEpochMinuti(fine), stato, note);
+                    if (serieId >= 0) {
+                        prenotazione.setSerieId(serieId);
+                    }
+                    // Un'archiviazione interrotta dopo la scrittura può averla accodata due volte: vale l'ultima
+                    trovate.put(id, prenotazione);
+                }
+            }
+        }
+    }
+
+    private static List<Prenotazione> ordinate(Map<Long, Prenotazione> trovate) {
+        List<Prenotazione> risultato = new ArrayList<>(trovate.values());
+        risultato.sort(Comparator.comparing(Prenotazione::getDataOraInizio).thenComparing(Prenotazione::getId));
+        return risultato;
+    }
+
+    private Path file(YearMonth mese) {
+        return cartella.resolve("prenotazioni-" + mese + ".gz");
+    }
+
+    private void leggiIndice() throws IOException {
+        Path indice = cartella.resolve(INDICE);
+        if (!Files.exists(indice)) {
+            return;
+        }
+        Properties valori = new Properties();
+        try (Reader reader = Files.newBufferedReader(indice, StandardCharsets.UTF_8)) {
+            valori.load(reader);
+        }
+        for (String chiave : valori.stringPropertyNames()) {
+            String valore = valori.getProperty(chiave);
+            try {
+                if (chiave.equals(ULTIMO_ID)) {
+                    ultimoId = Long.parseLong(valore);
+                } else if (chiave.equals(ULTIMA_SERIE)) {
+                    ultimaSerie = Long.parseLong(valore);
+                } else {
+                    String[] parti = valore.split(",");
+                    partizioni.put(YearMonth.parse(chiave), new Partizione(Long.parseLong(parti[0]), Integer.parseInt(parti[1])));
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Voce non valida nell'indice dell'archivio: " + chiave + "=" + valore, e);
+            }
+        }
+    }
+
+    private void scriviIndice(Map<YearMonth, Partizione> nuove, long nuovoUltimoId, long nuovaUltimaSerie) throws IOException {
+        Properties valori = new Properties();
+        valori.setProperty(ULTIMO_ID, Long.toString(nuovoUltimoId));
+        valori.setProperty(ULTIMA_SERIE, Long.toString(nuovaUltimaSerie));
+        for (Map.Entry<YearMonth, Partizione> entry : nuove.entrySet()) {
+            valori.setProperty(entry.getKey().toString(), entry.getValue().lunghezza + "," + entry.getValue().fineMassima);
+        }
+        Path indice = cartella.resolve(INDICE);
+        Path temporaneo = cartella.resolve(INDICE + ".tmp");
+        try (FileChannel canale = FileChannel.open(temporaneo, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = Channels.newWriter(canale, StandardCharsets.UTF_8);
+            valori.store(writer, "Archivio prenotazioni: mese=lunghezza valida,fine più tarda in minuti");
+            writer.flush();
+            canale.force(true);
+        }
+        Files.move(temporaneo, indice, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Intero a lunghezza variabile, 7 bit per byte, con il segno in fondo (zigzag) per le differenze negative
+    private static void scriviVarLong(DataOutputStream out, long valore) throws IOException {
+        long zigzag = (valore << 1) ^ (valore >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static long leggiVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+    }
+
+    private interface Filtro {
+        boolean accetta(long clienteId, int inizio, int fine);
+    }
+
+    private static final class Partizione {
+        final long lunghezza;
+        // Minuti dall'epoca; permette di saltare i mesi finiti prima del periodo cercato
+        final int fineMassima;
+
+        Partizione(long lunghezza, int fineMassima) {
+            this.lunghezza = lunghezza;
+            this.fineMassima = fineMassima;
+        }
+    }
+
+    // Legge il file solo fino alla lunghezza valida registrata nell'indice
+    private static final class Limitato extends FilterInputStream {
+        private long restanti;
+
+        Limitato(InputStream in, long lunghezza) {
+            super(in);
+            this.restanti = lunghezza;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (restanti <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                restanti--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (restanti <= 0) {
+                return -1;
+            }
+            int letti = super.read(b, off, (int) Math.min(len, restanti));
+            if (letti > 0) {
+                restanti -= letti;
+            }
+            return letti;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long saltati = super.skip(Math.min(n, restanti));
+            restanti -= saltati;
+            return saltati;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), restanti);
+        }
+    }
+}
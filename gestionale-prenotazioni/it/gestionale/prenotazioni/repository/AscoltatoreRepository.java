@@ -0,0 +1,16 @@
+package it.gestionale.prenotazioni.repository;
+
+/**
+ * Riceve le modifiche di un repository. Le modifiche dello stesso elemento arrivano nell'ordine in cui
+ * avvengono; quelle di elementi diversi possono arrivare da più thread insieme, quindi l'ascoltatore deve
+ * essere thread-safe. I metodi sono chiamati con i lock del repository ancora presi: devono essere brevi e
+ * non possono scrivere sul repository.
+ * Alla registrazione il repository chiama svuotato e poi modificato(null, elemento) per ogni elemento già presente.
+ */
+public interface AscoltatoreRepository<T> {
+    // prima è null per un inserimento, dopo è null per una cancellazione
+    void modificato(T prima, T dopo);
+
+    // Tutti gli elementi sono stati rimossi, per esempio prima di un caricamento da file che li reinserisce uno a uno
+    void svuotato();
+}
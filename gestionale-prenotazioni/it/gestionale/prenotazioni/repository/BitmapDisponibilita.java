@@ -0,0 +1,192 @@
+package it.gestionale.prenotazioni.repository;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Occupazione delle risorse divisa in slot di durata fissa, un long[] per risorsa e per giorno.
+ * Un bit acceso indica che almeno una prenotazione attiva tocca lo slot, anche solo in parte:
+ * se nessun bit della richiesta è acceso la risorsa è sicuramente libera, altrimenti il risultato
+ * va confermato sull'indice a intervalli (le prenotazioni non allineate agli slot li occupano per intero).
+ * Gli slot sono numerati in modo globale: giorno dall'epoca * slot al giorno + slot nel giorno.
+ * Risorse diverse possono essere aggiornate in parallelo; quelle di una stessa risorsa vanno serializzate
+ * da chi la usa (il repository lo fa con la striscia della risorsa).
+ */
+final class BitmapDisponibilita {
+    private static final int MINUTI_GIORNO = 24 * 60;
+
+    private final int minutiPerSlot;
+    private final int slotPerGiorno;
+    private final int parolePerGiorno;
+    private final Map<Long, Map<Long, long[]>> giorniPerRisorsa = new ConcurrentHashMap<>();
+
+    BitmapDisponibilita(int minutiPerSlot) {
+        if (minutiPerSlot <= 0 || MINUTI_GIORNO % minutiPerSlot != 0) {
+            throw new IllegalArgumentException("La durata dello slot deve dividere il giorno: " + minutiPerSlot);
+        }
+        this.minutiPerSlot = minutiPerSlot;
+        this.slotPerGiorno = MINUTI_GIORNO / minutiPerSlot;
+        this.parolePerGiorno = (slotPerGiorno + 63) / 64;
+    }
+
+    int getMinutiPerSlot() {
+        return minutiPerSlot;
+    }
+
+    // Una risorsa è gestita dal primo inserimento in poi, anche quando non ha più slot occupati
+    boolean gestisce(Long risorsaId) {
+        return giorniPerRisorsa.containsKey(risorsaId);
+    }
+
+    void registra(Long risorsaId) {
+        giorniPerRisorsa.computeIfAbsent(risorsaId, k -> new HashMap<>());
+    }
+
+    void occupa(Long risorsaId, LocalDateTime inizio, LocalDateTime fine) {
+        Map<Long, long[]> giorni = giorniPerRisorsa.computeIfAbsent(risorsaId, k -> new HashMap<>());
+        imposta(giorni, slotIniziale(inizio), slotFinale(fine), true);
+    }
+
+    void libera(Long risorsaId, LocalDateTime inizio, LocalDateTime fine) {
+        Map<Long, long[]> giorni = giorniPerRisorsa.get(risorsaId);
+        if (giorni != null) {
+            imposta(giorni, slotIniziale(inizio), slotFinale(fine), false);
+        }
+    }
+
+    void svuota() {
+        giorniPerRisorsa.clear();
+    }
+
+    // Inizio del primo slot toccato da dataOra
+    LocalDateTime inizioSlot(LocalDateTime dataOra) {
+        return daSlot(slotIniziale(dataOra));
+    }
+
+    // Fine dell'ultimo slot toccato da un intervallo che termina (escluso) a dataOra
+    LocalDateTime fineSlot(LocalDateTime dataOra) {
+        return daSlot(slotFinale(dataOra));
+    }
+
+    boolean isLibera(Long risorsaId, LocalDateTime inizio, LocalDateTime fine) {
+        Map<Long, long[]> giorni = giorniPerRisorsa.get(risorsaId);
+        if (giorni == null) {
+            return true;
+        }
+        long da = slotIniziale(inizio);
+        long a = slotFinale(fine);
+        while (da < a) {
+            long giorno = Math.floorDiv(da, slotPerGiorno);
+            int primo = (int) (da - giorno * slotPerGiorno);
+            int ultimo = (int) Math.min(slotPerGiorno, a - giorno * slotPerGiorno);
+            long[] parole = giorni.get(giorno);
+            if (parole != null) {
+                // AND con una maschera per parola: al più slotPerGiorno/64 confronti al giorno
+                for (int p = primo >>> 6; p <= (ultimo - 1) >>> 6; p++) {
+                    if ((parole[p] & maschera(p, primo, ultimo)) != 0) {
+                        return false;
+                    }
+                }
+            }
+            da = (giorno + 1) * slotPerGiorno;
+        }
+        return true;
+    }
+
+    // Inizio della prima sequenza di slot liberi lunga almeno durataMinuti dentro [da, a), o null
+    LocalDateTime primoInizioLibero(Long risorsaId, LocalDateTime da, LocalDateTime a, long durataMinuti) {
+        long slotRichiesti = (durataMinuti + minutiPerSlot - 1) / minutiPerSlot;
+        // Si parte dal primo slot che inizia a da o dopo, e la sequenza deve finire entro a
+        long slot = -Math.floorDiv(-da.toEpochSecond(ZoneOffset.UTC), 60L * minutiPerSlot);
+        long limite = Math.floorDiv(a.toEpochSecond(ZoneOffset.UTC), 60L * minutiPerSlot);
+        Map<Long, long[]> giorni = giorniPerRisorsa.getOrDefault(risorsaId, Map.of());
+        while (slot + slotRichiesti <= limite) {
+            long occupato = prossimo(giorni, slot, slot + slotRichiesti, true);
+            if (occupato < 0) {
+                return daSlot(slot);
+            }
+            slot = prossimo(giorni, occupato + 1, limite, false);
+            if (slot < 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // Primo slot in [da, a) acceso (occupato = true) o spento, -1 se non ce ne sono
+    private long prossimo(Map<Long, long[]> giorni, long da, long a, boolean occupato) {
+        while (da < a) {
+            long giorno = Math.floorDiv(da, slotPerGiorno);
+            int primo = (int) (da - giorno * slotPerGiorno);
+            int ultimo = (int) Math.min(slotPerGiorno, a - giorno * slotPerGiorno);
+            long[] parole = giorni.get(giorno);
+            if (parole == null) {
+                if (!occupato) {
+                    return da;
+                }
+            } else {
+                for (int p = primo >>> 6; p <= (ultimo - 1) >>> 6; p++) {
+                    long bit = (occupato ? parole[p] : ~parole[p]) & maschera(p, primo, ultimo);
+                    if (bit != 0) {
+                        return giorno * slotPerGiorno + ((long) p << 6) + Long.numberOfTrailingZeros(bit);
+                    }
+                }
+            }
+            da = (giorno + 1) * slotPerGiorno;
+        }
+        return -1;
+    }
+
+    private void imposta(Map<Long, long[]> giorni, long da, long a, boolean acceso) {
+        while (da < a) {
+            long giorno = Math.floorDiv(da, slotPerGiorno);
+            int primo = (int) (da - giorno * slotPerGiorno);
+            int ultimo = (int) Math.min(slotPerGiorno, a - giorno * slotPerGiorno);
+            long[] parole = acceso ? giorni.computeIfAbsent(giorno, k -> new long[parolePerGiorno]) : giorni.get(giorno);
+            if (parole != null) {
+                for (int p = primo >>> 6; p <= (ultimo - 1) >>> 6; p++) {
+                    long maschera = maschera(p, primo, ultimo);
+                    parole[p] = acceso ? parole[p] | maschera : parole[p] & ~maschera;
+                }
+                if (!acceso && vuoto(parole)) {
+                    giorni.remove(giorno);
+                }
+            }
+            da = (giorno + 1) * slotPerGiorno;
+        }
+    }
+
+    // Bit della parola p che cadono negli slot [primo, ultimo) del giorno
+    private static long maschera(int p, int primo, int ultimo) {
+        int da = Math.max(primo - (p << 6), 0);
+        int a = Math.min(ultimo - (p << 6), 64);
+        long alti = a == 64 ? -1L : (1L << a) - 1;
+        return alti & (-1L << da);
+    }
+
+    private static boolean vuoto(long[] parole) {
+        for (long parola : parole) {
+            if (parola != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long slotIniziale(LocalDateTime dataOra) {
+        return Math.floorDiv(dataOra.toEpochSecond(ZoneOffset.UTC), 60L * minutiPerSlot);
+    }
+
+    // Slot successivo all'ultimo toccato: un intervallo che finisce a metà slot lo occupa tutto
+    private long slotFinale(LocalDateTime dataOra) {
+        long secondi = dataOra.toEpochSecond(ZoneOffset.UTC) + (dataOra.getNano() > 0 ? 1 : 0);
+        return Math.floorDiv(secondi + 60L * minutiPerSlot - 1, 60L * minutiPerSlot);
+    }
+
+    private LocalDateTime daSlot(long slot) {
+        return LocalDateTime.ofEpochSecond(slot * 60L * minutiPerSlot, 0, ZoneOffset.UTC);
+    }
+}
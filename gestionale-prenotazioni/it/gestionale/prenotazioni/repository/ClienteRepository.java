@@ -2,14 +2,38 @@ package it.gestionale.prenotazioni.repository;
 
 import it.gestionale.prenotazioni.domain.Cliente;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 
 public interface ClienteRepository {
+    // Un cliente con un id già presente aggiorna sul posto l'istanza memorizzata, che viene restituita:
+    // le prenotazioni che la referenziano vedono i dati nuovi
     Cliente save(Cliente cliente);
     Optional<Cliente> findById(Long id);
     List<Cliente> findAll();
+    // Confronto senza distinzione tra maiuscole e minuscole e senza spazi iniziali o finali
     List<Cliente> findByEmail(String email);
+    // Clienti più pertinenti per parti di nome, cognome, email o telefono, anche con piccoli errori di battitura
+    List<Cliente> cerca(String ricerca, int limite);
+    // Con true il save lancia EmailDuplicataException se l'email normalizzata è già di un altro cliente
+    void setEmailUnivoca(boolean univoca);
     boolean delete(Long id);
     void saveToFile(String filename);
     void loadFromFile(String filename);
+    void saveToBinaryFile(String filename);
+    void loadFromBinaryFile(String filename);
+    // Con sincrono ogni modifica è forzata su disco prima di restituire (vedi Journal)
+    void abilitaJournal(String snapshotFile, String journalFile, int sogliaCompattazione, boolean sincrono);
+    void compatta();
+    // Smette di registrare le singole modifiche: fino al prossimo compatta esistono solo in memoria
+    void sospendiJournal();
+    void aggiungiAscoltatore(AscoltatoreRepository<Cliente> ascoltatore);
+
+    // Chiave usata per confrontare le email; null se l'email è assente o vuota
+    static String normalizzaEmail(String email) {
+        if (email == null || email.isBlank()) {
+            return null;
+        }
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
 }
@@ -0,0 +1,828 @@
+package it.gestionale.prenotazioni.repository;
+
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.exceptions.ModificaConcorrenteException;
+import it.gestionale.prenotazioni.exceptions.PrenotazioneNonTrovataException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Repository delle prenotazioni a colonne: invece di un oggetto Prenotazione per record tiene
+ * array paralleli di primitivi (minuti dall'epoca di inizio, fine e creazione, id di cliente, risorsa e serie,
+ * ordinale dello stato, versione)
+ * e una tabella a parte per le note. Le Prenotazione vengono create solo quando richieste, quindi
+ * le modifiche a un oggetto restituito valgono solo dopo save o aggiornaStato.
+ * Le date sono memorizzate al minuto, come nel file CSV.
+ * Gli id di cliente, risorsa e serie sono colonne a 32 bit: save e i caricamenti rifiutano quelli che non ci
+ * stanno con IllegalArgumentException invece di troncarli.
+ * Lo slot di un id si trova con una tabella hash su array primitivi (TabellaIdSlot), grande quanto le
+ * prenotazioni presenti e non quanto l'id più alto; le ricerche per risorsa, compreso il controllo di
+ * disponibilità, leggono solo gli slot di quella risorsa (GruppiSlot) invece di tutte le colonne.
+ * Le colonne sono protette da un lock lettura/scrittura: le ricerche procedono in parallelo,
+ * le modifiche sono esclusive.
+ */
+public class ColumnarPrenotazioneRepository implements PrenotazioneRepository {
+    private static final int NESSUNO = -1;
+    private static final StatoPrenotazione[] STATI = StatoPrenotazione.values();
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+    // id, clienteId, risorsaId, inizio, fine, stato, note, serieId, creazione
+    private static final int DIMENSIONE_RECORD = 8 + 8 + 8 + 4 + 4 + 1 + 4 + 8 + 4;
+    private static final int DIMENSIONE_RECORD_SENZA_CREAZIONE = DIMENSIONE_RECORD - 4;
+    private static final int DIMENSIONE_RECORD_SENZA_SERIE = DIMENSIONE_RECORD_SENZA_CREAZIONE - 8;
+
+    private final ClienteRepository clienteRepo;
+    private final RisorsaRepository risorsaRepo;
+    private final AtomicLong idGenerator = new AtomicLong(1);
+    private final AtomicLong serieGenerator = new AtomicLong(1);
+
+    private long[] ids = new long[1024];
+    private int[] inizi = new int[1024];
+    private int[] fini = new int[1024];
+    private int[] clienti = new int[1024];
+    private int[] risorse = new int[1024];
+    private byte[] stati = new byte[1024];
+    private int[] versioni = new int[1024];
+    private int[] serie = new int[1024];
+    private int[] creazioni = new int[1024];
+    private final Map<Integer, String> note = new HashMap<>();
+    private int dimensione;
+
+    private final TabellaIdSlot slotPerId = new TabellaIdSlot(slot -> ids[slot]);
+    private final GruppiSlot slotPerRisorsa = new GruppiSlot();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Journal journal;
+    private final List<AscoltatoreRepository<Prenotazione>> ascoltatori = new CopyOnWriteArrayList<>();
+
+    public ColumnarPrenotazioneRepository(ClienteRepository clienteRepo, RisorsaRepository risorsaRepo) {
+        this.clienteRepo = clienteRepo;
+        this.risorsaRepo = risorsaRepo;
+    }
+
+    @Override
+    public Prenotazione save(Prenotazione prenotazione) {
+        lock.writeLock().lock();
+        try {
+            if (prenotazione.getId() == null) {
+                prenotazione.setId(idGenerator.getAndIncrement());
+            } else {
+                if (prenotazione.getId() >= idGenerator.get()) {
+                    idGenerator.set(prenotazione.getId() + 1);
+                }
+            }
+            scrivi(prenotazione);
+            if (journal != null) {
+                journal.append(Journal.SALVA, toCsv(slot(prenotazione.getId())));
+            }
+            return prenotazione;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Prenotazione saveConVersione(Prenotazione prenotazione) {
+        lock.writeLock().lock();
+        try {
+            if (prenotazione.getId() != null) {
+                verificaVersione(prenotazione.getId(), prenotazione.getVersione());
+            }
+            return save(prenotazione);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Prenotazione> findById(Long id) {
+        lock.readLock().lock();
+        try {
+            int slot = slot(id);
+            return slot == NESSUNO ? Optional.empty() : Optional.of(materializza(slot));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Prenotazione> findAll() {
+        lock.readLock().lock();
+        try {
+            List<Prenotazione> risultato = new ArrayList<>(dimensione);
+            for (int slot = 0; slot < dimensione; slot++) {
+                risultato.add(materializza(slot));
+            }
+            return risultato;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Prenotazione> findByCliente(Long clienteId) {
+        lock.readLock().lock();
+        try {
+            if (!inColonna(clienteId)) {
+                return new ArrayList<>();
+            }
+            int cliente = clienteId.intValue();
+            int[] trovati = new int[16];
+            int quanti = 0;
+            for (int slot = 0; slot < dimensione; slot++) {
+                if (clienti[slot] == cliente) {
+                    trovati = aggiungi(trovati, quanti++, slot);
+                }
+            }
+            return ordinaPerInizio(trovati, quanti);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Prenotazione> findByRisorsa(Long risorsaId) {
+        lock.readLock().lock();
+        try {
+            GruppiSlot.Gruppo gruppo = inColonna(risorsaId) ? slotPerRisorsa.gruppo(risorsaId.intValue()) : null;
+            return gruppo != null ? ordinaPerInizio(gruppo.slot, gruppo.quanti) : new ArrayList<>();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Prenotazione> findBySerie(Long serieId) {
+        lock.readLock().lock();
+        try {
+            if (!inColonna(serieId)) {
+                return new ArrayList<>();
+            }
+            int cercata = serieId.intValue();
+            int[] trovati = new int[16];
+            int quanti = 0;
+            for (int slot = 0; slot < dimensione; slot++) {
+                if (serie[slot] == cercata) {
+                    trovati = aggiungi(trovati, quanti++, slot);
+                }
+            }
+            return ordinaPerInizio(trovati, quanti);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Long nuovoIdSerie() {
+        return serieGenerator.getAndIncrement();
+    }
+
+    @Override
+    public void riservaId(long ultimoId, long ultimaSerie) {
+        idGenerator.accumulateAndGet(ultimoId + 1, Math::max);
+        serieGenerator.accumulateAndGet(ultimaSerie + 1, Math::max);
+    }
+
+    @Override
+    public List<Prenotazione> findSovrapposizioniAttive(Long risorsaId, LocalDateTime inizio, LocalDateTime fine) {
+        lock.readLock().lock();
+        try {
+            GruppiSlot.Gruppo gruppo = inColonna(risorsaId) ? slotPerRisorsa.gruppo(risorsaId.intValue()) : null;
+            if (gruppo == null) {
+                return new ArrayList<>();
+            }
+            int da = SnapshotBinario.toEpochMinuti(inizio);
+            int a = SnapshotBinario.toEpochMinuti(fine);
+            byte cancellata = (byte) StatoPrenotazione.CANCELLATA.ordinal();
+            int[] trovati = new int[16];
+            int quanti = 0;
+            for (int i = 0; i < gruppo.quanti; i++) {
+                int slot = gruppo.slot[i];
+                if (inizi[slot] < a && fini[slot] > da && stati[slot] != cancellata) {
+                    trovati = aggiungi(trovati, quanti++, slot);
+                }
+            }
+            return ordinaPerInizio(trovati, quanti);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean existsSovrapposizioneAttiva(Long risorsaId, LocalDateTime inizio, LocalDateTime fine, Long escludiId) {
+        lock.readLock().lock();
+        try {
+            GruppiSlot.Gruppo gruppo = inColonna(risorsaId) ? slotPerRisorsa.gruppo(risorsaId.intValue()) : null;
+            if (gruppo == null) {
+                return false;
+            }
+            int da = SnapshotBinario.toEpochMinuti(inizio);
+            int a = SnapshotBinario.toEpochMinuti(fine);
+            byte cancellata = (byte) StatoPrenotazione.CANCELLATA.ordinal();
+            for (int i = 0; i < gruppo.quanti; i++) {
+                int slot = gruppo.slot[i];
+                if (inizi[slot] < a && fini[slot] > da && stati[slot] != cancellata
+                        && (escludiId == null || ids[slot] != escludiId)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Prenotazione> findByPeriodo(LocalDateTime inizio, LocalDateTime fine) {
+        lock.readLock().lock();
+        try {
+            int da = SnapshotBinario.toEpochMinuti(inizio);
+            int a = SnapshotBinario.toEpochMinuti(fine);
+            int[] trovati = new int[16];
+            int quanti = 0;
+            for (int slot = 0; slot < dimensione; slot++) {
+                if (inizi[slot] < a && fini[slot] > da) {
+                    trovati = aggiungi(trovati, quanti++, slot);
+                }
+            }
+            return ordinaPerInizio(trovati, quanti);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Prenotazione> findByStato(StatoPrenotazione stato) {
+        lock.readLock().lock();
+        try {
+            byte ordinale = (byte) stato.ordinal();
+            int[] trovati = new int[16];
+            int quanti = 0;
+            for (int slot = 0; slot < dimensione; slot++) {
+                if (stati[slot] == ordinale) {
+                    trovati = aggiungi(trovati, quanti++, slot);
+                }
+            }
+            return ordinaPerInizio(trovati, quanti);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean aggiornaStato(Long id, StatoPrenotazione nuovoStato) {
+        lock.writeLock().lock();
+        try {
+            int slot = slot(id);
+            if (slot == NESSUNO) {
+                return false;
+            }
+            Prenotazione prima = primaDellaModifica(slot);
+            stati[slot] = (byte) nuovoStato.ordinal();
+            versioni[slot]++;
+            notifica(prima, slot);
+            if (journal != null) {
+                journal.append(Journal.STATO, id + "," + nuovoStato.name());
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean aggiornaStato(Long id, StatoPrenotazione nuovoStato, long versioneAttesa) {
+        lock.writeLock().lock();
+        try {
+            if (slot(id) == NESSUNO) {
+                return false;
+            }
+            verificaVersione(id, versioneAttesa);
+            return aggiornaStato(id, nuovoStato);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(Long id, long versioneAttesa) {
+        lock.writeLock().lock();
+        try {
+            if (slot(id) == NESSUNO) {
+                return false;
+            }
+            verificaVersione(id, versioneAttesa);
+            return delete(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(Long id) {
+        lock.writeLock().lock();
+        try {
+            int slot = slot(id);
+            if (slot == NESSUNO) {
+                return false;
+            }
+            Prenotazione rimossa = primaDellaModifica(slot);
+            separa(slot);
+            slotPerId.rimuovi(id);
+            // L'ultimo record prende il posto di quello eliminato, così le colonne restano compatte
+            int ultimo = dimensione - 1;
+            String notaUltimo = note.remove(ultimo);
+            note.remove(slot);
+            if (slot != ultimo) {
+                slotPerId.sposta(ids[ultimo], slot);
+                if (risorse[ultimo] != NESSUNO) {
+                    slotPerRisorsa.sposta(risorse[ultimo], ultimo, slot);
+                }
+                ids[slot] = ids[ultimo];
+                inizi[slot] = inizi[ultimo];
+                fini[slot] = fini[ultimo];
+                clienti[slot] = clienti[ultimo];
+                risorse[slot] = risorse[ultimo];
+                stati[slot] = stati[ultimo];
+                versioni[slot] = versioni[ultimo];
+                serie[slot] = serie[ultimo];
+                creazioni[slot] = creazioni[ultimo];
+                if (notaUltimo != null) {
+                    note.put(slot, notaUltimo);
+                }
+            }
+            dimensione--;
+            if (rimossa != null) {
+                for (AscoltatoreRepository<Prenotazione> ascoltatore : ascoltatori) {
+                    ascoltatore.modificato(rimossa, null);
+                }
+            }
+            if (journal != null) {
+                journal.append(Journal.ELIMINA, id.toString());
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveToFile(String filename, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo) {
+        lock.readLock().lock();
+        try {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+                writer.write("id,clienteId,risorsaId,dataOraInizio,dataOraFine,stato,note,serieId,dataOraCreazione\n");
+                for (int slot = 0; slot < dimensione; slot++) {
+                    writer.write(toCsv(slot));
+                    writer.write("\n");
+                }
+            } catch (IOException e) {
+                System.err.println("Errore nel salvataggio delle prenotazioni: " + e.getMessage());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void loadFromFile(String filename, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo) {
+        lock.writeLock().lock();
+        try {
+            if (!Files.exists(Paths.get(filename))) {
+                return;
+            }
+
+            try (CsvReader csv = CsvReader.apri(filename)) {
+                // Intestazione; un file che contiene solo quella non modifica i dati in memoria
+                if (!csv.nextRecord() || !csv.nextRecord()) return;
+
+                svuota();
+                long maxId = 0;
+
+                do {
+                    try {
+                        long id = scriviDaCsv(csv, 0);
+                        if (id > maxId) {
+                            maxId = id;
+                        }
+                    } catch (Exception e) {
+                        System.err.println("Errore nel parsing della prenotazione alla riga " + csv.getNumeroRiga() + ": " + csv.testoRecord() + " - " + e.getMessage());
+                    }
+                } while (csv.nextRecord());
+
+                idGenerator.set(maxId + 1);
+            } catch (IOException e) {
+                System.err.println("Errore nel caricamento delle prenotazioni: " + e.getMessage());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveToBinaryFile(String filename) {
+        lock.readLock().lock();
+        try {
+            try (SnapshotBinario.Scrittore scrittore = new SnapshotBinario.Scrittore(
+                    filename, SnapshotBinario.TIPO_PRENOTAZIONI, DIMENSIONE_RECORD, dimensione)) {
+                DataOutputStream out = scrittore.record();
+                for (int slot = 0; slot < dimensione; slot++) {
+                    out.writeLong(ids[slot]);
+                    out.writeLong(clienti[slot] != NESSUNO ? clienti[slot] : SnapshotBinario.NESSUN_ID);
+                    out.writeLong(risorse[slot] != NESSUNO ? risorse[slot] : SnapshotBinario.NESSUN_ID);
+                    out.writeInt(inizi[slot]);
+                    out.writeInt(fini[slot]);
+                    out.writeByte(stati[slot]);
+                    out.writeInt(scrittore.stringa(note.get(slot)));
+                    out.writeLong(serie[slot] != NESSUNO ? serie[slot] : SnapshotBinario.NESSUN_ID);
+                    out.writeInt(creazioni[slot]);
+                }
+            } catch (IOException e) {
+                System.err.println("Errore nel salvataggio binario delle prenotazioni: " + e.getMessage());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void loadFromBinaryFile(String filename, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo) {
+        lock.writeLock().lock();
+        try {
+            if (!Files.exists(Paths.get(filename))) {
+                return;
+            }
+            try (SnapshotBinario.Lettore lettore = new SnapshotBinario.Lettore(filename, SnapshotBinario.TIPO_PRENOTAZIONI)) {
+                ByteBuffer buffer = lettore.buffer();
+                boolean conSerie = lettore.getDimensioneRecord() > DIMENSIONE_RECORD_SENZA_SERIE;
+                boolean conCreazione = lettore.getDimensioneRecord() > DIMENSIONE_RECORD_SENZA_CREAZIONE;
+                int caricamento = SnapshotBinario.toEpochMinuti(SnapshotBinario.adessoAlMinuto());
+                svuota();
+                long maxId = 0;
+
+                for (int i = 0; i < lettore.getNumeroRecord(); i++) {
+                    int offset = lettore.offsetRecord(i);
+                    long id = buffer.getLong(offset);
+                    long clienteId = buffer.getLong(offset + 8);
+                    long risorsaId = buffer.getLong(offset + 16);
+                    int cliente = clienteId != SnapshotBinario.NESSUN_ID ? idColonna(clienteId, "cliente") : NESSUNO;
+                    int risorsa = risorsaId != SnapshotBinario.NESSUN_ID ? idColonna(risorsaId, "risorsa") : NESSUNO;
+                    int slot = nuovoSlot(id);
+                    inizi[slot] = buffer.getInt(offset + 24);
+                    fini[slot] = buffer.getInt(offset + 28);
+                    clienti[slot] = cliente;
+                    risorse[slot] = risorsa;
+                    raggruppa(slot);
+                    stati[slot] = buffer.get(offset + 32);
+                    String nota = lettore.stringa(buffer.getInt(offset + 33));
+                    if (nota != null) {
+                        note.put(slot, nota);
+                    }
+                    long serieId = conSerie ? buffer.getLong(offset + 37) : SnapshotBinario.NESSUN_ID;
+                    serie[slot] = serieId != SnapshotBinario.NESSUN_ID ? registraSerie(serieId) : NESSUNO;
+                    // Snapshot salvati prima della colonna: la creazione conta dal caricamento, poi resta salvata
+                    creazioni[slot] = conCreazione ? buffer.getInt(offset + 45) : caricamento;
+                    maxId = Math.max(maxId, id);
+                    notifica(null, slot);
+                }
+
+                idGenerator.set(maxId + 1);
+            } catch (IOException e) {
+                System.err.println("Errore nel caricamento binario delle prenotazioni: " + e.getMessage());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void abilitaJournal(String snapshotFile, String journalFile, int sogliaCompattazione, boolean sincrono,
+                               ClienteRepository clienteRepo, RisorsaRepository risorsaRepo) {
+        Journal nuovo = new Journal(snapshotFile, journalFile, sogliaCompattazione,
+                SnapshotBinario.isBinario(snapshotFile) ? this::saveToBinaryFile : f -> saveToFile(f, clienteRepo, risorsaRepo));
+        nuovo.setSincronizza(sincrono);
+        lock.writeLock().lock();
+        try {
+            nuovo.riproduci(this::applicaRecord);
+            nuovo.apri();
+            journal = nuovo;
+        } catch (IOException e) {
+            System.err.println("Errore nell'apertura del journal delle prenotazioni: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void compatta() {
+        lock.readLock().lock();
+        try {
+            if (journal != null) {
+                journal.compatta();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void sospendiJournal() {
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void aggiungiAscoltatore(AscoltatoreRepository<Prenotazione> ascoltatore) {
+        lock.writeLock().lock();
+        try {
+            ascoltatori.add(ascoltatore);
+            ascoltatore.svuotato();
+            for (int slot = 0; slot < dimensione; slot++) {
+                ascoltatore.modificato(null, materializza(slot));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return dimensione;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void applicaRecord(CsvReader record) {
+        try {
+            String tipo = record.campo(0);
+            if (tipo.equals(Journal.SALVA)) {
+                long id = scriviDaCsv(record, 1);
+                if (id >= idGenerator.get()) {
+                    idGenerator.set(id + 1);
+                }
+            } else if (tipo.equals(Journal.STATO)) {
+                aggiornaStato(record.campoLong(1), record.campoEnum(2, STATI));
+            } else if (tipo.equals(Journal.ELIMINA)) {
+                delete(record.campoLong(1));
+            }
+        } catch (Exception e) {
+            System.err.println("Record del journal delle prenotazioni non valido: " + record.testoRecord() + " - " + e.getMessage());
+        }
+    }
+
+    private void scrivi(Prenotazione prenotazione) {
+        long id = prenotazione.getId();
+        // Controllati prima di toccare le colonne: un id fuori intervallo non lascia scritture a metà
+        int cliente = prenotazione.getCliente() != null ? idColonna(prenotazione.getCliente().getId(), "cliente") : NESSUNO;
+        int risorsa = prenotazione.getRisorsa() != null ? idColonna(prenotazione.getRisorsa().getId(), "risorsa") : NESSUNO;
+        int slot = slot(id);
+        Prenotazione prima = primaDellaModifica(slot);
+        if (slot == NESSUNO) {
+            slot = nuovoSlot(id);
+            creazioni[slot] = SnapshotBinario.toEpochMinuti(SnapshotBinario.adessoAlMinuto());
+        } else {
+            versioni[slot]++;
+            separa(slot);
+        }
+        // Senza una creazione indicata resta quella già memorizzata, o l'istante del primo salvataggio
+        if (prenotazione.getDataOraCreazione() != null) {
+            creazioni[slot] = SnapshotBinario.toEpochMinuti(prenotazione.getDataOraCreazione());
+        }
+        prenotazione.setDataOraCreazione(SnapshotBinario.fromEpochMinuti(creazioni[slot]));
+        prenotazione.setVersione(versioni[slot]);
+        inizi[slot] = SnapshotBinario.toEpochMinuti(prenotazione.getDataOraInizio());
+        fini[slot] = SnapshotBinario.toEpochMinuti(prenotazione.getDataOraFine());
+        clienti[slot] = cliente;
+        risorse[slot] = risorsa;
+        raggruppa(slot);
+        stati[slot] = (byte) prenotazione.getStato().ordinal();
+        serie[slot] = prenotazione.getSerieId() != null ? registraSerie(prenotazione.getSerieId()) : NESSUNO;
+        if (prenotazione.getNote() != null) {
+            note.put(slot, prenotazione.getNote());
+        } else {
+            note.remove(slot);
+        }
+        notifica(prima, slot);
+    }
+
+    // Scrive nelle colonne un record CSV senza passare da un oggetto Prenotazione
+    private long scriviDaCsv(CsvReader csv, int primo) {
+        if (csv.getNumeroCampi() < primo + 7) {
+            return 0;
+        }
+        long id = csv.campoLong(primo);
+        int inizio = SnapshotBinario.toEpochMinuti(csv.campoDataOra(primo + 3));
+        int fine = SnapshotBinario.toEpochMinuti(csv.campoDataOra(primo + 4));
+        byte stato = (byte) csv.campoEnum(primo + 5, STATI).ordinal();
+        int cliente = csv.isVuoto(primo + 1) ? NESSUNO : idColonna(csv.campoLong(primo + 1), "cliente");
+        int risorsa = csv.isVuoto(primo + 2) ? NESSUNO : idColonna(csv.campoLong(primo + 2), "risorsa");
+        // La colonna serieId manca nei file salvati prima delle serie ricorrenti
+        int serieId = csv.getNumeroCampi() > primo + 7 && !csv.isVuoto(primo + 7)
+                ? registraSerie(csv.campoLong(primo + 7)) : NESSUNO;
+        // Anche dataOraCreazione manca nei file più vecchi: resta quella memorizzata o conta da adesso
+        boolean conCreazione = csv.getNumeroCampi() > primo + 8 && !csv.isVuoto(primo + 8);
+        int creazione = conCreazione ? SnapshotBinario.toEpochMinuti(csv.campoDataOra(primo + 8)) : 0;
+
+        int slot = slot(id);
+        Prenotazione prima = primaDellaModifica(slot);
+        if (slot == NESSUNO) {
+            slot = nuovoSlot(id);
+            creazioni[slot] = SnapshotBinario.toEpochMinuti(SnapshotBinario.adessoAlMinuto());
+        } else {
+            versioni[slot]++;
+            separa(slot);
+        }
+        if (conCreazione) {
+            creazioni[slot] = creazione;
+        }
+        inizi[slot] = inizio;
+        fini[slot] = fine;
+        clienti[slot] = cliente;
+        risorse[slot] = risorsa;
+        raggruppa(slot);
+        stati[slot] = stato;
+        serie[slot] = serieId;
+        if (!csv.isVuoto(primo + 6)) {
+            note.put(slot, csv.campo(primo + 6));
+        } else {
+            note.remove(slot);
+        }
+        notifica(prima, slot);
+        return id;
+    }
+
+    // Copia del record prima di una modifica, solo se qualcuno ascolta: altrimenti le scritture non materializzano nulla
+    private Prenotazione primaDellaModifica(int slot) {
+        return slot != NESSUNO && !ascoltatori.isEmpty() ? materializza(slot) : null;
+    }
+
+    private void notifica(Prenotazione prima, int slot) {
+        if (ascoltatori.isEmpty()) {
+            return;
+        }
+        Prenotazione dopo = materializza(slot);
+        for (AscoltatoreRepository<Prenotazione> ascoltatore : ascoltatori) {
+            ascoltatore.modificato(prima, dopo);
+        }
+    }
+
+    private Prenotazione materializza(int slot) {
+        Prenotazione prenotazione = new Prenotazione(ids[slot],
+                clienti[slot] != NESSUNO ? clienteRepo.findById((long) clienti[slot]).orElse(null) : null,
+                risorse[slot] != NESSUNO ? risorsaRepo.findById((long) risorse[slot]).orElse(null) : null,
+                SnapshotBinario.fromEpochMinuti(inizi[slot]),
+                SnapshotBinario.fromEpochMinuti(fini[slot]),
+                STATI[stati[slot]],
+                note.get(slot));
+        prenotazione.setVersione(versioni[slot]);
+        if (serie[slot] != NESSUNO) {
+            prenotazione.setSerieId((long) serie[slot]);
+        }
+        prenotazione.setDataOraCreazione(SnapshotBinario.fromEpochMinuti(creazioni[slot]));
+        return prenotazione;
+    }
+
+    // Come per clienti e risorse la colonna è a 32 bit; il generatore resta oltre la serie più alta vista
+    private int registraSerie(long serieId) {
+        int serie = idColonna(serieId, "serie");
+        serieGenerator.accumulateAndGet(serieId + 1, Math::max);
+        return serie;
+    }
+
+    // Le colonne di cliente, risorsa e serie sono a 32 bit: un id che non ci sta è rifiutato invece di troncarlo
+    private static int idColonna(long id, String tipo) {
+        if (!inColonna(id)) {
+            throw new IllegalArgumentException("ID " + tipo + " fuori intervallo: " + id);
+        }
+        return (int) id;
+    }
+
+    // Un id che non entra nelle colonne non può essere memorizzato, quindi le ricerche per quell'id sono vuote
+    private static boolean inColonna(long id) {
+        return id >= 0 && id <= Integer.MAX_VALUE;
+    }
+
+    private void verificaVersione(Long id, long versioneAttesa) {
+        int slot = slot(id);
+        if (slot == NESSUNO) {
+            throw new PrenotazioneNonTrovataException(id);
+        }
+        if (versioni[slot] != versioneAttesa) {
+            throw new ModificaConcorrenteException(id, versioneAttesa, versioni[slot]);
+        }
+    }
+
+    // Ordina per (inizio, id) impacchettando inizio e slot in un long: nessun oggetto da confrontare.
+    // Le chiavi con lo stesso inizio, poche e già vicine, si riordinano poi per id.
+    private List<Prenotazione> ordinaPerInizio(int[] slots, int quanti) {
+        long[] chiavi = new long[quanti];
+        for (int i = 0; i < quanti; i++) {
+            chiavi[i] = ((long) inizi[slots[i]] << 32) | slots[i];
+        }
+        Arrays.sort(chiavi);
+        for (int i = 1; i < quanti; i++) {
+            long chiave = chiavi[i];
+            int j = i - 1;
+            while (j >= 0 && (chiavi[j] >> 32) == (chiave >> 32) && ids[(int) chiavi[j]] > ids[(int) chiave]) {
+                chiavi[j + 1] = chiavi[j];
+                j--;
+            }
+            chiavi[j + 1] = chiave;
+        }
+        List<Prenotazione> risultato = new ArrayList<>(quanti);
+        for (long chiave : chiavi) {
+            risultato.add(materializza((int) chiave));
+        }
+        return risultato;
+    }
+
+    private static int[] aggiungi(int[] array, int posizione, int valore) {
+        if (posizione == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[posizione] = valore;
+        return array;
+    }
+
+    private int slot(Long id) {
+        return id != null ? slotPerId.trova(id) : NESSUNO;
+    }
+
+    private int nuovoSlot(long id) {
+        if (dimensione == ids.length) {
+            int capacita = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacita);
+            inizi = Arrays.copyOf(inizi, capacita);
+            fini = Arrays.copyOf(fini, capacita);
+            clienti = Arrays.copyOf(clienti, capacita);
+            risorse = Arrays.copyOf(risorse, capacita);
+            stati = Arrays.copyOf(stati, capacita);
+            versioni = Arrays.copyOf(versioni, capacita);
+            serie = Arrays.copyOf(serie, capacita);
+            creazioni = Arrays.copyOf(creazioni, capacita);
+        }
+        int slot = dimensione++;
+        ids[slot] = id;
+        versioni[slot] = 0;
+        slotPerId.inserisci(id, slot);
+        return slot;
+    }
+
+    private void raggruppa(int slot) {
+        if (risorse[slot] != NESSUNO) {
+            slotPerRisorsa.aggiungi(risorse[slot], slot);
+        }
+    }
+
+    private void separa(int slot) {
+        if (risorse[slot] != NESSUNO) {
+            slotPerRisorsa.rimuovi(risorse[slot], slot);
+        }
+    }
+
+    private void svuota() {
+        slotPerId.svuota();
+        slotPerRisorsa.svuota();
+        note.clear();
+        dimensione = 0;
+        ascoltatori.forEach(AscoltatoreRepository::svuotato);
+    }
+
+    private String toCsv(int slot) {
+        return String.format("%d,%s,%s,%s,%s,%s,%s,%s,%s",
+                ids[slot],
+                clienti[slot] != NESSUNO ? Integer.toString(clienti[slot]) : "",
+                risorse[slot] != NESSUNO ? Integer.toString(risorse[slot]) : "",
+                SnapshotBinario.fromEpochMinuti(inizi[slot]).format(FORMATTER),
+                SnapshotBinario.fromEpochMinuti(fini[slot]).format(FORMATTER),
+                STATI[stati[slot]].name(),
+                escapeCsv(note.get(slot)),
+                serie[slot] != NESSUNO ? Integer.toString(serie[slot]) : "",
+                SnapshotBinario.fromEpochMinuti(creazioni[slot]).format(FORMATTER));
+    }
+
+    private String escapeCsv(String value) {
+        if (value == null) return "";
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
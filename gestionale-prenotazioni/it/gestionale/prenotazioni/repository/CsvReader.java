@@ -0,0 +1,255 @@
+package it.gestionale.prenotazioni.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Lettore CSV in streaming (RFC 4180) che lavora direttamente sui byte del file.
+ * Il file viene letto a blocchi in un buffer fisso e ogni record viene decodificato in un array
+ * riutilizzato, quindi la memoria occupata non dipende dalla dimensione del file.
+ * Numeri, date (dd/MM/yyyy HH:mm) ed enum vengono interpretati dai byte senza creare String;
+ * i campi tra virgolette possono contenere virgole, virgolette raddoppiate e a capo.
+ */
+public class CsvReader implements Closeable {
+    private static final int DIMENSIONE_BUFFER = 1 << 16;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[DIMENSIONE_BUFFER];
+    private int posizione;
+    private int limite;
+
+    private byte[] record = new byte[256];
+    private int lunghezzaRecord;
+    private int[] inizi = new int[16];
+    private int[] fini = new int[16];
+    private int numeroCampi;
+
+    private long righeLette;
+    private long numeroRiga;
+
+    public CsvReader(InputStream in) {
+        this.in = in;
+    }
+
+    public static CsvReader apri(String filename) throws IOException {
+        return new CsvReader(Files.newInputStream(Paths.get(filename)));
+    }
+
+    public boolean nextRecord() throws IOException {
+        int c = leggiByte();
+        if (c == -1) {
+            return false;
+        }
+        numeroRiga = righeLette + 1;
+        numeroCampi = 0;
+        lunghezzaRecord = 0;
+        iniziaCampo();
+
+        boolean traVirgolette = false;
+        boolean inizioCampo = true;
+        while (true) {
+            if (c == -1) {
+                chiudiCampo();
+                return true;
+            }
+            if (traVirgolette) {
+                if (c == '"') {
+                    c = leggiByte();
+                    if (c == '"') {
+                        aggiungi('"');
+                        c = leggiByte();
+                    } else {
+                        traVirgolette = false;
+                    }
+                    continue;
+                }
+                if (c == '\n') {
+                    righeLette++;
+                }
+                aggiungi(c);
+            } else if (c == '"' && inizioCampo) {
+                traVirgolette = true;
+            } else if (c == ',') {
+                chiudiCampo();
+                iniziaCampo();
+                inizioCampo = true;
+                c = leggiByte();
+                continue;
+            } else if (c == '\n' || c == '\r') {
+                righeLette++;
+                if (c == '\r') {
+                    int successivo = leggiByte();
+                    if (successivo != '\n' && successivo != -1) {
+                        posizione--;
+                    }
+                }
+                chiudiCampo();
+                return true;
+            } else {
+                aggiungi(c);
+            }
+            inizioCampo = false;
+            c = leggiByte();
+        }
+    }
+
+    public int getNumeroCampi() {
+        return numeroCampi;
+    }
+
+    // Riga del file (1 = intestazione) su cui inizia il record corrente
+    public long getNumeroRiga() {
+        return numeroRiga;
+    }
+
+    public boolean isVuoto(int indice) {
+        return indice >= numeroCampi || fini[indice] == inizi[indice];
+    }
+
+    public String campo(int indice) {
+        if (isVuoto(indice)) {
+            return "";
+        }
+        return new String(record, inizi[indice], fini[indice] - inizi[indice], StandardCharsets.UTF_8);
+    }
+
+    public long campoLong(int indice) {
+        if (isVuoto(indice)) {
+            throw new NumberFormatException("Campo numerico vuoto");
+        }
+        int i = inizi[indice];
+        int fine = fini[indice];
+        boolean negativo = record[i] == '-';
+        if (negativo && ++i == fine) {
+            throw new NumberFormatException("Numero non valido: " + campo(indice));
+        }
+        long valore = 0;
+        for (; i < fine; i++) {
+            int cifra = record[i] - '0';
+            if (cifra < 0 || cifra > 9 || valore > (Long.MAX_VALUE - cifra) / 10) {
+                throw new NumberFormatException("Numero non valido: " + campo(indice));
+            }
+            valore = valore * 10 + cifra;
+        }
+        return negativo ? -valore : valore;
+    }
+
+    public int campoInt(int indice) {
+        long valore = campoLong(indice);
+        if (valore < Integer.MIN_VALUE || valore > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Numero fuori intervallo: " + valore);
+        }
+        return (int) valore;
+    }
+
+    // Formato dd/MM/yyyy HH:mm, lo stesso usato da saveToFile
+    public LocalDateTime campoDataOra(int indice) {
+        if (indice >= numeroCampi || fini[indice] - inizi[indice] != 16) {
+            throw new DateTimeParseException("Data non valida, atteso dd/MM/yyyy HH:mm", campo(indice), 0);
+        }
+        int i = inizi[indice];
+        if (record[i + 2] != '/' || record[i + 5] != '/' || record[i + 10] != ' ' || record[i + 13] != ':') {
+            throw new DateTimeParseException("Data non valida, atteso dd/MM/yyyy HH:mm", campo(indice), 0);
+        }
+        int giorno = cifre(indice, i, 2);
+        int mese = cifre(indice, i + 3, 2);
+        int anno = cifre(indice, i + 6, 4);
+        int ora = cifre(indice, i + 11, 2);
+        int minuto = cifre(indice, i + 14, 2);
+        return LocalDateTime.of(anno, mese, giorno, ora, minuto);
+    }
+
+    public <E extends Enum<E>> E campoEnum(int indice, E[] valori) {
+        int lunghezza = indice < numeroCampi ? fini[indice] - inizi[indice] : 0;
+        for (E valore : valori) {
+            String nome = valore.name();
+            if (nome.length() == lunghezza && uguale(indice, nome)) {
+                return valore;
+            }
+        }
+        throw new IllegalArgumentException("Valore non previsto: " + campo(indice));
+    }
+
+    // Ricostruisce il record per i messaggi d'errore
+    public String testoRecord() {
+        StringBuilder testo = new StringBuilder();
+        for (int i = 0; i < numeroCampi; i++) {
+            if (i > 0) {
+                testo.append(',');
+            }
+            testo.append(campo(i));
+        }
+        return testo.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int cifre(int indice, int da, int quante) {
+        int valore = 0;
+        for (int i = da; i < da + quante; i++) {
+            int cifra = record[i] - '0';
+            if (cifra < 0 || cifra > 9) {
+                throw new DateTimeParseException("Data non valida, atteso dd/MM/yyyy HH:mm", campo(indice), i - inizi[indice]);
+            }
+            valore = valore * 10 + cifra;
+        }
+        return valore;
+    }
+
+    private boolean uguale(int indice, String testo) {
+        int inizio = inizi[indice];
+        for (int i = 0; i < testo.length(); i++) {
+            if (record[inizio + i] != testo.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int leggiByte() throws IOException {
+        if (posizione == limite) {
+            limite = in.read(buffer, 0, buffer.length);
+            posizione = 0;
+            if (limite <= 0) {
+                limite = 0;
+                return -1;
+            }
+        }
+        return buffer[posizione++] & 0xFF;
+    }
+
+    private void aggiungi(int c) {
+        if (lunghezzaRecord == record.length) {
+            byte[] nuovo = new byte[record.length * 2];
+            System.arraycopy(record, 0, nuovo, 0, lunghezzaRecord);
+            record = nuovo;
+        }
+        record[lunghezzaRecord++] = (byte) c;
+    }
+
+    private void iniziaCampo() {
+        if (numeroCampi == inizi.length) {
+            int[] nuoviInizi = new int[inizi.length * 2];
+            int[] nuoveFini = new int[fini.length * 2];
+            System.arraycopy(inizi, 0, nuoviInizi, 0, numeroCampi);
+            System.arraycopy(fini, 0, nuoveFini, 0, numeroCampi);
+            inizi = nuoviInizi;
+            fini = nuoveFini;
+        }
+        inizi[numeroCampi] = lunghezzaRecord;
+    }
+
+    private void chiudiCampo() {
+        fini[numeroCampi] = lunghezzaRecord;
+        numeroCampi++;
+    }
+}
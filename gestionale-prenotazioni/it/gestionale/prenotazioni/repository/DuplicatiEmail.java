@@ -0,0 +1,62 @@
+package it.gestionale.prenotazioni.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Clienti con la stessa email normalizzata in un file di dati (CSV o snapshot binario), letto in un solo
+ * passaggio senza caricare il repository: di ogni record servono solo id ed email.
+ */
+public final class DuplicatiEmail {
+    private DuplicatiEmail() {}
+
+    /** Email normalizzate usate da più clienti, in ordine alfabetico, con gli id nell'ordine del file. */
+    public static Map<String, List<Long>> trova(String filename) throws IOException {
+        // Primo cliente di ogni email; le liste si creano solo per le email ripetute
+        Map<String, Long> primi = new HashMap<>();
+        Map<String, List<Long>> duplicati = new TreeMap<>();
+        if (SnapshotBinario.isBinario(filename)) {
+            try (SnapshotBinario.Lettore lettore = new SnapshotBinario.Lettore(filename, SnapshotBinario.TIPO_CLIENTI)) {
+                ByteBuffer buffer = lettore.buffer();
+                for (int i = 0; i < lettore.getNumeroRecord(); i++) {
+                    int offset = lettore.offsetRecord(i);
+                    aggiungi(primi, duplicati, lettore.stringa(buffer.getInt(offset + 16)), buffer.getLong(offset));
+                }
+            }
+        } else {
+            try (CsvReader csv = CsvReader.apri(filename)) {
+                // Intestazione
+                if (csv.nextRecord()) {
+                    while (csv.nextRecord()) {
+                        if (csv.getNumeroCampi() >= 5) {
+                            aggiungi(primi, duplicati, csv.campo(3), csv.campoLong(0));
+                        }
+                    }
+                }
+            }
+        }
+        return duplicati;
+    }
+
+    private static void aggiungi(Map<String, Long> primi, Map<String, List<Long>> duplicati, String email, long id) {
+        String chiave = ClienteRepository.normalizzaEmail(email);
+        if (chiave == null) {
+            return;
+        }
+        Long primo = primi.putIfAbsent(chiave, id);
+        if (primo != null) {
+            List<Long> ids = duplicati.get(chiave);
+            if (ids == null) {
+                ids = new ArrayList<>();
+                ids.add(primo);
+                duplicati.put(chiave, ids);
+            }
+            ids.add(id);
+        }
+    }
+}
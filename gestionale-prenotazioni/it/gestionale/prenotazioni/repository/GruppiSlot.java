@@ -0,0 +1,71 @@
+package it.gestionale.prenotazioni.repository;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Slot del repository a colonne raggruppati per una chiave intera (la risorsa): le ricerche su una risorsa
+ * leggono solo le sue prenotazioni invece di scorrere tutte le colonne. Ogni gruppo è un array di slot
+ * senza ordine; la posizione di ogni slot nel suo gruppo è tenuta in una colonna a parte, così togliere o
+ * spostare uno slot costa O(1).
+ */
+final class GruppiSlot {
+    private final Map<Integer, Gruppo> gruppi = new HashMap<>();
+    // Posizione di ogni slot nell'array del suo gruppo
+    private int[] posizioni = new int[1024];
+
+    static final class Gruppo {
+        int[] slot = new int[4];
+        int quanti;
+    }
+
+    /** Il gruppo della chiave, o null se non ha slot; da leggere solo sotto il lock del repository. */
+    Gruppo gruppo(int chiave) {
+        return gruppi.get(chiave);
+    }
+
+    void aggiungi(int chiave, int slot) {
+        Gruppo gruppo = gruppi.computeIfAbsent(chiave, k -> new Gruppo());
+        if (gruppo.quanti == gruppo.slot.length) {
+            gruppo.slot = Arrays.copyOf(gruppo.slot, gruppo.quanti * 2);
+        }
+        if (slot >= posizioni.length) {
+            posizioni = Arrays.copyOf(posizioni, Math.max(posizioni.length * 2, slot + 1));
+        }
+        posizioni[slot] = gruppo.quanti;
+        gruppo.slot[gruppo.quanti++] = slot;
+    }
+
+    void rimuovi(int chiave, int slot) {
+        Gruppo gruppo = gruppi.get(chiave);
+        if (gruppo == null) {
+            return;
+        }
+        // L'ultimo slot del gruppo prende il posto di quello tolto
+        int posizione = posizioni[slot];
+        int ultimo = gruppo.slot[--gruppo.quanti];
+        gruppo.slot[posizione] = ultimo;
+        posizioni[ultimo] = posizione;
+        if (gruppo.quanti == 0) {
+            gruppi.remove(chiave);
+        } else if (gruppo.slot.length > 16 && gruppo.quanti < gruppo.slot.length / 4) {
+            gruppo.slot = Arrays.copyOf(gruppo.slot, gruppo.slot.length / 2);
+        }
+    }
+
+    /** Il record nello slot da è stato spostato nello slot a (che non appartiene a nessun gruppo). */
+    void sposta(int chiave, int da, int a) {
+        Gruppo gruppo = gruppi.get(chiave);
+        if (gruppo == null) {
+            return;
+        }
+        int posizione = posizioni[da];
+        gruppo.slot[posizione] = a;
+        posizioni[a] = posizione;
+    }
+
+    void svuota() {
+        gruppi.clear();
+    }
+}
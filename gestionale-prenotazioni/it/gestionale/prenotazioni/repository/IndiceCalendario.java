@@ -0,0 +1,80 @@
+package it.gestionale.prenotazioni.repository;
+
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Prenotazioni raggruppate per giorno di calendario: ogni giorno contiene, ordinate per inizio,
+ * tutte le prenotazioni che lo toccano. Una ricerca per periodo legge solo i giorni della finestra.
+ * Giorni e bucket sono mappe concorrenti, modificabili e leggibili da più thread senza lock, con le stesse
+ * regole di IndiceConcorrente. Un giorno rimasto vuoto resta nella mappa fino a svuota: toglierlo mentre
+ * un'altra prenotazione di quel giorno lo sta riempiendo ne perderebbe la voce.
+ */
+class IndiceCalendario {
+    private final NavigableMap<LocalDate, ConcurrentSkipListMap<VoceIndice, VoceIndice>> giorni = new ConcurrentSkipListMap<>();
+
+    /** Sostituisce prima (null se la prenotazione è nuova) con dopo (null se è eliminata). */
+    void sostituisci(VoceIndice prima, VoceIndice dopo) {
+        if (dopo != null) {
+            for (LocalDate giorno = dopo.inizio.toLocalDate(); !giorno.isAfter(ultimoGiorno(dopo.inizio, dopo.fine)); giorno = giorno.plusDays(1)) {
+                giorni.computeIfAbsent(giorno, k -> new ConcurrentSkipListMap<>()).put(dopo, dopo);
+            }
+        }
+        if (prima == null) {
+            return;
+        }
+        boolean stessaChiave = dopo != null && prima.compareTo(dopo) == 0;
+        LocalDate ultimoDopo = dopo != null ? ultimoGiorno(dopo.inizio, dopo.fine) : null;
+        for (LocalDate giorno = prima.inizio.toLocalDate(); !giorno.isAfter(ultimoGiorno(prima.inizio, prima.fine)); giorno = giorno.plusDays(1)) {
+            // Nei giorni che anche la voce nuova tocca, con la stessa chiave, il put l'ha già sostituita
+            if (stessaChiave && !giorno.isAfter(ultimoDopo)) {
+                continue;
+            }
+            ConcurrentSkipListMap<VoceIndice, VoceIndice> bucket = giorni.get(giorno);
+            if (bucket != null) {
+                bucket.remove(prima);
+            }
+        }
+    }
+
+    void svuota() {
+        giorni.clear();
+    }
+
+    List<Prenotazione> sovrapposte(LocalDateTime inizio, LocalDateTime fine) {
+        List<Prenotazione> risultato = new ArrayList<>();
+        if (!fine.isAfter(inizio)) {
+            return risultato;
+        }
+        LocalDate primoGiorno = inizio.toLocalDate();
+        NavigableMap<LocalDate, ConcurrentSkipListMap<VoceIndice, VoceIndice>> finestra =
+                giorni.subMap(primoGiorno, true, ultimoGiorno(inizio, fine), true);
+
+        // Una prenotazione su più giorni compare in più bucket: la si restituisce solo nel giorno
+        // in cui inizia, oppure nel primo giorno della finestra se è iniziata prima.
+        // Così il risultato esce già ordinato per inizio senza ulteriori sort.
+        for (Map.Entry<LocalDate, ConcurrentSkipListMap<VoceIndice, VoceIndice>> entry : finestra.entrySet()) {
+            boolean primo = entry.getKey().equals(primoGiorno);
+            for (VoceIndice voce : entry.getValue().values()) {
+                if ((primo || voce.inizio.toLocalDate().equals(entry.getKey())) && voce.sovrappone(inizio, fine)) {
+                    risultato.add(voce.prenotazione);
+                }
+            }
+        }
+        return risultato;
+    }
+
+    // Una prenotazione che termina a mezzanotte non occupa il giorno successivo
+    private static LocalDate ultimoGiorno(LocalDateTime inizio, LocalDateTime fine) {
+        if (!fine.isAfter(inizio)) {
+            return inizio.toLocalDate();
+        }
+        return fine.minusNanos(1).toLocalDate();
+    }
+}
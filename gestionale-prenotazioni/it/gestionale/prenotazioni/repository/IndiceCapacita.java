@@ -0,0 +1,110 @@
+package it.gestionale.prenotazioni.repository;
+
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Risorse ordinate per capacità crescente (a parità, per ID), sia tutte insieme sia raggruppate per tipo.
+ * Le voci conservano la capacità al momento dell'inserimento, così una risorsa salvata con una
+ * capacità diversa viene tolta dalla posizione vecchia. Le scritture sono serializzate dal repository,
+ * le letture possono avvenire in parallelo.
+ */
+class IndiceCapacita {
+    private final EnumMap<TipoRisorsa, ConcurrentSkipListSet<Voce>> perTipo = new EnumMap<>(TipoRisorsa.class);
+    private final ConcurrentSkipListSet<Voce> tutte = new ConcurrentSkipListSet<>();
+    private final Map<Long, Voce> voci = new ConcurrentHashMap<>();
+
+    IndiceCapacita() {
+        for (TipoRisorsa tipo : TipoRisorsa.values()) {
+            perTipo.put(tipo, new ConcurrentSkipListSet<>());
+        }
+    }
+
+    void aggiungi(Risorsa risorsa) {
+        rimuovi(risorsa.getId());
+        Voce voce = new Voce(risorsa.getCapacita(), risorsa.getId(), risorsa.getTipo(), risorsa);
+        voci.put(voce.id, voce);
+        tutte.add(voce);
+        if (voce.tipo != null) {
+            perTipo.get(voce.tipo).add(voce);
+        }
+    }
+
+    void rimuovi(Long id) {
+        Voce voce = voci.remove(id);
+        if (voce != null) {
+            tutte.remove(voce);
+            if (voce.tipo != null) {
+                perTipo.get(voce.tipo).remove(voce);
+            }
+        }
+    }
+
+    void svuota() {
+        voci.clear();
+        tutte.clear();
+        perTipo.values().forEach(ConcurrentSkipListSet::clear);
+    }
+
+    List<Risorsa> perTipo(TipoRisorsa tipo) {
+        return elenco(perTipo.get(tipo));
+    }
+
+    // Dalla più piccola capacità sufficiente in su: il primo elemento è quello che spreca meno posti
+    List<Risorsa> conCapacitaMinima(TipoRisorsa tipo, int capacitaMinima) {
+        return elenco(perTipo.get(tipo).tailSet(new Voce(capacitaMinima, Long.MIN_VALUE, tipo, null)));
+    }
+
+    // Di qualunque tipo, con capacità tra minima e massima comprese
+    List<Risorsa> conCapacitaTra(int capacitaMinima, int capacitaMassima) {
+        if (capacitaMinima > capacitaMassima) {
+            return new ArrayList<>();
+        }
+        return elenco(tutte.subSet(new Voce(capacitaMinima, Long.MIN_VALUE, null, null), true,
+                new Voce(capacitaMassima, Long.MAX_VALUE, null, null), true));
+    }
+
+    private static List<Risorsa> elenco(Iterable<Voce> voci) {
+        List<Risorsa> risultato = new ArrayList<>();
+        for (Voce voce : voci) {
+            risultato.add(voce.risorsa);
+        }
+        return risultato;
+    }
+
+    private static final class Voce implements Comparable<Voce> {
+        final int capacita;
+        final long id;
+        final TipoRisorsa tipo;
+        final Risorsa risorsa;
+
+        Voce(int capacita, long id, TipoRisorsa tipo, Risorsa risorsa) {
+            this.capacita = capacita;
+            this.id = id;
+            this.tipo = tipo;
+            this.risorsa = risorsa;
+        }
+
+        @Override
+        public int compareTo(Voce altra) {
+            int confronto = Integer.compare(capacita, altra.capacita);
+            return confronto != 0 ? confronto : Long.compare(id, altra.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Voce && compareTo((Voce) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(id) * 31 + capacita;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package it.gestionale.prenotazioni.repository;
+
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Voci raggruppate per chiave (cliente, serie, stato) e ordinate per inizio, modificabili e leggibili da
+ * più thread senza lock. Ogni gruppo è una mappa concorrente ordinata; un gruppo vuoto viene tolto in modo
+ * atomico rispetto a chi lo sta riempiendo.
+ * Le modifiche della stessa prenotazione devono arrivare una alla volta (il repository le serializza con la
+ * striscia della risorsa). La voce nuova entra prima che esca la vecchia: chi legge durante una modifica
+ * trova la prenotazione almeno una volta, per un istante due se cambia la chiave o l'inizio.
+ */
+final class IndiceConcorrente<K> {
+    private final Map<K, ConcurrentSkipListMap<VoceIndice, VoceIndice>> gruppi = new ConcurrentHashMap<>();
+
+    /** Sostituisce prima (null se la prenotazione è nuova) con dopo (null se è eliminata); chiavi null = fuori indice. */
+    void sostituisci(K chiavePrima, VoceIndice prima, K chiaveDopo, VoceIndice dopo) {
+        boolean entra = chiaveDopo != null && dopo != null;
+        if (entra) {
+            gruppi.compute(chiaveDopo, (chiave, gruppo) -> {
+                ConcurrentSkipListMap<VoceIndice, VoceIndice> risultato = gruppo != null ? gruppo : new ConcurrentSkipListMap<>();
+                // Con la stessa chiave d'ordinamento il valore viene sostituito sul posto
+                risultato.put(dopo, dopo);
+                return risultato;
+            });
+        }
+        if (chiavePrima == null || prima == null
+                || (entra && chiavePrima.equals(chiaveDopo) && prima.compareTo(dopo) == 0)) {
+            return;
+        }
+        gruppi.computeIfPresent(chiavePrima, (chiave, gruppo) -> {
+            gruppo.remove(prima);
+            return gruppo.isEmpty() ? null : gruppo;
+        });
+    }
+
+    List<Prenotazione> elenco(K chiave) {
+        ConcurrentSkipListMap<VoceIndice, VoceIndice> gruppo = gruppi.get(chiave);
+        List<Prenotazione> risultato = new ArrayList<>(gruppo != null ? gruppo.size() : 0);
+        if (gruppo != null) {
+            for (VoceIndice voce : gruppo.values()) {
+                risultato.add(voce.prenotazione);
+            }
+        }
+        return risultato;
+    }
+
+    void svuota() {
+        gruppi.clear();
+    }
+}
@@ -0,0 +1,420 @@
+package it.gestionale.prenotazioni.repository;
+
+import it.gestionale.prenotazioni.domain.Cliente;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Indice invertito a trigrammi su nome, cognome, email e telefono dei clienti.
+ *
+ * I testi sono ridotti a parole minuscole senza accenti (l'email si spezza su punti e chiocciola, il telefono
+ * tiene solo le cifre). Ogni parola è indicizzata con i suoi trigrammi e con quelli della parola preceduta da
+ * un segno di inizio, così un termine di tre o più caratteri trova le parole che lo contengono e uno di uno o
+ * due caratteri quelle che iniziano così. I candidati sono l'intersezione delle liste dei trigrammi, poi
+ * verificati sul testo. Solo se non c'è nessun risultato si passa alla ricerca approssimata: i clienti
+ * con abbastanza trigrammi in comune con la ricerca, per gli errori di battitura.
+ * Le scritture sono serializzate dal repository, le letture possono avvenire in parallelo.
+ */
+class IndiceRicercaClienti {
+    private static final char INIZIO = '\u0001';
+    // Quota minima di trigrammi in comune con la ricerca perché un cliente sia un risultato approssimato
+    private static final double SIMILARITA_MINIMA = 0.5;
+    // Oltre questo numero di trigrammi nella ricerca il conteggio approssimato non vale il costo
+    private static final int MAX_TRIGRAMMI_APPROSSIMATI = 24;
+
+    private final Map<Long, Voce> voci = new HashMap<>();
+    private final Map<Long, Lista> perChiave = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    void aggiungi(Cliente cliente) {
+        lock.writeLock().lock();
+        try {
+            rimuoviVoce(cliente.getId());
+            List<String> parole = new ArrayList<>();
+            aggiungiParole(parole, cliente.getNome());
+            aggiungiParole(parole, cliente.getCognome());
+            aggiungiParole(parole, cliente.getEmail());
+            String telefono = cifre(cliente.getTelefono());
+            if (!telefono.isEmpty()) {
+                parole.add(telefono);
+            }
+            Voce voce = new Voce(cliente, parole.toArray(new String[0]));
+            long id = cliente.getId();
+            for (Long chiave : voce.chiavi()) {
+                perChiave.computeIfAbsent(chiave, k -> new Lista()).aggiungi(id);
+            }
+            voci.put(cliente.getId(), voce);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void rimuovi(Long id) {
+        lock.writeLock().lock();
+        try {
+            rimuoviVoce(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void svuota() {
+        lock.writeLock().lock();
+        try {
+            voci.clear();
+            perChiave.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Clienti in cui ogni termine della ricerca compare in una parola: prima quelli in cui ogni termine è
+     * l'inizio di una parola, poi quelli in cui qualche termine sta solo all'interno, in ciascun gruppo per ID.
+     * Le liste sono ordinate per ID, quindi la scansione si ferma appena raggiunto il limite.
+     * Se non c'è nessun risultato restituisce quelli approssimati, in ordine di somiglianza.
+     */
+    List<Cliente> cerca(String ricerca, int limite) {
+        List<String> termini = new ArrayList<>();
+        aggiungiParole(termini, ricerca);
+        List<Cliente> risultato = new ArrayList<>();
+        if (termini.isEmpty() || limite <= 0) {
+            return risultato;
+        }
+        Set<Long> chiaviInizio = new LinkedHashSet<>();
+        Set<Long> chiaviOvunque = new LinkedHashSet<>();
+        for (String termine : termini) {
+            chiaviInizio(termine, chiaviInizio);
+            chiaviOvunque(termine, chiaviOvunque);
+        }
+        lock.readLock().lock();
+        try {
+            scorri(chiaviInizio, termini, true, limite, risultato, Set.of());
+            if (risultato.size() < limite && !chiaviOvunque.equals(chiaviInizio)) {
+                Set<Long> giaTrovati = new HashSet<>();
+                for (Cliente cliente : risultato) {
+                    giaTrovati.add(cliente.getId());
+                }
+                scorri(chiaviOvunque, termini, false, limite, risultato, giaTrovati);
+            }
+            if (risultato.isEmpty()) {
+                for (Trovato trovato : ordina(approssimati(termini, limite))) {
+                    risultato.add(trovato.voce.cliente);
+                }
+            }
+            return risultato;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Intersezione delle liste delle chiavi partendo dalla più corta; ogni candidato è verificato sulle parole
+    private void scorri(Set<Long> chiavi, List<String> termini, boolean soloInizio, int limite,
+                        List<Cliente> risultato, Set<Long> esclusi) {
+        List<Lista> liste = new ArrayList<>();
+        for (Long chiave : chiavi) {
+            Lista lista = perChiave.get(chiave);
+            if (lista == null) {
+                return;
+            }
+            liste.add(lista);
+        }
+        liste.sort((x, y) -> Integer.compare(x.dimensione, y.dimensione));
+
+        Lista prima = liste.get(0);
+        int[] cursori = new int[liste.size()];
+        candidati:
+        for (int i = 0; i < prima.dimensione && risultato.size() < limite; i++) {
+            long id = prima.ids[i];
+            for (int l = 1; l < liste.size(); l++) {
+                cursori[l] = liste.get(l).cerca(id, cursori[l]);
+                if (cursori[l] < 0) {
+                    cursori[l] = -cursori[l] - 1;
+                    continue candidati;
+                }
+            }
+            Voce voce = voci.get(id);
+            if (!esclusi.contains(voce.cliente.getId()) && contiene(voce, termini, soloInizio)) {
+                risultato.add(voce.cliente);
+            }
+        }
+    }
+
+    private PriorityQueue<Trovato> approssimati(List<String> termini, int limite) {
+        PriorityQueue<Trovato> migliori = new PriorityQueue<>(limite + 1, Trovato::confronta);
+        Set<Long> chiavi = new LinkedHashSet<>();
+        for (String termine : termini) {
+            if (termine.length() >= 3) {
+                trigrammi(INIZIO + termine, chiavi);
+            }
+        }
+        if (chiavi.isEmpty() || chiavi.size() > MAX_TRIGRAMMI_APPROSSIMATI) {
+            return migliori;
+        }
+        List<Lista> liste = new ArrayList<>();
+        for (Long chiave : chiavi) {
+            Lista lista = perChiave.get(chiave);
+            if (lista != null) {
+                liste.add(lista);
+            }
+        }
+        int minimo = (int) Math.ceil(SIMILARITA_MINIMA * chiavi.size());
+        if (liste.size() < minimo) {
+            return migliori;
+        }
+        // Un cliente con almeno minimo trigrammi in comune compare per forza in una delle liste più corte:
+        // si fondono solo quelle, le altre si consultano per ricerca binaria sui candidati
+        liste.sort((x, y) -> Integer.compare(x.dimensione, y.dimensione));
+        int fuse = liste.size() - minimo + 1;
+        int[] cursori = new int[liste.size()];
+        while (true) {
+            long id = 0;
+            boolean esaurite = true;
+            for (int l = 0; l < fuse; l++) {
+                if (cursori[l] < liste.get(l).dimensione && (esaurite || liste.get(l).ids[cursori[l]] < id)) {
+                    id = liste.get(l).ids[cursori[l]];
+                    esaurite = false;
+                }
+            }
+            if (esaurite) {
+                return migliori;
+            }
+            int comuni = 0;
+            for (int l = 0; l < fuse; l++) {
+                Lista lista = liste.get(l);
+                if (cursori[l] < lista.dimensione && lista.ids[cursori[l]] == id) {
+                    comuni++;
+                    cursori[l]++;
+                }
+            }
+            for (int l = fuse; l < liste.size() && comuni + liste.size() - l >= minimo; l++) {
+                int posizione = liste.get(l).cerca(id, cursori[l]);
+                if (posizione >= 0) {
+                    comuni++;
+                    cursori[l] = posizione + 1;
+                } else {
+                    cursori[l] = -posizione - 1;
+                }
+            }
+            // A parità di trigrammi vince l'ID più basso, che è già stato visto
+            if (comuni < minimo || (migliori.size() == limite && comuni <= migliori.peek().punti)) {
+                continue;
+            }
+            tieni(migliori, new Trovato(voci.get(id), comuni), limite);
+            if (migliori.size() == limite && migliori.peek().punti == liste.size()) {
+                return migliori;
+            }
+        }
+    }
+
+    // I trigrammi possono esserci tutti ma sparsi su parole diverse: ogni termine deve stare in una sola parola
+    private static boolean contiene(Voce voce, List<String> termini, boolean soloInizio) {
+        for (String termine : termini) {
+            boolean trovato = false;
+            for (String parola : voce.parole) {
+                if (soloInizio || termine.length() < 3 ? parola.startsWith(termine) : parola.contains(termine)) {
+                    trovato = true;
+                    break;
+                }
+            }
+            if (!trovato) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Tiene i limite risultati migliori: in testa alla coda c'è il peggiore, il primo da scartare
+    private static void tieni(PriorityQueue<Trovato> migliori, Trovato trovato, int limite) {
+        migliori.add(trovato);
+        if (migliori.size() > limite) {
+            migliori.poll();
+        }
+    }
+
+    private static List<Trovato> ordina(PriorityQueue<Trovato> migliori) {
+        List<Trovato> ordinati = new ArrayList<>(migliori);
+        ordinati.sort((x, y) -> Trovato.confronta(y, x));
+        return ordinati;
+    }
+
+    private void rimuoviVoce(Long id) {
+        Voce voce = voci.remove(id);
+        if (voce == null) {
+            return;
+        }
+        for (Long chiave : voce.chiavi()) {
+            Lista lista = perChiave.get(chiave);
+            if (lista != null && lista.rimuovi(id) && lista.dimensione == 0) {
+                perChiave.remove(chiave);
+            }
+        }
+    }
+
+    // Chiavi di una parola indicizzata: inizio + prima lettera e tutti i trigrammi della parola con il segno di inizio
+    private static void chiaviParola(String parola, Set<Long> chiavi) {
+        chiavi.add(chiave(INIZIO, parola.charAt(0)));
+        trigrammi(INIZIO + parola, chiavi);
+    }
+
+    // Chiavi presenti in ogni parola che inizia con il termine
+    private static void chiaviInizio(String termine, Set<Long> chiavi) {
+        if (termine.length() == 1) {
+            chiavi.add(chiave(INIZIO, termine.charAt(0)));
+        } else {
+            trigrammi(INIZIO + termine, chiavi);
+        }
+    }
+
+    // Chiavi presenti in ogni parola che contiene il termine; un termine di meno di tre caratteri vale solo come inizio
+    private static void chiaviOvunque(String termine, Set<Long> chiavi) {
+        if (termine.length() < 3) {
+            chiaviInizio(termine, chiavi);
+        } else {
+            trigrammi(termine, chiavi);
+        }
+    }
+
+    private static void trigrammi(String testo, Set<Long> chiavi) {
+        for (int i = 0; i + 3 <= testo.length(); i++) {
+            chiavi.add(chiave(testo.charAt(i), testo.charAt(i + 1), testo.charAt(i + 2)));
+        }
+    }
+
+    private static long chiave(char primo, char secondo) {
+        return ((long) primo << 16) | secondo;
+    }
+
+    private static long chiave(char primo, char secondo, char terzo) {
+        return ((long) primo << 32) | ((long) secondo << 16) | terzo;
+    }
+
+    // Parole minuscole senza accenti, separate da qualunque carattere che non sia lettera o cifra
+    private static void aggiungiParole(List<String> parole, String testo) {
+        if (testo == null || testo.isEmpty()) {
+            return;
+        }
+        String normalizzato = testo.toLowerCase(Locale.ROOT);
+        if (!isAscii(normalizzato)) {
+            normalizzato = Normalizer.normalize(normalizzato, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        }
+        int inizio = -1;
+        for (int i = 0; i <= normalizzato.length(); i++) {
+            boolean lettera = i < normalizzato.length() && Character.isLetterOrDigit(normalizzato.charAt(i));
+            if (lettera && inizio < 0) {
+                inizio = i;
+            } else if (!lettera && inizio >= 0) {
+                parole.add(normalizzato.substring(inizio, i));
+                inizio = -1;
+            }
+        }
+    }
+
+    private static String cifre(String telefono) {
+        if (telefono == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(telefono.length());
+        for (int i = 0; i < telefono.length(); i++) {
+            char c = telefono.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isAscii(String testo) {
+        for (int i = 0; i < testo.length(); i++) {
+            if (testo.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Voce {
+        final Cliente cliente;
+        final String[] parole;
+
+        Voce(Cliente cliente, String[] parole) {
+            this.cliente = cliente;
+            this.parole = parole;
+        }
+
+        // Ricalcolate dalle parole invece di tenerle in memoria per ogni cliente
+        Set<Long> chiavi() {
+            Set<Long> chiavi = new HashSet<>();
+            for (String parola : parole) {
+                chiaviParola(parola, chiavi);
+            }
+            return chiavi;
+        }
+    }
+
+    private static final class Trovato {
+        final Voce voce;
+        final int punti;
+
+        Trovato(Voce voce, int punti) {
+            this.voce = voce;
+            this.punti = punti;
+        }
+
+        // Crescente per pertinenza: meno punti, poi ID più alto
+        static int confronta(Trovato x, Trovato y) {
+            int c = Integer.compare(x.punti, y.punti);
+            return c != 0 ? c : Long.compare(y.voce.cliente.getId(), x.voce.cliente.getId());
+        }
+    }
+
+    // ID ordinati in modo crescente; i nuovi clienti hanno ID più alti, quindi l'aggiunta è quasi sempre in coda.
+    // Gli ID restano long come nel repository, così nessun cliente finisce nella lista di un altro
+    private static final class Lista {
+        long[] ids = new long[4];
+        int dimensione;
+
+        void aggiungi(long id) {
+            int posizione = dimensione;
+            if (dimensione > 0 && ids[dimensione - 1] >= id) {
+                int trovata = cerca(id, 0);
+                if (trovata >= 0) {
+                    return;
+                }
+                posizione = -trovata - 1;
+            }
+            if (dimensione == ids.length) {
+                ids = Arrays.copyOf(ids, dimensione * 2);
+            }
+            System.arraycopy(ids, posizione, ids, posizione + 1, dimensione - posizione);
+            ids[posizione] = id;
+            dimensione++;
+        }
+
+        boolean rimuovi(long id) {
+            int posizione = cerca(id, 0);
+            if (posizione < 0) {
+                return false;
+            }
+            System.arraycopy(ids, posizione + 1, ids, posizione, dimensione - posizione - 1);
+            dimensione--;
+            return true;
+        }
+
+        // Come Arrays.binarySearch a partire da da: posizione, oppure -(punto di inserimento) - 1
+        int cerca(long id, int da) {
+            return Arrays.binarySearch(ids, da, dimensione, id);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package it.gestionale.prenotazioni.repository;
+
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Insieme di prenotazioni ordinato per data/ora di inizio, tenuto in un albero di intervalli:
+ * un treap bilanciato sull'inizio in cui ogni nodo ricorda la fine più tarda tra le voci attive del
+ * proprio sottoalbero. Una ricerca di sovrapposizione con [inizio, fine) scende solo nei sottoalberi che
+ * possono contenere una voce attiva che finisce dopo inizio, quindi costa O(log n) più le voci trovate,
+ * qualunque sia la durata delle prenotazioni già inserite.
+ */
+class IndiceTemporale {
+    private Nodo radice;
+
+    void aggiungi(VoceIndice voce) {
+        radice = inserisci(radice, new Nodo(voce));
+    }
+
+    void rimuovi(VoceIndice voce) {
+        radice = rimuovi(radice, voce);
+    }
+
+    boolean isEmpty() {
+        return radice == null;
+    }
+
+    List<Prenotazione> elenco() {
+        List<Prenotazione> risultato = new ArrayList<>();
+        inOrdine(radice, risultato);
+        return risultato;
+    }
+
+    List<Prenotazione> sovrapposteAttive(LocalDateTime inizio, LocalDateTime fine) {
+        List<Prenotazione> risultato = new ArrayList<>();
+        if (fine.isAfter(inizio)) {
+            raccogli(radice, VoceIndice.chiave(inizio), VoceIndice.chiave(fine), risultato);
+        }
+        return risultato;
+    }
+
+    boolean esisteSovrapposizioneAttiva(LocalDateTime inizio, LocalDateTime fine, Long escludiId) {
+        return fine.isAfter(inizio) && esiste(radice, VoceIndice.chiave(inizio), VoceIndice.chiave(fine), escludiId);
+    }
+
+    private Nodo inserisci(Nodo nodo, Nodo nuovo) {
+        if (nodo == null) {
+            return nuovo;
+        }
+        int cmp = nuovo.voce.compareTo(nodo.voce);
+        if (cmp == 0) {
+            // Come in un TreeSet, una voce già presente non viene duplicata
+            return nodo;
+        }
+        if (cmp < 0) {
+            nodo.sinistro = inserisci(nodo.sinistro, nuovo);
+            if (nodo.sinistro.priorita > nodo.priorita) {
+                return ruotaDestra(nodo);
+            }
+        } else {
+            nodo.destro = inserisci(nodo.destro, nuovo);
+            if (nodo.destro.priorita > nodo.priorita) {
+                return ruotaSinistra(nodo);
+            }
+        }
+        nodo.aggiorna();
+        return nodo;
+    }
+
+    private Nodo rimuovi(Nodo nodo, VoceIndice voce) {
+        if (nodo == null) {
+            return null;
+        }
+        int cmp = voce.compareTo(nodo.voce);
+        if (cmp == 0) {
+            return unisci(nodo.sinistro, nodo.destro);
+        }
+        if (cmp < 0) {
+            nodo.sinistro = rimuovi(nodo.sinistro, voce);
+        } else {
+            nodo.destro = rimuovi(nodo.destro, voce);
+        }
+        nodo.aggiorna();
+        return nodo;
+    }
+
+    // Tutte le voci di primo precedono quelle di secondo
+    private static Nodo unisci(Nodo primo, Nodo secondo) {
+        if (primo == null) return secondo;
+        if (secondo == null) return primo;
+        if (primo.priorita > secondo.priorita) {
+            primo.destro = unisci(primo.destro, secondo);
+            primo.aggiorna();
+            return primo;
+        }
+        secondo.sinistro = unisci(primo, secondo.sinistro);
+        secondo.aggiorna();
+        return secondo;
+    }
+
+    private static Nodo ruotaDestra(Nodo nodo) {
+        Nodo figlio = nodo.sinistro;
+        nodo.sinistro = figlio.destro;
+        figlio.destro = nodo;
+        nodo.aggiorna();
+        figlio.aggiorna();
+        return figlio;
+    }
+
+    private static Nodo ruotaSinistra(Nodo nodo) {
+        Nodo figlio = nodo.destro;
+        nodo.destro = figlio.sinistro;
+        figlio.sinistro = nodo;
+        nodo.aggiorna();
+        figlio.aggiorna();
+        return figlio;
+    }
+
+    private static void inOrdine(Nodo nodo, List<Prenotazione> risultato) {
+        while (nodo != null) {
+            inOrdine(nodo.sinistro, risultato);
+            risultato.add(nodo.voce.prenotazione);
+            nodo = nodo.destro;
+        }
+    }
+
+    // Voci attive con inizio < a e fine > da, in ordine di inizio
+    private static void raccogli(Nodo nodo, long da, long a, List<Prenotazione> risultato) {
+        while (nodo != null && nodo.fineMassimaAttiva > da) {
+            raccogli(nodo.sinistro, da, a, risultato);
+            // Il sottoalbero destro inizia ancora più tardi
+            if (nodo.voce.chiaveInizio >= a) {
+                return;
+            }
+            if (nodo.voce.isAttiva() && nodo.voce.chiaveFine > da) {
+                risultato.add(nodo.voce.prenotazione);
+            }
+            nodo = nodo.destro;
+        }
+    }
+
+    private static boolean esiste(Nodo nodo, long da, long a, Long escludiId) {
+        while (nodo != null && nodo.fineMassimaAttiva > da) {
+            if (esiste(nodo.sinistro, da, a, escludiId)) {
+                return true;
+            }
+            if (nodo.voce.chiaveInizio >= a) {
+                return false;
+            }
+            if (nodo.voce.isAttiva() && nodo.voce.chiaveFine > da
+                    && (escludiId == null || nodo.voce.id != escludiId)) {
+                return true;
+            }
+            nodo = nodo.destro;
+        }
+        return false;
+    }
+
+    private static final class Nodo {
+        final VoceIndice voce;
+        // Priorità del treap ricavata dall'id: pseudo-casuale ma riproducibile
+        final long priorita;
+        Nodo sinistro;
+        Nodo destro;
+        // Fine più tarda tra le voci attive del sottoalbero, Long.MIN_VALUE se non ce ne sono
+        long fineMassimaAttiva;
+
+        Nodo(VoceIndice voce) {
+            this.voce = voce;
+            this.priorita = mescola(voce.id);
+            this.fineMassimaAttiva = voce.isAttiva() ? voce.chiaveFine : Long.MIN_VALUE;
+        }
+
+        void aggiorna() {
+            long massimo = voce.isAttiva() ? voce.chiaveFine : Long.MIN_VALUE;
+            if (sinistro != null && sinistro.fineMassimaAttiva > massimo) {
+                massimo = sinistro.fineMassimaAttiva;
+            }
+            if (destro != null && destro.fineMassimaAttiva > massimo) {
+                massimo = destro.fineMassimaAttiva;
+            }
+            fineMassimaAttiva = massimo;
+        }
+
+        // Finalizzatore di SplitMix64: id consecutivi danno priorità senza correlazione
+        private static long mescola(long id) {
+            long z = id + 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
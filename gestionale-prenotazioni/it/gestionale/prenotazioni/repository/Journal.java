@@ -0,0 +1,177 @@
+package it.gestionale.prenotazioni.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Log append-only delle modifiche di un repository. Ogni record è una riga CSV il cui primo campo
+ * è il tipo di operazione; al superamento della soglia il repository scrive uno snapshot completo e il log
+ * viene troncato. All'avvio si carica lo snapshot e si riproducono i record rimasti nel log.
+ * I record sono idempotenti, quindi riprodurli su uno snapshot che li contiene già è innocuo.
+ * Con la sincronizzazione attiva (il default) append restituisce solo dopo che il record è su disco (fsync),
+ * quindi una modifica confermata sopravvive anche a un crash del sistema o a un'interruzione di corrente;
+ * senza, i record stanno nella cache del sistema operativo e sopravvivono solo a un crash della JVM.
+ * La sincronizzazione è a commit di gruppo: mentre un thread forza il file gli altri accodano i propri record,
+ * e un unico fsync successivo li rende durevoli tutti.
+ * Scrittura e compattazione sono sincronizzate; chi le invoca tenendo il lock del proprio repository
+ * deve prenderlo anche prima di compatta, altrimenti lo snapshot attende il repository e viceversa.
+ */
+public class Journal {
+    public static final String SALVA = "S";
+    public static final String ELIMINA = "D";
+    public static final String STATO = "T";
+
+    private final Path snapshot;
+    private final Path percorso;
+    private final int sogliaCompattazione;
+    private final Consumer<String> scrittoreSnapshot;
+    private volatile boolean sincronizza = true;
+    private FileChannel canale;
+    private int recordDalloSnapshot;
+    // Numero dell'ultimo record scritto e dell'ultimo già forzato su disco
+    private long scritti;
+    private long sincronizzati;
+    // Serializza gli fsync senza bloccare le scritture, che usano il monitor del journal
+    private final Object sincronizzazione = new Object();
+
+    public Journal(String snapshotFile, String journalFile, int sogliaCompattazione, Consumer<String> scrittoreSnapshot) {
+        this.snapshot = Paths.get(snapshotFile);
+        this.percorso = Paths.get(journalFile);
+        this.sogliaCompattazione = sogliaCompattazione;
+        this.scrittoreSnapshot = scrittoreSnapshot;
+    }
+
+    // Con la sincronizzazione attiva ogni record viene forzato su disco (fsync) prima che append restituisca
+    public void setSincronizza(boolean sincronizza) {
+        this.sincronizza = sincronizza;
+    }
+
+    public void riproduci(Consumer<CsvReader> applica) throws IOException {
+        if (!Files.exists(percorso)) {
+            return;
+        }
+        try (CsvReader reader = CsvReader.apri(percorso.toString())) {
+            while (reader.nextRecord()) {
+                if (!reader.isVuoto(0)) {
+                    applica.accept(reader);
+                    recordDalloSnapshot++;
+                }
+            }
+        }
+    }
+
+    public synchronized void apri() throws IOException {
+        canale = FileChannel.open(percorso, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    public void append(String tipo, String payload) {
+        long numero = scrivi(tipo, payload);
+        if (numero > 0 && sincronizza) {
+            forzaSuDisco(numero);
+        }
+    }
+
+    // Restituisce il numero del record scritto, 0 se non è stato scritto
+    private synchronized long scrivi(String tipo, String payload) {
+        if (canale == null) {
+            return 0;
+        }
+        try {
+            byte[] bytes = (tipo + "," + payload + "\n").getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                canale.write(buffer);
+            }
+        } catch (IOException e) {
+            System.err.println("Errore nella scrittura del journal " + percorso + ": " + e.getMessage());
+            return 0;
+        }
+
+        long numero = ++scritti;
+        if (++recordDalloSnapshot >= sogliaCompattazione) {
+            // Lo snapshot è forzato su disco dalla compattazione e contiene anche questo record
+            compatta();
+        }
+        return numero;
+    }
+
+    private void forzaSuDisco(long numero) {
+        synchronized (sincronizzazione) {
+            // Già coperto dall'fsync di un altro thread
+            if (sincronizzati >= numero) {
+                return;
+            }
+            FileChannel daForzare;
+            long fino;
+            synchronized (this) {
+                daForzare = canale;
+                fino = scritti;
+            }
+            if (daForzare == null) {
+                return;
+            }
+            try {
+                daForzare.force(false);
+                sincronizzati = fino;
+            } catch (IOException e) {
+                System.err.println("Errore nella sincronizzazione del journal " + percorso + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public synchronized void compatta() {
+        Path temporaneo = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try {
+            scrittoreSnapshot.accept(temporaneo.toString());
+            // Lo snapshot deve essere su disco prima che il log venga troncato
+            try (FileChannel scritto = FileChannel.open(temporaneo, StandardOpenOption.WRITE)) {
+                scritto.force(true);
+            }
+            Files.move(temporaneo, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forzaCartella();
+            if (canale != null) {
+                canale.truncate(0);
+                canale.force(true);
+            } else {
+                Files.deleteIfExists(percorso);
+            }
+            recordDalloSnapshot = 0;
+        } catch (IOException e) {
+            System.err.println("Errore nella compattazione del journal " + percorso + ": " + e.getMessage());
+        }
+    }
+
+    // Rende durevole la rinomina dello snapshot; non tutti i sistemi permettono di aprire una cartella
+    private void forzaCartella() {
+        Path cartella = snapshot.toAbsolutePath().getParent();
+        try (FileChannel canaleCartella = FileChannel.open(cartella, StandardOpenOption.READ)) {
+            canaleCartella.force(true);
+        } catch (IOException e) {
+            // Rinomina comunque atomica, solo non forzata
+        }
+    }
+
+    public synchronized int getRecordDalloSnapshot() {
+        return recordDalloSnapshot;
+    }
+
+    public synchronized void close() {
+        if (canale == null) {
+            return;
+        }
+        try {
+            canale.close();
+        } catch (IOException e) {
+            System.err.println("Errore nella chiusura del journal " + percorso + ": " + e.getMessage());
+        }
+        canale = null;
+    }
+}
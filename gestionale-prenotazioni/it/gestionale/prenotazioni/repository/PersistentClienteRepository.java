@@ -1,19 +1,46 @@
 package it.gestionale.prenotazioni.repository;
 
 import it.gestionale.prenotazioni.domain.Cliente;
+import it.gestionale.prenotazioni.exceptions.EmailDuplicataException;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
 
+/**
+ * Le letture usano una mappa concorrente e non si bloccano; le scritture, il journal e gli snapshot
+ * sono serializzati sul repository, così il journal registra le modifiche nello stesso ordine della mappa.
+ * Un indice sull'email normalizzata rende findByEmail O(1); con setEmailUnivoca(true) il save rifiuta
+ * un'email già usata da un altro cliente. I dati caricati da file non vengono controllati: eventuali
+ * duplicati restano e si individuano con DuplicatiEmail. La ricerca libera (cerca) usa IndiceRicercaClienti.
+ */
 public class PersistentClienteRepository implements ClienteRepository {
-    private final Map<Long, Cliente> storage = new HashMap<>();
+    private final Map<Long, Cliente> storage = new ConcurrentHashMap<>();
     private final AtomicLong idGenerator = new AtomicLong(1);
+    // id, nome, cognome, email, telefono
+    private static final int DIMENSIONE_RECORD = 8 + 4 * 4;
+    private Journal journal;
+    private final List<AscoltatoreRepository<Cliente>> ascoltatori = new CopyOnWriteArrayList<>();
+    // Email normalizzata -> id dei clienti che la usano; le liste sono immutabili e sostituite a ogni modifica
+    private final Map<String, List<Long>> indiceEmail = new ConcurrentHashMap<>();
+    // Chiave con cui è indicizzato ogni cliente: l'oggetto salvato può cambiare email prima del save successivo
+    private final Map<Long, String> emailIndicizzate = new HashMap<>();
+    private volatile boolean emailUnivoca;
+    private final IndiceRicercaClienti indiceRicerca = new IndiceRicercaClienti();
 
     @Override
-    public Cliente save(Cliente cliente) {
+    public synchronized Cliente save(Cliente cliente) {
+        return salva(cliente, emailUnivoca);
+    }
+
+    private Cliente salva(Cliente cliente, boolean verificaEmail) {
+        if (verificaEmail) {
+            verificaEmailLibera(cliente);
+        }
         if (cliente.getId() == null) {
             cliente.setId(idGenerator.getAndIncrement());
         } else {
@@ -21,8 +48,11 @@ public class PersistentClienteRepository implements ClienteRepository {
                 idGenerator.set(cliente.getId() + 1);
             }
         }
-        storage.put(cliente.getId(), cliente);
-        return cliente;
+        Cliente memorizzato = memorizza(cliente);
+        if (journal != null) {
+            journal.append(Journal.SALVA, toCsv(memorizzato));
+        }
+        return memorizzato;
     }
 
     @Override
@@ -37,27 +67,52 @@ public class PersistentClienteRepository implements ClienteRepository {
 
     @Override
     public List<Cliente> findByEmail(String email) {
-        return storage.values().stream()
-                .filter(c -> c.getEmail().equalsIgnoreCase(email))
-                .collect(Collectors.toList());
+        String chiave = ClienteRepository.normalizzaEmail(email);
+        List<Long> ids = chiave != null ? indiceEmail.get(chiave) : null;
+        List<Cliente> risultato = new ArrayList<>(ids != null ? ids.size() : 0);
+        if (ids != null) {
+            for (Long id : ids) {
+                Cliente cliente = storage.get(id);
+                if (cliente != null) {
+                    risultato.add(cliente);
+                }
+            }
+        }
+        return risultato;
+    }
+
+    @Override
+    public List<Cliente> cerca(String ricerca, int limite) {
+        return indiceRicerca.cerca(ricerca, limite);
     }
 
     @Override
-    public boolean delete(Long id) {
-        return storage.remove(id) != null;
+    public void setEmailUnivoca(boolean univoca) {
+        this.emailUnivoca = univoca;
     }
 
     @Override
-    public void saveToFile(String filename) {
+    public synchronized boolean delete(Long id) {
+        Cliente rimosso = storage.remove(id);
+        if (rimosso == null) {
+            return false;
+        }
+        deindicizza(id);
+        indiceRicerca.rimuovi(id);
+        notifica(rimosso, null);
+        if (journal != null) {
+            journal.append(Journal.ELIMINA, id.toString());
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void saveToFile(String filename) {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
             writer.write("id,nome,cognome,email,telefono\n");
             for (Cliente cliente : storage.values()) {
-                writer.write(String.format("%d,%s,%s,%s,%s\n",
-                        cliente.getId(),
-                        escapeCsv(cliente.getNome()),
-                        escapeCsv(cliente.getCognome()),
-                        escapeCsv(cliente.getEmail()),
-                        escapeCsv(cliente.getTelefono())));
+                writer.write(toCsv(cliente));
+                writer.write("\n");
             }
         } catch (IOException e) {
             System.err.println("Errore nel salvataggio dei clienti: " + e.getMessage());
@@ -65,40 +120,32 @@ public class PersistentClienteRepository implements ClienteRepository {
     }
 
     @Override
-    public void loadFromFile(String filename) {
-        try {
-            if (!Files.exists(Paths.get(filename))) {
-                return;
-            }
+    public synchronized void loadFromFile(String filename) {
+        if (!Files.exists(Paths.get(filename))) {
+            return;
+        }
 
-            List<String> lines = Files.readAllLines(Paths.get(filename));
-            if (lines.isEmpty() || lines.size() == 1) return;
+        try (CsvReader csv = CsvReader.apri(filename)) {
+            // Intestazione; un file che contiene solo quella non modifica i dati in memoria
+            if (!csv.nextRecord() || !csv.nextRecord()) return;
 
-            storage.clear();
+            svuota();
             long maxId = 0;
 
-            for (int i = 1; i < lines.size(); i++) {
-                String line = lines.get(i);
-                String[] parts = line.split(",", -1);
-                if (parts.length >= 5) {
-                    try {
-                        Long id = Long.parseLong(parts[0]);
-                        String nome = unescapeCsv(parts[1]);
-                        String cognome = unescapeCsv(parts[2]);
-                        String email = unescapeCsv(parts[3]);
-                        String telefono = unescapeCsv(parts[4]);
-
-                        Cliente cliente = new Cliente(id, nome, cognome, email, telefono);
-                        storage.put(id, cliente);
-
-                        if (id > maxId) {
-                            maxId = id;
+            do {
+                try {
+                    Cliente cliente = fromCsv(csv, 0);
+                    if (cliente != null) {
+                        memorizza(cliente);
+
+                        if (cliente.getId() > maxId) {
+                            maxId = cliente.getId();
                         }
-                    } catch (NumberFormatException e) {
-                        System.err.println("Errore nel formato ID alla riga " + (i+1) + ": " + line);
                     }
+                } catch (NumberFormatException e) {
+                    System.err.println("Errore nel formato ID alla riga " + csv.getNumeroRiga() + ": " + csv.testoRecord());
                 }
-            }
+            } while (csv.nextRecord());
 
             idGenerator.set(maxId + 1);
         } catch (IOException e) {
@@ -106,6 +153,202 @@ public class PersistentClienteRepository implements ClienteRepository {
         }
     }
 
+    @Override
+    public synchronized void saveToBinaryFile(String filename) {
+        try (SnapshotBinario.Scrittore scrittore = new SnapshotBinario.Scrittore(
+                filename, SnapshotBinario.TIPO_CLIENTI, DIMENSIONE_RECORD, storage.size())) {
+            DataOutputStream out = scrittore.record();
+            for (Cliente cliente : storage.values()) {
+                out.writeLong(cliente.getId());
+                out.writeInt(scrittore.stringa(cliente.getNome()));
+                out.writeInt(scrittore.stringa(cliente.getCognome()));
+                out.writeInt(scrittore.stringa(cliente.getEmail()));
+                out.writeInt(scrittore.stringa(cliente.getTelefono()));
+            }
+        } catch (IOException e) {
+            System.err.println("Errore nel salvataggio binario dei clienti: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void loadFromBinaryFile(String filename) {
+        if (!Files.exists(Paths.get(filename))) {
+            return;
+        }
+        try (SnapshotBinario.Lettore lettore = new SnapshotBinario.Lettore(filename, SnapshotBinario.TIPO_CLIENTI)) {
+            ByteBuffer buffer = lettore.buffer();
+            svuota();
+            long maxId = 0;
+
+            for (int i = 0; i < lettore.getNumeroRecord(); i++) {
+                int offset = lettore.offsetRecord(i);
+                Long id = buffer.getLong(offset);
+                Cliente cliente = new Cliente(id,
+                        lettore.stringa(buffer.getInt(offset + 8)),
+                        lettore.stringa(buffer.getInt(offset + 12)),
+                        lettore.stringa(buffer.getInt(offset + 16)),
+                        lettore.stringa(buffer.getInt(offset + 20)));
+                memorizza(cliente);
+                maxId = Math.max(maxId, id);
+            }
+
+            idGenerator.set(maxId + 1);
+        } catch (IOException e) {
+            System.err.println("Errore nel caricamento binario dei clienti: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void abilitaJournal(String snapshotFile, String journalFile, int sogliaCompattazione, boolean sincrono) {
+        Journal nuovo = new Journal(snapshotFile, journalFile, sogliaCompattazione,
+                SnapshotBinario.isBinario(snapshotFile) ? this::saveToBinaryFile : this::saveToFile);
+        nuovo.setSincronizza(sincrono);
+        try {
+            nuovo.riproduci(this::applicaRecord);
+            nuovo.apri();
+            journal = nuovo;
+        } catch (IOException e) {
+            System.err.println("Errore nell'apertura del journal dei clienti: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void compatta() {
+        if (journal != null) {
+            journal.compatta();
+        }
+    }
+
+    @Override
+    public synchronized void sospendiJournal() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Override
+    public synchronized void aggiungiAscoltatore(AscoltatoreRepository<Cliente> ascoltatore) {
+        ascoltatori.add(ascoltatore);
+        ascoltatore.svuotato();
+        for (Cliente cliente : storage.values()) {
+            ascoltatore.modificato(null, cliente);
+        }
+    }
+
+    private Cliente memorizza(Cliente cliente) {
+        Cliente attuale = storage.get(cliente.getId());
+        Cliente precedente;
+        if (attuale != null && attuale != cliente) {
+            // Le prenotazioni puntano all'istanza memorizzata: la si aggiorna invece di sostituirla
+            precedente = attuale.copia();
+            attuale.aggiornaDa(cliente);
+            cliente = attuale;
+        } else {
+            precedente = storage.put(cliente.getId(), cliente);
+        }
+        indicizza(cliente);
+        indiceRicerca.aggiungi(cliente);
+        notifica(precedente, cliente);
+        return cliente;
+    }
+
+    private void svuota() {
+        storage.clear();
+        indiceEmail.clear();
+        emailIndicizzate.clear();
+        indiceRicerca.svuota();
+        ascoltatori.forEach(AscoltatoreRepository::svuotato);
+    }
+
+    private void verificaEmailLibera(Cliente cliente) {
+        String chiave = ClienteRepository.normalizzaEmail(cliente.getEmail());
+        List<Long> ids = chiave != null ? indiceEmail.get(chiave) : null;
+        if (ids != null) {
+            for (Long id : ids) {
+                if (!id.equals(cliente.getId())) {
+                    throw new EmailDuplicataException(cliente.getEmail(), id);
+                }
+            }
+        }
+    }
+
+    private void indicizza(Cliente cliente) {
+        Long id = cliente.getId();
+        String chiave = ClienteRepository.normalizzaEmail(cliente.getEmail());
+        String precedente = chiave != null ? emailIndicizzate.put(id, chiave) : emailIndicizzate.remove(id);
+        if (Objects.equals(chiave, precedente)) {
+            return;
+        }
+        if (precedente != null) {
+            rimuoviDallIndice(precedente, id);
+        }
+        if (chiave != null) {
+            indiceEmail.merge(chiave, List.of(id), (ids, nuovo) -> {
+                List<Long> unione = new ArrayList<>(ids);
+                unione.add(id);
+                return List.copyOf(unione);
+            });
+        }
+    }
+
+    private void deindicizza(Long id) {
+        String chiave = emailIndicizzate.remove(id);
+        if (chiave != null) {
+            rimuoviDallIndice(chiave, id);
+        }
+    }
+
+    private void rimuoviDallIndice(String chiave, Long id) {
+        indiceEmail.computeIfPresent(chiave, (k, ids) -> {
+            List<Long> restanti = new ArrayList<>(ids);
+            restanti.remove(id);
+            return restanti.isEmpty() ? null : List.copyOf(restanti);
+        });
+    }
+
+    private void notifica(Cliente prima, Cliente dopo) {
+        for (AscoltatoreRepository<Cliente> ascoltatore : ascoltatori) {
+            ascoltatore.modificato(prima, dopo);
+        }
+    }
+
+    private void applicaRecord(CsvReader record) {
+        try {
+            String tipo = record.campo(0);
+            if (tipo.equals(Journal.SALVA)) {
+                Cliente cliente = fromCsv(record, 1);
+                if (cliente != null) {
+                    salva(cliente, false);
+                }
+            } else if (tipo.equals(Journal.ELIMINA)) {
+                delete(record.campoLong(1));
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Record del journal dei clienti non valido: " + record.testoRecord());
+        }
+    }
+
+    private String toCsv(Cliente cliente) {
+        return String.format("%d,%s,%s,%s,%s",
+                cliente.getId(),
+                escapeCsv(cliente.getNome()),
+                escapeCsv(cliente.getCognome()),
+                escapeCsv(cliente.getEmail()),
+                escapeCsv(cliente.getTelefono()));
+    }
+
+    private Cliente fromCsv(CsvReader csv, int primo) {
+        if (csv.getNumeroCampi() < primo + 5) {
+            return null;
+        }
+        Long id = csv.campoLong(primo);
+        String nome = csv.campo(primo + 1);
+        String cognome = csv.campo(primo + 2);
+        String email = csv.campo(primo + 3);
+        String telefono = csv.campo(primo + 4);
+        return new Cliente(id, nome, cognome, email, telefono);
+    }
+
     private String escapeCsv(String value) {
         if (value == null) return "";
         if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
@@ -113,13 +356,4 @@ public class PersistentClienteRepository implements ClienteRepository {
         }
         return value;
     }
-
-    private String unescapeCsv(String value) {
-        if (value == null || value.isEmpty()) return "";
-        if (value.startsWith("\"") && value.endsWith("\"")) {
-            value = value.substring(1, value.length() - 1);
-            value = value.replace("\"\"", "\"");
-        }
-        return value;
-    }
 }
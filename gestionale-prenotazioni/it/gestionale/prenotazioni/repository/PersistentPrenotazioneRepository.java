@@ -4,30 +4,107 @@ import it.gestionale.prenotazioni.domain.Cliente;
 import it.gestionale.prenotazioni.domain.Prenotazione;
 import it.gestionale.prenotazioni.domain.Risorsa;
 import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import it.gestionale.prenotazioni.exceptions.ModificaConcorrenteException;
+import it.gestionale.prenotazioni.exceptions.PrenotazioneNonTrovataException;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
+/**
+ * Repository delle prenotazioni utilizzabile da più thread. findById e findAll leggono una mappa
+ * concorrente senza lock. L'indice temporale di ogni risorsa (e la sua bitmap) è protetto da una striscia
+ * di lock lettura/scrittura scelta dall'id della risorsa: una modifica prende in scrittura le strisce della
+ * risorsa vecchia e di quella nuova, quindi prenotazioni su risorse diverse procedono in parallelo e
+ * controlli di disponibilità e scritture sulla stessa risorsa restano atomici. Gli indici globali (cliente,
+ * serie, stato, calendario) sono strutture concorrenti aggiornate senza lock: durante una modifica chi li
+ * legge può vedere per un istante la prenotazione prima o dopo la modifica.
+ * Le operazioni sull'intero repository (caricamenti, bitmap, nuovi ascoltatori) prendono in scrittura un
+ * lock globale che tutte le altre modifiche prendono in lettura.
+ * Ogni scrittura incrementa la versione della prenotazione; aggiornaStato sostituisce l'istanza
+ * memorizzata con una copia invece di modificarla, così chi la sta leggendo non vede cambi a metà.
+ */
 public class PersistentPrenotazioneRepository implements PrenotazioneRepository {
-    private final Map<Long, Prenotazione> storage = new HashMap<>();
+    private final Map<Long, Prenotazione> storage = new ConcurrentHashMap<>();
     private final AtomicLong idGenerator = new AtomicLong(1);
+    private final AtomicLong serieGenerator = new AtomicLong(1);
+    // id, clienteId, risorsaId, inizio, fine, stato, note, serieId, creazione
+    private static final int DIMENSIONE_RECORD = 8 + 8 + 8 + 4 + 4 + 1 + 4 + 8 + 4;
+    private static final int DIMENSIONE_RECORD_SENZA_CREAZIONE = DIMENSIONE_RECORD - 4;
+    private static final int DIMENSIONE_RECORD_SENZA_SERIE = DIMENSIONE_RECORD_SENZA_CREAZIONE - 8;
+    // Potenza di due: la striscia è data dai bit bassi dell'id della risorsa
+    private static final int STRISCE = 64;
+    private final Map<Long, VoceIndice> vociIndicizzate = new ConcurrentHashMap<>();
+    // Ogni indice è protetto dalla striscia della sua risorsa
+    private final Map<Long, IndiceTemporale> indicePerRisorsa = new ConcurrentHashMap<>();
+    private final IndiceConcorrente<Long> indicePerCliente = new IndiceConcorrente<>();
+    private final IndiceConcorrente<Long> indicePerSerie = new IndiceConcorrente<>();
+    private final IndiceConcorrente<StatoPrenotazione> indicePerStato = new IndiceConcorrente<>();
+    private final IndiceCalendario indiceCalendario = new IndiceCalendario();
+    // Facoltative, solo per i tipi di risorsa prenotati a slot fissi (vedi abilitaBitmap)
+    private final EnumMap<TipoRisorsa, BitmapDisponibilita> bitmapPerTipo = new EnumMap<>(TipoRisorsa.class);
+    private final ReadWriteLock[] strisce = new ReadWriteLock[STRISCE];
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private static final StatoPrenotazione[] STATI = StatoPrenotazione.values();
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+    private Journal journal;
+    private ClienteRepository clienteRepoJournal;
+    private RisorsaRepository risorsaRepoJournal;
+    private final List<AscoltatoreRepository<Prenotazione>> ascoltatori = new CopyOnWriteArrayList<>();
+
+    public PersistentPrenotazioneRepository() {
+        for (int i = 0; i < STRISCE; i++) {
+            strisce[i] = new ReentrantReadWriteLock();
+        }
+    }
 
     @Override
     public Prenotazione save(Prenotazione prenotazione) {
-        if (prenotazione.getId() == null) {
-            prenotazione.setId(idGenerator.getAndIncrement());
-        } else {
-            if (prenotazione.getId() >= idGenerator.get()) {
-                idGenerator.set(prenotazione.getId() + 1);
+        return modifica(prenotazione.getId(), prenotazione, () -> {
+            if (prenotazione.getId() == null) {
+                prenotazione.setId(idGenerator.getAndIncrement());
+            } else {
+                idGenerator.accumulateAndGet(prenotazione.getId() + 1, Math::max);
+                Prenotazione attuale = storage.get(prenotazione.getId());
+                if (attuale != null) {
+                    prenotazione.setVersione(attuale.getVersione() + 1);
+                    if (prenotazione.getDataOraCreazione() == null) {
+                        prenotazione.setDataOraCreazione(attuale.getDataOraCreazione());
+                    }
+                }
             }
-        }
-        storage.put(prenotazione.getId(), prenotazione);
-        return prenotazione;
+            if (prenotazione.getDataOraCreazione() == null) {
+                prenotazione.setDataOraCreazione(SnapshotBinario.adessoAlMinuto());
+            }
+            storage.put(prenotazione.getId(), prenotazione);
+            indicizza(prenotazione);
+            if (journal != null) {
+                journal.append(Journal.SALVA, toCsv(prenotazione));
+            }
+            return prenotazione;
+        });
+    }
+
+    @Override
+    public Prenotazione saveConVersione(Prenotazione prenotazione) {
+        return modifica(prenotazione.getId(), prenotazione, () -> {
+            if (prenotazione.getId() != null) {
+                verificaVersione(prenotazione.getId(), prenotazione.getVersione());
+            }
+            return save(prenotazione);
+        });
     }
 
     @Override
@@ -42,123 +119,571 @@ public class PersistentPrenotazioneRepository implements PrenotazioneRepository
 
     @Override
     public List<Prenotazione> findByCliente(Long clienteId) {
-        return storage.values().stream()
-                .filter(p -> p.getCliente() != null && p.getCliente().getId().equals(clienteId))
-                .sorted(Comparator.comparing(Prenotazione::getDataOraInizio))
-                .collect(Collectors.toList());
+        return indicePerCliente.elenco(clienteId);
     }
 
     @Override
     public List<Prenotazione> findByRisorsa(Long risorsaId) {
-        return storage.values().stream()
-                .filter(p -> p.getRisorsa() != null && p.getRisorsa().getId().equals(risorsaId))
-                .sorted(Comparator.comparing(Prenotazione::getDataOraInizio))
-                .collect(Collectors.toList());
+        return leggi(risorsaId, () -> {
+            IndiceTemporale indice = indicePerRisorsa.get(risorsaId);
+            return indice != null ? indice.elenco() : new ArrayList<>();
+        });
+    }
+
+    @Override
+    public List<Prenotazione> findBySerie(Long serieId) {
+        return indicePerSerie.elenco(serieId);
+    }
+
+    @Override
+    public Long nuovoIdSerie() {
+        return serieGenerator.getAndIncrement();
+    }
+
+    @Override
+    public void riservaId(long ultimoId, long ultimaSerie) {
+        idGenerator.accumulateAndGet(ultimoId + 1, Math::max);
+        serieGenerator.accumulateAndGet(ultimaSerie + 1, Math::max);
+    }
+
+    @Override
+    public List<Prenotazione> findSovrapposizioniAttive(Long risorsaId, LocalDateTime inizio, LocalDateTime fine) {
+        return leggi(risorsaId, () -> {
+            IndiceTemporale indice = indicePerRisorsa.get(risorsaId);
+            return indice != null ? indice.sovrapposteAttive(inizio, fine) : new ArrayList<>();
+        });
+    }
+
+    @Override
+    public boolean existsSovrapposizioneAttiva(Long risorsaId, LocalDateTime inizio, LocalDateTime fine, Long escludiId) {
+        return leggi(risorsaId, () -> {
+            // Con la bitmap una risorsa libera si riconosce senza toccare l'indice; se risulta occupata si conferma sull'indice
+            BitmapDisponibilita bitmap = bitmapDi(risorsaId);
+            if (bitmap != null && bitmap.isLibera(risorsaId, inizio, fine)) {
+                return false;
+            }
+            IndiceTemporale indice = indicePerRisorsa.get(risorsaId);
+            return indice != null && indice.esisteSovrapposizioneAttiva(inizio, fine, escludiId);
+        });
+    }
+
+    // Sulle risorse con bitmap la ricerca è una scansione di bit e il risultato è allineato agli slot
+    @Override
+    public Optional<LocalDateTime> findPrimoInizioLibero(Long risorsaId, LocalDateTime da, LocalDateTime a, Duration durata) {
+        return leggi(risorsaId, () -> {
+            BitmapDisponibilita bitmap = bitmapDi(risorsaId);
+            if (bitmap == null) {
+                return PrenotazioneRepository.super.findPrimoInizioLibero(risorsaId, da, a, durata);
+            }
+            return Optional.ofNullable(bitmap.primoInizioLibero(risorsaId, da, a, durata.toMinutes()));
+        });
+    }
+
+    /**
+     * Mantiene una bitmap di occupazione a slot di minutiPerSlot minuti per le risorse del tipo indicato.
+     * La bitmap viene ricostruita subito dalle prenotazioni presenti e poi aggiornata a ogni modifica.
+     */
+    public void abilitaBitmap(TipoRisorsa tipo, int minutiPerSlot) {
+        lock.writeLock().lock();
+        try {
+            BitmapDisponibilita bitmap = new BitmapDisponibilita(minutiPerSlot);
+            bitmapPerTipo.put(tipo, bitmap);
+            for (VoceIndice voce : vociIndicizzate.values()) {
+                Risorsa risorsa = voce.prenotazione.getRisorsa();
+                if (risorsa != null && risorsa.getTipo() == tipo) {
+                    bitmap.registra(voce.risorsaId);
+                    if (voce.isAttiva()) {
+                        bitmap.occupa(voce.risorsaId, voce.inizio, voce.fine);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
     public List<Prenotazione> findByPeriodo(LocalDateTime inizio, LocalDateTime fine) {
-        return storage.values().stream()
-                .filter(p -> p.getDataOraInizio().isBefore(fine) && p.getDataOraFine().isAfter(inizio))
-                .sorted(Comparator.comparing(Prenotazione::getDataOraInizio))
-                .collect(Collectors.toList());
+        return indiceCalendario.sovrapposte(inizio, fine);
     }
 
     @Override
     public List<Prenotazione> findByStato(StatoPrenotazione stato) {
-        return storage.values().stream()
-                .filter(p -> p.getStato() == stato)
-                .sorted(Comparator.comparing(Prenotazione::getDataOraInizio))
-                .collect(Collectors.toList());
+        return indicePerStato.elenco(stato);
+    }
+
+    @Override
+    public boolean aggiornaStato(Long id, StatoPrenotazione nuovoStato) {
+        return modifica(id, null, () -> {
+            Prenotazione prenotazione = storage.get(id);
+            if (prenotazione == null) {
+                return false;
+            }
+            Prenotazione aggiornata = prenotazione.copia();
+            aggiornata.setStato(nuovoStato);
+            aggiornata.setVersione(prenotazione.getVersione() + 1);
+            storage.put(id, aggiornata);
+            indicizza(aggiornata);
+            if (journal != null) {
+                journal.append(Journal.STATO, id + "," + nuovoStato.name());
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public boolean aggiornaStato(Long id, StatoPrenotazione nuovoStato, long versioneAttesa) {
+        return modifica(id, null, () -> {
+            if (!storage.containsKey(id)) {
+                return false;
+            }
+            verificaVersione(id, versioneAttesa);
+            return aggiornaStato(id, nuovoStato);
+        });
     }
 
     @Override
     public boolean delete(Long id) {
-        return storage.remove(id) != null;
+        return modifica(id, null, () -> {
+            VoceIndice voce = vociIndicizzate.remove(id);
+            if (voce != null) {
+                rimuoviDallaRisorsa(voce);
+                sostituisciNegliIndiciGlobali(voce, null);
+            }
+            boolean rimossa = storage.remove(id) != null;
+            if (voce != null) {
+                notifica(voce.comeSalvata(), null);
+            }
+            if (rimossa && journal != null) {
+                journal.append(Journal.ELIMINA, id.toString());
+            }
+            return rimossa;
+        });
+    }
+
+    @Override
+    public boolean delete(Long id, long versioneAttesa) {
+        return modifica(id, null, () -> {
+            if (!storage.containsKey(id)) {
+                return false;
+            }
+            verificaVersione(id, versioneAttesa);
+            return delete(id);
+        });
+    }
+
+    /**
+     * Esegue una modifica della prenotazione id (null se nuova) con in scrittura le strisce della risorsa che
+     * ha ora e di quella di dopo (null se la modifica non cambia la risorsa), prese in ordine d'indice.
+     * Una prenotazione non ancora presente cade nella striscia di "nessuna risorsa", così due inserimenti
+     * con lo stesso id si serializzano. Se nel frattempo un'altra modifica ha spostato la prenotazione su
+     * un'altra risorsa, si rilasciano le strisce e si riprova.
+     */
+    private <T> T modifica(Long id, Prenotazione dopo, Supplier<T> operazione) {
+        lock.readLock().lock();
+        try {
+            while (true) {
+                Long risorsaPrima = id != null ? risorsaDi(vociIndicizzate.get(id)) : null;
+                int strisciaPrima = id != null ? striscia(risorsaPrima) : -1;
+                int strisciaDopo = dopo != null ? striscia(dopo.getRisorsa() != null ? dopo.getRisorsa().getId() : null) : -1;
+                int minima = strisciaPrima < 0 ? strisciaDopo : strisciaDopo < 0 ? strisciaPrima : Math.min(strisciaPrima, strisciaDopo);
+                int massima = Math.max(strisciaPrima, strisciaDopo);
+                Lock primo = strisce[minima].writeLock();
+                Lock secondo = massima != minima ? strisce[massima].writeLock() : null;
+                primo.lock();
+                if (secondo != null) {
+                    secondo.lock();
+                }
+                try {
+                    if (id == null || Objects.equals(risorsaDi(vociIndicizzate.get(id)), risorsaPrima)) {
+                        return operazione.get();
+                    }
+                } finally {
+                    if (secondo != null) {
+                        secondo.unlock();
+                    }
+                    primo.unlock();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Lettura dell'indice di una risorsa, in parallelo con le letture e le modifiche delle altre risorse
+    private <T> T leggi(Long risorsaId, Supplier<T> lettura) {
+        lock.readLock().lock();
+        Lock striscia = strisce[striscia(risorsaId)].readLock();
+        striscia.lock();
+        try {
+            return lettura.get();
+        } finally {
+            striscia.unlock();
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int striscia(Long risorsaId) {
+        return risorsaId != null ? Long.hashCode(risorsaId) & (STRISCE - 1) : 0;
+    }
+
+    private static Long risorsaDi(VoceIndice voce) {
+        return voce != null ? voce.risorsaId : null;
+    }
+
+    private void verificaVersione(Long id, long versioneAttesa) {
+        Prenotazione attuale = storage.get(id);
+        if (attuale == null) {
+            throw new PrenotazioneNonTrovataException(id);
+        }
+        if (attuale.getVersione() != versioneAttesa) {
+            throw new ModificaConcorrenteException(id, versioneAttesa, attuale.getVersione());
+        }
+    }
+
+    // Chiamato con in scrittura le strisce delle risorse coinvolte, o con il lock globale in scrittura
+    private void indicizza(Prenotazione prenotazione) {
+        VoceIndice voce = VoceIndice.di(prenotazione);
+        VoceIndice precedente = vociIndicizzate.put(voce.id, voce);
+        if (precedente != null) {
+            rimuoviDallaRisorsa(precedente);
+        }
+        if (voce.risorsaId != null) {
+            indicePerRisorsa.computeIfAbsent(voce.risorsaId, k -> new IndiceTemporale()).aggiungi(voce);
+        }
+        if (voce.serieId != null) {
+            serieGenerator.accumulateAndGet(voce.serieId + 1, Math::max);
+        }
+        sostituisciNegliIndiciGlobali(precedente, voce);
+        Risorsa risorsa = prenotazione.getRisorsa();
+        BitmapDisponibilita bitmap = risorsa != null && risorsa.getTipo() != null ? bitmapPerTipo.get(risorsa.getTipo()) : null;
+        if (bitmap != null) {
+            bitmap.registra(voce.risorsaId);
+            if (voce.isAttiva()) {
+                bitmap.occupa(voce.risorsaId, voce.inizio, voce.fine);
+            }
+        }
+        if (!ascoltatori.isEmpty()) {
+            notifica(precedente != null ? precedente.comeSalvata() : null, prenotazione);
+        }
+    }
+
+    private void sostituisciNegliIndiciGlobali(VoceIndice prima, VoceIndice dopo) {
+        indicePerCliente.sostituisci(prima != null ? prima.clienteId : null, prima, dopo != null ? dopo.clienteId : null, dopo);
+        indicePerSerie.sostituisci(prima != null ? prima.serieId : null, prima, dopo != null ? dopo.serieId : null, dopo);
+        indicePerStato.sostituisci(prima != null ? prima.stato : null, prima, dopo != null ? dopo.stato : null, dopo);
+        indiceCalendario.sostituisci(prima, dopo);
+    }
+
+    // Toglie la voce dall'indice e dalla bitmap della sua risorsa, con la striscia della risorsa in scrittura
+    private void rimuoviDallaRisorsa(VoceIndice voce) {
+        if (voce.risorsaId == null) {
+            return;
+        }
+        IndiceTemporale indice = indicePerRisorsa.get(voce.risorsaId);
+        if (indice != null) {
+            indice.rimuovi(voce);
+            if (indice.isEmpty()) {
+                indicePerRisorsa.remove(voce.risorsaId);
+            }
+        }
+        BitmapDisponibilita bitmap = bitmapDi(voce.risorsaId);
+        if (bitmap != null && voce.isAttiva()) {
+            bitmap.libera(voce.risorsaId, voce.inizio, voce.fine);
+            // Gli slot di confine possono essere toccati anche da prenotazioni vicine non allineate
+            IndiceTemporale rimasto = indicePerRisorsa.get(voce.risorsaId);
+            if (rimasto != null) {
+                for (Prenotazione vicina : rimasto.sovrapposteAttive(bitmap.inizioSlot(voce.inizio), bitmap.fineSlot(voce.fine))) {
+                    bitmap.occupa(voce.risorsaId, vicina.getDataOraInizio(), vicina.getDataOraFine());
+                }
+            }
+        }
+    }
+
+    private BitmapDisponibilita bitmapDi(Long risorsaId) {
+        for (BitmapDisponibilita bitmap : bitmapPerTipo.values()) {
+            if (bitmap.gestisce(risorsaId)) {
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    private void svuotaIndici() {
+        vociIndicizzate.clear();
+        indicePerRisorsa.clear();
+        indicePerCliente.svuota();
+        indicePerSerie.svuota();
+        indicePerStato.svuota();
+        indiceCalendario.svuota();
+        bitmapPerTipo.values().forEach(BitmapDisponibilita::svuota);
+        ascoltatori.forEach(AscoltatoreRepository::svuotato);
     }
 
     @Override
     public void saveToFile(String filename, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo) {
+        lock.readLock().lock();
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write("id,clienteId,risorsaId,dataOraInizio,dataOraFine,stato,note\n");
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+            writer.write("id,clienteId,risorsaId,dataOraInizio,dataOraFine,stato,note,serieId,dataOraCreazione\n");
 
             for (Prenotazione prenotazione : storage.values()) {
-                String clienteId = prenotazione.getCliente() != null ? prenotazione.getCliente().getId().toString() : "";
-                String risorsaId = prenotazione.getRisorsa() != null ? prenotazione.getRisorsa().getId().toString() : "";
-
-                writer.write(String.format("%d,%s,%s,%s,%s,%s,%s\n",
-                        prenotazione.getId(),
-                        clienteId,
-                        risorsaId,
-                        escapeCsv(prenotazione.getDataOraInizio().format(formatter)),
-                        escapeCsv(prenotazione.getDataOraFine().format(formatter)),
-                        escapeCsv(prenotazione.getStato().name()),
-                        escapeCsv(prenotazione.getNote())));
+                writer.write(toCsv(prenotazione));
+                writer.write("\n");
             }
         } catch (IOException e) {
             System.err.println("Errore nel salvataggio delle prenotazioni: " + e.getMessage());
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     @Override
     public void loadFromFile(String filename, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo) {
-        try {
-            if (!Files.exists(Paths.get(filename))) {
-                return;
-            }
+        if (!Files.exists(Paths.get(filename))) {
+            return;
+        }
 
-            List<String> lines = Files.readAllLines(Paths.get(filename));
-            if (lines.isEmpty() || lines.size() == 1) return;
+        lock.writeLock().lock();
+        try (CsvReader csv = CsvReader.apri(filename)) {
+            // Intestazione; un file che contiene solo quella non modifica i dati in memoria
+            if (!csv.nextRecord() || !csv.nextRecord()) return;
 
             storage.clear();
+            svuotaIndici();
             long maxId = 0;
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
-
-            for (int i = 1; i < lines.size(); i++) {
-                String line = lines.get(i);
-                String[] parts = line.split(",", -1);
-                if (parts.length >= 7) {
-                    try {
-                        Long id = Long.parseLong(parts[0]);
-                        String clienteIdStr = unescapeCsv(parts[1]);
-                        String risorsaIdStr = unescapeCsv(parts[2]);
-                        LocalDateTime dataOraInizio = LocalDateTime.parse(unescapeCsv(parts[3]), formatter);
-                        LocalDateTime dataOraFine = LocalDateTime.parse(unescapeCsv(parts[4]), formatter);
-                        StatoPrenotazione stato = StatoPrenotazione.valueOf(unescapeCsv(parts[5]));
-                        String note = unescapeCsv(parts[6]);
-
-                        Cliente cliente = null;
-                        Risorsa risorsa = null;
-
-                        if (!clienteIdStr.isEmpty()) {
-                            Long clienteId = Long.parseLong(clienteIdStr);
-                            cliente = clienteRepo.findById(clienteId).orElse(null);
-                        }
+            LocalDateTime caricamento = SnapshotBinario.adessoAlMinuto();
 
-                        if (!risorsaIdStr.isEmpty()) {
-                            Long risorsaId = Long.parseLong(risorsaIdStr);
-                            risorsa = risorsaRepo.findById(risorsaId).orElse(null);
+            do {
+                try {
+                    Prenotazione prenotazione = fromCsv(csv, 0, clienteRepo, risorsaRepo);
+                    if (prenotazione != null) {
+                        // File salvati prima della colonna: la creazione conta dal caricamento, poi resta salvata
+                        if (prenotazione.getDataOraCreazione() == null) {
+                            prenotazione.setDataOraCreazione(caricamento);
                         }
+                        storage.put(prenotazione.getId(), prenotazione);
+                        indicizza(prenotazione);
 
-                        Prenotazione prenotazione = new Prenotazione(id, cliente, risorsa, dataOraInizio, dataOraFine, stato, note);
-                        storage.put(id, prenotazione);
-
-                        if (id > maxId) {
-                            maxId = id;
+                        if (prenotazione.getId() > maxId) {
+                            maxId = prenotazione.getId();
                         }
-                    } catch (Exception e) {
-                        System.err.println("Errore nel parsing della prenotazione alla riga " + (i+1) + ": " + line + " - " + e.getMessage());
                     }
+                } catch (Exception e) {
+                    System.err.println("Errore nel parsing della prenotazione alla riga " + csv.getNumeroRiga() + ": " + csv.testoRecord() + " - " + e.getMessage());
                 }
-            }
+            } while (csv.nextRecord());
 
             idGenerator.set(maxId + 1);
         } catch (IOException e) {
             System.err.println("Errore nel caricamento delle prenotazioni: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveToBinaryFile(String filename) {
+        lock.readLock().lock();
+        try (SnapshotBinario.Scrittore scrittore = new SnapshotBinario.Scrittore(
+                filename, SnapshotBinario.TIPO_PRENOTAZIONI, DIMENSIONE_RECORD, storage.size())) {
+            DataOutputStream out = scrittore.record();
+            for (Prenotazione prenotazione : storage.values()) {
+                out.writeLong(prenotazione.getId());
+                out.writeLong(prenotazione.getCliente() != null ? prenotazione.getCliente().getId() : SnapshotBinario.NESSUN_ID);
+                out.writeLong(prenotazione.getRisorsa() != null ? prenotazione.getRisorsa().getId() : SnapshotBinario.NESSUN_ID);
+                out.writeInt(SnapshotBinario.toEpochMinuti(prenotazione.getDataOraInizio()));
+                out.writeInt(SnapshotBinario.toEpochMinuti(prenotazione.getDataOraFine()));
+                out.writeByte(prenotazione.getStato().ordinal());
+                out.writeInt(scrittore.stringa(prenotazione.getNote()));
+                out.writeLong(prenotazione.getSerieId() != null ? prenotazione.getSerieId() : SnapshotBinario.NESSUN_ID);
+                out.writeInt(SnapshotBinario.toEpochMinuti(prenotazione.getDataOraCreazione()));
+            }
+        } catch (IOException e) {
+            System.err.println("Errore nel salvataggio binario delle prenotazioni: " + e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void loadFromBinaryFile(String filename, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo) {
+        if (!Files.exists(Paths.get(filename))) {
+            return;
+        }
+        lock.writeLock().lock();
+        try (SnapshotBinario.Lettore lettore = new SnapshotBinario.Lettore(filename, SnapshotBinario.TIPO_PRENOTAZIONI)) {
+            ByteBuffer buffer = lettore.buffer();
+            boolean conSerie = lettore.getDimensioneRecord() > DIMENSIONE_RECORD_SENZA_SERIE;
+            boolean conCreazione = lettore.getDimensioneRecord() > DIMENSIONE_RECORD_SENZA_CREAZIONE;
+            storage.clear();
+            svuotaIndici();
+            long maxId = 0;
+            LocalDateTime caricamento = SnapshotBinario.adessoAlMinuto();
+
+            for (int i = 0; i < lettore.getNumeroRecord(); i++) {
+                int offset = lettore.offsetRecord(i);
+                Long id = buffer.getLong(offset);
+                long clienteId = buffer.getLong(offset + 8);
+                long risorsaId = buffer.getLong(offset + 16);
+                Cliente cliente = clienteId != SnapshotBinario.NESSUN_ID ? clienteRepo.findById(clienteId).orElse(null) : null;
+                Risorsa risorsa = risorsaId != SnapshotBinario.NESSUN_ID ? risorsaRepo.findById(risorsaId).orElse(null) : null;
+
+                Prenotazione prenotazione = new Prenotazione(id, cliente, risorsa,
+                        SnapshotBinario.fromEpochMinuti(buffer.getInt(offset + 24)),
+                        SnapshotBinario.fromEpochMinuti(buffer.getInt(offset + 28)),
+                        STATI[buffer.get(offset + 32)],
+                        lettore.stringa(buffer.getInt(offset + 33)));
+                long serieId = conSerie ? buffer.getLong(offset + 37) : SnapshotBinario.NESSUN_ID;
+                if (serieId != SnapshotBinario.NESSUN_ID) {
+                    prenotazione.setSerieId(serieId);
+                }
+                prenotazione.setDataOraCreazione(conCreazione
+                        ? SnapshotBinario.fromEpochMinuti(buffer.getInt(offset + 45)) : caricamento);
+                storage.put(id, prenotazione);
+                indicizza(prenotazione);
+                maxId = Math.max(maxId, id);
+            }
+
+            idGenerator.set(maxId + 1);
+        } catch (IOException e) {
+            System.err.println("Errore nel caricamento binario delle prenotazioni: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void abilitaJournal(String snapshotFile, String journalFile, int sogliaCompattazione, boolean sincrono,
+                               ClienteRepository clienteRepo, RisorsaRepository risorsaRepo) {
+        this.clienteRepoJournal = clienteRepo;
+        this.risorsaRepoJournal = risorsaRepo;
+        Journal nuovo = new Journal(snapshotFile, journalFile, sogliaCompattazione,
+                SnapshotBinario.isBinario(snapshotFile) ? this::saveToBinaryFile : f -> saveToFile(f, clienteRepo, risorsaRepo));
+        nuovo.setSincronizza(sincrono);
+        lock.writeLock().lock();
+        try {
+            nuovo.riproduci(this::applicaRecord);
+            nuovo.apri();
+            journal = nuovo;
+        } catch (IOException e) {
+            System.err.println("Errore nell'apertura del journal delle prenotazioni: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Il lock del repository va sempre preso prima di quello del journal, come in save
+    @Override
+    public void compatta() {
+        lock.readLock().lock();
+        try {
+            if (journal != null) {
+                journal.compatta();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void sospendiJournal() {
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
+    @Override
+    public void aggiungiAscoltatore(AscoltatoreRepository<Prenotazione> ascoltatore) {
+        lock.writeLock().lock();
+        try {
+            ascoltatori.add(ascoltatore);
+            ascoltatore.svuotato();
+            for (VoceIndice voce : vociIndicizzate.values()) {
+                ascoltatore.modificato(null, voce.comeSalvata());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void notifica(Prenotazione prima, Prenotazione dopo) {
+        for (AscoltatoreRepository<Prenotazione> ascoltatore : ascoltatori) {
+            ascoltatore.modificato(prima, dopo);
+        }
+    }
+
+    private void applicaRecord(CsvReader record) {
+        try {
+            String tipo = record.campo(0);
+            if (tipo.equals(Journal.SALVA)) {
+                Prenotazione prenotazione = fromCsv(record, 1, clienteRepoJournal, risorsaRepoJournal);
+                if (prenotazione != null) {
+                    save(prenotazione);
+                }
+            } else if (tipo.equals(Journal.STATO)) {
+                aggiornaStato(record.campoLong(1), record.campoEnum(2, STATI));
+            } else if (tipo.equals(Journal.ELIMINA)) {
+                delete(record.campoLong(1));
+            }
+        } catch (Exception e) {
+            System.err.println("Record del journal delle prenotazioni non valido: " + record.testoRecord() + " - " + e.getMessage());
+        }
+    }
+
+    private String toCsv(Prenotazione prenotazione) {
+        String clienteId = prenotazione.getCliente() != null ? prenotazione.getCliente().getId().toString() : "";
+        String risorsaId = prenotazione.getRisorsa() != null ? prenotazione.getRisorsa().getId().toString() : "";
+
+        return String.format("%d,%s,%s,%s,%s,%s,%s,%s,%s",
+                prenotazione.getId(),
+                clienteId,
+                risorsaId,
+                escapeCsv(prenotazione.getDataOraInizio().format(FORMATTER)),
+                escapeCsv(prenotazione.getDataOraFine().format(FORMATTER)),
+                escapeCsv(prenotazione.getStato().name()),
+                escapeCsv(prenotazione.getNote()),
+                prenotazione.getSerieId() != null ? prenotazione.getSerieId().toString() : "",
+                prenotazione.getDataOraCreazione() != null ? prenotazione.getDataOraCreazione().format(FORMATTER) : "");
+    }
+
+    private Prenotazione fromCsv(CsvReader csv, int primo, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo) {
+        if (csv.getNumeroCampi() < primo + 7) {
+            return null;
+        }
+        Long id = csv.campoLong(primo);
+        LocalDateTime dataOraInizio = csv.campoDataOra(primo + 3);
+        LocalDateTime dataOraFine = csv.campoDataOra(primo + 4);
+        StatoPrenotazione stato = csv.campoEnum(primo + 5, STATI);
+        String note = csv.campo(primo + 6);
+
+        Cliente cliente = null;
+        Risorsa risorsa = null;
+
+        if (!csv.isVuoto(primo + 1)) {
+            cliente = clienteRepo.findById(csv.campoLong(primo + 1)).orElse(null);
+        }
+
+        if (!csv.isVuoto(primo + 2)) {
+            risorsa = risorsaRepo.findById(csv.campoLong(primo + 2)).orElse(null);
+        }
+
+        Prenotazione prenotazione = new Prenotazione(id, cliente, risorsa, dataOraInizio, dataOraFine, stato, note);
+        // La colonna serieId manca nei file salvati prima delle serie ricorrenti
+        if (csv.getNumeroCampi() > primo + 7 && !csv.isVuoto(primo + 7)) {
+            prenotazione.setSerieId(csv.campoLong(primo + 7));
+        }
+        // Anche dataOraCreazione manca nei file più vecchi: la assegna chi carica o salva
+        if (csv.getNumeroCampi() > primo + 8 && !csv.isVuoto(primo + 8)) {
+            prenotazione.setDataOraCreazione(csv.campoDataOra(primo + 8));
+        }
+        return prenotazione;
+    }
+
     private String escapeCsv(String value) {
         if (value == null) return "";
         if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
@@ -166,13 +691,4 @@ public class PersistentPrenotazioneRepository implements PrenotazioneRepository
         }
         return value;
     }
-
-    private String unescapeCsv(String value) {
-        if (value == null || value.isEmpty()) return "";
-        if (value.startsWith("\"") && value.endsWith("\"")) {
-            value = value.substring(1, value.length() - 1);
-            value = value.replace("\"\"", "\"");
-        }
-        return value;
-    }
 }
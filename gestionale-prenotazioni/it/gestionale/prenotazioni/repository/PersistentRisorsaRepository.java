@@ -3,18 +3,29 @@ package it.gestionale.prenotazioni.repository;
 import it.gestionale.prenotazioni.domain.Risorsa;
 import it.gestionale.prenotazioni.enums.TipoRisorsa;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
 
+/**
+ * Letture senza lock su una mappa concorrente; scritture, journal e snapshot serializzati sul repository.
+ */
 public class PersistentRisorsaRepository implements RisorsaRepository {
-    private final Map<Long, Risorsa> storage = new HashMap<>();
+    private final Map<Long, Risorsa> storage = new ConcurrentHashMap<>();
     private final AtomicLong idGenerator = new AtomicLong(1);
+    // id, nome, descrizione, tipo, capacita
+    private static final TipoRisorsa[] TIPI = TipoRisorsa.values();
+    private static final int DIMENSIONE_RECORD = 8 + 4 + 4 + 1 + 4;
+    private final IndiceCapacita indiceCapacita = new IndiceCapacita();
+    private Journal journal;
+    private final List<AscoltatoreRepository<Risorsa>> ascoltatori = new CopyOnWriteArrayList<>();
 
     @Override
-    public Risorsa save(Risorsa risorsa) {
+    public synchronized Risorsa save(Risorsa risorsa) {
         if (risorsa.getId() == null) {
             risorsa.setId(idGenerator.getAndIncrement());
         } else {
@@ -22,7 +33,20 @@ public class PersistentRisorsaRepository implements RisorsaRepository {
                 idGenerator.set(risorsa.getId() + 1);
             }
         }
-        storage.put(risorsa.getId(), risorsa);
+        Risorsa attuale = storage.get(risorsa.getId());
+        if (attuale != null && attuale != risorsa) {
+            // Le prenotazioni puntano all'istanza memorizzata: la si aggiorna invece di sostituirla
+            Risorsa precedente = attuale.copia();
+            attuale.aggiornaDa(risorsa);
+            risorsa = attuale;
+            notifica(precedente, risorsa);
+        } else {
+            notifica(storage.put(risorsa.getId(), risorsa), risorsa);
+        }
+        indiceCapacita.aggiungi(risorsa);
+        if (journal != null) {
+            journal.append(Journal.SALVA, toCsv(risorsa));
+        }
         return risorsa;
     }
 
@@ -38,27 +62,40 @@ public class PersistentRisorsaRepository implements RisorsaRepository {
 
     @Override
     public List<Risorsa> findByTipo(TipoRisorsa tipo) {
-        return storage.values().stream()
-                .filter(r -> r.getTipo() == tipo)
-                .collect(Collectors.toList());
+        return indiceCapacita.perTipo(tipo);
+    }
+
+    @Override
+    public List<Risorsa> findByTipoECapacitaMinima(TipoRisorsa tipo, int capacitaMinima) {
+        return indiceCapacita.conCapacitaMinima(tipo, capacitaMinima);
+    }
+
+    @Override
+    public List<Risorsa> findByCapacitaRange(int capacitaMinima, int capacitaMassima) {
+        return indiceCapacita.conCapacitaTra(capacitaMinima, capacitaMassima);
     }
 
     @Override
-    public boolean delete(Long id) {
-        return storage.remove(id) != null;
+    public synchronized boolean delete(Long id) {
+        Risorsa rimossa = storage.remove(id);
+        indiceCapacita.rimuovi(id);
+        if (rimossa == null) {
+            return false;
+        }
+        notifica(rimossa, null);
+        if (journal != null) {
+            journal.append(Journal.ELIMINA, id.toString());
+        }
+        return true;
     }
 
     @Override
-    public void saveToFile(String filename) {
+    public synchronized void saveToFile(String filename) {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
             writer.write("id,nome,descrizione,tipo,capacita\n");
             for (Risorsa risorsa : storage.values()) {
-                writer.write(String.format("%d,%s,%s,%s,%d\n",
-                        risorsa.getId(),
-                        escapeCsv(risorsa.getNome()),
-                        escapeCsv(risorsa.getDescrizione()),
-                        escapeCsv(risorsa.getTipo().name()),
-                        risorsa.getCapacita()));
+                writer.write(toCsv(risorsa));
+                writer.write("\n");
             }
         } catch (IOException e) {
             System.err.println("Errore nel salvataggio delle risorse: " + e.getMessage());
@@ -66,42 +103,38 @@ public class PersistentRisorsaRepository implements RisorsaRepository {
     }
 
     @Override
-    public void loadFromFile(String filename) {
-        try {
-            if (!Files.exists(Paths.get(filename))) {
-                return;
-            }
+    public synchronized void loadFromFile(String filename) {
+        if (!Files.exists(Paths.get(filename))) {
+            return;
+        }
 
-            List<String> lines = Files.readAllLines(Paths.get(filename));
-            if (lines.isEmpty() || lines.size() == 1) return;
+        try (CsvReader csv = CsvReader.apri(filename)) {
+            // Intestazione; un file che contiene solo quella non modifica i dati in memoria
+            if (!csv.nextRecord() || !csv.nextRecord()) return;
 
             storage.clear();
+
+            ascoltatori.forEach(AscoltatoreRepository::svuotato);
+            indiceCapacita.svuota();
             long maxId = 0;
 
-            for (int i = 1; i < lines.size(); i++) {
-                String line = lines.get(i);
-                String[] parts = line.split(",", -1);
-                if (parts.length >= 5) {
-                    try {
-                        Long id = Long.parseLong(parts[0]);
-                        String nome = unescapeCsv(parts[1]);
-                        String descrizione = unescapeCsv(parts[2]);
-                        TipoRisorsa tipo = TipoRisorsa.valueOf(unescapeCsv(parts[3]));
-                        int capacita = Integer.parseInt(parts[4]);
-
-                        Risorsa risorsa = new Risorsa(id, nome, descrizione, tipo, capacita);
-                        storage.put(id, risorsa);
-
-                        if (id > maxId) {
-                            maxId = id;
+            do {
+                try {
+                    Risorsa risorsa = fromCsv(csv, 0);
+                    if (risorsa != null) {
+                        notifica(storage.put(risorsa.getId(), risorsa), risorsa);
+                        indiceCapacita.aggiungi(risorsa);
+
+                        if (risorsa.getId() > maxId) {
+                            maxId = risorsa.getId();
                         }
-                    } catch (NumberFormatException e) {
-                        System.err.println("Errore nel formato numerico alla riga " + (i+1) + ": " + line);
-                    } catch (IllegalArgumentException e) {
-                        System.err.println("Errore nel formato del tipo risorsa alla riga " + (i+1) + ": " + line);
                     }
+                } catch (NumberFormatException e) {
+                    System.err.println("Errore nel formato numerico alla riga " + csv.getNumeroRiga() + ": " + csv.testoRecord());
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Errore nel formato del tipo risorsa alla riga " + csv.getNumeroRiga() + ": " + csv.testoRecord());
                 }
-            }
+            } while (csv.nextRecord());
 
             idGenerator.set(maxId + 1);
         } catch (IOException e) {
@@ -109,6 +142,134 @@ public class PersistentRisorsaRepository implements RisorsaRepository {
         }
     }
 
+    @Override
+    public synchronized void saveToBinaryFile(String filename) {
+        try (SnapshotBinario.Scrittore scrittore = new SnapshotBinario.Scrittore(
+                filename, SnapshotBinario.TIPO_RISORSE, DIMENSIONE_RECORD, storage.size())) {
+            DataOutputStream out = scrittore.record();
+            for (Risorsa risorsa : storage.values()) {
+                out.writeLong(risorsa.getId());
+                out.writeInt(scrittore.stringa(risorsa.getNome()));
+                out.writeInt(scrittore.stringa(risorsa.getDescrizione()));
+                out.writeByte(risorsa.getTipo().ordinal());
+                out.writeInt(risorsa.getCapacita());
+            }
+        } catch (IOException e) {
+            System.err.println("Errore nel salvataggio binario delle risorse: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void loadFromBinaryFile(String filename) {
+        if (!Files.exists(Paths.get(filename))) {
+            return;
+        }
+        try (SnapshotBinario.Lettore lettore = new SnapshotBinario.Lettore(filename, SnapshotBinario.TIPO_RISORSE)) {
+            ByteBuffer buffer = lettore.buffer();
+            storage.clear();
+            ascoltatori.forEach(AscoltatoreRepository::svuotato);
+            indiceCapacita.svuota();
+            long maxId = 0;
+
+            for (int i = 0; i < lettore.getNumeroRecord(); i++) {
+                int offset = lettore.offsetRecord(i);
+                Long id = buffer.getLong(offset);
+                Risorsa risorsa = new Risorsa(id,
+                        lettore.stringa(buffer.getInt(offset + 8)),
+                        lettore.stringa(buffer.getInt(offset + 12)),
+                        TIPI[buffer.get(offset + 16)],
+                        buffer.getInt(offset + 17));
+                notifica(storage.put(id, risorsa), risorsa);
+                indiceCapacita.aggiungi(risorsa);
+                maxId = Math.max(maxId, id);
+            }
+
+            idGenerator.set(maxId + 1);
+        } catch (IOException e) {
+            System.err.println("Errore nel caricamento binario delle risorse: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void abilitaJournal(String snapshotFile, String journalFile, int sogliaCompattazione, boolean sincrono) {
+        Journal nuovo = new Journal(snapshotFile, journalFile, sogliaCompattazione,
+                SnapshotBinario.isBinario(snapshotFile) ? this::saveToBinaryFile : this::saveToFile);
+        nuovo.setSincronizza(sincrono);
+        try {
+            nuovo.riproduci(this::applicaRecord);
+            nuovo.apri();
+            journal = nuovo;
+        } catch (IOException e) {
+            System.err.println("Errore nell'apertura del journal delle risorse: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void compatta() {
+        if (journal != null) {
+            journal.compatta();
+        }
+    }
+
+    @Override
+    public synchronized void sospendiJournal() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Override
+    public synchronized void aggiungiAscoltatore(AscoltatoreRepository<Risorsa> ascoltatore) {
+        ascoltatori.add(ascoltatore);
+        ascoltatore.svuotato();
+        for (Risorsa risorsa : storage.values()) {
+            ascoltatore.modificato(null, risorsa);
+        }
+    }
+
+    private void notifica(Risorsa prima, Risorsa dopo) {
+        for (AscoltatoreRepository<Risorsa> ascoltatore : ascoltatori) {
+            ascoltatore.modificato(prima, dopo);
+        }
+    }
+
+    private void applicaRecord(CsvReader record) {
+        try {
+            String tipo = record.campo(0);
+            if (tipo.equals(Journal.SALVA)) {
+                Risorsa risorsa = fromCsv(record, 1);
+                if (risorsa != null) {
+                    save(risorsa);
+                }
+            } else if (tipo.equals(Journal.ELIMINA)) {
+                delete(record.campoLong(1));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Record del journal delle risorse non valido: " + record.testoRecord());
+        }
+    }
+
+    private String toCsv(Risorsa risorsa) {
+        return String.format("%d,%s,%s,%s,%d",
+                risorsa.getId(),
+                escapeCsv(risorsa.getNome()),
+                escapeCsv(risorsa.getDescrizione()),
+                escapeCsv(risorsa.getTipo().name()),
+                risorsa.getCapacita());
+    }
+
+    private Risorsa fromCsv(CsvReader csv, int primo) {
+        if (csv.getNumeroCampi() < primo + 5) {
+            return null;
+        }
+        Long id = csv.campoLong(primo);
+        String nome = csv.campo(primo + 1);
+        String descrizione = csv.campo(primo + 2);
+        TipoRisorsa tipo = csv.campoEnum(primo + 3, TIPI);
+        int capacita = csv.campoInt(primo + 4);
+        return new Risorsa(id, nome, descrizione, tipo, capacita);
+    }
+
     private String escapeCsv(String value) {
         if (value == null) return "";
         if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
@@ -116,13 +277,4 @@ public class PersistentRisorsaRepository implements RisorsaRepository {
         }
         return value;
     }
-
-    private String unescapeCsv(String value) {
-        if (value == null || value.isEmpty()) return "";
-        if (value.startsWith("\"") && value.endsWith("\"")) {
-            value = value.substring(1, value.length() - 1);
-            value = value.replace("\"\"", "\"");
-        }
-        return value;
-    }
 }
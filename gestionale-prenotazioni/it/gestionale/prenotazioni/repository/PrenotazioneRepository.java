@@ -2,19 +2,59 @@ package it.gestionale.prenotazioni.repository;
 
 import it.gestionale.prenotazioni.domain.Prenotazione;
 import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
 public interface PrenotazioneRepository {
     Prenotazione save(Prenotazione prenotazione);
+    // Salva solo se la versione è ancora quella memorizzata, altrimenti ModificaConcorrenteException
+    Prenotazione saveConVersione(Prenotazione prenotazione);
     Optional<Prenotazione> findById(Long id);
     List<Prenotazione> findAll();
     List<Prenotazione> findByCliente(Long clienteId);
     List<Prenotazione> findByRisorsa(Long risorsaId);
+    List<Prenotazione> findSovrapposizioniAttive(Long risorsaId, LocalDateTime inizio, LocalDateTime fine);
+    boolean existsSovrapposizioneAttiva(Long risorsaId, LocalDateTime inizio, LocalDateTime fine, Long escludiId);
     List<Prenotazione> findByPeriodo(LocalDateTime inizio, LocalDateTime fine);
+    // Occorrenze di una serie ricorrente, ordinate per inizio
+    List<Prenotazione> findBySerie(Long serieId);
+    // Identificativo mai usato per una nuova serie; resta unico anche con più chiamanti concorrenti
+    Long nuovoIdSerie();
+    // Non assegna più id e serie fino a questi valori, usati da prenotazioni non più in memoria (archiviate);
+    // va chiamato dopo il caricamento, che riparte dall'id più alto letto
+    void riservaId(long ultimoId, long ultimaSerie);
+
+    // Primo istante in [da, a) da cui la risorsa resta libera per la durata richiesta
+    default Optional<LocalDateTime> findPrimoInizioLibero(Long risorsaId, LocalDateTime da, LocalDateTime a, Duration durata) {
+        LocalDateTime cursore = da;
+        for (Prenotazione p : findSovrapposizioniAttive(risorsaId, da, a)) {
+            if (!cursore.plus(durata).isAfter(p.getDataOraInizio())) {
+                return Optional.of(cursore);
+            }
+            if (p.getDataOraFine().isAfter(cursore)) {
+                cursore = p.getDataOraFine();
+            }
+        }
+        return cursore.plus(durata).isAfter(a) ? Optional.empty() : Optional.of(cursore);
+    }
+
     List<Prenotazione> findByStato(StatoPrenotazione stato);
+    boolean aggiornaStato(Long id, StatoPrenotazione nuovoStato);
+    boolean aggiornaStato(Long id, StatoPrenotazione nuovoStato, long versioneAttesa);
     boolean delete(Long id);
+    // Come delete, ma lancia ModificaConcorrenteException se la prenotazione non è più alla versione attesa
+    boolean delete(Long id, long versioneAttesa);
     void saveToFile(String filename, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo);
     void loadFromFile(String filename, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo);
+    void saveToBinaryFile(String filename);
+    void loadFromBinaryFile(String filename, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo);
+    // Con sincrono ogni modifica è forzata su disco prima di restituire (vedi Journal)
+    void abilitaJournal(String snapshotFile, String journalFile, int sogliaCompattazione, boolean sincrono,
+                        ClienteRepository clienteRepo, RisorsaRepository risorsaRepo);
+    void compatta();
+    // Smette di registrare le singole modifiche: fino al prossimo compatta esistono solo in memoria
+    void sospendiJournal();
+    void aggiungiAscoltatore(AscoltatoreRepository<Prenotazione> ascoltatore);
 }
@@ -6,11 +6,25 @@ import java.util.List;
 import java.util.Optional;
 
 public interface RisorsaRepository {
+    // Una risorsa con un id già presente aggiorna sul posto l'istanza memorizzata, che viene restituita:
+    // le prenotazioni che la referenziano vedono i dati nuovi
     Risorsa save(Risorsa risorsa);
     Optional<Risorsa> findById(Long id);
     List<Risorsa> findAll();
     List<Risorsa> findByTipo(TipoRisorsa tipo);
+    // Ordinate per capacità crescente: la prima è quella più adatta
+    List<Risorsa> findByTipoECapacitaMinima(TipoRisorsa tipo, int capacitaMinima);
+    // Di qualunque tipo, con capacità tra minima e massima comprese, ordinate per capacità crescente
+    List<Risorsa> findByCapacitaRange(int capacitaMinima, int capacitaMassima);
     boolean delete(Long id);
     void saveToFile(String filename);
     void loadFromFile(String filename);
+    void saveToBinaryFile(String filename);
+    void loadFromBinaryFile(String filename);
+    // Con sincrono ogni modifica è forzata su disco prima di restituire (vedi Journal)
+    void abilitaJournal(String snapshotFile, String journalFile, int sogliaCompattazione, boolean sincrono);
+    void compatta();
+    // Smette di registrare le singole modifiche: fino al prossimo compatta esistono solo in memoria
+    void sospendiJournal();
+    void aggiungiAscoltatore(AscoltatoreRepository<Risorsa> ascoltatore);
 }
@@ -0,0 +1,171 @@
+package it.gestionale.prenotazioni.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Formato binario degli snapshot: intestazione, record a larghezza fissa e tabella delle stringhe.
+ * I record contengono solo numeri (id, minuti dall'epoca, ordinali degli enum) e indici nella
+ * tabella delle stringhe, quindi la lettura tramite MappedByteBuffer non richiede parsing di testo.
+ *
+ * Intestazione: magic (int), versione (short), tipo (byte), dimensione record (int), numero record (int).
+ */
+final class SnapshotBinario {
+    static final int MAGIC = 0x424B5331;
+    static final short VERSIONE = 1;
+    static final byte TIPO_CLIENTI = 1;
+    static final byte TIPO_RISORSE = 2;
+    static final byte TIPO_PRENOTAZIONI = 3;
+    static final int DIMENSIONE_INTESTAZIONE = 4 + 2 + 1 + 4 + 4;
+    static final int NESSUNA_STRINGA = -1;
+    static final long NESSUN_ID = -1;
+
+    private SnapshotBinario() {}
+
+    static boolean isBinario(String filename) {
+        return filename.endsWith(".bin");
+    }
+
+    static int toEpochMinuti(LocalDateTime dataOra) {
+        return (int) (dataOra.toEpochSecond(ZoneOffset.UTC) / 60);
+    }
+
+    static LocalDateTime fromEpochMinuti(int minuti) {
+        return LocalDateTime.ofEpochSecond(minuti * 60L, 0, ZoneOffset.UTC);
+    }
+
+    // Istante corrente alla precisione con cui le date finiscono nei file
+    static LocalDateTime adessoAlMinuto() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+    }
+
+    static class Scrittore implements Closeable {
+        private final DataOutputStream out;
+        private final Map<String, Integer> indiciStringhe = new HashMap<>();
+        private final List<String> stringhe = new ArrayList<>();
+
+        Scrittore(String filename, byte tipo, int dimensioneRecord, int numeroRecord) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSIONE);
+            out.writeByte(tipo);
+            out.writeInt(dimensioneRecord);
+            out.writeInt(numeroRecord);
+        }
+
+        DataOutputStream record() {
+            return out;
+        }
+
+        // Le stringhe uguali (note ricorrenti, descrizioni) sono salvate una sola volta
+        int stringa(String valore) {
+            if (valore == null) {
+                return NESSUNA_STRINGA;
+            }
+            return indiciStringhe.computeIfAbsent(valore, v -> {
+                stringhe.add(v);
+                return stringhe.size() - 1;
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.writeInt(stringhe.size());
+                for (String valore : stringhe) {
+                    byte[] bytes = valore.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    static class Lettore implements Closeable {
+        private final FileChannel canale;
+        private final MappedByteBuffer buffer;
+        private final int dimensioneRecord;
+        private final int numeroRecord;
+        private final String[] stringhe;
+
+        Lettore(String filename, byte tipoAtteso) throws IOException {
+            Path percorso = Paths.get(filename);
+            this.canale = FileChannel.open(percorso, StandardOpenOption.READ);
+            try {
+                this.buffer = canale.map(FileChannel.MapMode.READ_ONLY, 0, canale.size());
+                if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSIONE || buffer.get(6) != tipoAtteso) {
+                    throw new IOException("Formato dello snapshot non riconosciuto: " + filename);
+                }
+                this.dimensioneRecord = buffer.getInt(7);
+                this.numeroRecord = buffer.getInt(11);
+                this.stringhe = leggiStringhe(DIMENSIONE_INTESTAZIONE + (long) dimensioneRecord * numeroRecord);
+            } catch (IOException | RuntimeException e) {
+                canale.close();
+                throw e;
+            }
+        }
+
+        private String[] leggiStringhe(long offset) {
+            int posizione = (int) offset;
+            int quante = buffer.getInt(posizione);
+            posizione += 4;
+            String[] risultato = new String[quante];
+            byte[] appoggio = new byte[256];
+            for (int i = 0; i < quante; i++) {
+                int lunghezza = buffer.getInt(posizione);
+                posizione += 4;
+                if (lunghezza > appoggio.length) {
+                    appoggio = new byte[Math.max(lunghezza, appoggio.length * 2)];
+                }
+                buffer.get(posizione, appoggio, 0, lunghezza);
+                risultato[i] = new String(appoggio, 0, lunghezza, StandardCharsets.UTF_8);
+                posizione += lunghezza;
+            }
+            return risultato;
+        }
+
+        // Gli snapshot scritti prima dell'aggiunta di un campo hanno record più corti
+        int getDimensioneRecord() {
+            return dimensioneRecord;
+        }
+
+        int getNumeroRecord() {
+            return numeroRecord;
+        }
+
+        int offsetRecord(int indice) {
+            return DIMENSIONE_INTESTAZIONE + indice * dimensioneRecord;
+        }
+
+        MappedByteBuffer buffer() {
+            return buffer;
+        }
+
+        String stringa(int indice) {
+            return indice == NESSUNA_STRINGA ? null : stringhe[indice];
+        }
+
+        @Override
+        public void close() throws IOException {
+            canale.close();
+        }
+    }
+}
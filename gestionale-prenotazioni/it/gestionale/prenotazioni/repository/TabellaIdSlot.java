@@ -0,0 +1,118 @@
+package it.gestionale.prenotazioni.repository;
+
+import java.util.Arrays;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Tabella hash id → slot per il repository a colonne, a indirizzamento aperto con scansione lineare.
+ * Contiene solo gli slot: l'id di una cella si legge dalla colonna degli id, quindi ogni prenotazione costa
+ * 4 byte diviso il fattore di carico, qualunque sia l'id più alto, e gli id possono essere long qualsiasi.
+ * Le eliminazioni spostano all'indietro le celle successive invece di lasciare segnaposto.
+ */
+final class TabellaIdSlot {
+    private static final int VUOTA = -1;
+    private static final int CAPACITA_INIZIALE = 1024;
+
+    private final IntToLongFunction idDiSlot;
+    private int[] celle = nuoveCelle(CAPACITA_INIZIALE);
+    private int quanti;
+
+    // idDiSlot deve restituire l'id attualmente memorizzato nello slot
+    TabellaIdSlot(IntToLongFunction idDiSlot) {
+        this.idDiSlot = idDiSlot;
+    }
+
+    /** Slot dell'id, o -1 se assente. */
+    int trova(long id) {
+        int maschera = celle.length - 1;
+        for (int i = cella(id, maschera); ; i = (i + 1) & maschera) {
+            int slot = celle[i];
+            if (slot == VUOTA || idDiSlot.applyAsLong(slot) == id) {
+                return slot;
+            }
+        }
+    }
+
+    /** Associa l'id, che non deve essere presente, allo slot. */
+    void inserisci(long id, int slot) {
+        // Fattore di carico massimo 3/4
+        if ((quanti + 1) * 4L > celle.length * 3L) {
+            ridimensiona(celle.length * 2);
+        }
+        int maschera = celle.length - 1;
+        int i = cella(id, maschera);
+        while (celle[i] != VUOTA) {
+            i = (i + 1) & maschera;
+        }
+        celle[i] = slot;
+        quanti++;
+    }
+
+    /** Sposta l'id presente in un altro slot, da chiamare prima che la colonna degli id cambi. */
+    void sposta(long id, int nuovoSlot) {
+        celle[posizione(id)] = nuovoSlot;
+    }
+
+    /** Toglie l'id, da chiamare finché la colonna contiene ancora id e slot coerenti. */
+    void rimuovi(long id) {
+        int maschera = celle.length - 1;
+        int libera = posizione(id);
+        if (libera < 0) {
+            return;
+        }
+        // Le celle successive della stessa sequenza che non possono più essere raggiunte risalgono nel buco
+        for (int i = (libera + 1) & maschera; celle[i] != VUOTA; i = (i + 1) & maschera) {
+            int naturale = cella(idDiSlot.applyAsLong(celle[i]), maschera);
+            boolean raggiungibile = libera <= i
+                    ? naturale > libera && naturale <= i
+                    : naturale > libera || naturale <= i;
+            if (!raggiungibile) {
+                celle[libera] = celle[i];
+                libera = i;
+            }
+        }
+        celle[libera] = VUOTA;
+        quanti--;
+    }
+
+    void svuota() {
+        celle = nuoveCelle(CAPACITA_INIZIALE);
+        quanti = 0;
+    }
+
+    private int posizione(long id) {
+        int maschera = celle.length - 1;
+        for (int i = cella(id, maschera); celle[i] != VUOTA; i = (i + 1) & maschera) {
+            if (idDiSlot.applyAsLong(celle[i]) == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void ridimensiona(int capacita) {
+        int[] vecchie = celle;
+        celle = nuoveCelle(capacita);
+        int maschera = capacita - 1;
+        for (int slot : vecchie) {
+            if (slot != VUOTA) {
+                int i = cella(idDiSlot.applyAsLong(slot), maschera);
+                while (celle[i] != VUOTA) {
+                    i = (i + 1) & maschera;
+                }
+                celle[i] = slot;
+            }
+        }
+    }
+
+    // Hash di Fibonacci: id consecutivi finiscono in celle lontane
+    private static int cella(long id, int maschera) {
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & maschera;
+    }
+
+    private static int[] nuoveCelle(int capacita) {
+        int[] celle = new int[capacita];
+        Arrays.fill(celle, VUOTA);
+        return celle;
+    }
+}
@@ -0,0 +1,88 @@
+package it.gestionale.prenotazioni.repository;
+
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Copia immutabile degli attributi indicizzati di una prenotazione, presa al momento del save.
+ * Serve a rimuovere la voce dagli indici anche se l'oggetto è stato modificato sul posto.
+ */
+final class VoceIndice implements Comparable<VoceIndice> {
+    final long id;
+    // Chiave d'ordinamento primitiva: confrontare due long evita di navigare LocalDateTime, LocalDate e LocalTime
+    final long chiaveInizio;
+    final long chiaveFine;
+    final LocalDateTime inizio;
+    final LocalDateTime fine;
+    final Long clienteId;
+    final Long risorsaId;
+    final StatoPrenotazione stato;
+    final Long serieId;
+    final Prenotazione prenotazione;
+
+    private VoceIndice(long id, LocalDateTime inizio, LocalDateTime fine, Long clienteId, Long risorsaId,
+                       StatoPrenotazione stato, Long serieId, Prenotazione prenotazione) {
+        this.id = id;
+        this.chiaveInizio = chiave(inizio);
+        this.chiaveFine = chiave(fine);
+        this.inizio = inizio;
+        this.fine = fine;
+        this.clienteId = clienteId;
+        this.risorsaId = risorsaId;
+        this.stato = stato;
+        this.serieId = serieId;
+        this.prenotazione = prenotazione;
+    }
+
+    static VoceIndice di(Prenotazione p) {
+        Long clienteId = p.getCliente() != null ? p.getCliente().getId() : null;
+        Long risorsaId = p.getRisorsa() != null ? p.getRisorsa().getId() : null;
+        return new VoceIndice(p.getId(), p.getDataOraInizio(), p.getDataOraFine(), clienteId, risorsaId, p.getStato(), p.getSerieId(), p);
+    }
+
+    static long chiave(LocalDateTime dataOra) {
+        return dataOra.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + dataOra.getNano();
+    }
+
+    // La prenotazione con gli attributi indicizzati com'erano al save, anche se nel frattempo è stata modificata sul posto
+    Prenotazione comeSalvata() {
+        if (stato == prenotazione.getStato() && inizio.equals(prenotazione.getDataOraInizio())
+                && fine.equals(prenotazione.getDataOraFine())) {
+            return prenotazione;
+        }
+        Prenotazione copia = prenotazione.copia();
+        copia.setStato(stato);
+        copia.setDataOraInizio(inizio);
+        copia.setDataOraFine(fine);
+        return copia;
+    }
+
+    boolean isAttiva() {
+        return stato != StatoPrenotazione.CANCELLATA;
+    }
+
+    boolean sovrappone(LocalDateTime da, LocalDateTime a) {
+        return inizio.isBefore(a) && fine.isAfter(da);
+    }
+
+    @Override
+    public int compareTo(VoceIndice altra) {
+        int cmp = Long.compare(chiaveInizio, altra.chiaveInizio);
+        return cmp != 0 ? cmp : Long.compare(id, altra.id);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof VoceIndice)) return false;
+        VoceIndice altra = (VoceIndice) o;
+        return id == altra.id && chiaveInizio == altra.chiaveInizio;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id) * 31 + Long.hashCode(chiaveInizio);
+    }
+}
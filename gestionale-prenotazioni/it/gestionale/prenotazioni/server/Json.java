@@ -0,0 +1,232 @@
+package it.gestionale.prenotazioni.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON minimo per l'API, senza dipendenze esterne.
+ * Il parser restituisce Map (oggetti, ordine dei campi conservato), List, String, Long o Double,
+ * Boolean e null; lo scrittore produce JSON compatto direttamente in uno StringBuilder.
+ */
+final class Json {
+    private final String testo;
+    private int posizione;
+
+    private Json(String testo) {
+        this.testo = testo;
+    }
+
+    static Object leggi(String testo) {
+        Json parser = new Json(testo);
+        parser.spazi();
+        Object valore = parser.valore();
+        parser.spazi();
+        if (parser.posizione != testo.length()) {
+            throw parser.errore("Contenuto dopo la fine del JSON");
+        }
+        return valore;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> leggiOggetto(String testo) {
+        Object valore = leggi(testo);
+        if (!(valore instanceof Map)) {
+            throw new IllegalArgumentException("Il corpo della richiesta deve essere un oggetto JSON");
+        }
+        return (Map<String, Object>) valore;
+    }
+
+    private Object valore() {
+        if (posizione >= testo.length()) {
+            throw errore("JSON incompleto");
+        }
+        char c = testo.charAt(posizione);
+        switch (c) {
+            case '{': return oggetto();
+            case '[': return array();
+            case '"': return stringa();
+            case 't': return letterale("true", Boolean.TRUE);
+            case 'f': return letterale("false", Boolean.FALSE);
+            case 'n': return letterale("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return numero();
+                }
+                throw errore("Carattere inatteso '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> oggetto() {
+        Map<String, Object> oggetto = new LinkedHashMap<>();
+        posizione++;
+        spazi();
+        if (consuma('}')) {
+            return oggetto;
+        }
+        do {
+            spazi();
+            if (posizione >= testo.length() || testo.charAt(posizione) != '"') {
+                throw errore("Atteso il nome di un campo");
+            }
+            String nome = stringa();
+            spazi();
+            if (!consuma(':')) {
+                throw errore("Atteso ':'");
+            }
+            spazi();
+            oggetto.put(nome, valore());
+            spazi();
+        } while (consuma(','));
+        if (!consuma('}')) {
+            throw errore("Atteso '}'");
+        }
+        return oggetto;
+    }
+
+    private List<Object> array() {
+        List<Object> array = new ArrayList<>();
+        posizione++;
+        spazi();
+        if (consuma(']')) {
+            return array;
+        }
+        do {
+            spazi();
+            array.add(valore());
+            spazi();
+        } while (consuma(','));
+        if (!consuma(']')) {
+            throw errore("Atteso ']'");
+        }
+        return array;
+    }
+
+    private String stringa() {
+        posizione++;
+        StringBuilder sb = new StringBuilder();
+        while (posizione < testo.length()) {
+            char c = testo.charAt(posizione++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (posizione >= testo.length()) {
+                break;
+            }
+            char escape = testo.charAt(posizione++);
+            switch (escape) {
+                case '"': case '\\': case '/': sb.append(escape); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (posizione + 4 > testo.length()) {
+                        throw errore("Sequenza \\u incompleta");
+                    }
+                    sb.append((char) Integer.parseInt(testo.substring(posizione, posizione + 4), 16));
+                    posizione += 4;
+                    break;
+                default: throw errore("Escape non valido \\" + escape);
+            }
+        }
+        throw errore("Stringa non terminata");
+    }
+
+    private Object numero() {
+        int inizio = posizione;
+        boolean decimale = false;
+        while (posizione < testo.length()) {
+            char c = testo.charAt(posizione);
+            if (c == '.' || c == 'e' || c == 'E') {
+                decimale = true;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            posizione++;
+        }
+        String cifre = testo.substring(inizio, posizione);
+        try {
+            return decimale ? (Object) Double.parseDouble(cifre) : (Object) Long.parseLong(cifre);
+        } catch (NumberFormatException e) {
+            throw errore("Numero non valido: " + cifre);
+        }
+    }
+
+    private Object letterale(String atteso, Object valore) {
+        if (!testo.startsWith(atteso, posizione)) {
+            throw errore("Valore non valido");
+        }
+        posizione += atteso.length();
+        return valore;
+    }
+
+    private boolean consuma(char c) {
+        if (posizione < testo.length() && testo.charAt(posizione) == c) {
+            posizione++;
+            return true;
+        }
+        return false;
+    }
+
+    private void spazi() {
+        while (posizione < testo.length() && Character.isWhitespace(testo.charAt(posizione))) {
+            posizione++;
+        }
+    }
+
+    private IllegalArgumentException errore(String messaggio) {
+        return new IllegalArgumentException("JSON non valido alla posizione " + posizione + ": " + messaggio);
+    }
+
+    // Scrittura
+
+    static void stringa(StringBuilder sb, String valore) {
+        if (valore == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < valore.length(); i++) {
+            char c = valore.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    // Apre un campo di un oggetto: virgola se non è il primo, nome e due punti
+    static StringBuilder campo(StringBuilder sb, String nome) {
+        char ultimo = sb.charAt(sb.length() - 1);
+        if (ultimo != '{') {
+            sb.append(',');
+        }
+        stringa(sb, nome);
+        return sb.append(':');
+    }
+
+    static void campo(StringBuilder sb, String nome, String valore) {
+        stringa(campo(sb, nome), valore);
+    }
+
+    static void campo(StringBuilder sb, String nome, Object valore) {
+        campo(sb, nome).append(valore);
+    }
+}
@@ -0,0 +1,560 @@
+package it.gestionale.prenotazioni.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import it.gestionale.prenotazioni.domain.Cliente;
+import it.gestionale.prenotazioni.domain.FasciaOraria;
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.domain.RegolaRicorrenza;
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.FrequenzaRicorrenza;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import it.gestionale.prenotazioni.exceptions.*;
+import it.gestionale.prenotazioni.repository.ClienteRepository;
+import it.gestionale.prenotazioni.repository.RisorsaRepository;
+import it.gestionale.prenotazioni.service.AggregatoreStatistiche;
+import it.gestionale.prenotazioni.service.PrenotazioneService;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * API HTTP/JSON sopra PrenotazioneService e i repository di clienti e risorse, basata sul server HTTP del JDK.
+ * Date e ore sono in formato ISO (2030-01-07T10:00). Gli errori rispondono con {"errore": ..., "tipo": ...}:
+ * 404 per entità inesistenti, 409 per conflitti (risorsa occupata, stato non compatibile, modifica concorrente,
+ * email già usata), 400 per richieste non valide, 405 con l'intestazione Allow per un metodo non previsto su
+ * un percorso esistente.
+ *
+ * Risorse:
+ *   GET/POST /clienti (?q=&limite= per la ricerca), GET/PUT/DELETE /clienti/{id}, GET /clienti/{id}/prenotazioni
+ *   GET/POST /risorse (?tipo=&capacitaMinima= oppure ?capacitaMinima=&capacitaMassima=), GET/PUT/DELETE /risorse/{id}, GET /risorse/{id}/prenotazioni
+ *   GET /risorse/{id}/disponibilita?inizio=&fine=, GET /risorse/{id}/fasce-libere?inizio=&fine=&durata=&max=
+ *   GET /risorse-disponibili?tipo=&capacitaMinima=&inizio=&fine=
+ *   GET/POST /prenotazioni (?stato= oppure ?inizio=&fine=), GET/PUT /prenotazioni/{id}
+ *   POST /prenotazioni/{id}/conferma, /completa, /cancella
+ *   POST /serie, GET/PUT/DELETE /serie/{id}
+ *   GET /statistiche: totali, prenotazioni per stato, risorse per tipo e prenotazioni dei prossimi 7 giorni
+ *   GET /metriche: contatori e latenze delle operazioni nel formato testuale di Prometheus
+ */
+public class ServerPrenotazioni {
+    private static final int BACKLOG = 1024;
+    private static final Set<String> SOTTORISORSE_RISORSA = Set.of("prenotazioni", "disponibilita", "fasce-libere");
+    private static final Set<String> AZIONI_PRENOTAZIONE = Set.of("conferma", "completa", "cancella");
+    // Usato solo se la JVM non offre i virtual thread: le richieste sono brevi e quasi tutte in memoria
+    private static final int THREAD_PIATTAFORMA = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    private final PrenotazioneService service;
+    private final ClienteRepository clienteRepo;
+    private final RisorsaRepository risorsaRepo;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public ServerPrenotazioni(PrenotazioneService service, ClienteRepository clienteRepo, RisorsaRepository risorsaRepo) {
+        this.service = service;
+        this.clienteRepo = clienteRepo;
+        this.risorsaRepo = risorsaRepo;
+    }
+
+    public void avvia(int porta) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(porta), BACKLOG);
+        executor = creaExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::gestisci);
+        server.createContext("/metriche", this::metriche);
+        server.start();
+    }
+
+    public int getPorta() {
+        return server.getAddress().getPort();
+    }
+
+    public void ferma(int secondiAttesa) {
+        server.stop(secondiAttesa);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(secondiAttesa, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Un virtual thread per richiesta quando la JVM li offre (Java 21 e successive); il metodo è cercato per
+     * riflessione così il codice compila anche con JDK precedenti, dove si ripiega su un pool di thread fisso.
+     */
+    static ExecutorService creaExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(THREAD_PIATTAFORMA);
+        }
+    }
+
+    private void gestisci(HttpExchange scambio) throws IOException {
+        int stato;
+        String risposta;
+        try {
+            Richiesta richiesta = new Richiesta(scambio);
+            risposta = instrada(richiesta);
+            stato = richiesta.statoRisposta;
+        } catch (MetodoNonPermessoException e) {
+            stato = 405;
+            risposta = errore(e);
+            scambio.getResponseHeaders().set("Allow", e.permessi);
+        } catch (PrenotazioneException e) {
+            stato = statoPer(e);
+            risposta = errore(e);
+        } catch (IllegalArgumentException | DateTimeParseException | ClassCastException e) {
+            stato = 400;
+            risposta = errore(e);
+        } catch (RuntimeException e) {
+            stato = 500;
+            risposta = errore(e);
+        }
+        rispondi(scambio, stato, risposta);
+    }
+
+    private void metriche(HttpExchange scambio) throws IOException {
+        if (!"GET".equals(scambio.getRequestMethod())) {
+            scambio.getResponseHeaders().set("Allow", "GET");
+            rispondi(scambio, 405, errore(new MetodoNonPermessoException(scambio.getRequestMethod(), "GET")));
+            return;
+        }
+        rispondi(scambio, 200, service.getMetriche().toPrometheus(), "text/plain; version=0.0.4; charset=utf-8");
+    }
+
+    private String instrada(Richiesta r) throws IOException {
+        String[] p = r.percorso;
+        String metodo = r.metodo;
+        if (p.length == 0) {
+            throw new NonTrovatoException();
+        }
+        switch (p[0]) {
+            case "clienti":
+                if (p.length == 1) {
+                    if (metodo.equals("GET")) return elenco(clienti(r), ServerPrenotazioni::cliente);
+                    if (metodo.equals("POST")) return r.creato(cliente(clienteRepo.save(clienteDa(r.corpo(), null))));
+                    throw new MetodoNonPermessoException(metodo, "GET", "POST");
+                } else if (p.length == 2) {
+                    Long id = id(p[1]);
+                    if (metodo.equals("GET")) return cliente(clienteRepo.findById(id).orElseThrow(() -> new ClienteNonTrovatoException(id)));
+                    if (metodo.equals("PUT")) {
+                        clienteRepo.findById(id).orElseThrow(() -> new ClienteNonTrovatoException(id));
+                        return cliente(clienteRepo.save(clienteDa(r.corpo(), id)));
+                    }
+                    if (metodo.equals("DELETE")) return eliminato(clienteRepo.delete(id), () -> new ClienteNonTrovatoException(id));
+                    throw new MetodoNonPermessoException(metodo, "GET", "PUT", "DELETE");
+                } else if (p.length == 3 && p[2].equals("prenotazioni")) {
+                    if (metodo.equals("GET")) return elenco(service.getPrenotazioniCliente(id(p[1])), ServerPrenotazioni::prenotazione);
+                    throw new MetodoNonPermessoException(metodo, "GET");
+                }
+                break;
+
+            case "risorse":
+                if (p.length == 1) {
+                    if (metodo.equals("GET")) return elenco(risorse(r), ServerPrenotazioni::risorsa);
+                    if (metodo.equals("POST")) return r.creato(risorsa(risorsaRepo.save(risorsaDa(r.corpo(), null))));
+                    throw new MetodoNonPermessoException(metodo, "GET", "POST");
+                } else if (p.length == 2) {
+                    Long id = id(p[1]);
+                    if (metodo.equals("GET")) return risorsa(risorsaRepo.findById(id).orElseThrow(() -> new RisorsaNonTrovataException(id)));
+                    if (metodo.equals("PUT")) {
+                        risorsaRepo.findById(id).orElseThrow(() -> new RisorsaNonTrovataException(id));
+                        return risorsa(risorsaRepo.save(risorsaDa(r.corpo(), id)));
+                    }
+                    if (metodo.equals("DELETE")) return eliminato(risorsaRepo.delete(id), () -> new RisorsaNonTrovataException(id));
+                    throw new MetodoNonPermessoException(metodo, "GET", "PUT", "DELETE");
+                } else if (p.length == 3 && SOTTORISORSE_RISORSA.contains(p[2])) {
+                    Long id = id(p[1]);
+                    if (!metodo.equals("GET")) {
+                        throw new MetodoNonPermessoException(metodo, "GET");
+                    }
+                    switch (p[2]) {
+                        case "prenotazioni":
+                            return elenco(service.getPrenotazioniRisorsa(id), ServerPrenotazioni::prenotazione);
+                        case "disponibilita": {
+                            StringBuilder sb = new StringBuilder("{");
+                            Json.campo(sb, "disponibile", (Object) service.isRisorsaDisponibile(id,
+                                    r.dataOra("inizio"), r.dataOra("fine")));
+                            return sb.append('}').toString();
+                        }
+                        case "fasce-libere":
+                            return elenco(service.trovaSlotLiberi(id, r.dataOra("inizio"), r.dataOra("fine"),
+                                    Duration.ofMinutes(r.numero("durata")), (int) r.numero("max", 10)), ServerPrenotazioni::fascia);
+                        default:
+                            break;
+                    }
+                }
+                break;
+
+            case "risorse-disponibili":
+                if (p.length == 1) {
+                    if (metodo.equals("GET")) {
+                        return elenco(service.trovaRisorseDisponibili(TipoRisorsa.valueOf(r.parametro("tipo")),
+                                (int) r.numero("capacitaMinima", 1), r.dataOra("inizio"), r.dataOra("fine")), ServerPrenotazioni::risorsa);
+                    }
+                    throw new MetodoNonPermessoException(metodo, "GET");
+                }
+                break;
+
+            case "prenotazioni":
+                if (p.length == 1) {
+                    if (metodo.equals("GET")) return elenco(prenotazioni(r), ServerPrenotazioni::prenotazione);
+                    if (metodo.equals("POST")) {
+                        Map<String, Object> corpo = r.corpo();
+                        return r.creato(prenotazione(service.creaPrenotazione(numero(corpo, "clienteId"), numero(corpo, "risorsaId"),
+                                dataOra(corpo, "inizio"), dataOra(corpo, "fine"), testo(corpo, "note"))));
+                    }
+                    throw new MetodoNonPermessoException(metodo, "GET", "POST");
+                } else if (p.length == 2) {
+                    Long id = id(p[1]);
+                    if (metodo.equals("GET")) return prenotazione(service.getPrenotazione(id));
+                    if (metodo.equals("PUT")) {
+                        Map<String, Object> corpo = r.corpo();
+                        return prenotazione(service.modificaPrenotazione(id, dataOra(corpo, "inizio"), dataOra(corpo, "fine"),
+                                testo(corpo, "note")));
+                    }
+                    throw new MetodoNonPermessoException(metodo, "GET", "PUT");
+                } else if (p.length == 3 && AZIONI_PRENOTAZIONE.contains(p[2])) {
+                    Long id = id(p[1]);
+                    if (!metodo.equals("POST")) {
+                        throw new MetodoNonPermessoException(metodo, "POST");
+                    }
+                    switch (p[2]) {
+                        case "conferma": service.confermaPrenotazione(id); return prenotazione(service.getPrenotazione(id));
+                        case "completa": service.completaPrenotazione(id); return prenotazione(service.getPrenotazione(id));
+                        case "cancella": service.cancellaPrenotazione(id); return prenotazione(service.getPrenotazione(id));
+                        default: break;
+                    }
+                }
+                break;
+
+            case "serie":
+                if (p.length == 1) {
+                    if (!metodo.equals("POST")) {
+                        throw new MetodoNonPermessoException(metodo, "POST");
+                    }
+                    Map<String, Object> corpo = r.corpo();
+                    RegolaRicorrenza regola = new RegolaRicorrenza(dataOra(corpo, "inizio"),
+                            Duration.ofMinutes(numero(corpo, "durata")),
+                            FrequenzaRicorrenza.valueOf(testoObbligatorio(corpo, "frequenza")),
+                            corpo.get("intervallo") != null ? numero(corpo, "intervallo").intValue() : 1,
+                            corpo.get("dataFine") != null ? LocalDate.parse(testoObbligatorio(corpo, "dataFine")) : null,
+                            corpo.get("occorrenze") != null ? numero(corpo, "occorrenze").intValue() : 0);
+                    return r.creato(elenco(service.creaSerie(numero(corpo, "clienteId"), numero(corpo, "risorsaId"),
+                            regola, testo(corpo, "note")), ServerPrenotazioni::prenotazione));
+                } else if (p.length == 2) {
+                    Long id = id(p[1]);
+                    if (metodo.equals("GET")) return elenco(service.getPrenotazioniSerie(id), ServerPrenotazioni::prenotazione);
+                    if (metodo.equals("PUT")) {
+                        Map<String, Object> corpo = r.corpo();
+                        LocalTime orario = corpo.get("orario") != null ? LocalTime.parse(testoObbligatorio(corpo, "orario")) : null;
+                        Duration durata = corpo.get("durata") != null ? Duration.ofMinutes(numero(corpo, "durata")) : null;
+                        return elenco(service.modificaSerie(id, orario, durata, testo(corpo, "note")), ServerPrenotazioni::prenotazione);
+                    }
+                    if (metodo.equals("DELETE")) {
+                        StringBuilder sb = new StringBuilder("{");
+                        Json.campo(sb, "cancellate", (Object) service.cancellaSerie(id));
+                        return sb.append('}').toString();
+                    }
+                    throw new MetodoNonPermessoException(metodo, "GET", "PUT", "DELETE");
+                }
+                break;
+
+            case "statistiche":
+                if (p.length == 1) {
+                    if (metodo.equals("GET")) return statistiche(service.getStatistiche());
+                    throw new MetodoNonPermessoException(metodo, "GET");
+                }
+                break;
+
+            default:
+                break;
+        }
+        throw new NonTrovatoException();
+    }
+
+    private List<Cliente> clienti(Richiesta r) {
+        String ricerca = r.parametro("q");
+        if (ricerca == null) {
+            return clienteRepo.findAll();
+        }
+        return clienteRepo.cerca(ricerca, (int) r.numero("limite", 20));
+    }
+
+    private List<Risorsa> risorse(Richiesta r) {
+        String tipo = r.parametro("tipo");
+        if (tipo == null) {
+            if (r.parametro("capacitaMinima") == null && r.parametro("capacitaMassima") == null) {
+                return risorsaRepo.findAll();
+            }
+            return risorsaRepo.findByCapacitaRange((int) r.numero("capacitaMinima", 0),
+                    (int) r.numero("capacitaMassima", Integer.MAX_VALUE));
+        }
+        return risorsaRepo.findByTipoECapacitaMinima(TipoRisorsa.valueOf(tipo), (int) r.numero("capacitaMinima", 0));
+    }
+
+    private List<Prenotazione> prenotazioni(Richiesta r) {
+        String stato = r.parametro("stato");
+        if (stato != null) {
+            return service.getPrenotazioniStato(StatoPrenotazione.valueOf(stato));
+        }
+        if (r.parametro("inizio") != null) {
+            return service.getPrenotazioniPeriodo(r.dataOra("inizio"), r.dataOra("fine"));
+        }
+        return service.getTuttePrenotazioni();
+    }
+
+    private static String eliminato(boolean eliminato, Supplier<PrenotazioneException> errore) {
+        if (!eliminato) {
+            throw errore.get();
+        }
+        return "{\"eliminato\":true}";
+    }
+
+    // Conversioni JSON
+
+    private static Cliente clienteDa(Map<String, Object> corpo, Long id) {
+        return new Cliente(id, testoObbligatorio(corpo, "nome"), testoObbligatorio(corpo, "cognome"),
+                testo(corpo, "email"), testo(corpo, "telefono"));
+    }
+
+    private static Risorsa risorsaDa(Map<String, Object> corpo, Long id) {
+        int capacita = numero(corpo, "capacita").intValue();
+        if (capacita < 1) {
+            throw new IllegalArgumentException("La capacità deve essere almeno 1");
+        }
+        return new Risorsa(id, testoObbligatorio(corpo, "nome"), testo(corpo, "descrizione"),
+                TipoRisorsa.valueOf(testoObbligatorio(corpo, "tipo")), capacita);
+    }
+
+    private static String cliente(Cliente c) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "id", (Object) c.getId());
+        Json.campo(sb, "nome", c.getNome());
+        Json.campo(sb, "cognome", c.getCognome());
+        Json.campo(sb, "email", c.getEmail());
+        Json.campo(sb, "telefono", c.getTelefono());
+        return sb.append('}').toString();
+    }
+
+    private static String risorsa(Risorsa r) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "id", (Object) r.getId());
+        Json.campo(sb, "nome", r.getNome());
+        Json.campo(sb, "descrizione", r.getDescrizione());
+        Json.campo(sb, "tipo", r.getTipo() != null ? r.getTipo().name() : null);
+        Json.campo(sb, "capacita", (Object) r.getCapacita());
+        return sb.append('}').toString();
+    }
+
+    private static String prenotazione(Prenotazione p) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "id", (Object) p.getId());
+        Json.campo(sb, "clienteId", (Object) (p.getCliente() != null ? p.getCliente().getId() : null));
+        Json.campo(sb, "risorsaId", (Object) (p.getRisorsa() != null ? p.getRisorsa().getId() : null));
+        Json.campo(sb, "inizio", p.getDataOraInizio().toString());
+        Json.campo(sb, "fine", p.getDataOraFine().toString());
+        Json.campo(sb, "stato", p.getStato().name());
+        Json.campo(sb, "note", p.getNote());
+        Json.campo(sb, "versione", (Object) p.getVersione());
+        Json.campo(sb, "serieId", (Object) p.getSerieId());
+        return sb.append('}').toString();
+    }
+
+    private static String statistiche(AggregatoreStatistiche s) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "clienti", (Object) s.getClienti());
+        Json.campo(sb, "risorse", (Object) s.getRisorse());
+        Json.campo(sb, "prenotazioni", (Object) s.getPrenotazioni());
+        Json.campo(sb, "prenotazioniPerStato").append('{');
+        s.getPrenotazioniPerStato().forEach((stato, conteggio) -> Json.campo(sb, stato.name(), (Object) conteggio));
+        sb.append('}');
+        Json.campo(sb, "risorsePerTipo").append('{');
+        s.getRisorsePerTipo().forEach((tipo, conteggio) -> Json.campo(sb, tipo.name(), (Object) conteggio));
+        sb.append('}');
+        Json.campo(sb, "prenotazioniProssime7Giorni", (Object) s.getPrenotazioniProssime(LocalDateTime.now()));
+        return sb.append('}').toString();
+    }
+
+    private static String fascia(FasciaOraria f) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "inizio", f.getInizio().toString());
+        Json.campo(sb, "fine", f.getFine().toString());
+        Json.campo(sb, "minuti", (Object) f.getDurata().toMinutes());
+        return sb.append('}').toString();
+    }
+
+    private static <T> String elenco(List<T> elementi, Function<T, String> conversione) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < elementi.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(conversione.apply(elementi.get(i)));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String errore(Exception e) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.campo(sb, "errore", e.getMessage());
+        Json.campo(sb, "tipo", e.getClass().getSimpleName());
+        return sb.append('}').toString();
+    }
+
+    private static int statoPer(PrenotazioneException e) {
+        if (e instanceof NonTrovatoException || e instanceof ClienteNonTrovatoException || e instanceof RisorsaNonTrovataException
+                || e instanceof PrenotazioneNonTrovataException || e instanceof SerieNonTrovataException) {
+            return 404;
+        }
+        if (e instanceof PrenotazioneNonValidaException) {
+            return 400;
+        }
+        // Risorsa occupata, stato incompatibile, modifica concorrente, email già usata
+        return 409;
+    }
+
+    private static String testo(Map<String, Object> corpo, String nome) {
+        Object valore = corpo.get(nome);
+        return valore != null ? valore.toString() : null;
+    }
+
+    private static String testoObbligatorio(Map<String, Object> corpo, String nome) {
+        String valore = testo(corpo, nome);
+        if (valore == null || valore.isBlank()) {
+            throw new IllegalArgumentException("Campo obbligatorio mancante: " + nome);
+        }
+        return valore;
+    }
+
+    private static Long numero(Map<String, Object> corpo, String nome) {
+        Object valore = corpo.get(nome);
+        if (!(valore instanceof Long)) {
+            throw new IllegalArgumentException("Campo numerico intero mancante o non valido: " + nome);
+        }
+        return (Long) valore;
+    }
+
+    private static LocalDateTime dataOra(Map<String, Object> corpo, String nome) {
+        return LocalDateTime.parse(testoObbligatorio(corpo, nome));
+    }
+
+    private static Long id(String segmento) {
+        try {
+            return Long.parseLong(segmento);
+        } catch (NumberFormatException e) {
+            throw new NonTrovatoException();
+        }
+    }
+
+    private static void rispondi(HttpExchange scambio, int stato, String corpo) throws IOException {
+        rispondi(scambio, stato, corpo, "application/json; charset=utf-8");
+    }
+
+    private static void rispondi(HttpExchange scambio, int stato, String corpo, String tipo) throws IOException {
+        byte[] bytes = corpo.getBytes(StandardCharsets.UTF_8);
+        scambio.getResponseHeaders().set("Content-Type", tipo);
+        scambio.sendResponseHeaders(stato, bytes.length);
+        try (OutputStream out = scambio.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Percorso non previsto dall'API
+    private static class NonTrovatoException extends PrenotazioneException {
+        NonTrovatoException() {
+            super("Risorsa HTTP non trovata");
+        }
+    }
+
+    // Percorso esistente chiamato con un metodo che non prevede; permessi è il valore dell'intestazione Allow
+    private static class MetodoNonPermessoException extends PrenotazioneException {
+        final String permessi;
+
+        MetodoNonPermessoException(String metodo, String... permessi) {
+            super("Metodo " + metodo + " non permesso su questo percorso");
+            this.permessi = String.join(", ", permessi);
+        }
+    }
+
+    private static class Richiesta {
+        final String metodo;
+        final String[] percorso;
+        final Map<String, String> parametri = new HashMap<>();
+        final HttpExchange scambio;
+        int statoRisposta = 200;
+
+        Richiesta(HttpExchange scambio) {
+            this.scambio = scambio;
+            this.metodo = scambio.getRequestMethod();
+            String path = scambio.getRequestURI().getPath();
+            String pulito = path.replaceAll("^/+|/+$", "");
+            this.percorso = pulito.isEmpty() ? new String[0] : pulito.split("/+");
+            String query = scambio.getRequestURI().getRawQuery();
+            if (query != null) {
+                for (String coppia : query.split("&")) {
+                    int uguale = coppia.indexOf('=');
+                    if (uguale > 0) {
+                        parametri.put(URLDecoder.decode(coppia.substring(0, uguale), StandardCharsets.UTF_8),
+                                URLDecoder.decode(coppia.substring(uguale + 1), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+
+        Map<String, Object> corpo() throws IOException {
+            try (InputStream in = scambio.getRequestBody()) {
+                return Json.leggiOggetto(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+
+        String creato(String corpo) {
+            statoRisposta = 201;
+            return corpo;
+        }
+
+        String parametro(String nome) {
+            return parametri.get(nome);
+        }
+
+        LocalDateTime dataOra(String nome) {
+            String valore = parametri.get(nome);
+            if (valore == null) {
+                throw new IllegalArgumentException("Parametro obbligatorio mancante: " + nome);
+            }
+            return LocalDateTime.parse(valore);
+        }
+
+        long numero(String nome) {
+            String valore = parametri.get(nome);
+            if (valore == null) {
+                throw new IllegalArgumentException("Parametro obbligatorio mancante: " + nome);
+            }
+            return Long.parseLong(valore);
+        }
+
+        long numero(String nome, long predefinito) {
+            String valore = parametri.get(nome);
+            return valore != null ? Long.parseLong(valore) : predefinito;
+        }
+    }
+}
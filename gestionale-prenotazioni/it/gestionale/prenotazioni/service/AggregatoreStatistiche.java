@@ -0,0 +1,258 @@
+package it.gestionale.prenotazioni.service;
+
+import it.gestionale.prenotazioni.domain.Cliente;
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import it.gestionale.prenotazioni.repository.AscoltatoreRepository;
+import it.gestionale.prenotazioni.repository.ClienteRepository;
+import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.RisorsaRepository;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistiche del sistema aggiornate a ogni modifica dei repository invece di essere ricalcolate:
+ * totali di clienti, risorse e prenotazioni, prenotazioni per stato, risorse per tipo e numero di
+ * prenotazioni non cancellate che iniziano nei prossimi 7 giorni. Le letture costano O(1) qualunque
+ * sia la quantità di dati; il conteggio dei prossimi giorni fa avanzare la finestra dall'ultima lettura
+ * e tocca solo le prenotazioni entrate o uscite nel frattempo.
+ */
+public class AggregatoreStatistiche {
+    public static final Duration FINESTRA_PROSSIME = Duration.ofDays(7);
+
+    private static final StatoPrenotazione[] STATI = StatoPrenotazione.values();
+    private static final TipoRisorsa[] TIPI = TipoRisorsa.values();
+
+    private final ClienteRepository clienteRepository;
+    private final RisorsaRepository risorsaRepository;
+    private final PrenotazioneRepository prenotazioneRepository;
+
+    private final LongAdder clienti = new LongAdder();
+    private final LongAdder risorse = new LongAdder();
+    private final LongAdder prenotazioni = new LongAdder();
+    private final LongAdder[] perStato = nuoviContatori(STATI.length);
+    private final LongAdder[] perTipo = nuoviContatori(TIPI.length);
+
+    // Inizi delle prenotazioni non cancellate, con molteplicità; protetti da this come la finestra
+    private final NavigableMap<LocalDateTime, Integer> inizi = new TreeMap<>();
+    // Finestra (da, a) già contata in nellaFinestra; da == null se va ricalcolata da capo
+    private LocalDateTime da;
+    private LocalDateTime a;
+    private long nellaFinestra;
+
+    public AggregatoreStatistiche(ClienteRepository clienteRepository, RisorsaRepository risorsaRepository,
+                                  PrenotazioneRepository prenotazioneRepository) {
+        this.clienteRepository = clienteRepository;
+        this.risorsaRepository = risorsaRepository;
+        this.prenotazioneRepository = prenotazioneRepository;
+
+        clienteRepository.aggiungiAscoltatore(new AscoltatoreRepository<Cliente>() {
+            @Override
+            public void modificato(Cliente prima, Cliente dopo) {
+                conta(clienti, prima, dopo);
+            }
+
+            @Override
+            public void svuotato() {
+                clienti.reset();
+            }
+        });
+        risorsaRepository.aggiungiAscoltatore(new AscoltatoreRepository<Risorsa>() {
+            @Override
+            public void modificato(Risorsa prima, Risorsa dopo) {
+                conta(risorse, prima, dopo);
+                if (prima != null && prima.getTipo() != null) {
+                    perTipo[prima.getTipo().ordinal()].decrement();
+                }
+                if (dopo != null && dopo.getTipo() != null) {
+                    perTipo[dopo.getTipo().ordinal()].increment();
+                }
+            }
+
+            @Override
+            public void svuotato() {
+                risorse.reset();
+                azzera(perTipo);
+            }
+        });
+        prenotazioneRepository.aggiungiAscoltatore(new AscoltatoreRepository<Prenotazione>() {
+            @Override
+            public void modificato(Prenotazione prima, Prenotazione dopo) {
+                conta(prenotazioni, prima, dopo);
+                if (prima != null) {
+                    perStato[prima.getStato().ordinal()].decrement();
+                    aggiornaInizi(prima, -1);
+                }
+                if (dopo != null) {
+                    perStato[dopo.getStato().ordinal()].increment();
+                    aggiornaInizi(dopo, 1);
+                }
+            }
+
+            @Override
+            public void svuotato() {
+                prenotazioni.reset();
+                azzera(perStato);
+                svuotaInizi();
+            }
+        });
+    }
+
+    public long getClienti() {
+        return clienti.sum();
+    }
+
+    public long getRisorse() {
+        return risorse.sum();
+    }
+
+    public long getPrenotazioni() {
+        return prenotazioni.sum();
+    }
+
+    public long getPrenotazioni(StatoPrenotazione stato) {
+        return perStato[stato.ordinal()].sum();
+    }
+
+    public long getRisorse(TipoRisorsa tipo) {
+        return perTipo[tipo.ordinal()].sum();
+    }
+
+    /** Prenotazioni per stato, solo per gli stati con almeno una prenotazione. */
+    public Map<StatoPrenotazione, Long> getPrenotazioniPerStato() {
+        return nonVuoti(STATI, perStato);
+    }
+
+    /** Risorse per tipo, solo per i tipi con almeno una risorsa. */
+    public Map<TipoRisorsa, Long> getRisorsePerTipo() {
+        return nonVuoti(TIPI, perTipo);
+    }
+
+    /** Prenotazioni non cancellate con inizio strettamente compreso tra ora e ora + 7 giorni. */
+    public synchronized long getPrenotazioniProssime(LocalDateTime ora) {
+        LocalDateTime fine = ora.plus(FINESTRA_PROSSIME);
+        if (da == null || ora.isBefore(da) || !ora.isBefore(a)) {
+            nellaFinestra = somma(inizi.subMap(ora, false, fine, false));
+        } else {
+            // Escono gli inizi in (da, ora], entrano quelli in [a, fine)
+            nellaFinestra -= somma(inizi.subMap(da, false, ora, true));
+            nellaFinestra += somma(inizi.subMap(a, true, fine, false));
+        }
+        da = ora;
+        a = fine;
+        return nellaFinestra;
+    }
+
+    /**
+     * Ricalcola tutte le statistiche dai dati dei repository e le confronta con quelle mantenute.
+     * Restituisce le differenze trovate, vuota se coincidono. Va chiamato quando non ci sono
+     * scritture in corso, altrimenti può segnalare differenze dovute solo alla concorrenza.
+     */
+    public List<String> verificaConsistenza() {
+        List<String> differenze = new ArrayList<>();
+        List<Risorsa> tutteRisorse = risorsaRepository.findAll();
+        List<Prenotazione> tuttePrenotazioni = prenotazioneRepository.findAll();
+        confronta(differenze, "clienti", clienteRepository.findAll().size(), getClienti());
+        confronta(differenze, "risorse", tutteRisorse.size(), getRisorse());
+        confronta(differenze, "prenotazioni", tuttePrenotazioni.size(), getPrenotazioni());
+
+        long[] attesePerTipo = new long[TIPI.length];
+        for (Risorsa risorsa : tutteRisorse) {
+            if (risorsa.getTipo() != null) {
+                attesePerTipo[risorsa.getTipo().ordinal()]++;
+            }
+        }
+        for (TipoRisorsa tipo : TIPI) {
+            confronta(differenze, "risorse " + tipo.name(), attesePerTipo[tipo.ordinal()], getRisorse(tipo));
+        }
+
+        LocalDateTime ora = LocalDateTime.now();
+        LocalDateTime fine = ora.plus(FINESTRA_PROSSIME);
+        long[] attesePerStato = new long[STATI.length];
+        long prossime = 0;
+        for (Prenotazione prenotazione : tuttePrenotazioni) {
+            attesePerStato[prenotazione.getStato().ordinal()]++;
+            if (prenotazione.getStato() != StatoPrenotazione.CANCELLATA
+                    && prenotazione.getDataOraInizio().isAfter(ora) && prenotazione.getDataOraInizio().isBefore(fine)) {
+                prossime++;
+            }
+        }
+        for (StatoPrenotazione stato : STATI) {
+            confronta(differenze, "prenotazioni " + stato.name(), attesePerStato[stato.ordinal()], getPrenotazioni(stato));
+        }
+        confronta(differenze, "prenotazioni prossime", prossime, getPrenotazioniProssime(ora));
+        return differenze;
+    }
+
+    private synchronized void aggiornaInizi(Prenotazione prenotazione, int delta) {
+        LocalDateTime inizio = prenotazione.getDataOraInizio();
+        if (prenotazione.getStato() == StatoPrenotazione.CANCELLATA || inizio == null) {
+            return;
+        }
+        inizi.merge(inizio, delta, (vecchio, nuovo) -> vecchio + nuovo == 0 ? null : vecchio + nuovo);
+        if (da != null && inizio.isAfter(da) && inizio.isBefore(a)) {
+            nellaFinestra += delta;
+        }
+    }
+
+    private synchronized void svuotaInizi() {
+        inizi.clear();
+        da = null;
+    }
+
+    private static void conta(LongAdder totale, Object prima, Object dopo) {
+        if (prima == null && dopo != null) {
+            totale.increment();
+        } else if (prima != null && dopo == null) {
+            totale.decrement();
+        }
+    }
+
+    private static long somma(Map<LocalDateTime, Integer> inizi) {
+        long somma = 0;
+        for (int quante : inizi.values()) {
+            somma += quante;
+        }
+        return somma;
+    }
+
+    private static void confronta(List<String> differenze, String voce, long atteso, long mantenuto) {
+        if (atteso != mantenuto) {
+            differenze.add(voce + ": ricalcolato " + atteso + ", mantenuto " + mantenuto);
+        }
+    }
+
+    private static <E extends Enum<E>> Map<E, Long> nonVuoti(E[] valori, LongAdder[] contatori) {
+        Map<E, Long> risultato = new EnumMap<>(valori[0].getDeclaringClass());
+        for (E valore : valori) {
+            long conteggio = contatori[valore.ordinal()].sum();
+            if (conteggio != 0) {
+                risultato.put(valore, conteggio);
+            }
+        }
+        return risultato;
+    }
+
+    private static LongAdder[] nuoviContatori(int quanti) {
+        LongAdder[] contatori = new LongAdder[quanti];
+        for (int i = 0; i < quanti; i++) {
+            contatori[i] = new LongAdder();
+        }
+        return contatori;
+    }
+
+    private static void azzera(LongAdder[] contatori) {
+        for (LongAdder contatore : contatori) {
+            contatore.reset();
+        }
+    }
+}
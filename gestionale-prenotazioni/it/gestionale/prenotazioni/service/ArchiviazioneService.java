@@ -0,0 +1,150 @@
+package it.gestionale.prenotazioni.service;
+
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.exceptions.ModificaConcorrenteException;
+import it.gestionale.prenotazioni.repository.ArchivioPrenotazioni;
+import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Archiviazione delle prenotazioni concluse: le completate e le cancellate finite da più di un certo tempo
+ * passano dal repository all'ArchivioPrenotazioni, così il repository (e con lui ricerche, controlli di
+ * disponibilità e snapshot) tiene solo le prenotazioni in corso e quelle recenti. Lo storico resta
+ * consultabile per periodo e per cliente direttamente sull'archivio.
+ *
+ * Non serve il lock delle risorse: ogni lotto è scritto nell'archivio e poi eliminato dal repository con il
+ * controllo di versione, quindi una prenotazione modificata dopo la lettura (per esempio da un batch o dal
+ * journal) non viene persa ma resta nel repository, e la successiva archiviazione la rivaluta. Un'interruzione
+ * a metà, o una modifica concorrente, lascia al più prenotazioni presenti in entrambi: se vengono archiviate
+ * di nuovo l'archivio in lettura tiene l'ultima copia.
+ *
+ * Con avvia l'archiviazione si ripete a intervallo fisso su un thread in background.
+ */
+public class ArchiviazioneService {
+    private static final StatoPrenotazione[] STATI_CONCLUSI = { StatoPrenotazione.COMPLETATA, StatoPrenotazione.CANCELLATA };
+    // Prenotazioni scritte nell'archivio in un solo blocco prima di eliminarle dal repository
+    private static final int DIMENSIONE_LOTTO = 50_000;
+
+    private final PrenotazioneRepository prenotazioneRepository;
+    private final ArchivioPrenotazioni archivio;
+    private final Duration eta;
+    // Serializza le archiviazioni del thread in background e quelle chieste dal menu
+    private final Object archiviazione = new Object();
+    private boolean attiva;
+    private Thread thread;
+
+    public ArchiviazioneService(PrenotazioneRepository prenotazioneRepository, ArchivioPrenotazioni archivio,
+                                Duration eta) {
+        this.prenotazioneRepository = prenotazioneRepository;
+        this.archivio = archivio;
+        this.eta = eta;
+    }
+
+    // Da quanto deve essere finita una prenotazione conclusa per essere archiviata
+    public Duration getEta() {
+        return eta;
+    }
+
+    /** Archivia le prenotazioni concluse finite da più di getEta(); restituisce quante ne ha spostate. */
+    public int archiviaConcluse() throws IOException {
+        return archiviaConcluse(LocalDateTime.now().minus(eta));
+    }
+
+    public int archiviaConcluse(LocalDateTime soglia) throws IOException {
+        synchronized (archiviazione) {
+            return archivia(soglia);
+        }
+    }
+
+    /** Ripete archiviaConcluse ogni intervallo, a partire da un intervallo dopo la chiamata, finché non si chiama ferma. */
+    public synchronized void avvia(Duration intervallo) {
+        if (thread != null) {
+            return;
+        }
+        attiva = true;
+        thread = new Thread(() -> esegui(intervallo), "archiviazione-prenotazioni");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Attende la fine di un'archiviazione in corso invece di interromperla a metà di un lotto
+    public void ferma() {
+        Thread daFermare;
+        synchronized (this) {
+            attiva = false;
+            notifyAll();
+            daFermare = thread;
+            thread = null;
+        }
+        if (daFermare != null) {
+            try {
+                daFermare.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void esegui(Duration intervallo) {
+        while (attendi(intervallo)) {
+            try {
+                archiviaConcluse();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Errore nell'archiviazione periodica delle prenotazioni: " + e.getMessage());
+            }
+        }
+    }
+
+    // false se nel frattempo è stato chiamato ferma
+    private synchronized boolean attendi(Duration intervallo) {
+        long scadenza = System.nanoTime() + intervallo.toNanos();
+        try {
+            for (long resto = intervallo.toNanos(); attiva && resto > 0; resto = scadenza - System.nanoTime()) {
+                TimeUnit.NANOSECONDS.timedWait(this, resto);
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        return attiva;
+    }
+
+    private int archivia(LocalDateTime soglia) throws IOException {
+        List<Prenotazione> daArchiviare = new ArrayList<>();
+        for (StatoPrenotazione stato : STATI_CONCLUSI) {
+            for (Prenotazione prenotazione : prenotazioneRepository.findByStato(stato)) {
+                if (prenotazione.getDataOraFine().isBefore(soglia)) {
+                    daArchiviare.add(prenotazione);
+                }
+            }
+        }
+        int archiviate = 0;
+        for (int da = 0; da < daArchiviare.size(); da += DIMENSIONE_LOTTO) {
+            List<Prenotazione> lotto = daArchiviare.subList(da, Math.min(da + DIMENSIONE_LOTTO, daArchiviare.size()));
+            archivio.archivia(lotto);
+            for (Prenotazione prenotazione : lotto) {
+                try {
+                    if (prenotazioneRepository.delete(prenotazione.getId(), prenotazione.getVersione())) {
+                        archiviate++;
+                    }
+                } catch (ModificaConcorrenteException e) {
+                    // Modificata dopo la lettura: resta nel repository con la versione nuova
+                }
+            }
+        }
+        return archiviate;
+    }
+
+    public List<Prenotazione> cercaPerPeriodo(LocalDateTime inizio, LocalDateTime fine) throws IOException {
+        return archivio.findByPeriodo(inizio, fine);
+    }
+
+    public List<Prenotazione> cercaPerCliente(Long clienteId) throws IOException {
+        return archivio.findByCliente(clienteId);
+    }
+}
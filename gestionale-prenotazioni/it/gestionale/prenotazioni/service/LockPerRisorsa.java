@@ -0,0 +1,27 @@
+package it.gestionale.prenotazioni.service;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock a strisce indicizzati per ID risorsa. Le operazioni sulla stessa risorsa sono serializzate,
+ * quelle su risorse diverse procedono in parallelo salvo che cadano sulla stessa striscia.
+ */
+class LockPerRisorsa {
+    private final ReentrantLock[] strisce;
+    private final int maschera;
+
+    LockPerRisorsa(int numeroStrisce) {
+        int dimensione = Integer.highestOneBit(Math.max(1, numeroStrisce - 1)) << 1;
+        this.strisce = new ReentrantLock[dimensione];
+        this.maschera = dimensione - 1;
+        for (int i = 0; i < dimensione; i++) {
+            strisce[i] = new ReentrantLock();
+        }
+    }
+
+    ReentrantLock get(Long risorsaId) {
+        // Gli ID sono consecutivi, quindi i bit bassi bastano a distribuire le risorse sulle strisce
+        int hash = risorsaId != null ? Long.hashCode(risorsaId) : 0;
+        return strisce[hash & maschera];
+    }
+}
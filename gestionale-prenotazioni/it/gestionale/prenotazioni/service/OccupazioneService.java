@@ -0,0 +1,323 @@
+package it.gestionale.prenotazioni.service;
+
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.PeriodoReport;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import it.gestionale.prenotazioni.exceptions.PrenotazioneNonValidaException;
+import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.RisorsaRepository;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Report di occupazione delle risorse: ore prenotate rispetto alle ore di apertura, per risorsa e per tipo,
+ * suddivise per giorno, settimana o mese, con il picco di utilizzo contemporaneo.
+ *
+ * Il calcolo è diviso per risorsa su un ForkJoinPool: ogni risorsa legge solo le proprie prenotazioni attive
+ * nell'intervallo, le taglia sull'orario di apertura di ciascun giorno e le percorre con una sweep-line sugli
+ * estremi ordinati. Il picco per tipo è una seconda sweep-line, anch'essa in parallelo, sugli intervalli
+ * occupati delle risorse del tipo. Tutti gli istanti sono minuti dall'inizio del report.
+ */
+public class OccupazioneService {
+    private static final int MINUTI_GIORNO = 24 * 60;
+    // Risorse calcolate da un solo task; sotto questa soglia dividere costa più di quanto rende
+    private static final int SOGLIA_RISORSE = 16;
+
+    private final PrenotazioneRepository prenotazioneRepository;
+    private final RisorsaRepository risorsaRepository;
+    private final ForkJoinPool pool;
+
+    public OccupazioneService(PrenotazioneRepository prenotazioneRepository, RisorsaRepository risorsaRepository) {
+        this(prenotazioneRepository, risorsaRepository, ForkJoinPool.commonPool());
+    }
+
+    public OccupazioneService(PrenotazioneRepository prenotazioneRepository, RisorsaRepository risorsaRepository,
+                              ForkJoinPool pool) {
+        this.prenotazioneRepository = prenotazioneRepository;
+        this.risorsaRepository = risorsaRepository;
+        this.pool = pool;
+    }
+
+    /**
+     * Occupazione dal giorno da al giorno a compresi. Ogni giorno le risorse sono aperte da apertura a chiusura;
+     * chiusura a mezzanotte (00:00) indica la fine della giornata. Le prenotazioni cancellate non contano.
+     */
+    public ReportOccupazione calcola(LocalDate da, LocalDate a, PeriodoReport periodo,
+                                     LocalTime apertura, LocalTime chiusura) {
+        if (a.isBefore(da)) {
+            throw new PrenotazioneNonValidaException("La data di fine del report precede quella di inizio");
+        }
+        int minutoApertura = apertura.toSecondOfDay() / 60;
+        int minutoChiusura = chiusura.equals(LocalTime.MIDNIGHT) ? MINUTI_GIORNO : chiusura.toSecondOfDay() / 60;
+        if (minutoChiusura <= minutoApertura) {
+            throw new PrenotazioneNonValidaException("L'orario di chiusura deve essere successivo a quello di apertura");
+        }
+
+        int giorni = (int) ChronoUnit.DAYS.between(da, a) + 1;
+        List<LocalDate> periodi = new ArrayList<>();
+        int[] periodoDelGiorno = new int[giorni];
+        for (int g = 0; g < giorni; g++) {
+            LocalDate inizio = periodo.inizioPeriodo(da.plusDays(g));
+            if (periodi.isEmpty() || !periodi.get(periodi.size() - 1).equals(inizio)) {
+                periodi.add(inizio);
+            }
+            periodoDelGiorno[g] = periodi.size() - 1;
+        }
+        // Il primo periodo può iniziare prima di da (settimana o mese a metà): nel report parte da da
+        periodi.set(0, da);
+        long[] minutiAperturaPeriodo = new long[periodi.size()];
+        for (int g = 0; g < giorni; g++) {
+            minutiAperturaPeriodo[periodoDelGiorno[g]] += minutoChiusura - minutoApertura;
+        }
+
+        Calcolo calcolo = new Calcolo(da.atStartOfDay(), giorni, minutoApertura, minutoChiusura, periodoDelGiorno,
+                periodi.size(), risorsaRepository.findAll());
+        pool.invoke(new PerRisorse(calcolo, 0, calcolo.risorse.size()));
+        List<PerTipo> perTipo = new ArrayList<>();
+        for (TipoRisorsa tipo : TipoRisorsa.values()) {
+            perTipo.add(new PerTipo(calcolo, tipo));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(perTipo);
+            }
+        });
+
+        return componi(da, a, periodo, apertura, chiusura, periodi, minutiAperturaPeriodo, calcolo, perTipo);
+    }
+
+    private static ReportOccupazione componi(LocalDate da, LocalDate a, PeriodoReport periodo,
+                                             LocalTime apertura, LocalTime chiusura, List<LocalDate> periodi,
+                                             long[] minutiAperturaPeriodo, Calcolo calcolo, List<PerTipo> perTipo) {
+        long minutiAperturaTotali = Arrays.stream(minutiAperturaPeriodo).sum();
+        List<ReportOccupazione.Riga> righeRisorse = new ArrayList<>();
+        List<ReportOccupazione.Riga> totaliRisorse = new ArrayList<>();
+        for (int r = 0; r < calcolo.risorse.size(); r++) {
+            Risorsa risorsa = calcolo.risorse.get(r);
+            long occupati = 0;
+            int picco = 0;
+            for (int p = 0; p < periodi.size(); p++) {
+                righeRisorse.add(new ReportOccupazione.Riga(periodi.get(p), risorsa, risorsa.getTipo(),
+                        calcolo.minuti[r][p], minutiAperturaPeriodo[p], calcolo.picchi[r][p]));
+                occupati += calcolo.minuti[r][p];
+                picco = Math.max(picco, calcolo.picchi[r][p]);
+            }
+            totaliRisorse.add(new ReportOccupazione.Riga(da, risorsa, risorsa.getTipo(), occupati, minutiAperturaTotali, picco));
+        }
+
+        List<ReportOccupazione.Riga> righeTipi = new ArrayList<>();
+        List<ReportOccupazione.Riga> totaliTipi = new ArrayList<>();
+        for (PerTipo tipo : perTipo) {
+            if (tipo.risorse == 0) {
+                continue;
+            }
+            long occupati = 0;
+            int picco = 0;
+            for (int p = 0; p < periodi.size(); p++) {
+                righeTipi.add(new ReportOccupazione.Riga(periodi.get(p), null, tipo.tipo,
+                        tipo.minuti[p], tipo.risorse * minutiAperturaPeriodo[p], tipo.picchi[p]));
+                occupati += tipo.minuti[p];
+                picco = Math.max(picco, tipo.picchi[p]);
+            }
+            totaliTipi.add(new ReportOccupazione.Riga(da, null, tipo.tipo, occupati, tipo.risorse * minutiAperturaTotali, picco));
+        }
+        return new ReportOccupazione(da, a, periodo, apertura, chiusura, periodi,
+                righeRisorse, righeTipi, totaliRisorse, totaliTipi);
+    }
+
+    // Parametri comuni e risultati per risorsa: ogni task scrive solo le righe delle proprie risorse
+    private static class Calcolo {
+        final LocalDateTime origine;
+        final int giorni;
+        final int minutoApertura;
+        final int minutoChiusura;
+        final int[] periodoDelGiorno;
+        final int periodi;
+        final List<Risorsa> risorse;
+        final long[][] minuti;
+        final int[][] picchi;
+        // Intervalli occupati di ogni risorsa, come coppie inizio/fine ordinate e disgiunte
+        final int[][] occupati;
+
+        Calcolo(LocalDateTime origine, int giorni, int minutoApertura, int minutoChiusura,
+                int[] periodoDelGiorno, int periodi, List<Risorsa> risorse) {
+            this.origine = origine;
+            this.giorni = giorni;
+            this.minutoApertura = minutoApertura;
+            this.minutoChiusura = minutoChiusura;
+            this.periodoDelGiorno = periodoDelGiorno;
+            this.periodi = periodi;
+            this.risorse = new ArrayList<>(risorse);
+            this.risorse.sort(Comparator.comparing(Risorsa::getId));
+            this.minuti = new long[this.risorse.size()][periodi];
+            this.picchi = new int[this.risorse.size()][periodi];
+            this.occupati = new int[this.risorse.size()][];
+        }
+
+        int minuto(LocalDateTime istante) {
+            long minuti = Duration.between(origine, istante).toMinutes();
+            return (int) Math.max(0, Math.min((long) giorni * MINUTI_GIORNO, minuti));
+        }
+
+        int periodo(int minuto) {
+            return periodoDelGiorno[Math.min(giorni - 1, minuto / MINUTI_GIORNO)];
+        }
+    }
+
+    private class PerRisorse extends RecursiveAction {
+        private final Calcolo calcolo;
+        private final int da;
+        private final int a;
+
+        PerRisorse(Calcolo calcolo, int da, int a) {
+            this.calcolo = calcolo;
+            this.da = da;
+            this.a = a;
+        }
+
+        @Override
+        protected void compute() {
+            if (a - da > SOGLIA_RISORSE) {
+                int mezzo = (da + a) >>> 1;
+                invokeAll(new PerRisorse(calcolo, da, mezzo), new PerRisorse(calcolo, mezzo, a));
+                return;
+            }
+            LocalDateTime fine = calcolo.origine.plusDays(calcolo.giorni);
+            for (int r = da; r < a; r++) {
+                List<Prenotazione> prenotazioni = prenotazioneRepository.findSovrapposizioniAttive(
+                        calcolo.risorse.get(r).getId(), calcolo.origine, fine);
+                calcolo.occupati[r] = spazza(calcolo, eventi(calcolo, prenotazioni), calcolo.minuti[r], calcolo.picchi[r]);
+            }
+        }
+    }
+
+    private static class PerTipo extends RecursiveAction {
+        private final Calcolo calcolo;
+        private final TipoRisorsa tipo;
+        private final long[] minuti;
+        private final int[] picchi;
+        private int risorse;
+
+        PerTipo(Calcolo calcolo, TipoRisorsa tipo) {
+            this.calcolo = calcolo;
+            this.tipo = tipo;
+            this.minuti = new long[calcolo.periodi];
+            this.picchi = new int[calcolo.periodi];
+        }
+
+        @Override
+        protected void compute() {
+            int estremi = 0;
+            for (int r = 0; r < calcolo.risorse.size(); r++) {
+                if (calcolo.risorse.get(r).getTipo() == tipo) {
+                    risorse++;
+                    estremi += calcolo.occupati[r].length;
+                    for (int p = 0; p < minuti.length; p++) {
+                        minuti[p] += calcolo.minuti[r][p];
+                    }
+                }
+            }
+            // Gli intervalli occupati delle risorse del tipo, ripercorsi insieme, danno le risorse occupate in ogni istante
+            long[] eventi = new long[estremi];
+            int n = 0;
+            for (int r = 0; r < calcolo.risorse.size(); r++) {
+                if (calcolo.risorse.get(r).getTipo() == tipo) {
+                    int[] intervalli = calcolo.occupati[r];
+                    for (int i = 0; i < intervalli.length; i += 2) {
+                        eventi[n++] = evento(intervalli[i], true);
+                        eventi[n++] = evento(intervalli[i + 1], false);
+                    }
+                }
+            }
+            Arrays.sort(eventi);
+            int attive = 0;
+            for (long e : eventi) {
+                if (isInizio(e)) {
+                    attive++;
+                    int p = calcolo.periodo(istante(e));
+                    picchi[p] = Math.max(picchi[p], attive);
+                } else {
+                    attive--;
+                }
+            }
+        }
+    }
+
+    // Estremi delle prenotazioni tagliati sull'orario di apertura di ogni giorno: un tratto non attraversa mai la mezzanotte
+    private static long[] eventi(Calcolo calcolo, List<Prenotazione> prenotazioni) {
+        long[] eventi = new long[4 * prenotazioni.size()];
+        int n = 0;
+        for (Prenotazione prenotazione : prenotazioni) {
+            int inizio = calcolo.minuto(prenotazione.getDataOraInizio());
+            int fine = calcolo.minuto(prenotazione.getDataOraFine());
+            for (int giorno = inizio / MINUTI_GIORNO; giorno * MINUTI_GIORNO < fine; giorno++) {
+                int base = giorno * MINUTI_GIORNO;
+                int da = Math.max(inizio, base + calcolo.minutoApertura);
+                int a = Math.min(fine, base + calcolo.minutoChiusura);
+                if (da < a) {
+                    if (n + 2 > eventi.length) {
+                        eventi = Arrays.copyOf(eventi, eventi.length * 2);
+                    }
+                    eventi[n++] = evento(da, true);
+                    eventi[n++] = evento(a, false);
+                }
+            }
+        }
+        eventi = Arrays.copyOf(eventi, n);
+        Arrays.sort(eventi);
+        return eventi;
+    }
+
+    /**
+     * Sweep-line sugli estremi ordinati di una risorsa: somma i minuti in cui almeno una prenotazione è attiva,
+     * registra il massimo di prenotazioni contemporanee per periodo e restituisce gli intervalli occupati.
+     */
+    private static int[] spazza(Calcolo calcolo, long[] eventi, long[] minuti, int[] picchi) {
+        int[] occupati = new int[eventi.length];
+        int n = 0;
+        int attive = 0;
+        int precedente = 0;
+        for (long e : eventi) {
+            int t = istante(e);
+            if (attive > 0) {
+                minuti[calcolo.periodo(precedente)] += t - precedente;
+            }
+            if (isInizio(e)) {
+                if (attive++ == 0) {
+                    occupati[n++] = t;
+                }
+                int p = calcolo.periodo(t);
+                picchi[p] = Math.max(picchi[p], attive);
+            } else if (--attive == 0) {
+                occupati[n++] = t;
+            }
+            precedente = t;
+        }
+        return Arrays.copyOf(occupati, n);
+    }
+
+    // A parità di istante una fine precede un inizio: prenotazioni adiacenti non risultano sovrapposte
+    private static long evento(int minuto, boolean inizio) {
+        return ((long) minuto << 1) | (inizio ? 1 : 0);
+    }
+
+    private static int istante(long evento) {
+        return (int) (evento >> 1);
+    }
+
+    private static boolean isInizio(long evento) {
+        return (evento & 1) != 0;
+    }
+}
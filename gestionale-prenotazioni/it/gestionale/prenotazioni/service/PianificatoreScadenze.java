@@ -0,0 +1,208 @@
+package it.gestionale.prenotazioni.service;
+
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.exceptions.ModificaConcorrenteException;
+import it.gestionale.prenotazioni.metriche.RegistroMetriche;
+import it.gestionale.prenotazioni.repository.AscoltatoreRepository;
+import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cambi di stato automatici in background: una prenotazione provvisoria non confermata entro la durata
+ * massima viene cancellata e libera la risorsa, una confermata diventa completata quando finisce.
+ *
+ * Le scadenze stanno in una DelayQueue ordinata per istante e un solo thread attende la prima: ogni passo
+ * costa O(log n) per prenotazione che scade, qualunque sia il numero di prenotazioni. La coda è tenuta
+ * aggiornata da un ascoltatore del repository; una prenotazione modificata riceve una scadenza nuova e la
+ * vecchia, rimasta in coda, viene scartata quando arriva. Prima di cambiare lo stato la prenotazione è riletta
+ * e scritta con il controllo di versione, quindi una modifica concorrente dal menu o dall'API vince sempre.
+ *
+ * La durata di una provvisoria conta dalla sua dataOraCreazione, che il repository salva con la prenotazione:
+ * un riavvio non la allunga, e una provvisoria già scaduta mentre l'applicazione era ferma viene cancellata
+ * subito dopo il caricamento.
+ */
+public class PianificatoreScadenze {
+    private final PrenotazioneRepository prenotazioneRepository;
+    private final RegistroMetriche metriche;
+    // Zero o negativa: le provvisorie non scadono
+    private final Duration durataProvvisorie;
+    private final DelayQueue<Scadenza> coda = new DelayQueue<>();
+    // Scadenza in vigore per ogni prenotazione; quelle in coda ma non qui sono superate
+    private final Map<Long, Scadenza> attuali = new ConcurrentHashMap<>();
+    private final LongAdder provvisorieCancellate = new LongAdder();
+    private final LongAdder prenotazioniCompletate = new LongAdder();
+    private boolean inAscolto;
+    private Thread thread;
+
+    public PianificatoreScadenze(PrenotazioneRepository prenotazioneRepository, RegistroMetriche metriche,
+                                 Duration durataProvvisorie) {
+        this.prenotazioneRepository = prenotazioneRepository;
+        this.metriche = metriche;
+        this.durataProvvisorie = durataProvvisorie;
+    }
+
+    /** Registra l'ascoltatore, che pianifica anche le prenotazioni già presenti, e avvia il thread. */
+    public synchronized void avvia() {
+        if (thread != null) {
+            return;
+        }
+        if (!inAscolto) {
+            inAscolto = true;
+            prenotazioneRepository.aggiungiAscoltatore(new AscoltatoreRepository<Prenotazione>() {
+                @Override
+                public void modificato(Prenotazione prima, Prenotazione dopo) {
+                    if (dopo == null) {
+                        attuali.remove(prima.getId());
+                    } else {
+                        pianifica(dopo);
+                    }
+                }
+
+                @Override
+                public void svuotato() {
+                    // Le prenotazioni ricaricate ritrovano qui la loro scadenza; quelle sparite sono scartate all'arrivo
+                }
+            });
+        }
+        thread = new Thread(this::esegui, "scadenze-prenotazioni");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void ferma() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public long getProvvisorieCancellate() {
+        return provvisorieCancellate.sum();
+    }
+
+    public long getPrenotazioniCompletate() {
+        return prenotazioniCompletate.sum();
+    }
+
+    // Scadenze in attesa, comprese quelle superate non ancora arrivate in testa alla coda
+    public int getInCoda() {
+        return coda.size();
+    }
+
+    private void pianifica(Prenotazione prenotazione) {
+        Long id = prenotazione.getId();
+        Scadenza attuale = attuali.get(id);
+        Scadenza nuova;
+        if (prenotazione.getStato() == StatoPrenotazione.PROVVISORIA && !durataProvvisorie.isNegative() && !durataProvvisorie.isZero()) {
+            // La creazione non cambia con le modifiche, quindi nemmeno la scadenza
+            LocalDateTime creazione = prenotazione.getDataOraCreazione() != null ? prenotazione.getDataOraCreazione() : LocalDateTime.now();
+            LocalDateTime istante = creazione.plus(durataProvvisorie);
+            if (attuale != null && attuale.stato == StatoPrenotazione.PROVVISORIA && attuale.istante.equals(istante)) {
+                return;
+            }
+            nuova = new Scadenza(id, StatoPrenotazione.PROVVISORIA, istante);
+        } else if (prenotazione.getStato() == StatoPrenotazione.CONFERMATA) {
+            if (attuale != null && attuale.stato == StatoPrenotazione.CONFERMATA && attuale.istante.equals(prenotazione.getDataOraFine())) {
+                return;
+            }
+            nuova = new Scadenza(id, StatoPrenotazione.CONFERMATA, prenotazione.getDataOraFine());
+        } else {
+            attuali.remove(id);
+            return;
+        }
+        attuali.put(id, nuova);
+        coda.put(nuova);
+    }
+
+    private void esegui() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Scadenza scadenza = coda.take();
+                if (attuali.get(scadenza.id) != scadenza) {
+                    continue;
+                }
+                long inizio = System.nanoTime();
+                String esito = RegistroMetriche.ESITO_OK;
+                try {
+                    applica(scadenza);
+                } catch (RuntimeException e) {
+                    esito = e.getClass().getSimpleName();
+                    System.err.println("Errore nella scadenza della prenotazione " + scadenza.id + ": " + e.getMessage());
+                } finally {
+                    metriche.registra(scadenza.stato == StatoPrenotazione.PROVVISORIA ? "scadenzaProvvisoria" : "completamentoAutomatico",
+                            System.nanoTime() - inizio, esito);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Fermato
+        }
+    }
+
+    private void applica(Scadenza scadenza) {
+        Optional<Prenotazione> letta = prenotazioneRepository.findById(scadenza.id);
+        if (letta.isEmpty()) {
+            attuali.remove(scadenza.id, scadenza);
+            return;
+        }
+        Prenotazione prenotazione = letta.get();
+        // Stato cambiato nel frattempo: l'ascoltatore ha già aggiornato la scadenza
+        if (prenotazione.getStato() != scadenza.stato) {
+            return;
+        }
+        if (scadenza.stato == StatoPrenotazione.CONFERMATA && prenotazione.getDataOraFine().isAfter(LocalDateTime.now())) {
+            riprova(scadenza);
+            return;
+        }
+        try {
+            if (scadenza.stato == StatoPrenotazione.PROVVISORIA) {
+                if (prenotazioneRepository.aggiornaStato(scadenza.id, StatoPrenotazione.CANCELLATA, prenotazione.getVersione())) {
+                    provvisorieCancellate.increment();
+                }
+            } else if (prenotazioneRepository.aggiornaStato(scadenza.id, StatoPrenotazione.COMPLETATA, prenotazione.getVersione())) {
+                prenotazioniCompletate.increment();
+            }
+        } catch (ModificaConcorrenteException e) {
+            // Scritta da un'altra operazione dopo la lettura: si riprova se la scadenza è ancora quella
+            riprova(scadenza);
+        }
+    }
+
+    private void riprova(Scadenza scadenza) {
+        if (attuali.get(scadenza.id) == scadenza) {
+            coda.put(scadenza);
+        }
+    }
+
+    private static final class Scadenza implements Delayed {
+        final Long id;
+        // Stato da cui si esce alla scadenza
+        final StatoPrenotazione stato;
+        final LocalDateTime istante;
+
+        Scadenza(Long id, StatoPrenotazione stato, LocalDateTime istante) {
+            this.id = id;
+            this.stato = stato;
+            this.istante = istante;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(LocalDateTime.now().until(istante, ChronoUnit.MILLIS), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed altra) {
+            return istante.compareTo(((Scadenza) altra).istante);
+        }
+    }
+}
@@ -1,34 +1,88 @@
 package it.gestionale.prenotazioni.service;
 
 import it.gestionale.prenotazioni.domain.Cliente;
+import it.gestionale.prenotazioni.domain.FasciaOraria;
 import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.domain.RegolaRicorrenza;
 import it.gestionale.prenotazioni.domain.Risorsa;
 import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
 import it.gestionale.prenotazioni.exceptions.*;
+import it.gestionale.prenotazioni.metriche.RegistroMetriche;
 import it.gestionale.prenotazioni.repository.ClienteRepository;
 import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
 import it.gestionale.prenotazioni.repository.RisorsaRepository;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class PrenotazioneService {
+    private static final int STRISCE_LOCK = 64;
+    private static final int TENTATIVI_MASSIMI = 3;
+    // Sotto questa soglia di candidate il costo del fork/join supera il guadagno
+    private static final int SOGLIA_RICERCA_PARALLELA = 16;
+    private static final int MAX_OCCORRENZE_SERIE = 500;
+
     private final PrenotazioneRepository prenotazioneRepository;
     private final ClienteRepository clienteRepository;
     private final RisorsaRepository risorsaRepository;
+    // Verifica della disponibilità e scrittura sono atomiche rispetto alle altre operazioni sulla stessa risorsa
+    private final LockPerRisorsa lockRisorse = new LockPerRisorsa(STRISCE_LOCK);
+    // Durata ed esito di ogni chiamata ai metodi pubblici, registrati col nome del metodo
+    private final RegistroMetriche metriche;
+    // Creato alla prima richiesta: da lì in poi ogni scrittura sui repository aggiorna anche le statistiche
+    private volatile AggregatoreStatistiche statistiche;
 
     public PrenotazioneService(PrenotazioneRepository prenotazioneRepository,
                                ClienteRepository clienteRepository,
                                RisorsaRepository risorsaRepository) {
+        this(prenotazioneRepository, clienteRepository, risorsaRepository, new RegistroMetriche());
+    }
+
+    public PrenotazioneService(PrenotazioneRepository prenotazioneRepository,
+                               ClienteRepository clienteRepository,
+                               RisorsaRepository risorsaRepository,
+                               RegistroMetriche metriche) {
         this.prenotazioneRepository = prenotazioneRepository;
         this.clienteRepository = clienteRepository;
         this.risorsaRepository = risorsaRepository;
+        this.metriche = metriche;
+    }
+
+    public RegistroMetriche getMetriche() {
+        return metriche;
+    }
+
+    public AggregatoreStatistiche getStatistiche() {
+        AggregatoreStatistiche risultato = statistiche;
+        if (risultato == null) {
+            synchronized (this) {
+                risultato = statistiche;
+                if (risultato == null) {
+                    risultato = new AggregatoreStatistiche(clienteRepository, risorsaRepository, prenotazioneRepository);
+                    statistiche = risultato;
+                }
+            }
+        }
+        return risultato;
     }
 
     public Prenotazione creaPrenotazione(Long clienteId, Long risorsaId,
                                          LocalDateTime inizio, LocalDateTime fine,
                                          String note) {
+        return metriche.misura("creaPrenotazione", () -> nuovaPrenotazione(clienteId, risorsaId, inizio, fine, note));
+    }
+
+    // Corpo di creaPrenotazione senza misura, per le operazioni che la usano come passo intermedio
+    private Prenotazione nuovaPrenotazione(Long clienteId, Long risorsaId, LocalDateTime inizio, LocalDateTime fine, String note) {
         Cliente cliente = clienteRepository.findById(clienteId)
                 .orElseThrow(() -> new ClienteNonTrovatoException(clienteId));
 
@@ -47,132 +101,463 @@ public class PrenotazioneService {
             throw new PrenotazioneNonValidaException("La prenotazione non può superare le 24 ore");
         }
 
-        if (!isRisorsaDisponibile(risorsaId, inizio, fine)) {
-            throw new RisorsaNonDisponibileException(risorsaId, inizio, fine);
-        }
-
         Prenotazione prenotazione = new Prenotazione(cliente, risorsa, inizio, fine);
         prenotazione.setNote(note);
         prenotazione.setStato(StatoPrenotazione.PROVVISORIA);
 
-        return prenotazioneRepository.save(prenotazione);
+        ReentrantLock lock = lockRisorse.get(risorsaId);
+        lock.lock();
+        try {
+            if (prenotazioneRepository.existsSovrapposizioneAttiva(risorsaId, inizio, fine, null)) {
+                throw new RisorsaNonDisponibileException(risorsaId, inizio, fine);
+            }
+            return prenotazioneRepository.save(prenotazione);
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public boolean isRisorsaDisponibile(Long risorsaId, LocalDateTime inizio, LocalDateTime fine) {
-        List<Prenotazione> prenotazioniEsistenti = prenotazioneRepository.findByRisorsa(risorsaId);
+    /**
+     * Crea tutte le occorrenze di una serie ricorrente come prenotazioni provvisorie con lo stesso serieId.
+     * I conflitti sono verificati per tutte le occorrenze insieme con un'unica lettura delle prenotazioni
+     * della risorsa; se anche una sola occorrenza è occupata non viene creato nulla.
+     */
+    public List<Prenotazione> creaSerie(Long clienteId, Long risorsaId, RegolaRicorrenza regola, String note) {
+        return metriche.misura("creaSerie", () -> {
+            Cliente cliente = clienteRepository.findById(clienteId)
+                    .orElseThrow(() -> new ClienteNonTrovatoException(clienteId));
+
+            Risorsa risorsa = risorsaRepository.findById(risorsaId)
+                    .orElseThrow(() -> new RisorsaNonTrovataException(risorsaId));
+
+            List<FasciaOraria> occorrenze = espandiSerie(regola);
+            if (occorrenze.get(0).getInizio().isBefore(LocalDateTime.now())) {
+                throw new PrenotazioneNonValidaException("Non è possibile creare prenotazioni nel passato");
+            }
 
-        return prenotazioniEsistenti.stream()
-                .filter(p -> p.getStato() != StatoPrenotazione.CANCELLATA)
-                .noneMatch(p -> intervalliSovrapposti(p.getDataOraInizio(), p.getDataOraFine(), inizio, fine));
+            Long serieId = prenotazioneRepository.nuovoIdSerie();
+            ReentrantLock lock = lockRisorse.get(risorsaId);
+            lock.lock();
+            try {
+                List<FasciaOraria> conflitti = conflittiSerie(risorsaId, occorrenze, Set.of());
+                if (!conflitti.isEmpty()) {
+                    throw new SerieNonDisponibileException(risorsaId, conflitti);
+                }
+
+                List<Prenotazione> create = new ArrayList<>(occorrenze.size());
+                for (FasciaOraria occorrenza : occorrenze) {
+                    Prenotazione prenotazione = new Prenotazione(cliente, risorsa, occorrenza.getInizio(), occorrenza.getFine());
+                    prenotazione.setNote(note);
+                    prenotazione.setStato(StatoPrenotazione.PROVVISORIA);
+                    prenotazione.setSerieId(serieId);
+                    create.add(prenotazioneRepository.save(prenotazione));
+                }
+                return create;
+            } finally {
+                lock.unlock();
+            }
+        });
     }
 
-    private boolean intervalliSovrapposti(LocalDateTime inizio1, LocalDateTime fine1,
-                                          LocalDateTime inizio2, LocalDateTime fine2) {
-        return inizio1.isBefore(fine2) && fine1.isAfter(inizio2);
+    public List<Prenotazione> getPrenotazioniSerie(Long serieId) {
+        return metriche.misura("getPrenotazioniSerie", () -> occorrenzeSerie(serieId));
     }
 
-    public List<Prenotazione> getPrenotazioniAttivePerRisorsa(Long risorsaId, LocalDateTime inizio, LocalDateTime fine) {
-        return prenotazioneRepository.findByRisorsa(risorsaId).stream()
-                .filter(p -> p.getStato() != StatoPrenotazione.CANCELLATA)
-                .filter(p -> p.getDataOraInizio().isBefore(fine) && p.getDataOraFine().isAfter(inizio))
+    private List<Prenotazione> occorrenzeSerie(Long serieId) {
+        List<Prenotazione> occorrenze = prenotazioneRepository.findBySerie(serieId);
+        if (occorrenze.isEmpty()) {
+            throw new SerieNonTrovataException(serieId);
+        }
+        return occorrenze;
+    }
+
+    // Cancella le occorrenze non ancora iniziate; quelle passate o completate restano come sono
+    public int cancellaSerie(Long serieId) {
+        return metriche.misura("cancellaSerie", () -> {
+            int cancellate = 0;
+            for (Prenotazione occorrenza : occorrenzeFuture(serieId)) {
+                Long id = occorrenza.getId();
+                boolean cancellata = conRiprova(() -> {
+                    Prenotazione attuale = prenotazioneRepository.findById(id).orElse(null);
+                    // Nel frattempo può essere stata cancellata o completata singolarmente
+                    if (attuale == null || !isModificabile(attuale)) {
+                        return false;
+                    }
+                    return prenotazioneRepository.aggiornaStato(id, StatoPrenotazione.CANCELLATA, attuale.getVersione());
+                });
+                if (cancellata) {
+                    cancellate++;
+                }
+            }
+            return cancellate;
+        });
+    }
+
+    /**
+     * Sposta tutte le occorrenze non ancora iniziate al nuovo orario e alla nuova durata (null lascia
+     * il valore attuale di ciascuna) e ne aggiorna le note se indicate. Come per la creazione, i conflitti
+     * sono verificati insieme e in caso di conflitto nessuna occorrenza viene modificata.
+     */
+    public List<Prenotazione> modificaSerie(Long serieId, LocalTime nuovoOrario, Duration nuovaDurata, String note) {
+        return metriche.misura("modificaSerie", () -> {
+            List<Prenotazione> occorrenze = occorrenzeFuture(serieId);
+            if (occorrenze.isEmpty()) {
+                throw new OperazioneNonPermessaException("La serie " + serieId + " non ha occorrenze future da modificare");
+            }
+
+            if (nuovaDurata != null && (nuovaDurata.isZero() || nuovaDurata.isNegative() || nuovaDurata.toHours() > 24)) {
+                throw new PrenotazioneNonValidaException("La durata deve essere positiva e non superare le 24 ore");
+            }
+
+            List<FasciaOraria> nuove = new ArrayList<>(occorrenze.size());
+            Set<Long> ids = new HashSet<>();
+            for (Prenotazione p : occorrenze) {
+                LocalDateTime inizio = nuovoOrario != null ? p.getDataOraInizio().toLocalDate().atTime(nuovoOrario) : p.getDataOraInizio();
+                Duration durata = nuovaDurata != null ? nuovaDurata : Duration.between(p.getDataOraInizio(), p.getDataOraFine());
+                nuove.add(new FasciaOraria(inizio, inizio.plus(durata)));
+                ids.add(p.getId());
+            }
+            verificaOccorrenze(nuove);
+            if (nuove.get(0).getInizio().isBefore(LocalDateTime.now())) {
+                throw new PrenotazioneNonValidaException("Non è possibile spostare prenotazioni nel passato");
+            }
+
+            Long risorsaId = occorrenze.get(0).getRisorsa().getId();
+            ReentrantLock lock = lockRisorse.get(risorsaId);
+            lock.lock();
+            try {
+                // Le occorrenze che si stanno spostando non sono in conflitto con sé stesse
+                List<FasciaOraria> conflitti = conflittiSerie(risorsaId, nuove, ids);
+                if (!conflitti.isEmpty()) {
+                    throw new SerieNonDisponibileException(risorsaId, conflitti);
+                }
+
+                List<Prenotazione> modificate = new ArrayList<>(occorrenze.size());
+                for (int i = 0; i < occorrenze.size(); i++) {
+                    Long id = occorrenze.get(i).getId();
+                    FasciaOraria fascia = nuove.get(i);
+                    // Solo gli stati possono cambiare senza il lock della risorsa, quindi il controllo resta valido
+                    Prenotazione modificata = conRiprova(() -> {
+                        Prenotazione prenotazione = prenotazioneRepository.findById(id).map(Prenotazione::copia).orElse(null);
+                        if (prenotazione == null || !isModificabile(prenotazione)) {
+                            return null;
+                        }
+                        prenotazione.setDataOraInizio(fascia.getInizio());
+                        prenotazione.setDataOraFine(fascia.getFine());
+                        if (note != null) {
+                            prenotazione.setNote(note);
+                        }
+                        return prenotazioneRepository.saveConVersione(prenotazione);
+                    });
+                    if (modificata != null) {
+                        modificate.add(modificata);
+                    }
+                }
+                return modificate;
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    // Prima fascia libera della durata richiesta; sulle risorse con bitmap è allineata agli slot
+    public Optional<FasciaOraria> trovaPrimoSlotLibero(Long risorsaId, LocalDateTime finestraInizio,
+                                                       LocalDateTime finestraFine, Duration durata) {
+        return metriche.misura("trovaPrimoSlotLibero", () -> {
+            risorsaRepository.findById(risorsaId)
+                    .orElseThrow(() -> new RisorsaNonTrovataException(risorsaId));
+
+            if (durata.isZero() || durata.isNegative()) {
+                throw new PrenotazioneNonValidaException("La durata richiesta deve essere positiva");
+            }
+
+            return prenotazioneRepository.findPrimoInizioLibero(risorsaId, finestraInizio, finestraFine, durata)
+                    .map(inizio -> new FasciaOraria(inizio, inizio.plus(durata)));
+        });
+    }
+
+    // Risorse libere del tipo richiesto con almeno capacitaMinima posti, dalla più adatta (capacità minore)
+    public List<Risorsa> trovaRisorseDisponibili(TipoRisorsa tipo, int capacitaMinima,
+                                                 LocalDateTime inizio, LocalDateTime fine) {
+        return metriche.misura("trovaRisorseDisponibili", () -> risorseDisponibili(tipo, capacitaMinima, inizio, fine));
+    }
+
+    private List<Risorsa> risorseDisponibili(TipoRisorsa tipo, int capacitaMinima, LocalDateTime inizio, LocalDateTime fine) {
+        if (!fine.isAfter(inizio)) {
+            throw new PrenotazioneNonValidaException("La data/ora di fine deve essere successiva a quella di inizio");
+        }
+
+        List<Risorsa> candidate = risorsaRepository.findByTipoECapacitaMinima(tipo, capacitaMinima);
+        // Lo stream parallelo mantiene l'ordine delle candidate, quindi anche la classifica
+        return (candidate.size() >= SOGLIA_RICERCA_PARALLELA ? candidate.parallelStream() : candidate.stream())
+                .filter(r -> !prenotazioneRepository.existsSovrapposizioneAttiva(r.getId(), inizio, fine, null))
                 .collect(Collectors.toList());
     }
 
+    // Prenota la risorsa più adatta; se nel frattempo viene occupata si passa alla successiva.
+    // Ricerca e tentativi sono misurati solo come prenotaRisorsaMigliore, non come operazioni a sé
+    public Prenotazione prenotaRisorsaMigliore(Long clienteId, TipoRisorsa tipo, int capacitaMinima,
+                                               LocalDateTime inizio, LocalDateTime fine, String note) {
+        return metriche.misura("prenotaRisorsaMigliore", () -> {
+            for (Risorsa risorsa : risorseDisponibili(tipo, capacitaMinima, inizio, fine)) {
+                try {
+                    return nuovaPrenotazione(clienteId, risorsa.getId(), inizio, fine, note);
+                } catch (RisorsaNonDisponibileException e) {
+                    // Occupata da una prenotazione concorrente
+                }
+            }
+            throw new NessunaRisorsaDisponibileException(tipo, capacitaMinima, inizio, fine);
+        });
+    }
+
+    public boolean isRisorsaDisponibile(Long risorsaId, LocalDateTime inizio, LocalDateTime fine) {
+        return metriche.misura("isRisorsaDisponibile",
+                () -> !prenotazioneRepository.existsSovrapposizioneAttiva(risorsaId, inizio, fine, null));
+    }
+
+    public List<Prenotazione> getPrenotazioniAttivePerRisorsa(Long risorsaId, LocalDateTime inizio, LocalDateTime fine) {
+        return metriche.misura("getPrenotazioniAttivePerRisorsa",
+                () -> prenotazioneRepository.findSovrapposizioniAttive(risorsaId, inizio, fine));
+    }
+
+    // Fasce libere di almeno la durata richiesta, in un solo passaggio sulle prenotazioni attive ordinate per inizio
+    public List<FasciaOraria> trovaSlotLiberi(Long risorsaId, LocalDateTime finestraInizio, LocalDateTime finestraFine,
+                                              Duration durata, int maxRisultati) {
+        return metriche.misura("trovaSlotLiberi", () -> {
+            risorsaRepository.findById(risorsaId)
+                    .orElseThrow(() -> new RisorsaNonTrovataException(risorsaId));
+
+            if (!finestraFine.isAfter(finestraInizio)) {
+                throw new PrenotazioneNonValidaException("La fine della finestra deve essere successiva all'inizio");
+            }
+
+            if (durata.isZero() || durata.isNegative()) {
+                throw new PrenotazioneNonValidaException("La durata richiesta deve essere positiva");
+            }
+
+            if (maxRisultati < 1) {
+                throw new PrenotazioneNonValidaException("Il numero massimo di risultati deve essere almeno 1");
+            }
+
+            List<FasciaOraria> libere = new ArrayList<>();
+            LocalDateTime cursore = finestraInizio;
+            for (Prenotazione p : prenotazioneRepository.findSovrapposizioniAttive(risorsaId, finestraInizio, finestraFine)) {
+                if (!Duration.between(cursore, p.getDataOraInizio()).minus(durata).isNegative()) {
+                    libere.add(new FasciaOraria(cursore, p.getDataOraInizio()));
+                    if (libere.size() == maxRisultati) {
+                        return libere;
+                    }
+                }
+                // Le prenotazioni possono essere annidate: il cursore avanza solo alla fine più lontana
+                if (p.getDataOraFine().isAfter(cursore)) {
+                    cursore = p.getDataOraFine();
+                }
+            }
+            if (!Duration.between(cursore, finestraFine).minus(durata).isNegative()) {
+                libere.add(new FasciaOraria(cursore, finestraFine));
+            }
+            return libere;
+        });
+    }
+
     public void confermaPrenotazione(Long id) {
-        Prenotazione prenotazione = prenotazioneRepository.findById(id)
-                .orElseThrow(() -> new PrenotazioneNonTrovataException(id));
+        metriche.misura("confermaPrenotazione", () -> conRiprova(() -> {
+            Prenotazione prenotazione = prenotazioneRepository.findById(id)
+                    .orElseThrow(() -> new PrenotazioneNonTrovataException(id));
 
-        if (prenotazione.getStato() != StatoPrenotazione.PROVVISORIA) {
-            throw new OperazioneNonPermessaException("Solo le prenotazioni provvisorie possono essere confermate");
-        }
+            if (prenotazione.getStato() != StatoPrenotazione.PROVVISORIA) {
+                throw new OperazioneNonPermessaException("Solo le prenotazioni provvisorie possono essere confermate");
+            }
 
-        prenotazione.setStato(StatoPrenotazione.CONFERMATA);
-        prenotazioneRepository.save(prenotazione);
+            return prenotazioneRepository.aggiornaStato(id, StatoPrenotazione.CONFERMATA, prenotazione.getVersione());
+        }));
     }
 
     public void completaPrenotazione(Long id) {
-        Prenotazione prenotazione = prenotazioneRepository.findById(id)
-                .orElseThrow(() -> new PrenotazioneNonTrovataException(id));
+        metriche.misura("completaPrenotazione", () -> conRiprova(() -> {
+            Prenotazione prenotazione = prenotazioneRepository.findById(id)
+                    .orElseThrow(() -> new PrenotazioneNonTrovataException(id));
 
-        if (prenotazione.getStato() == StatoPrenotazione.CANCELLATA) {
-            throw new OperazioneNonPermessaException("Non è possibile completare una prenotazione cancellata");
-        }
+            if (prenotazione.getStato() == StatoPrenotazione.CANCELLATA) {
+                throw new OperazioneNonPermessaException("Non è possibile completare una prenotazione cancellata");
+            }
 
-        if (prenotazione.getStato() == StatoPrenotazione.COMPLETATA) {
-            throw new OperazioneNonPermessaException("La prenotazione è già stata completata");
-        }
+            if (prenotazione.getStato() == StatoPrenotazione.COMPLETATA) {
+                throw new OperazioneNonPermessaException("La prenotazione è già stata completata");
+            }
 
-        prenotazione.setStato(StatoPrenotazione.COMPLETATA);
-        prenotazioneRepository.save(prenotazione);
+            return prenotazioneRepository.aggiornaStato(id, StatoPrenotazione.COMPLETATA, prenotazione.getVersione());
+        }));
     }
 
     public void cancellaPrenotazione(Long id) {
-        Prenotazione prenotazione = prenotazioneRepository.findById(id)
-                .orElseThrow(() -> new PrenotazioneNonTrovataException(id));
+        metriche.misura("cancellaPrenotazione", () -> conRiprova(() -> {
+            Prenotazione prenotazione = prenotazioneRepository.findById(id)
+                    .orElseThrow(() -> new PrenotazioneNonTrovataException(id));
 
-        if (prenotazione.getStato() == StatoPrenotazione.COMPLETATA) {
-            throw new OperazioneNonPermessaException("Non è possibile cancellare una prenotazione già completata");
-        }
+            if (prenotazione.getStato() == StatoPrenotazione.COMPLETATA) {
+                throw new OperazioneNonPermessaException("Non è possibile cancellare una prenotazione già completata");
+            }
 
-        prenotazione.setStato(StatoPrenotazione.CANCELLATA);
-        prenotazioneRepository.save(prenotazione);
+            return prenotazioneRepository.aggiornaStato(id, StatoPrenotazione.CANCELLATA, prenotazione.getVersione());
+        }));
     }
 
     public Prenotazione modificaPrenotazione(Long id, LocalDateTime nuovoInizio,
                                              LocalDateTime nuovaFine, String note) {
-        Prenotazione prenotazione = prenotazioneRepository.findById(id)
-                .orElseThrow(() -> new PrenotazioneNonTrovataException(id));
+        return metriche.misura("modificaPrenotazione", () -> conRiprova(() -> {
+            // Si lavora su una copia: l'istanza condivisa cambia solo se la versione è ancora quella letta
+            Prenotazione prenotazione = prenotazioneRepository.findById(id)
+                    .orElseThrow(() -> new PrenotazioneNonTrovataException(id))
+                    .copia();
+
+            if (prenotazione.getStato() == StatoPrenotazione.COMPLETATA ||
+                    prenotazione.getStato() == StatoPrenotazione.CANCELLATA) {
+                throw new OperazioneNonPermessaException("Non è possibile modificare una prenotazione " + prenotazione.getStato().getDescrizione());
+            }
 
-        if (prenotazione.getStato() == StatoPrenotazione.COMPLETATA ||
-                prenotazione.getStato() == StatoPrenotazione.CANCELLATA) {
-            throw new OperazioneNonPermessaException("Non è possibile modificare una prenotazione " + prenotazione.getStato().getDescrizione());
-        }
+            if (note != null) {
+                prenotazione.setNote(note);
+            }
 
-        if (!prenotazione.getDataOraInizio().equals(nuovoInizio) ||
-                !prenotazione.getDataOraFine().equals(nuovaFine)) {
+            if (prenotazione.getDataOraInizio().equals(nuovoInizio) &&
+                    prenotazione.getDataOraFine().equals(nuovaFine)) {
+                return prenotazioneRepository.saveConVersione(prenotazione);
+            }
 
             if (!nuovaFine.isAfter(nuovoInizio)) {
                 throw new PrenotazioneNonValidaException("La data/ora di fine deve essere successiva a quella di inizio");
             }
 
-            boolean disponibile = prenotazioneRepository.findByRisorsa(prenotazione.getRisorsa().getId())
-                    .stream()
-                    .filter(p -> !p.getId().equals(id))
-                    .filter(p -> p.getStato() != StatoPrenotazione.CANCELLATA)
-                    .noneMatch(p -> intervalliSovrapposti(p.getDataOraInizio(), p.getDataOraFine(), nuovoInizio, nuovaFine));
-
-            if (!disponibile) {
-                throw new RisorsaNonDisponibileException(prenotazione.getRisorsa().getId(), nuovoInizio, nuovaFine);
+            // Il nuovo periodo va verificato in modo atomico rispetto alle altre prenotazioni sulla risorsa
+            Long risorsaId = prenotazione.getRisorsa().getId();
+            ReentrantLock lock = lockRisorse.get(risorsaId);
+            lock.lock();
+            try {
+                if (prenotazioneRepository.existsSovrapposizioneAttiva(risorsaId, nuovoInizio, nuovaFine, id)) {
+                    throw new RisorsaNonDisponibileException(risorsaId, nuovoInizio, nuovaFine);
+                }
+
+                prenotazione.setDataOraInizio(nuovoInizio);
+                prenotazione.setDataOraFine(nuovaFine);
+                return prenotazioneRepository.saveConVersione(prenotazione);
+            } finally {
+                lock.unlock();
             }
+        }));
+    }
 
-            prenotazione.setDataOraInizio(nuovoInizio);
-            prenotazione.setDataOraFine(nuovaFine);
-        }
-
-        if (note != null) {
-            prenotazione.setNote(note);
-        }
-
-        return prenotazioneRepository.save(prenotazione);
+    public Prenotazione getPrenotazione(Long id) {
+        return metriche.misura("getPrenotazione", () -> prenotazioneRepository.findById(id)
+                .orElseThrow(() -> new PrenotazioneNonTrovataException(id)));
     }
 
     public List<Prenotazione> getPrenotazioniCliente(Long clienteId) {
-        return prenotazioneRepository.findByCliente(clienteId);
+        return metriche.misura("getPrenotazioniCliente", () -> prenotazioneRepository.findByCliente(clienteId));
     }
 
     public List<Prenotazione> getPrenotazioniRisorsa(Long risorsaId) {
-        return prenotazioneRepository.findByRisorsa(risorsaId);
+        return metriche.misura("getPrenotazioniRisorsa", () -> prenotazioneRepository.findByRisorsa(risorsaId));
     }
 
     public List<Prenotazione> getPrenotazioniPeriodo(LocalDateTime inizio, LocalDateTime fine) {
-        return prenotazioneRepository.findByPeriodo(inizio, fine);
+        return metriche.misura("getPrenotazioniPeriodo", () -> prenotazioneRepository.findByPeriodo(inizio, fine));
     }
 
     public List<Prenotazione> getPrenotazioniStato(StatoPrenotazione stato) {
-        return prenotazioneRepository.findByStato(stato);
+        return metriche.misura("getPrenotazioniStato", () -> prenotazioneRepository.findByStato(stato));
     }
 
     public List<Prenotazione> getTuttePrenotazioni() {
-        return prenotazioneRepository.findAll();
+        return metriche.misura("getTuttePrenotazioni", prenotazioneRepository::findAll);
+    }
+
+    // Occorrenze della regola, già validate; la regola viene espansa una sola volta e al più fino al limite
+    private List<FasciaOraria> espandiSerie(RegolaRicorrenza regola) {
+        if (!regola.isLimitata()) {
+            throw new PrenotazioneNonValidaException("La serie deve avere una data di fine o un numero di occorrenze");
+        }
+
+        if (regola.getIntervallo() < 1) {
+            throw new PrenotazioneNonValidaException("L'intervallo della serie deve essere almeno 1");
+        }
+
+        Duration durata = regola.getDurata();
+        if (durata.isZero() || durata.isNegative() || durata.toHours() > 24) {
+            throw new PrenotazioneNonValidaException("La durata deve essere positiva e non superare le 24 ore");
+        }
+
+        List<FasciaOraria> occorrenze = regola.occorrenze()
+                .limit(MAX_OCCORRENZE_SERIE + 1)
+                .collect(Collectors.toList());
+        if (occorrenze.isEmpty()) {
+            throw new PrenotazioneNonValidaException("La serie non ha nessuna occorrenza");
+        }
+        if (occorrenze.size() > MAX_OCCORRENZE_SERIE) {
+            throw new PrenotazioneNonValidaException("Una serie non può superare le " + MAX_OCCORRENZE_SERIE + " occorrenze");
+        }
+        verificaOccorrenze(occorrenze);
+        return occorrenze;
+    }
+
+    // Le occorrenze di una serie non possono sovrapporsi tra loro (durata più lunga della frequenza)
+    private static void verificaOccorrenze(List<FasciaOraria> occorrenze) {
+        for (int i = 1; i < occorrenze.size(); i++) {
+            if (occorrenze.get(i).getInizio().isBefore(occorrenze.get(i - 1).getFine())) {
+                throw new PrenotazioneNonValidaException("Le occorrenze della serie si sovrappongono: la durata supera la frequenza");
+            }
+        }
+    }
+
+    /**
+     * Occorrenze in conflitto con le prenotazioni attive della risorsa, escluse quelle con ID in escluse.
+     * Occorrenze e prenotazioni sono entrambe ordinate per inizio, quindi basta una scansione in parallelo:
+     * per ogni occorrenza si considerano le prenotazioni iniziate prima della sua fine, e c'è conflitto
+     * se la fine più lontana tra queste supera l'inizio dell'occorrenza.
+     */
+    private List<FasciaOraria> conflittiSerie(Long risorsaId, List<FasciaOraria> occorrenze, Set<Long> escluse) {
+        List<Prenotazione> esistenti = prenotazioneRepository.findSovrapposizioniAttive(risorsaId,
+                occorrenze.get(0).getInizio(), occorrenze.get(occorrenze.size() - 1).getFine());
+        List<FasciaOraria> conflitti = new ArrayList<>();
+        LocalDateTime fineMassima = null;
+        int i = 0;
+        for (FasciaOraria occorrenza : occorrenze) {
+            while (i < esistenti.size() && esistenti.get(i).getDataOraInizio().isBefore(occorrenza.getFine())) {
+                Prenotazione p = esistenti.get(i++);
+                if (!escluse.contains(p.getId()) && (fineMassima == null || p.getDataOraFine().isAfter(fineMassima))) {
+                    fineMassima = p.getDataOraFine();
+                }
+            }
+            if (fineMassima != null && fineMassima.isAfter(occorrenza.getInizio())) {
+                conflitti.add(occorrenza);
+            }
+        }
+        return conflitti;
+    }
+
+    private List<Prenotazione> occorrenzeFuture(Long serieId) {
+        LocalDateTime ora = LocalDateTime.now();
+        return occorrenzeSerie(serieId).stream()
+                .filter(p -> p.getDataOraInizio().isAfter(ora) && isModificabile(p))
+                .collect(Collectors.toList());
+    }
+
+    private static boolean isModificabile(Prenotazione prenotazione) {
+        return prenotazione.getStato() != StatoPrenotazione.COMPLETATA &&
+                prenotazione.getStato() != StatoPrenotazione.CANCELLATA;
+    }
+
+    // Se un'altra operazione ha scritto la prenotazione nel frattempo si rilegge e si riprova;
+    // dopo TENTATIVI_MASSIMI conflitti l'eccezione arriva al chiamante
+    private <T> T conRiprova(Supplier<T> operazione) {
+        for (int tentativo = 1; ; tentativo++) {
+            try {
+                return operazione.get();
+            } catch (ModificaConcorrenteException e) {
+                if (tentativo >= TENTATIVI_MASSIMI) {
+                    throw e;
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,134 @@
+package it.gestionale.prenotazioni.service;
+
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.PeriodoReport;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Risultato di OccupazioneService: per ogni periodo le ore occupate rispetto alle ore di apertura e il picco
+ * di utilizzo contemporaneo, sia per singola risorsa sia per tipo di risorsa, più i totali sull'intervallo.
+ * Per una risorsa il picco è il massimo di prenotazioni attive nello stesso istante (1 se non si sovrappongono),
+ * per un tipo è il massimo di risorse di quel tipo occupate nello stesso istante.
+ */
+public class ReportOccupazione {
+    public static class Riga {
+        private final LocalDate periodo;
+        private final Risorsa risorsa;
+        private final TipoRisorsa tipo;
+        private final long minutiOccupati;
+        private final long minutiApertura;
+        private final int picco;
+
+        Riga(LocalDate periodo, Risorsa risorsa, TipoRisorsa tipo, long minutiOccupati, long minutiApertura, int picco) {
+            this.periodo = periodo;
+            this.risorsa = risorsa;
+            this.tipo = tipo;
+            this.minutiOccupati = minutiOccupati;
+            this.minutiApertura = minutiApertura;
+            this.picco = picco;
+        }
+
+        // Primo giorno del periodo, o del report per le righe dei totali
+        public LocalDate getPeriodo() { return periodo; }
+        // null nelle righe per tipo
+        public Risorsa getRisorsa() { return risorsa; }
+        public TipoRisorsa getTipo() { return tipo; }
+        public long getMinutiOccupati() { return minutiOccupati; }
+        public long getMinutiApertura() { return minutiApertura; }
+        public int getPicco() { return picco; }
+
+        public double getUtilizzo() {
+            return minutiApertura == 0 ? 0 : (double) minutiOccupati / minutiApertura;
+        }
+    }
+
+    private final LocalDate da;
+    private final LocalDate a;
+    private final PeriodoReport periodo;
+    private final LocalTime apertura;
+    private final LocalTime chiusura;
+    private final List<LocalDate> periodi;
+    private final List<Riga> perRisorsa;
+    private final List<Riga> perTipo;
+    private final List<Riga> totaliPerRisorsa;
+    private final List<Riga> totaliPerTipo;
+
+    ReportOccupazione(LocalDate da, LocalDate a, PeriodoReport periodo, LocalTime apertura, LocalTime chiusura,
+                      List<LocalDate> periodi, List<Riga> perRisorsa, List<Riga> perTipo,
+                      List<Riga> totaliPerRisorsa, List<Riga> totaliPerTipo) {
+        this.da = da;
+        this.a = a;
+        this.periodo = periodo;
+        this.apertura = apertura;
+        this.chiusura = chiusura;
+        this.periodi = periodi;
+        this.perRisorsa = perRisorsa;
+        this.perTipo = perTipo;
+        this.totaliPerRisorsa = totaliPerRisorsa;
+        this.totaliPerTipo = totaliPerTipo;
+    }
+
+    public LocalDate getDa() { return da; }
+    public LocalDate getA() { return a; }
+    public PeriodoReport getPeriodo() { return periodo; }
+    public LocalTime getApertura() { return apertura; }
+    public LocalTime getChiusura() { return chiusura; }
+    public List<LocalDate> getPeriodi() { return periodi; }
+
+    // Ordinate per risorsa e poi per periodo
+    public List<Riga> getPerRisorsa() { return perRisorsa; }
+    // Ordinate per tipo e poi per periodo; solo i tipi con almeno una risorsa
+    public List<Riga> getPerTipo() { return perTipo; }
+    public List<Riga> getTotaliPerRisorsa() { return totaliPerRisorsa; }
+    public List<Riga> getTotaliPerTipo() { return totaliPerTipo; }
+
+    /**
+     * Esporta il report in CSV: prima le righe per tipo, poi quelle per risorsa, ciascuna con i totali
+     * sull'intervallo (periodo vuoto). Ore con due decimali, utilizzo in percentuale.
+     */
+    public void scriviCsv(String filename) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8)) {
+            writer.write("livello,periodo,risorsaId,risorsa,tipo,oreOccupate,oreApertura,utilizzoPercentuale,picco");
+            writer.newLine();
+            scriviRighe(writer, "TIPO", perTipo, true);
+            scriviRighe(writer, "TIPO", totaliPerTipo, false);
+            scriviRighe(writer, "RISORSA", perRisorsa, true);
+            scriviRighe(writer, "RISORSA", totaliPerRisorsa, false);
+        }
+    }
+
+    private static void scriviRighe(BufferedWriter writer, String livello, List<Riga> righe, boolean conPeriodo)
+            throws IOException {
+        for (Riga riga : righe) {
+            Risorsa risorsa = riga.getRisorsa();
+            writer.write(String.format(Locale.ROOT, "%s,%s,%s,%s,%s,%.2f,%.2f,%.2f,%d",
+                    livello,
+                    conPeriodo ? riga.getPeriodo().toString() : "",
+                    risorsa != null ? risorsa.getId().toString() : "",
+                    risorsa != null ? escapeCsv(risorsa.getNome()) : "",
+                    riga.getTipo() != null ? riga.getTipo().name() : "",
+                    riga.getMinutiOccupati() / 60.0,
+                    riga.getMinutiApertura() / 60.0,
+                    riga.getUtilizzo() * 100,
+                    riga.getPicco()));
+            writer.newLine();
+        }
+    }
+
+    private static String escapeCsv(String value) {
+        if (value == null) return "";
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
@@ -0,0 +1,138 @@
+package it.gestionale.prenotazioni.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Confronta l'albero di intervalli con una scansione di tutte le voci dopo inserimenti, rimozioni e
+ * cambi di stato casuali. Le durate vanno da un quarto d'ora a più giorni, così ci sono molte voci
+ * annidate e con lo stesso inizio, i casi in cui la fine massima dei sottoalberi conta davvero.
+ */
+class IndiceTemporaleTest {
+    private static final LocalDateTime BASE = LocalDateTime.of(2040, 3, 1, 0, 0);
+    private static final StatoPrenotazione[] STATI = StatoPrenotazione.values();
+
+    private final Random random = new Random(42);
+    private final IndiceTemporale indice = new IndiceTemporale();
+    // Riferimento: le voci presenti nell'indice, per id
+    private final Map<Long, VoceIndice> presenti = new HashMap<>();
+
+    @Test
+    void concordaConUnaScansioneCompleta() {
+        long prossimoId = 1;
+        for (int passo = 0; passo < 10_000; passo++) {
+            int operazione = random.nextInt(10);
+            if (operazione < 5 || presenti.isEmpty()) {
+                VoceIndice voce = nuovaVoce(prossimoId++);
+                indice.aggiungi(voce);
+                presenti.put(voce.id, voce);
+            } else if (operazione < 7) {
+                VoceIndice voce = qualunque();
+                indice.rimuovi(voce);
+                presenti.remove(voce.id);
+            } else if (operazione < 8) {
+                // Cambio di stato o di periodo: come nel repository, la voce vecchia esce e ne entra una nuova
+                VoceIndice vecchia = qualunque();
+                VoceIndice nuova = nuovaVoce(vecchia.id);
+                indice.rimuovi(vecchia);
+                indice.aggiungi(nuova);
+                presenti.put(nuova.id, nuova);
+            } else {
+                verificaInterrogazione();
+            }
+            if (passo % 1000 == 0) {
+                verificaElenco();
+            }
+        }
+        verificaElenco();
+        for (int i = 0; i < 2_000; i++) {
+            verificaInterrogazione();
+        }
+    }
+
+    @Test
+    void svuotatoDopoAverRimossoTutto() {
+        List<VoceIndice> voci = new ArrayList<>();
+        for (long id = 1; id <= 500; id++) {
+            VoceIndice voce = nuovaVoce(id);
+            voci.add(voce);
+            indice.aggiungi(voce);
+        }
+        for (VoceIndice voce : voci) {
+            indice.rimuovi(voce);
+        }
+        assertTrue(indice.isEmpty());
+        assertFalse(indice.esisteSovrapposizioneAttiva(BASE.minusYears(1), BASE.plusYears(1), null));
+    }
+
+    private void verificaInterrogazione() {
+        LocalDateTime da = BASE.plusMinutes(15L * random.nextInt(4 * 24 * 60));
+        LocalDateTime a = da.plusMinutes(15L * (1 + random.nextInt(200)));
+        Long escludiId = random.nextBoolean() && !presenti.isEmpty() ? qualunque().id : null;
+
+        List<VoceIndice> attese = new ArrayList<>();
+        boolean esiste = false;
+        for (VoceIndice voce : presenti.values()) {
+            if (voce.isAttiva() && voce.sovrappone(da, a)) {
+                attese.add(voce);
+                if (escludiId == null || voce.id != escludiId) {
+                    esiste = true;
+                }
+            }
+        }
+        attese.sort(Comparator.naturalOrder());
+
+        List<Long> trovate = new ArrayList<>();
+        for (Prenotazione p : indice.sovrapposteAttive(da, a)) {
+            trovate.add(p.getId());
+        }
+        assertEquals(ids(attese), trovate, "Sovrapposte a [" + da + ", " + a + ")");
+        assertEquals(esiste, indice.esisteSovrapposizioneAttiva(da, a, escludiId),
+                "Sovrapposizione con [" + da + ", " + a + ") escludendo " + escludiId);
+    }
+
+    private void verificaElenco() {
+        List<VoceIndice> attese = new ArrayList<>(presenti.values());
+        attese.sort(Comparator.naturalOrder());
+        List<Long> trovate = new ArrayList<>();
+        for (Prenotazione p : indice.elenco()) {
+            trovate.add(p.getId());
+        }
+        assertEquals(ids(attese), trovate);
+        assertEquals(presenti.isEmpty(), indice.isEmpty());
+    }
+
+    private VoceIndice nuovaVoce(long id) {
+        // Inizi a quarti d'ora su quaranta giorni, per avere molti inizi uguali
+        LocalDateTime inizio = BASE.plusMinutes(15L * random.nextInt(4 * 24 * 40));
+        int quarti = random.nextInt(20) == 0 ? 1 + random.nextInt(4 * 24 * 5) : 1 + random.nextInt(16);
+        Prenotazione p = new Prenotazione(id, null, null, inizio, inizio.plusMinutes(15L * quarti),
+                STATI[random.nextInt(STATI.length)], null);
+        return VoceIndice.di(p);
+    }
+
+    private VoceIndice qualunque() {
+        List<VoceIndice> voci = new ArrayList<>(presenti.values());
+        return voci.get(random.nextInt(voci.size()));
+    }
+
+    private static List<Long> ids(List<VoceIndice> voci) {
+        List<Long> ids = new ArrayList<>();
+        for (VoceIndice voce : voci) {
+            ids.add(voce.id);
+        }
+        return ids;
+    }
+}
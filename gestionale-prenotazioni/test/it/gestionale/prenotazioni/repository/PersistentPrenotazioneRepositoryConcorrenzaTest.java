@@ -0,0 +1,158 @@
+package it.gestionale.prenotazioni.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import it.gestionale.prenotazioni.domain.Cliente;
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import it.gestionale.prenotazioni.exceptions.ModificaConcorrenteException;
+import it.gestionale.prenotazioni.exceptions.PrenotazioneNonTrovataException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Salvataggi, spostamenti tra risorse, eliminazioni e cambi di stato da più thread insieme: alla fine
+ * ogni indice deve contenere esattamente le prenotazioni memorizzate, e il controllo di disponibilità
+ * deve dare lo stesso risultato di una scansione di tutte le prenotazioni.
+ */
+class PersistentPrenotazioneRepositoryConcorrenzaTest {
+    private static final int THREAD = 8;
+    private static final int OPERAZIONI = 40_000;
+    private static final StatoPrenotazione[] STATI = StatoPrenotazione.values();
+    private static final LocalDateTime BASE = LocalDateTime.of(2040, 1, 1, 8, 0);
+
+    private final PersistentPrenotazioneRepository repository = new PersistentPrenotazioneRepository();
+    private final Risorsa[] risorse = new Risorsa[200];
+    private final Cliente[] clienti = new Cliente[50];
+
+    @Test
+    void modificheConcorrentiLascianoGliIndiciCoerenti() throws Exception {
+        repository.abilitaBitmap(TipoRisorsa.values()[0], 30);
+        for (int i = 0; i < risorse.length; i++) {
+            risorse[i] = new Risorsa((long) i + 1, "Risorsa " + i, "Test", TipoRisorsa.values()[i % TipoRisorsa.values().length], 5);
+        }
+        for (int i = 0; i < clienti.length; i++) {
+            clienti[i] = new Cliente((long) i + 1, "Nome", "Cognome", "cliente" + i + "@test.it", "000");
+        }
+
+        ExecutorService esecutore = Executors.newFixedThreadPool(THREAD);
+        CountDownLatch partenza = new CountDownLatch(1);
+        List<Future<?>> lavori = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREAD; t++) {
+                Random random = new Random(t);
+                lavori.add(esecutore.submit(() -> {
+                    partenza.await();
+                    for (int i = 0; i < OPERAZIONI / THREAD; i++) {
+                        operazioneCasuale(random);
+                    }
+                    return null;
+                }));
+            }
+            partenza.countDown();
+            for (Future<?> lavoro : lavori) {
+                lavoro.get();
+            }
+        } finally {
+            esecutore.shutdownNow();
+        }
+
+        Map<Long, Prenotazione> tutte = new HashMap<>();
+        for (Prenotazione p : repository.findAll()) {
+            tutte.put(p.getId(), p);
+        }
+
+        int perRisorsa = 0;
+        for (Risorsa risorsa : risorse) {
+            for (Prenotazione p : repository.findByRisorsa(risorsa.getId())) {
+                assertSame(tutte.get(p.getId()), p);
+                assertEquals(risorsa.getId(), p.getRisorsa().getId());
+                perRisorsa++;
+            }
+        }
+        assertEquals(tutte.size(), perRisorsa);
+
+        int perCliente = 0;
+        for (Cliente cliente : clienti) {
+            for (Prenotazione p : repository.findByCliente(cliente.getId())) {
+                assertSame(tutte.get(p.getId()), p);
+                assertEquals(cliente.getId(), p.getCliente().getId());
+                perCliente++;
+            }
+        }
+        assertEquals(tutte.size(), perCliente);
+
+        int perStato = 0;
+        for (StatoPrenotazione stato : STATI) {
+            for (Prenotazione p : repository.findByStato(stato)) {
+                assertSame(tutte.get(p.getId()), p);
+                assertEquals(stato, p.getStato());
+                perStato++;
+            }
+        }
+        assertEquals(tutte.size(), perStato);
+        assertEquals(tutte.size(), repository.findByPeriodo(BASE.minusDays(1), BASE.plusDays(100)).size());
+
+        Random random = new Random(99);
+        for (int i = 0; i < 5_000; i++) {
+            Risorsa risorsa = risorse[random.nextInt(risorse.length)];
+            LocalDateTime inizio = BASE.plusMinutes(30L * random.nextInt(2000));
+            LocalDateTime fine = inizio.plusMinutes(30L * (1 + random.nextInt(4)));
+            boolean atteso = false;
+            for (Prenotazione p : tutte.values()) {
+                if (p.getRisorsa().getId().equals(risorsa.getId()) && p.getStato() != StatoPrenotazione.CANCELLATA
+                        && p.getDataOraInizio().isBefore(fine) && p.getDataOraFine().isAfter(inizio)) {
+                    atteso = true;
+                    break;
+                }
+            }
+            assertEquals(atteso, repository.existsSovrapposizioneAttiva(risorsa.getId(), inizio, fine, null),
+                    "Risorsa " + risorsa.getId() + " dalle " + inizio + " alle " + fine);
+        }
+    }
+
+    private void operazioneCasuale(Random random) {
+        Risorsa risorsa = risorse[random.nextInt(risorse.length)];
+        LocalDateTime inizio = BASE.plusMinutes(30L * random.nextInt(2000));
+        LocalDateTime fine = inizio.plusMinutes(30L * (1 + random.nextInt(4)));
+        Long id = (long) (1 + random.nextInt(OPERAZIONI / 2));
+        int operazione = random.nextInt(10);
+        if (operazione < 5) {
+            Prenotazione p = new Prenotazione(clienti[random.nextInt(clienti.length)], risorsa, inizio, fine);
+            p.setStato(STATI[random.nextInt(STATI.length)]);
+            repository.save(p);
+        } else if (operazione < 7) {
+            // Spostamento su un'altra risorsa e in un altro periodo
+            repository.findById(id).ifPresent(letta -> {
+                Prenotazione spostata = letta.copia();
+                spostata.setRisorsa(risorsa);
+                spostata.setDataOraInizio(inizio);
+                spostata.setDataOraFine(fine);
+                try {
+                    repository.saveConVersione(spostata);
+                } catch (ModificaConcorrenteException | PrenotazioneNonTrovataException e) {
+                    // Modificata o eliminata da un altro thread dopo la lettura
+                }
+            });
+        } else if (operazione < 8) {
+            repository.delete(id);
+        } else if (operazione < 9) {
+            repository.aggiornaStato(id, STATI[random.nextInt(STATI.length)]);
+        } else {
+            repository.existsSovrapposizioneAttiva(risorsa.getId(), inizio, fine, null);
+            repository.findByCliente(clienti[random.nextInt(clienti.length)].getId());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package it.gestionale.prenotazioni.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import it.gestionale.prenotazioni.domain.Cliente;
+import it.gestionale.prenotazioni.domain.Prenotazione;
+import it.gestionale.prenotazioni.domain.Risorsa;
+import it.gestionale.prenotazioni.enums.StatoPrenotazione;
+import it.gestionale.prenotazioni.enums.TipoRisorsa;
+import it.gestionale.prenotazioni.exceptions.OperazioneNonPermessaException;
+import it.gestionale.prenotazioni.exceptions.RisorsaNonDisponibileException;
+import it.gestionale.prenotazioni.repository.ClienteRepository;
+import it.gestionale.prenotazioni.repository.ColumnarPrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.PersistentClienteRepository;
+import it.gestionale.prenotazioni.repository.PersistentPrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.PersistentRisorsaRepository;
+import it.gestionale.prenotazioni.repository.PrenotazioneRepository;
+import it.gestionale.prenotazioni.repository.RisorsaRepository;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Molti thread creano, spostano e cancellano prenotazioni su poche risorse con finestre che si
+ * sovrappongono: qualunque sia l'interleaving, nessuna risorsa deve finire con due prenotazioni
+ * attive sovrapposte.
+ */
+class PrenotazioneServiceConcorrenzaTest {
+    private static final int THREAD = 8;
+    private static final int OPERAZIONI_PER_THREAD = 2_000;
+    private static final int RISORSE = 4;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"indicizzato", "colonnare"})
+    void nessunaSovrapposizioneConScrittureConcorrenti(String storage) throws Exception {
+        ClienteRepository clienti = new PersistentClienteRepository();
+        RisorsaRepository risorse = new PersistentRisorsaRepository();
+        PrenotazioneRepository prenotazioni = storage.equals("colonnare")
+                ? new ColumnarPrenotazioneRepository(clienti, risorse) : new PersistentPrenotazioneRepository();
+        PrenotazioneService service = new PrenotazioneService(prenotazioni, clienti, risorse);
+        Long clienteId = clienti.save(new Cliente("Mario", "Rossi", "mario.rossi@test.it", "000")).getId();
+        List<Long> risorseId = new ArrayList<>();
+        for (int i = 0; i < RISORSE; i++) {
+            risorseId.add(risorse.save(new Risorsa("Sala " + i, "Test", TipoRisorsa.values()[i % TipoRisorsa.values().length], 10)).getId());
+        }
+        LocalDateTime base = LocalDateTime.now().plusDays(1).truncatedTo(ChronoUnit.DAYS);
+        List<Long> create = new CopyOnWriteArrayList<>();
+        AtomicInteger riuscite = new AtomicInteger();
+
+        ExecutorService esecutore = Executors.newFixedThreadPool(THREAD);
+        CountDownLatch partenza = new CountDownLatch(1);
+        List<Future<?>> lavori = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREAD; t++) {
+                Random random = new Random(t);
+                lavori.add(esecutore.submit(() -> {
+                    partenza.await();
+                    for (int i = 0; i < OPERAZIONI_PER_THREAD; i++) {
+                        // Una settimana a quarti d'ora su quattro risorse: le collisioni sono frequenti
+                        LocalDateTime inizio = base.plusMinutes(15L * random.nextInt(4 * 24 * 7));
+                        LocalDateTime fine = inizio.plusMinutes(15L * (1 + random.nextInt(8)));
+                        int operazione = random.nextInt(10);
+                        try {
+                            if (operazione < 7 || create.isEmpty()) {
+                                Long risorsaId = risorseId.get(random.nextInt(RISORSE));
+                                create.add(service.creaPrenotazione(clienteId, risorsaId, inizio, fine, null).getId());
+                                riuscite.incrementAndGet();
+                            } else if (operazione < 9) {
+                                service.modificaPrenotazione(create.get(random.nextInt(create.size())), inizio, fine, null);
+                            } else {
+                                service.cancellaPrenotazione(create.get(random.nextInt(create.size())));
+                            }
+                        } catch (RisorsaNonDisponibileException | OperazioneNonPermessaException e) {
+                            // Fascia già occupata, o prenotazione cancellata da un altro thread
+                        }
+                    }
+                    return null;
+                }));
+            }
+            partenza.countDown();
+            for (Future<?> lavoro : lavori) {
+                lavoro.get();
+            }
+        } finally {
+            esecutore.shutdownNow();
+        }
+
+        assertTrue(riuscite.get() > 0);
+        for (Long risorsaId : risorseId) {
+            List<Prenotazione> attive = new ArrayList<>();
+            for (Prenotazione p : prenotazioni.findByRisorsa(risorsaId)) {
+                if (p.getStato() != StatoPrenotazione.CANCELLATA) {
+                    attive.add(p);
+                }
+            }
+            attive.sort(Comparator.comparing(Prenotazione::getDataOraInizio));
+            for (int i = 1; i < attive.size(); i++) {
+                Prenotazione precedente = attive.get(i - 1);
+                Prenotazione successiva = attive.get(i);
+                assertTrue(!successiva.getDataOraInizio().isBefore(precedente.getDataOraFine()),
+                        "Sovrapposte sulla risorsa " + risorsaId + ": " + precedente.getId() + " e " + successiva.getId());
+            }
+        }
+        assertEquals(riuscite.get(), prenotazioni.findAll().size());
+    }
+}